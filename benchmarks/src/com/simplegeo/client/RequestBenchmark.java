@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.concurrent.TimeUnit;
+
+import oauth.signpost.exception.OAuthException;
+
+import org.apache.http.client.methods.HttpGet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.simplegeo.client.http.OAuthHttpClient;
+import com.simplegeo.client.test.TestEnvironment;
+
+/**
+ * Building and signing requests.  Lives in the client package to reach the
+ * URL helpers the public methods use.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBenchmark {
+
+	private SimpleGeoPlacesClient client;
+	private OAuthHttpClient httpClient;
+	private String featureUri;
+
+	@Setup
+	public void setUp() throws Exception {
+		client = SimpleGeoPlacesClient.getInstance(TestEnvironment.getBaseUrl(), TestEnvironment.getPort(), TestEnvironment.getApiVersion());
+		client.getHttpClient().setToken(TestEnvironment.getKey(), TestEnvironment.getSecret());
+		httpClient = (OAuthHttpClient) client.getHttpClient();
+		featureUri = featureUri();
+	}
+
+	@Benchmark
+	public String featureUri() throws UnsupportedEncodingException {
+		return client.getEndpointTemplate("features").expand(URLEncoder.encode("SG_4CsrE4oNy1gl8hCLdwu0F0_47.046962_-122.937467@1290636830", "UTF-8"));
+	}
+
+	@Benchmark
+	public String searchUri() throws UnsupportedEncodingException {
+		String uri = client.getEndpointTemplate("search").expand(37.759737, -122.433203, URLEncoder.encode("coffee shop", "UTF-8"), URLEncoder.encode("", "UTF-8"), 0.5);
+		return client.removeEmptyParameters(uri);
+	}
+
+	@Benchmark
+	public HttpGet sign() throws OAuthException {
+		HttpGet get = new HttpGet(featureUri);
+		httpClient.sign(get);
+		return get;
+	}
+
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.simplegeo.client.SimpleGeoPlacesClient;
+import com.simplegeo.client.concurrent.RequestExecutorConfig;
+import com.simplegeo.client.concurrent.SaturationPolicy;
+import com.simplegeo.client.http.ConnectionPoolConfig;
+import com.simplegeo.client.test.TestEnvironment;
+import com.simplegeo.client.types.Feature;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Many place lookups outstanding at once over the blocking transport, run on the
+ * client's thread pool or on virtual threads.  The lookups go to a server in the
+ * same process that answers each after a fixed delay without tying up a thread,
+ * standing in for the API's latency.  The virtual mode needs JDK 21 or later, and
+ * fails its trial on older JDKs.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrentLookupBenchmark {
+
+	private static final int PORT = 4568;
+
+	@Param({"platform", "virtual"})
+	public String mode;
+
+	@Param({"10000"})
+	public int lookups;
+
+	@Param({"10"})
+	public int latencyMillis;
+
+	private HttpServer server;
+	private ScheduledExecutorService responder;
+	private SimpleGeoPlacesClient client;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		final byte[] body = TestEnvironment.getJsonPointString().getBytes("UTF-8");
+		responder = Executors.newSingleThreadScheduledExecutor();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", PORT), 1024);
+		server.setExecutor(Executors.newFixedThreadPool(4));
+		server.createContext("/", new HttpHandler() {
+			public void handle(final HttpExchange exchange) throws IOException {
+				exchange.getRequestBody().close();
+				responder.schedule(new Runnable() {
+					public void run() {
+						try {
+							exchange.getResponseHeaders().add("Content-Type", "application/json");
+							exchange.sendResponseHeaders(200, body.length);
+							OutputStream out = exchange.getResponseBody();
+							out.write(body);
+							out.close();
+						} catch (IOException e) {
+							exchange.close();
+						}
+					}
+				}, latencyMillis, TimeUnit.MILLISECONDS);
+			}
+		});
+		server.start();
+		
+		RequestExecutorConfig executorConfig = new RequestExecutorConfig();
+		executorConfig.setQueueCapacity(lookups);
+		executorConfig.setSaturationPolicy(SaturationPolicy.CALLER_RUNS);
+		ConnectionPoolConfig poolConfig = new ConnectionPoolConfig();
+		poolConfig.setMaxTotalConnections(200);
+		poolConfig.setMaxConnectionsPerRoute(200);
+		client = SimpleGeoPlacesClient.getInstance("http://127.0.0.1", String.valueOf(PORT), "1.0", executorConfig, poolConfig);
+		client.getHttpClient().setToken("key", "secret");
+		client.setResponseCache(null);
+		client.setCoalescing(false);
+		client.setVirtualThreads("virtual".equals(mode));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		client.setVirtualThreads(false);
+		server.stop(0);
+		responder.shutdownNow();
+	}
+
+	@Benchmark
+	public int lookUp() throws Exception {
+		@SuppressWarnings("unchecked")
+		CompletableFuture<Feature>[] futures = new CompletableFuture[lookups];
+		for (int i=0; i<lookups; i++)
+			futures[i] = client.getPlaceAsync("SG_" + i);
+		int found = 0;
+		for (CompletableFuture<Feature> future : futures) {
+			if (future.get() != null)
+				found++;
+		}
+		return found;
+	}
+
+}
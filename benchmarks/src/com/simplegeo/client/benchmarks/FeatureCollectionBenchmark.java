@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.simplegeo.client.handler.GeoJSONHandler;
+import com.simplegeo.client.handler.GeoJSONStreamHandler;
+import com.simplegeo.client.types.FeatureCollection;
+
+/**
+ * Parsing and serializing generated collections of polygon features, the way
+ * search results come back from the API.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeatureCollectionBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int features;
+
+	@Param({"5", "200"})
+	public int vertices;
+
+	private String json;
+	private byte[] bytes;
+	private FeatureCollection collection;
+
+	@Setup
+	public void setUp() throws IOException, JSONException {
+		json = Fixtures.featureCollection(features, vertices);
+		bytes = json.getBytes("UTF-8");
+		collection = FeatureCollection.fromJSONString(json);
+	}
+
+	@Benchmark
+	public FeatureCollection fromJSONString() throws JSONException {
+		return FeatureCollection.fromJSONString(json);
+	}
+
+	@Benchmark
+	public String toJSONString() throws JSONException {
+		return collection.toJSONString();
+	}
+
+	@Benchmark
+	public Object geoJSONHandler() {
+		return new GeoJSONHandler().parseResponse(json);
+	}
+
+	@Benchmark
+	public Object geoJSONStreamHandler() throws IOException {
+		return new GeoJSONStreamHandler().parseResponse(new ByteArrayInputStream(bytes), "UTF-8");
+	}
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.benchmarks;
+
+import java.util.Locale;
+
+import com.simplegeo.client.test.TestEnvironment;
+
+/**
+ * JSON fixtures for the benchmarks: the ones the tests use, plus generated
+ * collections of polygon features large enough to show allocation costs.
+ */
+public final class Fixtures {
+
+	public static final String CONTEXT = "{\"query\":{\"latitude\":37.778381,\"longitude\":-122.389388}," +
+		"\"features\":[{\"handle\":\"SG_4H2GqJDZrc0ZAjKGR8qM4D_37.778381_-122.389388\",\"name\":\"San Francisco\"," +
+		"\"bounds\":[-123.173825,37.63983,-122.28178,37.929824],\"license\":\"http://creativecommons.org/licenses/by-sa/2.0/\"," +
+		"\"classifiers\":[{\"category\":\"Administrative\",\"type\":\"Region\",\"subcategory\":\"City\"}],\"abbr\":null}]," +
+		"\"weather\":{\"temperature\":\"60F\",\"conditions\":\"Overcast\"}," +
+		"\"demographics\":{\"metro_score\":9},\"timestamp\":1290636830.0}";
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @param name "point", "polygon" or "multipolygon"
+	 * @return the matching feature from {@link com.simplegeo.client.test.TestEnvironment}
+	 */
+	public static String feature(String name) {
+		if ("point".equals(name))
+			return TestEnvironment.getJsonPointString();
+		else if ("polygon".equals(name))
+			return TestEnvironment.getJsonPolygonString();
+		else if ("multipolygon".equals(name))
+			return TestEnvironment.getJsonMultiPolygonString();
+		throw new IllegalArgumentException("unknown fixture " + name);
+	}
+
+	/**
+	 * @param features the number of features in the collection
+	 * @param vertices the number of vertices in each feature's polygon
+	 * @return a FeatureCollection of polygon features around San Francisco
+	 */
+	public static String featureCollection(int features, int vertices) {
+		StringBuilder json = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+		for (int i=0; i<features; i++) {
+			if (i > 0)
+				json.append(',');
+			json.append("{\"type\":\"Feature\",\"id\":\"SG_").append(i).append("_37.7_-122.4@1290636830\",");
+			json.append("\"geometry\":{\"type\":\"Polygon\",\"coordinates\":");
+			json.append(polygon(37.7 + i * 0.001, -122.4, vertices));
+			json.append("},\"properties\":{\"name\":\"Place ").append(i).append("\",\"city\":\"San Francisco\",");
+			json.append("\"tags\":[\"eating\"],\"country\":\"us\",\"owner\":\"simplegeo\",");
+			json.append("\"categories\":[[\"Food & Drink\",\"Restaurants\",\"\"]]}}");
+		}
+		return json.append("]}").toString();
+	}
+
+	/**
+	 * @return the coordinates of a closed single ring polygon with the given number of vertices
+	 */
+	public static String polygon(double lat, double lon, int vertices) {
+		StringBuilder json = new StringBuilder("[[");
+		for (int i=0; i<=vertices; i++) {
+			double angle = 2 * Math.PI * (i % vertices) / vertices;
+			if (i > 0)
+				json.append(',');
+			json.append(String.format(Locale.US, "[%.6f,%.6f]", lon + 0.01 * Math.cos(angle), lat + 0.01 * Math.sin(angle)));
+		}
+		return json.append("]]").toString();
+	}
+
+	/**
+	 * @return the coordinates of a multipolygon made of the given number of polygons
+	 */
+	public static String multiPolygon(int polygons, int vertices) {
+		StringBuilder json = new StringBuilder("[");
+		for (int i=0; i<polygons; i++) {
+			if (i > 0)
+				json.append(',');
+			json.append(polygon(37.7 + i * 0.05, -122.4, vertices));
+		}
+		return json.append(']').toString();
+	}
+
+}
@@ -30,30 +30,85 @@
 package com.simplegeo.client;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 
 import oauth.signpost.exception.OAuthCommunicationException;
 import oauth.signpost.exception.OAuthExpectationFailedException;
 import oauth.signpost.exception.OAuthMessageSignerException;
 
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 
+import com.simplegeo.client.cache.ResponseCache;
 import com.simplegeo.client.callbacks.SimpleGeoCallback;
+import com.simplegeo.client.concurrent.ConcurrencyLimitConfig;
+import com.simplegeo.client.concurrent.ConcurrencyLimiter;
+import com.simplegeo.client.concurrent.NamedThreadFactory;
+import com.simplegeo.client.concurrent.RateLimitConfig;
+import com.simplegeo.client.concurrent.RateLimiter;
+import com.simplegeo.client.concurrent.RequestExecutorConfig;
+import com.simplegeo.client.concurrent.RequestTask;
 import com.simplegeo.client.concurrent.RequestThreadPoolExecutor;
+import com.simplegeo.client.concurrent.SimpleGeoFuture;
+import com.simplegeo.client.concurrent.VirtualThreads;
+import com.simplegeo.client.handler.GeoJSONHandler;
+import com.simplegeo.client.handler.GeoJSONStreamHandler;
 import com.simplegeo.client.handler.SimpleGeoJSONHandler;
+import com.simplegeo.client.http.AsyncOAuthHttpClient;
+import com.simplegeo.client.http.CircuitBreaker;
+import com.simplegeo.client.http.CircuitBreakerConfig;
+import com.simplegeo.client.http.CircuitBreakerListener;
+import com.simplegeo.client.http.ConnectionPoolConfig;
+import com.simplegeo.client.http.EndpointTemplate;
+import com.simplegeo.client.http.HedgePolicy;
+import com.simplegeo.client.http.HttpClientTransport;
+import com.simplegeo.client.http.JavaNetHttpTransport;
+import com.simplegeo.client.http.LoadBalancer;
+import com.simplegeo.client.http.LoadBalancerConfig;
 import com.simplegeo.client.http.OAuthClient;
 import com.simplegeo.client.http.OAuthHttpClient;
+import com.simplegeo.client.http.PooledConnectionManager;
+import com.simplegeo.client.http.RetryPolicy;
 import com.simplegeo.client.http.SimpleGeoHandler;
+import com.simplegeo.client.http.TlsSocketFactory;
+import com.simplegeo.client.http.Transport;
+import com.simplegeo.client.http.Upstream;
 import com.simplegeo.client.http.exceptions.APIException;
+import com.simplegeo.client.http.exceptions.CircuitOpenException;
+import com.simplegeo.client.http.exceptions.ConcurrencyLimitException;
+import com.simplegeo.client.http.exceptions.RateLimitException;
+import com.simplegeo.client.metrics.ClientMetrics;
+import com.simplegeo.client.metrics.EndpointMetrics;
+import com.simplegeo.client.metrics.MetricsInterceptor;
+import com.simplegeo.client.metrics.Phase;
+import com.simplegeo.client.metrics.RequestListener;
+import com.simplegeo.client.metrics.RequestTimer;
 
 /**
  * Extracts as much common code as possible between the SimpleGeoPlacesClient and the SimpleGeoContextClient.
@@ -64,7 +119,35 @@ import com.simplegeo.client.http.exceptions.APIException;
 public abstract class AbstractSimpleGeoClient implements SimpleGeoClient {
 	
 	private RequestThreadPoolExecutor threadExecutor;
+	private volatile ExecutorService virtualExecutor;
 	protected OAuthHttpClient httpClient;
+	protected volatile AsyncOAuthHttpClient asyncHttpClient;
+	private volatile Transport defaultTransport;
+	private volatile Transport transport;
+	private volatile LoadBalancer loadBalancer;
+	private PooledConnectionManager connManager;
+	private TlsSocketFactory tlsSocketFactory;
+	private ConnectionPoolConfig poolConfig;
+	private HttpParams params;
+	private volatile boolean streamingParser;
+	private volatile ResponseCache responseCache;
+	private final ConcurrentHashMap<String, Long> cacheTTLs = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentHashMap<String, SimpleGeoFuture<Object>> syncFlights = new ConcurrentHashMap<String, SimpleGeoFuture<Object>>();
+	private final ConcurrentHashMap<String, Flight> asyncFlights = new ConcurrentHashMap<String, Flight>();
+	private volatile boolean coalescing = true;
+	private volatile boolean compression = true;
+	private final ClientMetrics metrics;
+	private volatile RequestListener requestListener;
+	private volatile RetryPolicy retryPolicy;
+	private volatile HedgePolicy hedgePolicy;
+	private volatile CircuitBreakerConfig circuitBreakerConfig;
+	private volatile CircuitBreakerListener circuitBreakerListener;
+	private volatile ConcurrencyLimiter concurrencyLimiter;
+	private volatile RateLimitConfig rateLimitConfig;
+	private volatile RateLimiter rateLimiter;
+	private final ConcurrentHashMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+	private static ScheduledThreadPoolExecutor scheduler;
+	private final ConcurrentHashMap<String, EndpointTemplate> endpointTemplates = new ConcurrentHashMap<String, EndpointTemplate>();
 	
 	protected static Logger logger = Logger.getLogger(AbstractSimpleGeoClient.class.getName());
 	
@@ -81,19 +164,69 @@ public abstract class AbstractSimpleGeoClient implements SimpleGeoClient {
 	 * @param apiVersion - Default is 1.0, but this can be overridden
 	 */
 	protected AbstractSimpleGeoClient(String baseUrl, String port, String apiVersion) {
+		this(baseUrl, port, apiVersion, null);
+	}
+	
+	/**
+	 * Constructor that also sets up the executor used by the asynchronous (callback) methods.
+	 * @param baseUrl String - Default is http://api.simplegeo.com, but this can be overridden
+	 * @param port String - Default is 80, but this can be overridden
+	 * @param apiVersion - Default is 1.0, but this can be overridden
+	 * @param executorConfig {@link com.simplegeo.client.concurrent.RequestExecutorConfig} for a bounded,
+	 * self-sizing executor, or null for the default single threaded executor
+	 */
+	protected AbstractSimpleGeoClient(String baseUrl, String port, String apiVersion, RequestExecutorConfig executorConfig) {
+		this(baseUrl, port, apiVersion, executorConfig, null);
+	}
+	
+	/**
+	 * Constructor that also sets up the executor and the connection pool.
+	 * @param baseUrl String - Default is http://api.simplegeo.com, but this can be overridden
+	 * @param port String - Default is 80, but this can be overridden
+	 * @param apiVersion - Default is 1.0, but this can be overridden
+	 * @param executorConfig {@link com.simplegeo.client.concurrent.RequestExecutorConfig} for a bounded,
+	 * self-sizing executor, or null for the default single threaded executor
+	 * @param poolConfig {@link com.simplegeo.client.http.ConnectionPoolConfig} for the connection pool,
+	 * or null for the default settings
+	 */
+	protected AbstractSimpleGeoClient(String baseUrl, String port, String apiVersion, RequestExecutorConfig executorConfig,
+			ConnectionPoolConfig poolConfig) {
 		this.baseUrl = baseUrl == "" ? DEFAULT_HOST : baseUrl;
 		this.port = port == "" ? DEFAULT_PORT : port;
 		this.apiVersion = apiVersion == "" ? DEFAULT_VERSION : apiVersion;
 		
 		// We want to make sure the client is threadsafe
-		HttpParams params = new BasicHttpParams();
+		this.poolConfig = poolConfig == null ? new ConnectionPoolConfig() : poolConfig;
+		params = new BasicHttpParams();
 		HttpProtocolParams.setUseExpectContinue(params, false);
+		this.poolConfig.applyTo(params);
+		this.metrics = new ClientMetrics(getClass().getSimpleName(),
+				String.format("%s:%s/%s/", this.baseUrl, this.port, this.apiVersion), endpoints);
+		this.tlsSocketFactory = new TlsSocketFactory(this.poolConfig, metrics.getHandshakes());
 		SchemeRegistry schemeRegistry = new SchemeRegistry();
-		schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
-		ThreadSafeClientConnManager connManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+		schemeRegistry.register(new Scheme("http", PooledConnectionManager.createSocketFactory(this.poolConfig), 80));
+		schemeRegistry.register(new Scheme("https", tlsSocketFactory, 443));
+		this.connManager = new PooledConnectionManager(params, schemeRegistry, this.poolConfig);
 
 		this.httpClient = new OAuthHttpClient(connManager, params);
-		this.threadExecutor = new RequestThreadPoolExecutor("SimpleGeoClient");
+		MetricsInterceptor metricsInterceptor = new MetricsInterceptor();
+		this.httpClient.addRequestInterceptor(metricsInterceptor);
+		this.httpClient.addResponseInterceptor(metricsInterceptor);
+		this.defaultTransport = new HttpClientTransport(httpClient);
+		if (executorConfig == null)
+			this.threadExecutor = new RequestThreadPoolExecutor("SimpleGeoClient");
+		else
+			this.threadExecutor = new RequestThreadPoolExecutor("SimpleGeoClient", executorConfig);
+		
+		final int prewarm = this.poolConfig.getPrewarmConnections();
+		if (prewarm > 0) {
+			new NamedThreadFactory("SimpleGeoPrewarm", true).newThread(new Runnable() {
+				public void run() {
+					int opened = prewarmConnections(prewarm);
+					logger.info(String.format("pre-warmed %d connections to %s", opened, AbstractSimpleGeoClient.this.baseUrl));
+				}
+			}).start();
+		}
 	}
 	
 	/**
@@ -105,6 +238,24 @@ public abstract class AbstractSimpleGeoClient implements SimpleGeoClient {
 		return String.format("%s:%s/%s/%s", baseUrl, port, apiVersion, endpoints.get(endpointName));
 	}
 	
+	/**
+	 * Grab the desired endpoint, added to the server, port and version, as a template that
+	 * builds request URIs without going through String.format.  Each endpoint is compiled
+	 * once, the first time it is asked for.
+	 * @param endpointName
+	 * @return EndpointTemplate A template for URLs pointing at the desired server
+	 */
+	protected EndpointTemplate getEndpointTemplate(String endpointName) {
+		EndpointTemplate template = endpointTemplates.get(endpointName);
+		if (template == null) {
+			template = EndpointTemplate.compile(getEndpoint(endpointName));
+			EndpointTemplate existing = endpointTemplates.putIfAbsent(endpointName, template);
+			if (existing != null)
+				template = existing;
+		}
+		return template;
+	}
+	
 	/**
 	 * Method for executing HttpRequests synchronously.
 	 * @param request HttpUriRequest
@@ -118,57 +269,1014 @@ public abstract class AbstractSimpleGeoClient implements SimpleGeoClient {
 	protected Object execute(HttpUriRequest request, SimpleGeoHandler handler)
 		throws ClientProtocolException, IOException {
 
+		if (isCoalesced(request))
+			return executeCoalesced(request.getURI().toString(), request, handler);
+		return send(request, handler);
+	}
+	
+	/**
+	 * Method for executing HttpRequests asynchronously.
+	 * @param request HttpUriRequest
+	 * @param handler {@link com.simplegeo.client.http.SimpleGeoHandler} to call back when the request completes.
+	 * It will then in turn hand off to an instance of  {@link com.simplegeo.client.handler.ISimpleGeoHandler}
+	 * @param callback ISimpleGeoCallback Any object implementing the ISimpleGeoCallback interface
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 */
+	protected void execute(HttpUriRequest request, SimpleGeoHandler handler, SimpleGeoCallback callback)
+		throws ClientProtocolException, IOException {
+
+		if (isCoalesced(request))
+			executeCoalesced(request.getURI().toString(), request, handler, callback);
+		else
+			send(request, handler, callback);
+	}
+	
+	/**
+	 * Offers to take the response compressed.  Done on the way out of every entry point,
+	 * coalesced or not, so that cached lookups such as the context cells are compressed too.
+	 */
+	private void acceptCompression(HttpUriRequest request) {
+		if (compression && !request.containsHeader("Accept-Encoding"))
+			request.addHeader("Accept-Encoding", "gzip, deflate");
+	}
+	
+	/**
+	 * Execute a request synchronously, unless a request with the same key is already in flight,
+	 * in which case wait for that request's response instead.  Interrupting a caller that is
+	 * waiting on another's request only stops it waiting.
+	 * @param key identifies requests that have the same response, e.g. the canonical request URI
+	 * @param request HttpUriRequest
+	 * @param handler {@link com.simplegeo.client.http.SimpleGeoHandler} that parses the response
+	 * @return the parsed response, which is shared with the other callers of the request
+	 * @throws IOException
+	 */
+	protected Object executeCoalesced(String key, HttpUriRequest request, SimpleGeoHandler handler)
+		throws IOException {
+
+		if (!coalescing)
+			return send(request, handler);
+		
+		// Only wait on requests being sent by other synchronous callers.  A request queued on
+		// the executor might never run if this thread is one of the executor's own.
+		SimpleGeoFuture<Object> flight = new SimpleGeoFuture<Object>(threadExecutor);
+		SimpleGeoFuture<Object> leader;
+		while ((leader = syncFlights.putIfAbsent(key, flight)) != null) {
+			// A finished request its sender has yet to remove is not waited on
+			if (!leader.isDone())
+				return await(leader);
+			syncFlights.remove(key, leader);
+		}
+		
+		try {
+			Object object = send(request, handler);
+			flight.complete(object);
+			return object;
+		} catch (IOException e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} catch (RuntimeException e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} catch (Error e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			syncFlights.remove(key, flight);
+		}
+	}
+	
+	/**
+	 * Execute a request asynchronously, unless a request with the same key is already in flight,
+	 * in which case the callback is given that request's response instead.  Every caller,
+	 * including the one whose call sent the request, waits on the shared request the same way.
+	 * Cancelling a {@link com.simplegeo.client.concurrent.SimpleGeoFuture} callback, or completing
+	 * it from outside, only stops that caller waiting while others still are; once every caller
+	 * that can give up has done so, and no other kind of callback is waiting, the request is
+	 * aborted.  Cancelling a caller that joined a synchronous caller's request never aborts it.
+	 * @param key identifies requests that have the same response, e.g. the canonical request URI
+	 * @param request HttpUriRequest
+	 * @param handler {@link com.simplegeo.client.http.SimpleGeoHandler} that parses the response
+	 * @param callback the callback to hand the shared response to
+	 * @throws IOException
+	 */
+	protected void executeCoalesced(final String key, HttpUriRequest request, SimpleGeoHandler handler,
+			final SimpleGeoCallback callback) throws IOException {
+
+		if (!coalescing) {
+			send(request, handler, callback);
+			return;
+		}
+		
+		final Flight flight = new Flight(threadExecutor);
+		flight.enter();
+		SimpleGeoFuture<Object> leader = syncFlights.get(key);
+		if (leader != null && leader.isDone())
+			leader = null;
+		while (leader == null) {
+			Flight current = asyncFlights.putIfAbsent(key, flight);
+			if (current == null) {
+				leader = flight;
+				flight.whenComplete(new BiConsumer<Object, Throwable>() {
+					public void accept(Object object, Throwable failure) {
+						asyncFlights.remove(key, flight);
+					}
+				});
+				try {
+					send(request, handler, flight);
+				} catch (IOException e) {
+					flight.completeExceptionally(e);
+					throw e;
+				} catch (RuntimeException e) {
+					flight.completeExceptionally(e);
+					throw e;
+				}
+			} else if (current.enter()) {
+				leader = current;
+			} else {
+				// Finished or given up on, but not yet removed
+				asyncFlights.remove(key, current);
+			}
+		}
+		
+		final SimpleGeoFuture<?> caller = callerFuture(callback);
+		if (caller != null && leader instanceof Flight) {
+			final Flight joined = (Flight) leader;
+			caller.whenComplete(new BiConsumer<Object, Throwable>() {
+				public void accept(Object object, Throwable failure) {
+					joined.exit();
+				}
+			});
+		}
+		leader.whenComplete(new BiConsumer<Object, Throwable>() {
+			public void accept(Object object, Throwable failure) {
+				if (failure == null)
+					callback.onSuccess(object);
+				else if (failure instanceof CompletionException && failure.getCause() != null)
+					SimpleGeoFuture.fail(callback, failure.getCause());
+				else
+					SimpleGeoFuture.fail(callback, failure);
+			}
+		});
+	}
+	
+	private boolean isCoalesced(HttpUriRequest request) {
+		return coalescing && "GET".equals(request.getMethod());
+	}
+	
+	private static Object await(SimpleGeoFuture<Object> flight) throws IOException {
+		try {
+			return flight.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for a coalesced request");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+	
+	private Object send(HttpUriRequest request, SimpleGeoHandler handler)
+		throws ClientProtocolException, IOException {
+
+		acceptCompression(request);
+		RetryPolicy policy = this.retryPolicy;
+		if (policy == null || !policy.isRetryable(request.getMethod()))
+			return sendAttempt(request, handler);
+		
+		// The caller is blocked on the response anyway, so it does the waiting itself.
+		long start = System.currentTimeMillis();
+		long delay = 0;
+		for (int attempts = 1; ; attempts++) {
+			try {
+				return sendAttempt(request, handler);
+			} catch (IOException e) {
+				delay = policy.nextDelayMillis(attempts, delay, System.currentTimeMillis() - start, e);
+				if (delay < 0 || request.isAborted())
+					throw e;
+				logger.info(String.format("retrying %s in %d ms after %s", request.toString(), delay, e.toString()));
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted waiting to retry " + request.toString());
+				}
+				request.removeHeaders("Authorization");
+			}
+		}
+	}
+	
+	private void send(HttpUriRequest request, SimpleGeoHandler handler, SimpleGeoCallback callback)
+		throws ClientProtocolException, IOException {
+
+		acceptCompression(request);
+		RetryPolicy policy = this.retryPolicy;
+		if (policy == null || !policy.isRetryable(request.getMethod()))
+			sendAttempt(request, handler, callback);
+		else
+			sendAttempt(request, handler, new RetryingCallback(policy, request, handler, callback));
+	}
+	
+	private Object sendAttempt(HttpUriRequest request, SimpleGeoHandler handler)
+		throws ClientProtocolException, IOException {
+
+		HedgePolicy policy = this.hedgePolicy;
+		if (policy != null && "GET".equals(request.getMethod())) {
+			EndpointMetrics endpoint = metrics.getEndpoint(metrics.resolve(request.getURI().toString()));
+			long delay = policy.getDelayMillis(endpoint);
+			if (delay >= 0)
+				return sendHedged(request, handler, policy, endpoint, delay);
+		}
+		return sendOnce(request, handler);
+	}
+	
+	private void sendAttempt(HttpUriRequest request, SimpleGeoHandler handler, SimpleGeoCallback callback)
+		throws ClientProtocolException, IOException {
+
+		HedgePolicy policy = this.hedgePolicy;
+		if (policy != null && "GET".equals(request.getMethod())) {
+			EndpointMetrics endpoint = metrics.getEndpoint(metrics.resolve(request.getURI().toString()));
+			long delay = policy.getDelayMillis(endpoint);
+			if (delay >= 0) {
+				new HedgedCall(request, handler, callback).start(policy, endpoint, delay);
+				return;
+			}
+		}
+		sendOnce(request, handler, callback);
+	}
+	
+	/**
+	 * Sends the request on this thread and, if it has not been answered after the delay, an
+	 * identical one from the executor.  Whichever is answered first aborts the other.
+	 */
+	private Object sendHedged(final HttpUriRequest request, final SimpleGeoHandler handler,
+			final HedgePolicy policy, final EndpointMetrics endpoint, long delay) throws IOException {
+		
+		final SimpleGeoFuture<Object> hedge = new SimpleGeoFuture<Object>(threadExecutor);
+		ScheduledFuture<?> timer = scheduler().schedule(new Runnable() {
+			public void run() {
+				if (hedge.isDone() || !canHedge() || !endpoint.tryAcquireHedge(policy.getBudgetPercent() / 100)) {
+					hedge.cancel(false);
+					return;
+				}
+				hedge.whenComplete(new BiConsumer<Object, Throwable>() {
+					public void accept(Object object, Throwable failure) {
+						if (failure == null)
+							request.abort();
+					}
+				});
+				try {
+					sendOnce(copyOf(request), handler, hedge);
+				} catch (IOException e) {
+					hedge.completeExceptionally(e);
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+		
+		try {
+			Object object = sendOnce(request, handler);
+			timer.cancel(false);
+			hedge.cancel(false);
+			return object;
+		} catch (IOException e) {
+			// Unless the hedge was never sent, it decides the outcome, even if it was
+			// the hedge's success that aborted this request.
+			if (timer.cancel(false))
+				throw e;
+			try {
+				return hedge.get();
+			} catch (InterruptedException interrupted) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for a hedged request");
+			} catch (ExecutionException failure) {
+				throw e;
+			} catch (CancellationException cancelled) {
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * @return false if a hedge would have to wait for a worker thread, since queued behind
+	 * other requests it could not overtake the one it hedges
+	 */
+	private boolean canHedge() {
+		if (transport().isNonBlocking() || virtualExecutor != null)
+			return true;
+		int threads = threadExecutor.getPoolSize();
+		return threads < threadExecutor.getCorePoolSize() || threadExecutor.getActiveCount() < threads;
+	}
+	
+	private static HttpUriRequest copyOf(HttpUriRequest request) {
+		HttpGet copy = new HttpGet(request.getURI());
+		copy.setHeaders(request.getAllHeaders());
+		copy.removeHeaders("Authorization");
+		return copy;
+	}
+	
+	private static void withdrawWhenDone(SimpleGeoFuture<?> caller, final Runnable withdraw) {
+		caller.whenComplete(new BiConsumer<Object, Throwable>() {
+			public void accept(Object object, Throwable failure) {
+				withdraw.run();
+			}
+		});
+	}
+	
+	/**
+	 * @return the future the caller is waiting on, if the callback is one
+	 */
+	private static SimpleGeoFuture<?> callerFuture(SimpleGeoCallback callback) {
+		if (callback instanceof AbstractSimpleGeoClient.RetryingCallback)
+			callback = ((AbstractSimpleGeoClient.RetryingCallback) callback).callback;
+		return callback instanceof SimpleGeoFuture ? (SimpleGeoFuture<?>) callback : null;
+	}
+	
+	private Object sendOnce(HttpUriRequest request, SimpleGeoHandler handler)
+		throws ClientProtocolException, IOException {
+
+		RateLimiter rateLimiter = getRateLimiter();
+		if (rateLimiter != null) {
+			boolean acquired;
+			try {
+				acquired = rateLimiter.acquire(maxRateLimitWait(rateLimiter));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for the rate limit");
+			}
+			if (!acquired)
+				throw new RateLimitException(rateLimiter.getConsumerKey(), rateLimiter.getWaitMillis());
+		}
+		return sendPermitted(request, handler);
+	}
+	
+	private Object sendPermitted(HttpUriRequest request, SimpleGeoHandler handler)
+		throws ClientProtocolException, IOException {
+
+		CircuitBreaker breaker = circuitBreaker(request);
+		ConcurrencyLimiter limiter = this.concurrencyLimiter;
+		if (breaker == null && limiter == null)
+			return transmit(request, handler);
+		if (breaker != null && !breaker.tryAcquire())
+			throw new CircuitOpenException(breaker.getEndpoint(), breaker.getRemainingOpenMillis());
+		if (limiter != null) {
+			boolean acquired;
+			try {
+				acquired = limiter.acquire();
+			} catch (InterruptedException e) {
+				if (breaker != null)
+					breaker.release();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for a concurrency permit");
+			}
+			if (!acquired) {
+				if (breaker != null)
+					breaker.release();
+				throw new ConcurrencyLimitException(limiter.getLimit());
+			}
+		}
+		
+		Permits permits = new Permits(breaker, limiter, request);
+		try {
+			Object object = transmit(request, handler);
+			permits.complete(null);
+			return object;
+		} catch (IOException e) {
+			permits.complete(e);
+			throw e;
+		} catch (RuntimeException e) {
+			permits.complete(e);
+			throw e;
+		}
+	}
+	
+	private void sendOnce(final HttpUriRequest request, final SimpleGeoHandler handler, final SimpleGeoCallback callback)
+		throws ClientProtocolException, IOException {
+
+		RateLimiter rateLimiter = getRateLimiter();
+		long delayNanos = rateLimiter == null ? 0 : rateLimiter.reserve(maxRateLimitWait(rateLimiter));
+		if (delayNanos == 0) {
+			sendPermitted(request, handler, callback);
+		} else if (delayNanos < 0) {
+			SimpleGeoFuture.fail(callback, new RateLimitException(rateLimiter.getConsumerKey(), rateLimiter.getWaitMillis()));
+		} else {
+			// Wait for the request's turn on the timer rather than on a thread
+			scheduler().schedule(new Runnable() {
+				public void run() {
+					if (request.isAborted())
+						return;
+					try {
+						sendPermitted(request, handler, callback);
+					} catch (IOException e) {
+						SimpleGeoFuture.fail(callback, e);
+					} catch (RuntimeException e) {
+						SimpleGeoFuture.fail(callback, e);
+					}
+				}
+			}, delayNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+	
+	private void sendPermitted(final HttpUriRequest request, final SimpleGeoHandler handler, final SimpleGeoCallback callback)
+		throws ClientProtocolException, IOException {
+
+		final CircuitBreaker breaker = circuitBreaker(request);
+		final ConcurrencyLimiter limiter = this.concurrencyLimiter;
+		if (breaker == null && limiter == null) {
+			transmit(request, handler, callback);
+			return;
+		}
+		if (breaker != null && !breaker.tryAcquire()) {
+			SimpleGeoFuture.fail(callback, new CircuitOpenException(breaker.getEndpoint(), breaker.getRemainingOpenMillis()));
+			return;
+		}
+		if (limiter == null) {
+			transmitGuarded(request, handler, callback, new Permits(breaker, null, request));
+			return;
+		}
+		
+		// Over the limit, the request is sent by whichever request frees a permit for it
+		Runnable withdraw = limiter.acquire(new Runnable() {
+			public void run() {
+				transmitGuarded(request, handler, callback, new Permits(breaker, limiter, request));
+			}
+		}, new Runnable() {
+			public void run() {
+				if (breaker != null)
+					breaker.release();
+				SimpleGeoFuture.fail(callback, new ConcurrencyLimitException(limiter.getLimit()));
+			}
+		});
+		// and leaves the queue, handing back its breaker permit, if its caller gives up first
+		SimpleGeoFuture<?> caller = callerFuture(callback);
+		if (withdraw != null && caller != null)
+			withdrawWhenDone(caller, withdraw);
+	}
+	
+	private void transmitGuarded(HttpUriRequest request, SimpleGeoHandler handler, SimpleGeoCallback callback, Permits permits) {
+		GuardedCallback guarded = new GuardedCallback(permits, callback);
+		try {
+			transmit(request, handler, guarded);
+		} catch (IOException e) {
+			guarded.onFailure(e);
+		} catch (RuntimeException e) {
+			guarded.onFailure(e);
+		}
+	}
+	
+	private Object transmit(HttpUriRequest request, SimpleGeoHandler handler)
+		throws ClientProtocolException, IOException {
+
+		LoadBalancer balancer = this.loadBalancer;
+		if (balancer == null || !(request instanceof HttpRequestBase))
+			return transmitOnce(request, handler);
+		
+		HttpRequestBase balanced = (HttpRequestBase) request;
+		ArrayList<Upstream> tried = new ArrayList<Upstream>(2);
+		while (true) {
+			Upstream upstream = balancer.choose(tried);
+			tried.add(upstream);
+			balanced.setURI(upstream.rewrite(balanced.getURI()));
+			long start = System.nanoTime();
+			Throwable failure;
+			try {
+				Object object = transmitOnce(request, handler);
+				balancer.complete(upstream, System.nanoTime() - start, null);
+				return object;
+			} catch (IOException e) {
+				finishAttempt(balancer, upstream, request, start, e);
+				if (!balancer.shouldFailOver(request, e, tried.size()))
+					throw e;
+				failure = e;
+			} catch (RuntimeException e) {
+				finishAttempt(balancer, upstream, request, start, e);
+				throw e;
+			}
+			logger.info(String.format("failing over %s after %s", request.toString(), failure.toString()));
+			request.removeHeaders("Authorization");
+		}
+	}
+	
+	/**
+	 * Ends a balanced request's attempt on a host, unless the request was aborted by its
+	 * caller, which says nothing about the host.
+	 */
+	private static void finishAttempt(LoadBalancer balancer, Upstream upstream, HttpUriRequest request, long start, Throwable failure) {
+		if (request.isAborted())
+			balancer.abandon(upstream);
+		else
+			balancer.complete(upstream, System.nanoTime() - start, failure);
+	}
+	
+	private Object transmitOnce(HttpUriRequest request, SimpleGeoHandler handler)
+		throws ClientProtocolException, IOException {
+
 		logger.info(String.format("sending %s", request.toString()));
 	
+		RequestTimer timer = metrics.newTimer(request, requestListener);
 		Object object = null;
 		try {
-			object = httpClient.executeOAuthRequest(request, handler);
+			object = transport().execute(request, handler, timer);
+			timer.mark(Phase.PARSE);
+			timer.parsed();
+			timer.finish(null);
 		} catch (OAuthMessageSignerException e) {
+			timer.finish(e);
 			dealWithAuthorizationException(e);
 		} catch (OAuthExpectationFailedException e) {
+			timer.finish(e);
 			dealWithAuthorizationException(e);
 		} catch (OAuthCommunicationException e) {
+			timer.finish(e);
 			dealWithAuthorizationException(e);
+		} catch (IOException e) {
+			timer.finish(e);
+			throw e;
+		} catch (RuntimeException e) {
+			timer.finish(e);
+			throw e;
 		}
 
 		return object;
 
 	}
 	
-	/**
-	 * Method for executing HttpRequests asynchronously.
-	 * @param request HttpUriRequest
-	 * @param handler {@link com.simplegeo.client.http.SimpleGeoHandler} to call back when the request completes.
-	 * It will then in turn hand off to an instance of  {@link com.simplegeo.client.handler.ISimpleGeoHandler}
-	 * @param callback ISimpleGeoCallback Any object implementing the ISimpleGeoCallback interface
-	 * @throws ClientProtocolException
-	 * @throws IOException
-	 */
-	protected void execute(HttpUriRequest request, SimpleGeoHandler handler, SimpleGeoCallback callback)
+	private void transmit(HttpUriRequest request, SimpleGeoHandler handler, SimpleGeoCallback callback)
+		throws ClientProtocolException, IOException {
+
+		LoadBalancer balancer = this.loadBalancer;
+		if (balancer == null || !(request instanceof HttpRequestBase))
+			transmitOnce(request, handler, callback);
+		else
+			new BalancedCallback(balancer, (HttpRequestBase) request, handler, callback).send();
+	}
+	
+	private void transmitOnce(HttpUriRequest request, SimpleGeoHandler handler, SimpleGeoCallback callback)
 		throws ClientProtocolException, IOException {
 
+		final Transport transport = transport();
+		if (transport.isNonBlocking()) {
+			logger.info(String.format("sending %s", request.toString()));
+			if (callback instanceof SimpleGeoFuture)
+				((SimpleGeoFuture) callback).attach(request, null);
+			transport.execute(request, handler, callback, metrics.newTimer(request, requestListener));
+			return;
+		}
+
 		final HttpUriRequest finalRequest = request;
 		final SimpleGeoHandler finalHandler = handler;
 		final SimpleGeoCallback finalCallback = callback;
+		final RequestTimer timer = metrics.newTimer(request, requestListener);
 		
-		threadExecutor.execute(new Thread() {
-			@Override
+		RequestTask task = new RequestTask() {
 			public void run() {
+				timer.mark(Phase.QUEUE);
+				timer.dequeued();
+				if (finalCallback instanceof BalancedCallback)
+					((BalancedCallback) finalCallback).dequeued();
 				Object object = null;
 				try {
-					object = httpClient.executeOAuthRequest(finalRequest, finalHandler);
+					object = transport.execute(finalRequest, finalHandler, timer);
 				} catch (OAuthMessageSignerException e) {
-					finalCallback.onError(e.getMessage());
+					timer.finish(e);
+					SimpleGeoFuture.fail(finalCallback, e);
+					return;
 				} catch (OAuthExpectationFailedException e) {
-					finalCallback.onError(e.getMessage());
+					timer.finish(e);
+					SimpleGeoFuture.fail(finalCallback, e);
+					return;
 				} catch (OAuthCommunicationException e) {
-					finalCallback.onError(e.getMessage());
+					timer.finish(e);
+					SimpleGeoFuture.fail(finalCallback, e);
+					return;
 				} catch (IOException e) {
-					finalCallback.onError(e.getMessage());
+					timer.finish(e);
+					SimpleGeoFuture.fail(finalCallback, e);
+					return;
 				}
+				timer.mark(Phase.PARSE);
+				timer.parsed();
+				timer.finish(null);
 				finalCallback.onSuccess(object);
+				timer.callbackDelivered();
 			}
-		});
+			
+			@Override
+			public void onRejected(RejectedExecutionException e) {
+				timer.finish(e);
+				SimpleGeoFuture.fail(finalCallback, e);
+			}
+		};
+		if (callback instanceof SimpleGeoFuture)
+			((SimpleGeoFuture) callback).attach(request, task);
+		
+		ExecutorService virtual = this.virtualExecutor;
+		timer.enqueued();
+		try {
+			if (virtual != null)
+				virtual.execute(task);
+			else
+				threadExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.onRejected(e);
+		}
+	}
+	
+	/**
+	 * An asynchronous request shared by coalesced callers.  It counts the callers waiting on it
+	 * and is cancelled, which aborts the request, when the last of them leaves.  A caller that
+	 * cannot give up, such as a plain callback, joins without ever leaving.
+	 */
+	private static class Flight extends SimpleGeoFuture<Object> {
+		
+		private final AtomicInteger callers = new AtomicInteger();
+		
+		Flight(RequestThreadPoolExecutor executor) {
+			super(executor);
+		}
+		
+		/**
+		 * @return false if the flight is over, or every caller has left it, so it cannot be joined
+		 */
+		boolean enter() {
+			for (;;) {
+				int waiting = callers.get();
+				if (waiting < 0 || isDone())
+					return false;
+				if (callers.compareAndSet(waiting, waiting + 1))
+					return true;
+			}
+		}
+		
+		void exit() {
+			// Closed at zero so that no caller joins a flight being cancelled
+			if (callers.decrementAndGet() == 0 && callers.compareAndSet(0, -1))
+				cancel(false);
+		}
+	}
+	
+	/**
+	 * Stands in for the caller's callback while a request may still be retried.  A failure
+	 * that the retry policy allows another attempt for is not passed on; instead the request
+	 * is sent again once the wait is up, which is timed on a scheduler so that no worker
+	 * thread sits idle through it.  Cancelling the caller's future stops the retries.
+	 */
+	private class RetryingCallback extends SimpleGeoFuture<Object> {
+		
+		private final RetryPolicy policy;
+		private final HttpUriRequest request;
+		private final SimpleGeoHandler handler;
+		private final SimpleGeoCallback callback;
+		private final long start = System.currentTimeMillis();
+		private int attempts = 1;
+		private long delay = 0;
+		
+		private RetryingCallback(RetryPolicy policy, HttpUriRequest request, SimpleGeoHandler handler,
+				SimpleGeoCallback callback) {
+			super(threadExecutor);
+			this.policy = policy;
+			this.request = request;
+			this.handler = handler;
+			this.callback = callback;
+		}
+		
+		/**
+		 * Lets the caller's future abandon whichever attempt is current.
+		 */
+		@Override
+		public void attach(HttpUriRequest request, Runnable task) {
+			if (callback instanceof SimpleGeoFuture)
+				((SimpleGeoFuture) callback).attach(request, task);
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public void onSuccess(Object object) {
+			callback.onSuccess(object);
+		}
+		
+		@Override
+		public void onError(String errorMessage) {
+			onFailure(new IOException(errorMessage));
+		}
+		
+		@Override
+		public void onFailure(final Throwable cause) {
+			delay = policy.nextDelayMillis(attempts, delay, System.currentTimeMillis() - start, cause);
+			if (delay < 0 || request.isAborted() || isAbandoned()) {
+				SimpleGeoFuture.fail(callback, cause);
+				return;
+			}
+			attempts++;
+			logger.info(String.format("retrying %s in %d ms after %s", request.toString(), delay, cause.toString()));
+			try {
+				scheduler().schedule(new Runnable() {
+					public void run() {
+						retry(cause);
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				SimpleGeoFuture.fail(callback, cause);
+			}
+		}
+		
+		private void retry(Throwable cause) {
+			if (isAbandoned())
+				return;
+			request.removeHeaders("Authorization");
+			try {
+				sendAttempt(request, handler, this);
+			} catch (IOException e) {
+				SimpleGeoFuture.fail(callback, e);
+			} catch (RuntimeException e) {
+				SimpleGeoFuture.fail(callback, e);
+			}
+		}
+		
+		private boolean isAbandoned() {
+			return callback instanceof SimpleGeoFuture && ((SimpleGeoFuture) callback).isDone();
+		}
+	}
+	
+	/**
+	 * Stands in for the caller's callback while a balanced request is on one of the hosts.
+	 * The outcome is recorded against the host, and a request that can go elsewhere after
+	 * failing is sent to a host it has not been to yet.
+	 */
+	private class BalancedCallback extends SimpleGeoFuture<Object> {
+		
+		private final LoadBalancer balancer;
+		private final HttpRequestBase request;
+		private final SimpleGeoHandler handler;
+		private final SimpleGeoCallback callback;
+		private final ArrayList<Upstream> tried = new ArrayList<Upstream>(2);
+		private volatile Upstream upstream;
+		private volatile long start;
+		
+		private BalancedCallback(LoadBalancer balancer, HttpRequestBase request, SimpleGeoHandler handler,
+				SimpleGeoCallback callback) {
+			super(threadExecutor);
+			this.balancer = balancer;
+			this.request = request;
+			this.handler = handler;
+			this.callback = callback;
+		}
+		
+		/**
+		 * Restarts the clock once the request leaves the executor's queue, so that the
+		 * host is not blamed for the time the request waited for a thread.
+		 */
+		private void dequeued() {
+			start = System.nanoTime();
+		}
+		
+		private void send() {
+			Upstream chosen = balancer.choose(tried);
+			tried.add(chosen);
+			upstream = chosen;
+			request.setURI(chosen.rewrite(request.getURI()));
+			start = System.nanoTime();
+			try {
+				transmitOnce(request, handler, this);
+			} catch (IOException e) {
+				onFailure(e);
+			} catch (RuntimeException e) {
+				onFailure(e);
+			}
+		}
+		
+		@Override
+		public void attach(HttpUriRequest request, Runnable task) {
+			if (callback instanceof SimpleGeoFuture)
+				((SimpleGeoFuture) callback).attach(request, task);
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public void onSuccess(Object object) {
+			balancer.complete(upstream, System.nanoTime() - start, null);
+			callback.onSuccess(object);
+		}
+		
+		@Override
+		public void onError(String errorMessage) {
+			onFailure(new IOException(errorMessage));
+		}
+		
+		@Override
+		public void onFailure(Throwable cause) {
+			finishAttempt(balancer, upstream, request, start, cause);
+			boolean abandoned = callback instanceof SimpleGeoFuture && ((SimpleGeoFuture) callback).isDone();
+			if (abandoned || !balancer.shouldFailOver(request, cause, tried.size())) {
+				SimpleGeoFuture.fail(callback, cause);
+				return;
+			}
+			logger.info(String.format("failing over %s after %s", request.toString(), cause.toString()));
+			request.removeHeaders("Authorization");
+			send();
+		}
+	}
+	
+	/**
+	 * The circuit breaker and concurrency limiter permits held by a request on the wire.
+	 */
+	private static class Permits {
+		
+		private final CircuitBreaker breaker;
+		private final ConcurrencyLimiter limiter;
+		private final HttpUriRequest request;
+		private final long start = System.nanoTime();
+		
+		private Permits(CircuitBreaker breaker, ConcurrencyLimiter limiter, HttpUriRequest request) {
+			this.breaker = breaker;
+			this.limiter = limiter;
+			this.request = request;
+		}
+		
+		/**
+		 * Hands the permits back with the request's outcome, unless the request was
+		 * aborted by its caller, which says nothing about the endpoint.
+		 */
+		private void complete(Throwable failure) {
+			boolean abandoned = failure != null && request.isAborted();
+			long elapsed = System.nanoTime() - start;
+			if (breaker != null) {
+				if (abandoned)
+					breaker.release();
+				else
+					breaker.record(failure, elapsed);
+			}
+			if (limiter != null) {
+				if (abandoned)
+					limiter.release();
+				else
+					limiter.release(failure, elapsed);
+			}
+		}
+	}
+	
+	/**
+	 * Hands back an asynchronous request's permits on the way to the caller's callback.
+	 */
+	private class GuardedCallback extends SimpleGeoFuture<Object> {
+		
+		private final Permits permits;
+		private final SimpleGeoCallback callback;
+		
+		private GuardedCallback(Permits permits, SimpleGeoCallback callback) {
+			super(threadExecutor);
+			this.permits = permits;
+			this.callback = callback;
+		}
+		
+		@Override
+		public void attach(HttpUriRequest request, Runnable task) {
+			if (callback instanceof SimpleGeoFuture)
+				((SimpleGeoFuture) callback).attach(request, task);
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public void onSuccess(Object object) {
+			permits.complete(null);
+			callback.onSuccess(object);
+		}
+		
+		@Override
+		public void onError(String errorMessage) {
+			onFailure(new IOException(errorMessage));
+		}
+		
+		@Override
+		public void onFailure(Throwable cause) {
+			permits.complete(cause);
+			SimpleGeoFuture.fail(callback, cause);
+		}
+	}
+	
+	/**
+	 * An asynchronous request that is sent a second time if the first attempt is slow.  The
+	 * first attempt to be answered is passed on to the callback and the other is aborted; the
+	 * callback only sees a failure once every attempt has failed.  Cancelling the caller's
+	 * future aborts both attempts.
+	 */
+	private class HedgedCall {
+		
+		private final HttpUriRequest primary;
+		private final SimpleGeoHandler handler;
+		private final SimpleGeoCallback callback;
+		private final AtomicBoolean finished = new AtomicBoolean();
+		private final AtomicInteger outstanding = new AtomicInteger(1);
+		private volatile HttpUriRequest hedge;
+		private volatile HttpUriRequest winner;
+		private volatile ScheduledFuture<?> timer;
+		
+		private HedgedCall(HttpUriRequest primary, SimpleGeoHandler handler, SimpleGeoCallback callback) {
+			this.primary = primary;
+			this.handler = handler;
+			this.callback = callback;
+		}
+		
+		private void start(final HedgePolicy policy, final EndpointMetrics endpoint, long delay) throws IOException {
+			SimpleGeoFuture<?> caller = callerFuture(callback);
+			if (caller != null) {
+				caller.whenComplete(new BiConsumer<Object, Throwable>() {
+					public void accept(Object object, Throwable failure) {
+						abandon();
+					}
+				});
+			}
+			
+			sendOnce(primary, handler, new Attempt(primary));
+			try {
+				timer = scheduler().schedule(new Runnable() {
+					public void run() {
+						sendHedge(policy, endpoint);
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				logger.info("not hedging " + primary.toString() + ": " + e.toString());
+			}
+		}
+		
+		private void sendHedge(HedgePolicy policy, EndpointMetrics endpoint) {
+			if (finished.get() || !canHedge() || !endpoint.tryAcquireHedge(policy.getBudgetPercent() / 100))
+				return;
+			// None outstanding means the first attempt has already failed, and the call with it
+			if (outstanding.getAndIncrement() == 0)
+				return;
+			HttpUriRequest copy = copyOf(primary);
+			hedge = copy;
+			try {
+				sendOnce(copy, handler, new Attempt(copy));
+			} catch (IOException e) {
+				new Attempt(copy).onFailure(e);
+			}
+		}
+		
+		private void abandon() {
+			ScheduledFuture<?> pending = timer;
+			if (pending != null)
+				pending.cancel(false);
+			if (primary != winner)
+				primary.abort();
+			HttpUriRequest sent = hedge;
+			if (sent != null && sent != winner)
+				sent.abort();
+		}
+		
+		/**
+		 * Receives the outcome of one attempt.
+		 */
+		private class Attempt extends SimpleGeoFuture<Object> {
+			
+			private final HttpUriRequest request;
+			
+			private Attempt(HttpUriRequest request) {
+				super(threadExecutor);
+				this.request = request;
+			}
+			
+			@SuppressWarnings("unchecked")
+			@Override
+			public void onSuccess(Object object) {
+				if (!finished.compareAndSet(false, true))
+					return;
+				winner = request;
+				abandon();
+				callback.onSuccess(object);
+			}
+			
+			@Override
+			public void onError(String errorMessage) {
+				onFailure(new IOException(errorMessage));
+			}
+			
+			@Override
+			public void onFailure(Throwable cause) {
+				if (outstanding.decrementAndGet() == 0 && finished.compareAndSet(false, true)) {
+					ScheduledFuture<?> pending = timer;
+					if (pending != null)
+						pending.cancel(false);
+					SimpleGeoFuture.fail(callback, cause);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the scheduler that times retries and hedges, which is shared by all clients;
+	 * it only hands requests back to their client, so one thread is plenty
+	 */
+	private static synchronized ScheduledThreadPoolExecutor scheduler() {
+		if (scheduler == null)
+			scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("SimpleGeoTimer", true));
+		return scheduler;
 	}
 	
 	/**
@@ -188,6 +1296,537 @@ public abstract class AbstractSimpleGeoClient implements SimpleGeoClient {
 		return httpClient;
 	}	
 	
+	/**
+	 * Return the client's metrics: request and error counts, bytes sent and received and
+	 * latency histograms for each endpoint.  Call {@link com.simplegeo.client.metrics.ClientMetrics#registerMBeans()}
+	 * on it to publish them over JMX.
+	 */
+	public ClientMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Return the executor the asynchronous (callback) methods run on, e.g. to monitor its
+	 * queue depth or pool size.
+	 */
+	public RequestThreadPoolExecutor getThreadExecutor() {
+		return threadExecutor;
+	}
+	
+	/**
+	 * Open keep-alive connections to the API host ahead of time, so that the first requests
+	 * do not pay for connection setup.  Over https the TLS handshakes are made too, which
+	 * also fills the session cache.  Blocks until the connections are open.
+	 * @param count the number of connections to open, at most the pool's per-route limit
+	 * @return the number of connections that were opened
+	 */
+	public int prewarmConnections(int count) {
+		URI base = URI.create(baseUrl);
+		boolean secure = "https".equalsIgnoreCase(base.getScheme());
+		HttpHost target = new HttpHost(base.getHost(), Integer.parseInt(port), secure ? "https" : "http");
+		return connManager.prewarm(new HttpRoute(target, null, secure), count, params);
+	}
+	
+	/**
+	 * Choose how GeoJSON responses are parsed.  When enabled, {@link com.simplegeo.client.types.Feature}s
+	 * and {@link com.simplegeo.client.types.FeatureCollection}s are built directly from the response
+	 * stream by a {@link com.simplegeo.client.handler.GeoJSONStreamHandler}, instead of reading the body
+	 * into a String and building an org.json tree from it first.  This cuts the garbage created for
+	 * large polygons considerably.
+	 * 
+	 * @param streamingParser true to parse GeoJSON responses from the stream
+	 */
+	public void setStreamingParser(boolean streamingParser) {
+		this.streamingParser = streamingParser;
+	}
+	
+	/**
+	 * @return true if GeoJSON responses are parsed from the stream
+	 */
+	public boolean isStreamingParser() {
+		return streamingParser;
+	}
+	
+	/**
+	 * @return the handler GeoJSON responses should be parsed with
+	 */
+	protected SimpleGeoJSONHandler newGeoJSONHandler() {
+		return streamingParser ? new GeoJSONStreamHandler() : new GeoJSONHandler();
+	}
+	
+	/**
+	 * Trace every request this client sends.  The listener is told, with a timestamp, as each
+	 * request is queued, signed, sent and answered and its response parsed and delivered, so
+	 * that slow requests can be broken down by stage.
+	 * 
+	 * @param requestListener the listener, or null to stop tracing
+	 */
+	public void setRequestListener(RequestListener requestListener) {
+		this.requestListener = requestListener;
+	}
+	
+	/**
+	 * @return the listener requests are traced with, or null if there is none
+	 */
+	public RequestListener getRequestListener() {
+		return requestListener;
+	}
+	
+	/**
+	 * Retry failed requests as the given policy allows.  Synchronous calls wait out the delay
+	 * between attempts on the calling thread; asynchronous calls are sent again from a scheduler,
+	 * so no worker thread is held while they wait.  Each attempt is recorded by
+	 * {@link #getMetrics()} and traced by the request listener as a request of its own.
+	 * 
+	 * @param retryPolicy the policy, or null to send each request only once
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+	
+	/**
+	 * @return the policy failed requests are retried with, or null if they are not retried
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+	
+	/**
+	 * Hedge slow GET requests to the endpoints the given policy names: once a request has run
+	 * longer than the policy's percentile of the endpoint's latency, an identical request is sent
+	 * on another connection and the first response wins.  Hedges are counted by
+	 * {@link com.simplegeo.client.metrics.EndpointMetrics#getHedgeCount()}, and the losing
+	 * attempt is recorded as a failed request since it is aborted.
+	 * 
+	 * @param hedgePolicy the policy, or null to stop hedging
+	 */
+	public void setHedgePolicy(HedgePolicy hedgePolicy) {
+		this.hedgePolicy = hedgePolicy;
+	}
+	
+	/**
+	 * @return the policy slow requests are hedged with, or null if they are not hedged
+	 */
+	public HedgePolicy getHedgePolicy() {
+		return hedgePolicy;
+	}
+	
+	/**
+	 * Give each endpoint a circuit breaker with the given thresholds.  While an endpoint's
+	 * circuit is open its requests fail at once with a
+	 * {@link com.simplegeo.client.http.exceptions.CircuitOpenException}, rather than holding
+	 * threads and connections that requests to healthy endpoints could use.  Replacing the
+	 * settings closes every circuit.
+	 * 
+	 * @param circuitBreakerConfig the thresholds, or null to remove the circuit breakers
+	 */
+	public void setCircuitBreakerConfig(CircuitBreakerConfig circuitBreakerConfig) {
+		this.circuitBreakerConfig = circuitBreakerConfig;
+		circuitBreakers.clear();
+	}
+	
+	/**
+	 * @return the thresholds of the endpoints' circuit breakers, or null if there are none
+	 */
+	public CircuitBreakerConfig getCircuitBreakerConfig() {
+		return circuitBreakerConfig;
+	}
+	
+	/**
+	 * @param circuitBreakerListener notified when an endpoint's circuit opens, half-opens
+	 * or closes, or null
+	 */
+	public void setCircuitBreakerListener(CircuitBreakerListener circuitBreakerListener) {
+		this.circuitBreakerListener = circuitBreakerListener;
+		for (CircuitBreaker breaker : circuitBreakers.values())
+			breaker.setListener(circuitBreakerListener);
+	}
+	
+	/**
+	 * @return the listener notified of circuit breaker state changes, or null
+	 */
+	public CircuitBreakerListener getCircuitBreakerListener() {
+		return circuitBreakerListener;
+	}
+	
+	/**
+	 * @param endpointName the name of an endpoint, e.g. "features"
+	 * @return the endpoint's circuit breaker, or null if circuit breakers are off
+	 */
+	public CircuitBreaker getCircuitBreaker(String endpointName) {
+		CircuitBreakerConfig config = this.circuitBreakerConfig;
+		if (config == null)
+			return null;
+		CircuitBreaker breaker = circuitBreakers.get(endpointName);
+		if (breaker == null) {
+			CircuitBreaker created = new CircuitBreaker(endpointName, config, circuitBreakerListener);
+			breaker = circuitBreakers.putIfAbsent(endpointName, created);
+			if (breaker == null)
+				breaker = created;
+		}
+		return breaker;
+	}
+	
+	private CircuitBreaker circuitBreaker(HttpUriRequest request) {
+		if (circuitBreakerConfig == null)
+			return null;
+		return getCircuitBreaker(metrics.resolve(request.getURI().toString()));
+	}
+	
+	/**
+	 * Limit the number of requests in flight, adapting the limit to the round trip times and
+	 * errors measured, so that the client sends as much as the upstream can take without
+	 * driving it into errors.  Requests over the limit wait for a permit or, as the settings
+	 * say, fail with a {@link com.simplegeo.client.http.exceptions.ConcurrencyLimitException}.
+	 * Synchronous calls wait on the calling thread; asynchronous ones are sent by whichever
+	 * request frees a permit for them.
+	 * 
+	 * @param concurrencyLimitConfig the settings, or null to stop limiting requests
+	 */
+	public void setConcurrencyLimitConfig(ConcurrencyLimitConfig concurrencyLimitConfig) {
+		this.concurrencyLimiter = concurrencyLimitConfig == null ? null : new ConcurrencyLimiter(concurrencyLimitConfig, scheduler());
+	}
+	
+	/**
+	 * @return the limiter on requests in flight, for its current limit, or null if
+	 * requests are not limited
+	 */
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+	
+	/**
+	 * Pace requests to a rate, so that the instances of an application signing with one
+	 * consumer key keep within its quota.  Every client in the process using the same
+	 * key and settings draws from one token bucket, and with a shared directory so do
+	 * other processes on the host.  A request that finds the bucket empty is delayed for
+	 * its turn, on the calling thread if it is synchronous and on a timer if not, or fails
+	 * with a {@link com.simplegeo.client.http.exceptions.RateLimitException} if its turn
+	 * is too far off.  Each attempt of a retried or hedged request takes a turn.
+	 * 
+	 * @param rateLimitConfig the rate to keep to, or null to stop pacing requests
+	 */
+	public synchronized void setRateLimitConfig(RateLimitConfig rateLimitConfig) {
+		this.rateLimitConfig = rateLimitConfig;
+		this.rateLimiter = resolveRateLimiter(httpClient.getKey());
+	}
+	
+	/**
+	 * @return the rate requests are paced to, or null if they are not
+	 */
+	public RateLimitConfig getRateLimitConfig() {
+		return rateLimitConfig;
+	}
+	
+	/**
+	 * @return the token bucket for the client's consumer key, or null if requests are
+	 * not paced or no key is set
+	 */
+	public RateLimiter getRateLimiter() {
+		RateLimiter limiter = this.rateLimiter;
+		String consumerKey = httpClient.getKey();
+		if (limiter != null && limiter.getConsumerKey().equals(consumerKey))
+			return limiter;
+		if (limiter == null && (consumerKey == null || rateLimitConfig == null))
+			return null;
+		// The token was set or changed since the bucket was looked up
+		synchronized (this) {
+			limiter = resolveRateLimiter(consumerKey);
+			this.rateLimiter = limiter;
+			return limiter;
+		}
+	}
+	
+	/**
+	 * @return how long this client's requests wait for their turn, which is not part
+	 * of the bucket it may share with clients configured otherwise
+	 */
+	private long maxRateLimitWait(RateLimiter limiter) {
+		RateLimitConfig config = this.rateLimitConfig;
+		return (config != null ? config : limiter.getConfig()).getMaxWaitMillis();
+	}
+	
+	private RateLimiter resolveRateLimiter(String consumerKey) {
+		RateLimitConfig config = this.rateLimitConfig;
+		if (config == null || consumerKey == null)
+			return null;
+		return RateLimiter.forConsumer(consumerKey, config);
+	}
+	
+	/**
+	 * Choose whether identical GET requests are coalesced.  When enabled (the default), a GET
+	 * issued while one for the same URI is still in flight does not go out on its own; its caller
+	 * waits for, and shares, the response to the outstanding request.  Synchronous calls only wait
+	 * on requests made by other synchronous calls.  Since the parsed response is handed to every
+	 * caller, treat it as read-only.
+	 * 
+	 * @param coalescing true to coalesce identical in-flight GET requests
+	 */
+	public void setCoalescing(boolean coalescing) {
+		this.coalescing = coalescing;
+	}
+	
+	/**
+	 * @return true if identical in-flight GET requests are coalesced
+	 */
+	public boolean isCoalescing() {
+		return coalescing;
+	}
+	
+	/**
+	 * Choose whether responses may be compressed.  When enabled (the default), requests ask
+	 * for gzip or deflate encoded responses, which are inflated as the parser reads them with
+	 * inflaters that are pooled across requests.  Place polygons and context responses
+	 * typically compress about ten to one.
+	 * 
+	 * @param compression true to accept compressed responses
+	 */
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+	
+	/**
+	 * @return true if requests ask for compressed responses
+	 */
+	public boolean isCompression() {
+		return compression;
+	}
+	
+	/**
+	 * Cache the responses of endpoints that have a TTL set with {@link #setCacheTTL(String, long)}.
+	 * Cached objects are shared between callers and should be treated as read-only.
+	 * 
+	 * @param responseCache the cache to use, e.g. a {@link com.simplegeo.client.cache.LRUResponseCache},
+	 * or null to stop caching
+	 */
+	public void setResponseCache(ResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
+	
+	/**
+	 * @return the response cache, or null if responses are not cached
+	 */
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+	
+	/**
+	 * Set how long responses from an endpoint are served from the response cache.
+	 * @param endpointName the endpoint, e.g. "features"
+	 * @param ttlMillis the time to live in milliseconds, or 0 to stop caching the endpoint
+	 */
+	public void setCacheTTL(String endpointName, long ttlMillis) {
+		if (ttlMillis < 0)
+			throw new IllegalArgumentException("ttlMillis must not be negative");
+		cacheTTLs.put(endpointName, ttlMillis);
+	}
+	
+	/**
+	 * @param endpointName the endpoint, e.g. "features"
+	 * @return the time to live of the endpoint's cached responses in milliseconds, or 0 if they
+	 * are not cached
+	 */
+	public long getCacheTTL(String endpointName) {
+		Long ttl = cacheTTLs.get(endpointName);
+		return ttl == null ? 0 : ttl;
+	}
+	
+	/**
+	 * Look up a cached response.
+	 * @param endpointName the endpoint the request was built from
+	 * @param uri the canonical request URI
+	 * @return the cached response, or null if there is none or the endpoint is not cached
+	 */
+	protected Object getCachedResponse(String endpointName, String uri) {
+		ResponseCache cache = responseCache;
+		if (cache == null || getCacheTTL(endpointName) == 0)
+			return null;
+		return cache.get(uri);
+	}
+	
+	/**
+	 * Drop a cached response, e.g. after the resource has been changed.
+	 * @param uri the canonical request URI
+	 */
+	protected void invalidateCachedResponse(String uri) {
+		ResponseCache cache = responseCache;
+		if (cache != null)
+			cache.remove(uri);
+	}
+	
+	/**
+	 * Wrap a handler so that the response it parses is added to the response cache.
+	 * @param endpointName the endpoint the request was built from
+	 * @param uri the canonical request URI
+	 * @param handler the handler that parses the response
+	 * @return a {@link com.simplegeo.client.http.SimpleGeoHandler} for the request
+	 */
+	protected SimpleGeoHandler newCachingHandler(String endpointName, final String uri, SimpleGeoJSONHandler handler) {
+		final ResponseCache cache = responseCache;
+		final long ttl = getCacheTTL(endpointName);
+		if (cache == null || ttl == 0)
+			return new SimpleGeoHandler(handler);
+		
+		return new SimpleGeoHandler(handler) {
+			@Override
+			public Object handleResponse(HttpResponse response) throws ClientProtocolException, IOException {
+				Object object = super.handleResponse(response);
+				cache.put(uri, object, ttl);
+				return object;
+			}
+		};
+	}
+	
+	/**
+	 * Create a future to hand to a callback method in place of a callback.  The future
+	 * is completed, and runs its asynchronous stages, on this client's executor.
+	 * @return an incomplete {@link com.simplegeo.client.concurrent.SimpleGeoFuture}
+	 */
+	protected <T> SimpleGeoFuture<T> newFuture() {
+		return new SimpleGeoFuture<T>(threadExecutor);
+	}
+	
+	/**
+	 * Choose how the asynchronous (callback) methods are sent.  When enabled, requests are
+	 * sent by an {@link com.simplegeo.client.http.AsyncOAuthHttpClient} whose I/O reactor
+	 * multiplexes every outstanding request over a couple of threads, and only parsing and
+	 * callback delivery run on the client's executor.  When disabled (the default), each
+	 * asynchronous call occupies an executor thread for its whole duration.  Synchronous
+	 * methods always use the blocking client.  Only applies to the default HttpClient 4
+	 * transport; see {@link #setTransport(Transport)}.
+	 * 
+	 * @param nonBlocking true to send callback requests over the non-blocking transport
+	 */
+	public synchronized void setNonBlocking(boolean nonBlocking) {
+		if (nonBlocking && asyncHttpClient == null) {
+			asyncHttpClient = new AsyncOAuthHttpClient(httpClient, params, threadExecutor,
+					AsyncOAuthHttpClient.DEFAULT_IO_THREADS, tlsSocketFactory);
+			asyncHttpClient.setMaxConnectionsPerRoute(poolConfig.getMaxConnectionsPerRoute());
+			defaultTransport = new HttpClientTransport(httpClient, asyncHttpClient);
+		} else if (!nonBlocking && asyncHttpClient != null) {
+			defaultTransport = new HttpClientTransport(httpClient);
+			asyncHttpClient.shutdown();
+			asyncHttpClient = null;
+		}
+	}
+	
+	/**
+	 * @return true if callback requests are sent over the non-blocking transport
+	 */
+	public boolean isNonBlocking() {
+		return asyncHttpClient != null;
+	}
+	
+	/**
+	 * Replace the {@link com.simplegeo.client.http.Transport} that puts requests on the
+	 * wire.  Everything above it, from the response cache down to the circuit breakers,
+	 * works the same whichever transport is used.  The transport being replaced is shut
+	 * down, so do not share one between clients.  A custom transport signs requests with
+	 * the {@link com.simplegeo.client.http.OAuthHttpClient} returned by {@link #getHttpClient()}.
+	 * 
+	 * @param transport the transport to send requests with, or null to go back to the
+	 * default HttpClient 4 transport.  Passing back the default transport that
+	 * {@link #getTransport()} returned is the same as passing null.
+	 */
+	public synchronized void setTransport(Transport transport) {
+		if (transport == defaultTransport)
+			transport = null;
+		Transport replaced = this.transport;
+		this.transport = transport;
+		if (replaced != null && replaced != transport)
+			replaced.shutdown();
+	}
+	
+	/**
+	 * @return the transport requests are currently sent with
+	 */
+	public Transport getTransport() {
+		return transport();
+	}
+	
+	private Transport transport() {
+		Transport custom = this.transport;
+		return custom != null ? custom : defaultTransport;
+	}
+	
+	/**
+	 * Choose whether requests are sent over a
+	 * {@link com.simplegeo.client.http.JavaNetHttpTransport}, which speaks HTTP/2 to hosts
+	 * that offer it over https, so that many outstanding requests share a few connections
+	 * instead of each taking one from the pool.  Callback requests then never hold an
+	 * executor thread.  The connect and socket timeouts of the pool config still apply.
+	 * 
+	 * @param http2 true to send requests over java.net.http, false to go back to HttpClient 4
+	 */
+	public synchronized void setHttp2(boolean http2) {
+		if (http2 && !isHttp2())
+			setTransport(new JavaNetHttpTransport(httpClient, poolConfig, tlsSocketFactory));
+		else if (!http2 && isHttp2())
+			setTransport(null);
+	}
+	
+	/**
+	 * @return true if requests are sent over java.net.http
+	 */
+	public boolean isHttp2() {
+		return transport instanceof JavaNetHttpTransport;
+	}
+	
+	/**
+	 * Spread requests over several hosts serving the API, sending each to whichever of
+	 * two hosts picked at random has the lower latency times requests in flight.  Hosts
+	 * that keep failing requests are ejected for a while, and the hosts are health checked
+	 * in the background.  A request that could not reach its host, or a GET or DELETE whose
+	 * connection failed, is sent to another host without the caller seeing the failure.
+	 * Requests are signed for the host they are sent to.
+	 * 
+	 * @param config the hosts and settings, or null to send every request to the client's
+	 * own host again
+	 */
+	public synchronized void setLoadBalancerConfig(LoadBalancerConfig config) {
+		LoadBalancer replaced = this.loadBalancer;
+		this.loadBalancer = config == null ? null : new LoadBalancer(config, httpClient);
+		if (replaced != null)
+			replaced.shutdown();
+	}
+	
+	/**
+	 * @return the load balancer spreading requests over the hosts, or null if requests
+	 * all go to the client's own host
+	 */
+	public LoadBalancer getLoadBalancer() {
+		return loadBalancer;
+	}
+	
+	/**
+	 * Choose whether asynchronous (callback) requests sent over the blocking transport each
+	 * run on a virtual thread of their own rather than on the client's executor.  A blocked
+	 * virtual thread costs next to nothing, so callers can have thousands of requests
+	 * outstanding without the executor's pool size or queue getting in the way; the
+	 * connection pool then bounds how many are on the wire.  Waits for a pooled connection,
+	 * a concurrency permit or the rate limit do not pin the carrier thread.  Has no effect
+	 * while the non-blocking transport is on.
+	 * 
+	 * @param virtualThreads true to run callback requests on virtual threads
+	 * @throws UnsupportedOperationException if the running JDK has no virtual threads
+	 */
+	public synchronized void setVirtualThreads(boolean virtualThreads) {
+		if (virtualThreads && virtualExecutor == null) {
+			virtualExecutor = VirtualThreads.newExecutor("SimpleGeoVirtual");
+		} else if (!virtualThreads && virtualExecutor != null) {
+			// Requests already running finish on their threads
+			virtualExecutor.shutdown();
+			virtualExecutor = null;
+		}
+	}
+	
+	/**
+	 * @return true if callback requests over the blocking transport run on virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		return virtualExecutor != null;
+	}
+	
 	protected abstract Object executeGet(String uri, SimpleGeoJSONHandler handler) throws IOException;
 	protected abstract void executeGet(String uri, SimpleGeoJSONHandler handler, SimpleGeoCallback callback) throws IOException;
 	
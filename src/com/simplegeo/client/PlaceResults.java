@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simplegeo.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.simplegeo.client.types.Feature;
+
+/**
+ * The outcome of a bulk place lookup made with
+ * {@link SimpleGeoPlacesClient#getPlaces(java.util.Collection)}: the places that were
+ * found, and the failure of each lookup that was not.  Every distinct id that was
+ * asked for is in exactly one of the two.
+ */
+public class PlaceResults {
+
+	private final Map<String, Feature> places = new ConcurrentHashMap<String, Feature>();
+	private final Map<String, Throwable> errors = new ConcurrentHashMap<String, Throwable>();
+
+	void putPlace(String simpleGeoId, Feature feature) {
+		places.put(simpleGeoId, feature);
+	}
+
+	void putError(String simpleGeoId, Throwable cause) {
+		errors.put(simpleGeoId, cause);
+	}
+
+	/**
+	 * @param simpleGeoId an id that was looked up
+	 * @return the place, or null if its lookup failed
+	 */
+	public Feature getPlace(String simpleGeoId) {
+		return places.get(simpleGeoId);
+	}
+
+	/**
+	 * @return the places found, by id
+	 */
+	public Map<String, Feature> getPlaces() {
+		return Collections.unmodifiableMap(places);
+	}
+
+	/**
+	 * @return the failure of each lookup that failed, by id.  A place that does not
+	 * exist fails with an {@link com.simplegeo.client.http.exceptions.APIException}
+	 * whose status code is 404.
+	 */
+	public Map<String, Throwable> getErrors() {
+		return Collections.unmodifiableMap(errors);
+	}
+
+	/**
+	 * @return true if any lookup failed
+	 */
+	public boolean hasErrors() {
+		return !errors.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "places=" + places.size() + ", errors=" + errors.size();
+	}
+
+}
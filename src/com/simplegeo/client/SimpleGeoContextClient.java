@@ -32,12 +32,17 @@ package com.simplegeo.client;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.http.client.methods.HttpGet;
 
+import com.simplegeo.client.cache.GeoHash;
 import com.simplegeo.client.callbacks.SimpleGeoCallback;
+import com.simplegeo.client.concurrent.RequestExecutorConfig;
+import com.simplegeo.client.concurrent.SimpleGeoFuture;
 import com.simplegeo.client.handler.SimpleGeoJSONHandler;
 import com.simplegeo.client.handler.JSONHandler;
+import com.simplegeo.client.http.ConnectionPoolConfig;
 import com.simplegeo.client.http.OAuthClient;
 import com.simplegeo.client.http.SimpleGeoHandler;
 
@@ -51,6 +56,18 @@ public class SimpleGeoContextClient extends AbstractSimpleGeoClient {
 	
 	protected static SimpleGeoContextClient sharedContextService = null;
 	
+	/**
+	 * Default time to live, in milliseconds, of cached context lookups.
+	 */
+	public static final long DEFAULT_CONTEXT_CACHE_TTL = 5 * 60 * 1000;
+	
+	/**
+	 * Default geohash length of the cells context lookups are cached by, roughly 150m across.
+	 */
+	public static final int DEFAULT_CONTEXT_CACHE_PRECISION = 7;
+	
+	private volatile int contextCachePrecision = DEFAULT_CONTEXT_CACHE_PRECISION;
+	
 	/**
 	 * Method that ensures we only have one instance of the {@link com.simplegeo.client.SimpleGeoContextClient} instantiated.  Also allows
 	 * server connection variables to be overridden.
@@ -61,8 +78,41 @@ public class SimpleGeoContextClient extends AbstractSimpleGeoClient {
 	 * @return {@link com.simplegeo.client.SimpleGeoContextClient}
 	 */
 	public static SimpleGeoContextClient getInstance(String baseUrl, String port, String apiVersion) {
+		return getInstance(baseUrl, port, apiVersion, null);
+	}
+	
+	/**
+	 * Same as {@link #getInstance(String, String, String)}, but runs the asynchronous (callback) methods
+	 * on a bounded, self-sizing executor.  The config only applies if this call creates the instance.
+	 * 
+	 * @param baseUrl String api.simplegeo.com is default, but can be overridden.
+	 * @param port String 80 is default, but can be overridden.
+	 * @param apiVersion String 1.0 is default, but can be overridden.
+	 * @param executorConfig {@link com.simplegeo.client.concurrent.RequestExecutorConfig} for the executor,
+	 * or null for the default one.
+	 * @return {@link com.simplegeo.client.SimpleGeoContextClient}
+	 */
+	public static SimpleGeoContextClient getInstance(String baseUrl, String port, String apiVersion, RequestExecutorConfig executorConfig) {
+		return getInstance(baseUrl, port, apiVersion, executorConfig, null);
+	}
+	
+	/**
+	 * Same as {@link #getInstance(String, String, String, RequestExecutorConfig)}, but also configures
+	 * the connection pool.  The configs only apply if this call creates the instance.
+	 * 
+	 * @param baseUrl String api.simplegeo.com is default, but can be overridden.
+	 * @param port String 80 is default, but can be overridden.
+	 * @param apiVersion String 1.0 is default, but can be overridden.
+	 * @param executorConfig {@link com.simplegeo.client.concurrent.RequestExecutorConfig} for the executor,
+	 * or null for the default one.
+	 * @param poolConfig {@link com.simplegeo.client.http.ConnectionPoolConfig} for the connection pool,
+	 * or null for the default one.
+	 * @return {@link com.simplegeo.client.SimpleGeoContextClient}
+	 */
+	public static SimpleGeoContextClient getInstance(String baseUrl, String port, String apiVersion, RequestExecutorConfig executorConfig,
+			ConnectionPoolConfig poolConfig) {
 		if(sharedContextService == null)
-			sharedContextService = new SimpleGeoContextClient(baseUrl, port, apiVersion);
+			sharedContextService = new SimpleGeoContextClient(baseUrl, port, apiVersion, executorConfig, poolConfig);
 
 		return (SimpleGeoContextClient) sharedContextService;		
 	}
@@ -82,14 +132,41 @@ public class SimpleGeoContextClient extends AbstractSimpleGeoClient {
 	 * @param baseUrl String api.simplegeo.com is default, but can be overridden.
 	 * @param port String 80 is default, but can be overridden.
 	 * @param apiVersion String 1.0 is default, but can be overridden.
+	 * @param executorConfig RequestExecutorConfig for the executor, or null for the default one.
+	 * @param poolConfig ConnectionPoolConfig for the connection pool, or null for the default one.
 	 */
-	private SimpleGeoContextClient(String baseUrl, String port, String apiVersion) {
-		super(baseUrl, port, apiVersion);
+	private SimpleGeoContextClient(String baseUrl, String port, String apiVersion, RequestExecutorConfig executorConfig,
+			ConnectionPoolConfig poolConfig) {
+		super(baseUrl, port, apiVersion, executorConfig, poolConfig);
 		
 		endpoints.put("address", "context/address.json?address=%s");
 		endpoints.put("context", "context/%f,%f.json");
 		endpoints.put("ip", "context/%s.json");
 		endpoints.put("myIp", "context/ip.json");
+		
+		// Only used once a response cache is set
+		this.setCacheTTL("context", DEFAULT_CONTEXT_CACHE_TTL);
+	}
+	
+	/**
+	 * Set the size of the cells that context lookups are cached by.  Once a response cache is set with
+	 * {@link #setResponseCache(com.simplegeo.client.cache.ResponseCache)}, a lookup is answered from
+	 * the cache if any point in the same cell has been looked up within the "context" endpoint's TTL.
+	 * 
+	 * @param precision the geohash length of a cell, from 1 to {@link com.simplegeo.client.cache.GeoHash#MAX_PRECISION}.
+	 * 5 is roughly 5km across, 7 roughly 150m and 9 roughly 5m.
+	 */
+	public void setContextCachePrecision(int precision) {
+		if (precision < 1 || precision > GeoHash.MAX_PRECISION)
+			throw new IllegalArgumentException(String.format("precision must be between 1 and %d", GeoHash.MAX_PRECISION));
+		this.contextCachePrecision = precision;
+	}
+	
+	/**
+	 * @return the geohash length of the cells context lookups are cached by
+	 */
+	public int getContextCachePrecision() {
+		return contextCachePrecision;
 	}
 	
 	/**
@@ -101,7 +178,7 @@ public class SimpleGeoContextClient extends AbstractSimpleGeoClient {
 	 * @throws IOException
 	 */
 	public HashMap<String, Object> getContext(double lat, double lon) throws IOException {
-		return (HashMap<String, Object>) this.executeGet(String.format(this.getEndpoint("context"), lat, lon), new JSONHandler());
+		return (HashMap<String, Object>) this.executeCachedGet(this.getContextCacheKey(lat, lon), this.getEndpointTemplate("context").expand(lat, lon), new JSONHandler());
 	}
 	
 	/**
@@ -113,7 +190,24 @@ public class SimpleGeoContextClient extends AbstractSimpleGeoClient {
 	 * @throws IOException
 	 */
 	public void getContext(double lat, double lon, SimpleGeoCallback<HashMap<String, Object>> callback) throws IOException {
-		this.executeGet(String.format(this.getEndpoint("context"), lat, lon), new JSONHandler(), callback);
+		this.executeCachedGet(this.getContextCacheKey(lat, lon), this.getEndpointTemplate("context").expand(lat, lon), new JSONHandler(), callback);
+	}
+	
+	/**
+	 * Asynchronously get context for the given latitude and longitude.
+	 * 
+	 * @param lat double latitude
+	 * @param lon double longitude
+	 * @return CompletableFuture completing with a HashMap containing weather, features, demographics and query. Cancelling it aborts the request.
+	 */
+	public CompletableFuture<HashMap<String, Object>> getContextAsync(double lat, double lon) {
+		SimpleGeoFuture<HashMap<String, Object>> future = this.newFuture();
+		try {
+			this.getContext(lat, lon, future);
+		} catch (IOException e) {
+			future.onFailure(e);
+		}
+		return future;
 	}
 	
 	/**
@@ -125,9 +219,9 @@ public class SimpleGeoContextClient extends AbstractSimpleGeoClient {
 	 */
 	public HashMap<String, Object> getContextByIP(String ip) throws IOException {
 		if ("".equals(ip)) {
-			return (HashMap<String, Object>) this.executeGet(this.getEndpoint("myIp"), new JSONHandler());
+			return (HashMap<String, Object>) this.executeGet(this.getEndpointTemplate("myIp").expand(), new JSONHandler());
 		} else {
-			return (HashMap<String, Object>) this.executeGet(String.format(this.getEndpoint("ip"), URLEncoder.encode(ip, "UTF-8")), new JSONHandler());
+			return (HashMap<String, Object>) this.executeGet(this.getEndpointTemplate("ip").expand(URLEncoder.encode(ip, "UTF-8")), new JSONHandler());
 		}
 	}
 	
@@ -140,12 +234,28 @@ public class SimpleGeoContextClient extends AbstractSimpleGeoClient {
 	 */
 	public void getContextByIP(String ip, SimpleGeoCallback<HashMap<String, Object>> callback) throws IOException {
 		if ("".equals(ip)) {
-			this.executeGet(this.getEndpoint("myIp"), new JSONHandler(), callback);
+			this.executeGet(this.getEndpointTemplate("myIp").expand(), new JSONHandler(), callback);
 		} else {
-			this.executeGet(String.format(this.getEndpoint("ip"), URLEncoder.encode(ip, "UTF-8")), new JSONHandler(), callback);
+			this.executeGet(this.getEndpointTemplate("ip").expand(URLEncoder.encode(ip, "UTF-8")), new JSONHandler(), callback);
 		}
 	}
 	
+	/**
+	 * Asynchronously get context for a specific IP.
+	 * 
+	 * @param ip String IP Address If blank, your IP address will be used
+	 * @return CompletableFuture completing with a HashMap containing weather, features, demographics and query. Cancelling it aborts the request.
+	 */
+	public CompletableFuture<HashMap<String, Object>> getContextByIPAsync(String ip) {
+		SimpleGeoFuture<HashMap<String, Object>> future = this.newFuture();
+		try {
+			this.getContextByIP(ip, future);
+		} catch (IOException e) {
+			future.onFailure(e);
+		}
+		return future;
+	}
+	
 	/**
 	 * Synchronously get context for a physical street address.
 	 * 
@@ -154,7 +264,7 @@ public class SimpleGeoContextClient extends AbstractSimpleGeoClient {
 	 * @throws IOException
 	 */
 	public HashMap<String, Object> getContextByAddress(String address) throws IOException {
-		return (HashMap<String, Object>) this.executeGet(String.format(this.getEndpoint("address"), URLEncoder.encode(address, "UTF-8")), new JSONHandler());
+		return (HashMap<String, Object>) this.executeGet(this.getEndpointTemplate("address").expand(URLEncoder.encode(address, "UTF-8")), new JSONHandler());
 	}
 	
 	/**
@@ -165,7 +275,23 @@ public class SimpleGeoContextClient extends AbstractSimpleGeoClient {
 	 * @throws IOException
 	 */
 	public void getContextByAddress(String address, SimpleGeoCallback<HashMap<String, Object>> callback) throws IOException {
-		this.executeGet(String.format(this.getEndpoint("address"), URLEncoder.encode(address, "UTF-8")), new JSONHandler(), callback);
+		this.executeGet(this.getEndpointTemplate("address").expand(URLEncoder.encode(address, "UTF-8")), new JSONHandler(), callback);
+	}
+	
+	/**
+	 * Asynchronously get context for a physical street address.
+	 * 
+	 * @param address String Physical street address
+	 * @return CompletableFuture completing with a HashMap containing weather, features, demographics and query. Cancelling it aborts the request.
+	 */
+	public CompletableFuture<HashMap<String, Object>> getContextByAddressAsync(String address) {
+		SimpleGeoFuture<HashMap<String, Object>> future = this.newFuture();
+		try {
+			this.getContextByAddress(address, future);
+		} catch (IOException e) {
+			future.onFailure(e);
+		}
+		return future;
 	}
 
 	@Override
@@ -185,6 +311,51 @@ public class SimpleGeoContextClient extends AbstractSimpleGeoClient {
 		super.execute(new HttpGet(uri), new SimpleGeoHandler(handler), callback);
 	}
 
+	/**
+	 * @return the key of the cell containing the point, or null if context lookups are not being cached
+	 */
+	private String getContextCacheKey(double lat, double lon) {
+		if (this.getResponseCache() == null || this.getCacheTTL("context") == 0)
+			return null;
+		if (!(lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180))
+			return null;
+		return "context:" + GeoHash.encode(lat, lon, contextCachePrecision);
+	}
+	
+	/**
+	 * Same as {@link #executeGet(String, SimpleGeoJSONHandler)}, but serves the response from the
+	 * response cache when possible, and coalesces lookups in the same cell rather than by URI.
+	 * @param key the cache key, or null to always send the request
+	 */
+	private Object executeCachedGet(String key, String uri, SimpleGeoJSONHandler handler)
+			throws IOException {
+		if (key == null)
+			return this.executeGet(uri, handler);
+		Object cached = this.getCachedResponse("context", key);
+		if (cached != null)
+			return cached;
+		return this.executeCoalesced(key, new HttpGet(uri), this.newCachingHandler("context", key, handler));
+	}
+	
+	/**
+	 * Same as {@link #executeGet(String, SimpleGeoJSONHandler, SimpleGeoCallback)}, but serves the
+	 * response from the response cache when possible.  Cache hits call back on the calling thread.
+	 * @param key the cache key, or null to always send the request
+	 */
+	private void executeCachedGet(String key, String uri, SimpleGeoJSONHandler handler, SimpleGeoCallback callback)
+			throws IOException {
+		if (key == null) {
+			this.executeGet(uri, handler, callback);
+			return;
+		}
+		Object cached = this.getCachedResponse("context", key);
+		if (cached != null) {
+			callback.onSuccess(cached);
+			return;
+		}
+		this.executeCoalesced(key, new HttpGet(uri), this.newCachingHandler("context", key, handler), callback);
+	}
+
 	@Override
 	protected Object executePost(String uri, String jsonPayload,
 			SimpleGeoJSONHandler handler) throws IOException {
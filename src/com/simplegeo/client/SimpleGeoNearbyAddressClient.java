@@ -1,6 +1,7 @@
 package com.simplegeo.client;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
@@ -9,8 +10,11 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.ByteArrayEntity;
 
 import com.simplegeo.client.callbacks.SimpleGeoCallback;
+import com.simplegeo.client.concurrent.RequestExecutorConfig;
+import com.simplegeo.client.concurrent.SimpleGeoFuture;
 import com.simplegeo.client.handler.JSONHandler;
 import com.simplegeo.client.handler.SimpleGeoJSONHandler;
+import com.simplegeo.client.http.ConnectionPoolConfig;
 import com.simplegeo.client.http.SimpleGeoHandler;
 
 public class SimpleGeoNearbyAddressClient extends AbstractSimpleGeoClient
@@ -26,10 +30,44 @@ public class SimpleGeoNearbyAddressClient extends AbstractSimpleGeoClient
      * @return SimpleGeoNearbyAddressClient
      */
     public static SimpleGeoNearbyAddressClient getInstance(String baseUrl, String port, String apiVersion)
+    {
+        return getInstance(baseUrl, port, apiVersion, null);
+    }
+
+    /**
+     * Same as {@link #getInstance(String, String, String)}, but runs the asynchronous (callback) methods
+     * on a bounded, self-sizing executor. The config only applies if this call creates the instance.
+     * 
+     * @param baseUrl String api.simplegeo.com is default, but can be overridden.
+     * @param port String 80 is default, but can be overridden.
+     * @param apiVersion String 1.0 is default, but can be overridden.
+     * @param executorConfig RequestExecutorConfig for the executor, or null for the default one.
+     * @return SimpleGeoNearbyAddressClient
+     */
+    public static SimpleGeoNearbyAddressClient getInstance(String baseUrl, String port, String apiVersion,
+            RequestExecutorConfig executorConfig)
+    {
+        return getInstance(baseUrl, port, apiVersion, executorConfig, null);
+    }
+
+    /**
+     * Same as {@link #getInstance(String, String, String, RequestExecutorConfig)}, but also configures
+     * the connection pool. The configs only apply if this call creates the instance.
+     * 
+     * @param baseUrl String api.simplegeo.com is default, but can be overridden.
+     * @param port String 80 is default, but can be overridden.
+     * @param apiVersion String 1.0 is default, but can be overridden.
+     * @param executorConfig RequestExecutorConfig for the executor, or null for the default one.
+     * @param poolConfig ConnectionPoolConfig for the connection pool, or null for the default one.
+     * @return SimpleGeoNearbyAddressClient
+     */
+    public static SimpleGeoNearbyAddressClient getInstance(String baseUrl, String port, String apiVersion,
+            RequestExecutorConfig executorConfig, ConnectionPoolConfig poolConfig)
     {
         if (sharedNearbyAddressService == null)
         {
-            sharedNearbyAddressService = new SimpleGeoNearbyAddressClient(baseUrl, port, apiVersion);
+            sharedNearbyAddressService = new SimpleGeoNearbyAddressClient(baseUrl, port, apiVersion, executorConfig,
+                    poolConfig);
         }
 
         return (SimpleGeoNearbyAddressClient) sharedNearbyAddressService;
@@ -52,10 +90,13 @@ public class SimpleGeoNearbyAddressClient extends AbstractSimpleGeoClient
      * @param baseUrl String api.simplegeo.com is default, but can be overridden.
      * @param port String 80 is default, but can be overridden.
      * @param apiVersion String 1.0 is default, but can be overridden.
+     * @param executorConfig RequestExecutorConfig for the executor, or null for the default one.
+     * @param poolConfig ConnectionPoolConfig for the connection pool, or null for the default one.
      */
-    private SimpleGeoNearbyAddressClient(String baseUrl, String port, String apiVersion)
+    private SimpleGeoNearbyAddressClient(String baseUrl, String port, String apiVersion,
+            RequestExecutorConfig executorConfig, ConnectionPoolConfig poolConfig)
     {
-        super(baseUrl, port, apiVersion);
+        super(baseUrl, port, apiVersion, executorConfig, poolConfig);
         endpoints.put("nearbyAddress", "nearby/address/%s,%s.json");
     }
 
@@ -66,7 +107,7 @@ public class SimpleGeoNearbyAddressClient extends AbstractSimpleGeoClient
      */
     public Object getEndpointDescriptions() throws IOException
     {
-        return this.executeGet(String.format(this.getEndpoint("endpoints")), new JSONHandler());
+        return this.executeGet(this.getEndpointTemplate("endpoints").expand(), new JSONHandler());
     }
 
     /**
@@ -79,7 +120,28 @@ public class SimpleGeoNearbyAddressClient extends AbstractSimpleGeoClient
      */
     public Object getNearbyAddress(double lat, double lon) throws IOException
     {
-        return this.executeGet(String.format(this.getEndpoint("nearbyAddress"), lat, lon), new JSONHandler());
+        return this.executeGet(this.getEndpointTemplate("nearbyAddress").expand(lat, lon), new JSONHandler());
+    }
+
+    /**
+     * Asynchronously search for nearby places.
+     * 
+     * @param lat Double latitude.
+     * @param lon Double longitude.
+     * @return CompletableFuture completing with the parsed response. Cancelling it aborts the request.
+     */
+    public CompletableFuture<Object> getNearbyAddressAsync(double lat, double lon)
+    {
+        SimpleGeoFuture<Object> future = this.newFuture();
+        try
+        {
+            this.executeGet(this.getEndpointTemplate("nearbyAddress").expand(lat, lon), new JSONHandler(), future);
+        }
+        catch (IOException e)
+        {
+            future.onFailure(e);
+        }
+        return future;
     }
 
     @Override
@@ -153,19 +215,25 @@ public class SimpleGeoNearbyAddressClient extends AbstractSimpleGeoClient
      */
     private String removeEmptyParameters(String uri)
     {
-        if (uri.indexOf("?") == -1)
+        int query = uri.indexOf('?');
+        if (query == -1 || (uri.indexOf("=&", query) == -1 && !uri.endsWith("=")))
             return uri;
 
-        String base = uri.substring(0, uri.indexOf("?"));
-        String[] parameters = uri.substring(uri.indexOf("?") + 1).split("&");
-        String newQuery = "";
-        for (String parameter : parameters)
+        StringBuilder cleaned = new StringBuilder(uri.length()).append(uri, 0, query);
+        char separator = '?';
+        int start = query + 1;
+        while (start < uri.length())
         {
-            if (!parameter.endsWith("="))
+            int end = uri.indexOf('&', start);
+            if (end == -1)
+                end = uri.length();
+            if (end > start && uri.charAt(end - 1) != '=')
             {
-                newQuery += "&" + parameter;
+                cleaned.append(separator).append(uri, start, end);
+                separator = '&';
             }
+            start = end + 1;
         }
-        return base + "?" + newQuery.replaceFirst("&", "");
+        return cleaned.toString();
     }
 }
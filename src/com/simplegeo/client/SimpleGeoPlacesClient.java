@@ -30,8 +30,21 @@
 package com.simplegeo.client;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URLEncoder;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
@@ -40,10 +53,14 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.ByteArrayEntity;
 import org.json.JSONException;
 
+import com.simplegeo.client.callbacks.BulkPlaceCallback;
 import com.simplegeo.client.callbacks.SimpleGeoCallback;
-import com.simplegeo.client.handler.GeoJSONHandler;
+import com.simplegeo.client.concurrent.NamedThreadFactory;
+import com.simplegeo.client.concurrent.RequestExecutorConfig;
+import com.simplegeo.client.concurrent.SimpleGeoFuture;
 import com.simplegeo.client.handler.SimpleGeoJSONHandler;
 import com.simplegeo.client.handler.JSONHandler;
+import com.simplegeo.client.http.ConnectionPoolConfig;
 import com.simplegeo.client.http.OAuthClient;
 import com.simplegeo.client.http.SimpleGeoHandler;
 import com.simplegeo.client.types.Feature;
@@ -60,6 +77,25 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	
 	protected static SimpleGeoPlacesClient placesClient = null;
 	
+	/**
+	 * Default time to live, in milliseconds, of cached place lookups and searches.
+	 */
+	public static final long DEFAULT_CACHE_TTL = 60 * 1000;
+	
+	/**
+	 * Default number of lookups a bulk place lookup keeps in flight at once.
+	 */
+	public static final int DEFAULT_BULK_CONCURRENCY = 16;
+	
+	/**
+	 * Default number of threads that bulk place lookups over the blocking transport share.
+	 */
+	public static final int DEFAULT_MAX_BULK_THREADS = 64;
+	
+	private volatile int bulkConcurrency = DEFAULT_BULK_CONCURRENCY;
+	private int maxBulkThreads = DEFAULT_MAX_BULK_THREADS;
+	private ThreadPoolExecutor bulkExecutor;
+	
 	/**
 	 * Method that ensures we only have one instance of the {@link com.simplegeo.client.SimpleGeoPlacesClient} instantiated.  Also allows
 	 * server connection variables to be overridden.
@@ -70,8 +106,41 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 * @return SimpleGeoPlacesClient
 	 */
 	public static SimpleGeoPlacesClient getInstance(String baseUrl, String port, String apiVersion) {
+		return getInstance(baseUrl, port, apiVersion, null);
+	}
+	
+	/**
+	 * Same as {@link #getInstance(String, String, String)}, but runs the asynchronous (callback) methods
+	 * on a bounded, self-sizing executor.  The config only applies if this call creates the instance.
+	 * 
+	 * @param baseUrl String api.simplegeo.com is default, but can be overridden.
+	 * @param port String 80 is default, but can be overridden.
+	 * @param apiVersion String 1.0 is default, but can be overridden.
+	 * @param executorConfig {@link com.simplegeo.client.concurrent.RequestExecutorConfig} for the executor,
+	 * or null for the default one.
+	 * @return SimpleGeoPlacesClient
+	 */
+	public static SimpleGeoPlacesClient getInstance(String baseUrl, String port, String apiVersion, RequestExecutorConfig executorConfig) {
+		return getInstance(baseUrl, port, apiVersion, executorConfig, null);
+	}
+	
+	/**
+	 * Same as {@link #getInstance(String, String, String, RequestExecutorConfig)}, but also configures
+	 * the connection pool.  The configs only apply if this call creates the instance.
+	 * 
+	 * @param baseUrl String api.simplegeo.com is default, but can be overridden.
+	 * @param port String 80 is default, but can be overridden.
+	 * @param apiVersion String 1.0 is default, but can be overridden.
+	 * @param executorConfig {@link com.simplegeo.client.concurrent.RequestExecutorConfig} for the executor,
+	 * or null for the default one.
+	 * @param poolConfig {@link com.simplegeo.client.http.ConnectionPoolConfig} for the connection pool,
+	 * or null for the default one.
+	 * @return SimpleGeoPlacesClient
+	 */
+	public static SimpleGeoPlacesClient getInstance(String baseUrl, String port, String apiVersion, RequestExecutorConfig executorConfig,
+			ConnectionPoolConfig poolConfig) {
 		if(placesClient == null)
-			placesClient = new SimpleGeoPlacesClient(baseUrl, port, apiVersion);
+			placesClient = new SimpleGeoPlacesClient(baseUrl, port, apiVersion, executorConfig, poolConfig);
 
 		return (SimpleGeoPlacesClient) placesClient;		
 	}
@@ -91,17 +160,27 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 * @param baseUrl String api.simplegeo.com is default, but can be overridden.
 	 * @param port String 80 is default, but can be overridden.
 	 * @param apiVersion String 1.0 is default, but can be overridden.
+	 * @param executorConfig RequestExecutorConfig for the executor, or null for the default one.
+	 * @param poolConfig ConnectionPoolConfig for the connection pool, or null for the default one.
 	 */
-	private SimpleGeoPlacesClient(String baseUrl, String port, String apiVersion) {
-		super(baseUrl, port, apiVersion);
+	private SimpleGeoPlacesClient(String baseUrl, String port, String apiVersion, RequestExecutorConfig executorConfig,
+			ConnectionPoolConfig poolConfig) {
+		super(baseUrl, port, apiVersion, executorConfig, poolConfig);
 		
 		endpoints.put("address", "places/address.json?address=%s&q=%s&category=%s&radius=%s");
 		endpoints.put("endpoints", "endpoints.json");
 		endpoints.put("features", "features/%s.json");
 		endpoints.put("places", "places");
 		endpoints.put("search", "places/%f,%f.json?q=%s&category=%s&radius=%s");
-		endpoints.put("searcByIP", "places/%s.json?q=%s&category=%s&radius=%s");
+		endpoints.put("searchByIP", "places/%s.json?q=%s&category=%s&radius=%s");
 		endpoints.put("searchByMyIP", "places/ip.json?q=%s&category=%s&radius=%s");
+		
+		// Only used once a response cache is set
+		this.setCacheTTL("features", DEFAULT_CACHE_TTL);
+		this.setCacheTTL("search", DEFAULT_CACHE_TTL);
+		this.setCacheTTL("address", DEFAULT_CACHE_TTL);
+		this.setCacheTTL("searchByIP", DEFAULT_CACHE_TTL);
+		this.setCacheTTL("searchByMyIP", DEFAULT_CACHE_TTL);
 	}
 	
 	/**
@@ -112,7 +191,7 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 * @throws IOException
 	 */
 	public Feature getPlace(String simpleGeoId) throws IOException {
-		return (Feature) this.executeGet(String.format(this.getEndpoint("features"), URLEncoder.encode(simpleGeoId, "UTF-8")), new GeoJSONHandler());
+		return (Feature) this.executeCachedGet("features", this.getEndpointTemplate("features").expand(URLEncoder.encode(simpleGeoId, "UTF-8")), this.newGeoJSONHandler());
 	}
 	
 	/**
@@ -122,7 +201,131 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 * @throws IOException
 	 */
 	public void getPlace(String simpleGeoId, SimpleGeoCallback<Feature> callback) throws IOException {
-		this.executeGet(String.format(this.getEndpoint("features"), URLEncoder.encode(simpleGeoId, "UTF-8")), new GeoJSONHandler(), callback);
+		this.executeCachedGet("features", this.getEndpointTemplate("features").expand(URLEncoder.encode(simpleGeoId, "UTF-8")), this.newGeoJSONHandler(), callback);
+	}
+	
+	/**
+	 * Asynchronously get the place that corresponds to the simpleGeoId
+	 * 
+	 * @param simpleGeoId String SimpleGeo generated id that corresponds to a place
+	 * @return CompletableFuture completing with a {@link com.simplegeo.client.types.Feature} representing the place. Cancelling it aborts the request.
+	 */
+	public CompletableFuture<Feature> getPlaceAsync(String simpleGeoId) {
+		SimpleGeoFuture<Feature> future = this.newFuture();
+		try {
+			this.getPlace(simpleGeoId, future);
+		} catch (IOException e) {
+			future.onFailure(e);
+		}
+		return future;
+	}
+	
+	/**
+	 * Synchronously get the places that correspond to a number of simpleGeoIds.  The lookups
+	 * are made {@link #getBulkConcurrency()} at a time, each id once however often it is
+	 * given, and served from the response cache when possible.  A lookup that fails does
+	 * not fail the others; its error is returned in the results.  The results hold every
+	 * place, so for very many ids use {@link #getPlaces(Collection, BulkPlaceCallback)}.
+	 * 
+	 * @param simpleGeoIds Collection of SimpleGeo generated ids that correspond to places
+	 * @return {@link com.simplegeo.client.PlaceResults} holding the places found and the failed lookups' errors
+	 * @throws IOException if the thread is interrupted before the lookups complete
+	 */
+	public PlaceResults getPlaces(Collection<String> simpleGeoIds) throws IOException {
+		CompletableFuture<PlaceResults> future = this.getPlacesAsync(simpleGeoIds);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while getting places");
+		} catch (ExecutionException e) {
+			// Lookups fail one id at a time, into the results, so this is a bug
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Asynchronously get the places that correspond to a number of simpleGeoIds, handing
+	 * each to the callback as its lookup completes.  The lookups are made as by
+	 * {@link #getPlaces(Collection)}, and only the ones in flight are held in memory.
+	 * 
+	 * @param simpleGeoIds Collection of SimpleGeo generated ids that correspond to places
+	 * @param callback {@link com.simplegeo.client.callbacks.BulkPlaceCallback} told of each place or error, then of completion
+	 */
+	public void getPlaces(Collection<String> simpleGeoIds, BulkPlaceCallback callback) {
+		new PlaceFanOut(simpleGeoIds, callback, bulkConcurrency).start();
+	}
+	
+	/**
+	 * Asynchronously get the places that correspond to a number of simpleGeoIds.  The lookups
+	 * are made as by {@link #getPlaces(Collection)}.
+	 * 
+	 * @param simpleGeoIds Collection of SimpleGeo generated ids that correspond to places
+	 * @return CompletableFuture completing with {@link com.simplegeo.client.PlaceResults} once every lookup has.
+	 * Cancelling it stops further lookups.
+	 */
+	public CompletableFuture<PlaceResults> getPlacesAsync(Collection<String> simpleGeoIds) {
+		final SimpleGeoFuture<PlaceResults> future = this.newFuture();
+		final PlaceResults results = new PlaceResults();
+		final PlaceFanOut fanOut = new PlaceFanOut(simpleGeoIds, new BulkPlaceCallback() {
+			public void onPlace(String simpleGeoId, Feature feature) {
+				results.putPlace(simpleGeoId, feature);
+			}
+			public void onError(String simpleGeoId, Throwable cause) {
+				results.putError(simpleGeoId, cause);
+			}
+			public void onComplete() {
+				future.complete(results);
+			}
+		}, bulkConcurrency);
+		future.whenComplete(new BiConsumer<PlaceResults, Throwable>() {
+			public void accept(PlaceResults value, Throwable failure) {
+				if (failure != null)
+					fanOut.cancel();
+			}
+		});
+		fanOut.start();
+		return future;
+	}
+	
+	/**
+	 * @param bulkConcurrency the number of lookups a bulk place lookup keeps in flight at once
+	 */
+	public void setBulkConcurrency(int bulkConcurrency) {
+		if (bulkConcurrency < 1)
+			throw new IllegalArgumentException("bulkConcurrency must be at least 1");
+		this.bulkConcurrency = bulkConcurrency;
+	}
+	
+	/**
+	 * @return the number of lookups a bulk place lookup keeps in flight at once
+	 */
+	public int getBulkConcurrency() {
+		return bulkConcurrency;
+	}
+	
+	/**
+	 * Bound the threads that bulk place lookups share when each lookup needs a thread of its
+	 * own, which is when the transport blocks and virtual threads are off.  Once they are all
+	 * busy, a further lookup is made on the thread starting it, so bulk calls slow down rather
+	 * than add threads.
+	 * 
+	 * @param maxBulkThreads the most threads bulk lookups use at once, across all bulk calls
+	 */
+	public synchronized void setMaxBulkThreads(int maxBulkThreads) {
+		if (maxBulkThreads < 1)
+			throw new IllegalArgumentException("maxBulkThreads must be at least 1");
+		this.maxBulkThreads = maxBulkThreads;
+		if (bulkExecutor != null)
+			bulkExecutor.setMaximumPoolSize(maxBulkThreads);
+	}
+	
+	/**
+	 * @return the most threads bulk lookups use at once, across all bulk calls
+	 */
+	public synchronized int getMaxBulkThreads() {
+		return maxBulkThreads;
 	}
 	
 	/**
@@ -135,7 +338,7 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 */
 	public HashMap<String, Object> addPlace(Feature feature) throws IOException, JSONException {
 		String jsonString = feature.toJSONString();
-		return (HashMap<String, Object>) this.executePost(String.format(this.getEndpoint("places")), jsonString, new JSONHandler());
+		return (HashMap<String, Object>) this.executePost(this.getEndpointTemplate("places").expand(), jsonString, new JSONHandler());
 	}
 	
 	/**
@@ -148,7 +351,25 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 */
 	public void addPlace(Feature feature, SimpleGeoCallback<HashMap<String, Object>> callback) throws IOException, JSONException {
 		String jsonString = feature.toJSONString();
-		this.executePost(String.format(this.getEndpoint("places")), jsonString, new JSONHandler(), callback);
+		this.executePost(this.getEndpointTemplate("places").expand(), jsonString, new JSONHandler(), callback);
+	}
+	
+	/**
+	 * Asynchronously add a new place to the places database
+	 * 
+	 * @param feature {@link com.simplegeo.client.types.Feature} representing a new place.
+	 * @return CompletableFuture completing with a HashMap containing a polling token, simplegeoid and a uri. Cancelling it aborts the request.
+	 */
+	public CompletableFuture<HashMap<String, Object>> addPlaceAsync(Feature feature) {
+		SimpleGeoFuture<HashMap<String, Object>> future = this.newFuture();
+		try {
+			this.addPlace(feature, future);
+		} catch (IOException e) {
+			future.onFailure(e);
+		} catch (JSONException e) {
+			future.onFailure(e);
+		}
+		return future;
 	}
 	
 	/**
@@ -161,7 +382,8 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 */
 	public HashMap<String, Object> updatePlace(Feature feature) throws IOException, JSONException {
 		String jsonString = feature.toJSONString();
-		return (HashMap<String, Object>) this.executePost(String.format(this.getEndpoint("places"), URLEncoder.encode(feature.getSimpleGeoId(), "UTF-8")), jsonString, new JSONHandler());
+		this.invalidateCachedResponse(this.getEndpointTemplate("features").expand(URLEncoder.encode(feature.getSimpleGeoId(), "UTF-8")));
+		return (HashMap<String, Object>) this.executePost(this.getEndpointTemplate("places").expand(URLEncoder.encode(feature.getSimpleGeoId(), "UTF-8")), jsonString, new JSONHandler());
 	}
 	
 	/**
@@ -174,7 +396,26 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 */
 	public void updatePlace(Feature feature, SimpleGeoCallback<HashMap<String, Object>> callback) throws IOException, JSONException {
 		String jsonString = feature.toJSONString();
-		this.executePost(String.format(this.getEndpoint("places"), URLEncoder.encode(feature.getSimpleGeoId(), "UTF-8")), jsonString, new JSONHandler(), callback);
+		this.invalidateCachedResponse(this.getEndpointTemplate("features").expand(URLEncoder.encode(feature.getSimpleGeoId(), "UTF-8")));
+		this.executePost(this.getEndpointTemplate("places").expand(URLEncoder.encode(feature.getSimpleGeoId(), "UTF-8")), jsonString, new JSONHandler(), callback);
+	}
+	
+	/**
+	 * Asynchronously update an existing place in the places database.
+	 * 
+	 * @param feature {@link com.simplegeo.client.types.Feature} representing an existing place.
+	 * @return CompletableFuture completing with a HashMap containing a polling token. Cancelling it aborts the request.
+	 */
+	public CompletableFuture<HashMap<String, Object>> updatePlaceAsync(Feature feature) {
+		SimpleGeoFuture<HashMap<String, Object>> future = this.newFuture();
+		try {
+			this.updatePlace(feature, future);
+		} catch (IOException e) {
+			future.onFailure(e);
+		} catch (JSONException e) {
+			future.onFailure(e);
+		}
+		return future;
 	}
 	
 	/**
@@ -185,7 +426,8 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 * @throws IOException
 	 */
 	public HashMap<String, Object> deletePlace(String simpleGeoId) throws IOException {
-		return (HashMap<String, Object>) this.executeDelete(String.format(this.getEndpoint("features"), URLEncoder.encode(simpleGeoId, "UTF-8")), new JSONHandler());
+		this.invalidateCachedResponse(this.getEndpointTemplate("features").expand(URLEncoder.encode(simpleGeoId, "UTF-8")));
+		return (HashMap<String, Object>) this.executeDelete(this.getEndpointTemplate("features").expand(URLEncoder.encode(simpleGeoId, "UTF-8")), new JSONHandler());
 	}
 	
 	/**
@@ -196,7 +438,24 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 * @throws IOException
 	 */
 	public void deletePlace(String simpleGeoId, SimpleGeoCallback<HashMap<String, Object>> callback) throws IOException {
-		this.executeDelete(String.format(this.getEndpoint("features"), URLEncoder.encode(simpleGeoId, "UTF-8")), new JSONHandler(), callback);
+		this.invalidateCachedResponse(this.getEndpointTemplate("features").expand(URLEncoder.encode(simpleGeoId, "UTF-8")));
+		this.executeDelete(this.getEndpointTemplate("features").expand(URLEncoder.encode(simpleGeoId, "UTF-8")), new JSONHandler(), callback);
+	}
+	
+	/**
+	 * Asynchronously delete an existing place from the places database.
+	 * 
+	 * @param simpleGeoId String corresponding to an existing place.
+	 * @return CompletableFuture completing with a HashMap containing a polling token. Cancelling it aborts the request.
+	 */
+	public CompletableFuture<HashMap<String, Object>> deletePlaceAsync(String simpleGeoId) {
+		SimpleGeoFuture<HashMap<String, Object>> future = this.newFuture();
+		try {
+			this.deletePlace(simpleGeoId, future);
+		} catch (IOException e) {
+			future.onFailure(e);
+		}
+		return future;
 	}
 	
 	/**
@@ -227,6 +486,25 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 		this.search(point.getLat(), point.getLon(), query, category, radius, callback);
 	}
 	
+	/**
+	 * Asynchronously search for nearby places.
+	 * 
+	 * @param point Point {@link com.simplegeo.client.types.Point}
+	 * @param query String A term/phrase to search for
+	 * @param category String A type of place to search for
+	 * @param radius double A distance in kilometers used to restrict searches
+	 * @return CompletableFuture completing with a {@link com.simplegeo.client.types.FeatureCollection} containing search results. Cancelling it aborts the request.
+	 */
+	public CompletableFuture<FeatureCollection> searchAsync(Point point, String query, String category, double radius) {
+		SimpleGeoFuture<FeatureCollection> future = this.newFuture();
+		try {
+			this.search(point, query, category, radius, future);
+		} catch (IOException e) {
+			future.onFailure(e);
+		}
+		return future;
+	}
+	
 	/**
 	 * Synchronously search for nearby places.
 	 * 
@@ -239,7 +517,7 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 * @throws IOException
 	 */
 	public FeatureCollection search(double lat, double lon, String query, String category, double radius) throws IOException {
-		return (FeatureCollection) this.executeGet(String.format(this.getEndpoint("search"), lat, lon, URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), new GeoJSONHandler());
+		return (FeatureCollection) this.executeCachedGet("search", this.getEndpointTemplate("search").expand(lat, lon, URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), this.newGeoJSONHandler());
 	}
 	
 	/**
@@ -254,7 +532,27 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 * @throws IOException
 	 */
 	public void search(double lat, double lon, String query, String category, double radius, SimpleGeoCallback<FeatureCollection> callback) throws IOException {
-		this.executeGet(String.format(this.getEndpoint("search"), lat, lon, URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), new GeoJSONHandler(), callback);
+		this.executeCachedGet("search", this.getEndpointTemplate("search").expand(lat, lon, URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), this.newGeoJSONHandler(), callback);
+	}
+	
+	/**
+	 * Asynchronously search for nearby places.
+	 * 
+	 * @param lat double latitude
+	 * @param lon double longitude
+	 * @param query String A term/phrase to search for
+	 * @param category String A type of place to search for
+	 * @param radius double A distance in kilometers used to restrict searches
+	 * @return CompletableFuture completing with a {@link com.simplegeo.client.types.FeatureCollection} containing search results. Cancelling it aborts the request.
+	 */
+	public CompletableFuture<FeatureCollection> searchAsync(double lat, double lon, String query, String category, double radius) {
+		SimpleGeoFuture<FeatureCollection> future = this.newFuture();
+		try {
+			this.search(lat, lon, query, category, radius, future);
+		} catch (IOException e) {
+			future.onFailure(e);
+		}
+		return future;
 	}
 	
 	/**
@@ -268,7 +566,7 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 * @throws IOException
 	 */
 	public FeatureCollection searchByAddress(String address, String query, String category, double radius) throws IOException {
-		return (FeatureCollection) this.executeGet(String.format(this.getEndpoint("address"), URLEncoder.encode(address, "UTF-8"), URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), new GeoJSONHandler());
+		return (FeatureCollection) this.executeCachedGet("address", this.getEndpointTemplate("address").expand(URLEncoder.encode(address, "UTF-8"), URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), this.newGeoJSONHandler());
 	}
 	
 	/**
@@ -282,7 +580,26 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 * @throws IOException
 	 */
 	public void searchByAddress(String address, String query, String category, double radius, SimpleGeoCallback<FeatureCollection> callback) throws IOException {
-		this.executeGet(String.format(this.getEndpoint("address"), URLEncoder.encode(address, "UTF-8"), URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), new GeoJSONHandler(), callback);
+		this.executeCachedGet("address", this.getEndpointTemplate("address").expand(URLEncoder.encode(address, "UTF-8"), URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), this.newGeoJSONHandler(), callback);
+	}
+	
+	/**
+	 * Asynchronously search by a physical address.
+	 * 
+	 * @param address String Physical address, such as 41 Decatur St, San Francisco, CA
+	 * @param query String A term/phrase to search for
+	 * @param category String A type of place to search for
+	 * @param radius double A distance in kilometers used to restrict searches
+	 * @return CompletableFuture completing with a {@link com.simplegeo.client.types.FeatureCollection} containing search results. Cancelling it aborts the request.
+	 */
+	public CompletableFuture<FeatureCollection> searchByAddressAsync(String address, String query, String category, double radius) {
+		SimpleGeoFuture<FeatureCollection> future = this.newFuture();
+		try {
+			this.searchByAddress(address, query, category, radius, future);
+		} catch (IOException e) {
+			future.onFailure(e);
+		}
+		return future;
 	}
 	
 	/**
@@ -297,9 +614,9 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 */
 	public FeatureCollection searchByIP(String ip, String query, String category, double radius) throws IOException {
 		if ("".equals(ip)) {
-			return (FeatureCollection) this.executeGet(String.format(this.getEndpoint("searchByMyIP"), URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), new GeoJSONHandler());
+			return (FeatureCollection) this.executeCachedGet("searchByMyIP", this.getEndpointTemplate("searchByMyIP").expand(URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), this.newGeoJSONHandler());
 		} else {
-			return (FeatureCollection) this.executeGet(String.format(this.getEndpoint("searchByIP"), URLEncoder.encode(ip, "UTF-8"), URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), new GeoJSONHandler());
+			return (FeatureCollection) this.executeCachedGet("searchByIP", this.getEndpointTemplate("searchByIP").expand(URLEncoder.encode(ip, "UTF-8"), URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), this.newGeoJSONHandler());
 		}
 	}
 	
@@ -315,12 +632,31 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 */
 	public void searchByIP(String ip, String query, String category, double radius, SimpleGeoCallback<FeatureCollection> callback) throws IOException {
 		if ("".equals(ip)) {
-			this.executeGet(String.format(this.getEndpoint("searchByMyIP"), URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), new GeoJSONHandler(), callback);
+			this.executeCachedGet("searchByMyIP", this.getEndpointTemplate("searchByMyIP").expand(URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), this.newGeoJSONHandler(), callback);
 		} else {
-			this.executeGet(String.format(this.getEndpoint("searchByIP"), URLEncoder.encode(ip, "UTF-8"), URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), new GeoJSONHandler(), callback);
+			this.executeCachedGet("searchByIP", this.getEndpointTemplate("searchByIP").expand(URLEncoder.encode(ip, "UTF-8"), URLEncoder.encode(query, "UTF-8"), URLEncoder.encode(category, "UTF-8"), radius), this.newGeoJSONHandler(), callback);
 		}
 	}
 	
+	/**
+	 * Asynchronously search by a specific IP.
+	 * 
+	 * @param ip String IP address If blank, your IP address will be used
+	 * @param query String A term/phrase to search for
+	 * @param category String A type of place to search for
+	 * @param radius double A distance in kilometers used to restrict searches
+	 * @return CompletableFuture completing with a {@link com.simplegeo.client.types.FeatureCollection} containing search results. Cancelling it aborts the request.
+	 */
+	public CompletableFuture<FeatureCollection> searchByIPAsync(String ip, String query, String category, double radius) {
+		SimpleGeoFuture<FeatureCollection> future = this.newFuture();
+		try {
+			this.searchByIP(ip, query, category, radius, future);
+		} catch (IOException e) {
+			future.onFailure(e);
+		}
+		return future;
+	}
+	
 	@Override
 	public OAuthClient getHttpClient() {
 		return super.getHttpClient();
@@ -332,19 +668,25 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 	 * @param uri String uri containing parameters
 	 * @return String uri with empty parameters removed
 	 */
-	private String removeEmptyParameters(String uri) {
-		if (uri.indexOf("?") == -1)
+	String removeEmptyParameters(String uri) {
+		int query = uri.indexOf('?');
+		if (query == -1 || (uri.indexOf("=&", query) == -1 && !uri.endsWith("=")))
 			return uri;
 		
-		String base = uri.substring(0, uri.indexOf("?"));
-		String[] parameters = uri.substring(uri.indexOf("?") + 1).split("&");
-		String newQuery = "";
-		for (String parameter : parameters) {
-			if (!parameter.endsWith("=")) {
-				newQuery += "&" + parameter;
+		StringBuilder cleaned = new StringBuilder(uri.length()).append(uri, 0, query);
+		char separator = '?';
+		int start = query + 1;
+		while (start < uri.length()) {
+			int end = uri.indexOf('&', start);
+			if (end == -1)
+				end = uri.length();
+			if (end > start && uri.charAt(end - 1) != '=') {
+				cleaned.append(separator).append(uri, start, end);
+				separator = '&';
 			}
+			start = end + 1;
 		}
-		return base + "?" + newQuery.replaceFirst("&", "");
+		return cleaned.toString();
 	}
 	
 	@Override
@@ -363,6 +705,36 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 		super.execute(get, new SimpleGeoHandler(handler), callback);
 	}
 	
+	/**
+	 * Same as {@link #executeGet(String, SimpleGeoJSONHandler)}, but serves the response from the
+	 * response cache when possible, keyed on the canonical request URI.
+	 */
+	private Object executeCachedGet(String endpointName, String uri, SimpleGeoJSONHandler handler)
+			throws IOException {
+		uri = this.removeEmptyParameters(uri);
+		Object cached = this.getCachedResponse(endpointName, uri);
+		if (cached != null)
+			return cached;
+		HttpGet get = new HttpGet(uri);
+		return super.execute(get, this.newCachingHandler(endpointName, uri, handler));
+	}
+	
+	/**
+	 * Same as {@link #executeGet(String, SimpleGeoJSONHandler, SimpleGeoCallback)}, but serves the
+	 * response from the response cache when possible.  Cache hits call back on the calling thread.
+	 */
+	private void executeCachedGet(String endpointName, String uri, SimpleGeoJSONHandler handler, SimpleGeoCallback callback)
+			throws IOException {
+		uri = this.removeEmptyParameters(uri);
+		Object cached = this.getCachedResponse(endpointName, uri);
+		if (cached != null) {
+			callback.onSuccess(cached);
+			return;
+		}
+		HttpGet get = new HttpGet(uri);
+		super.execute(get, this.newCachingHandler(endpointName, uri, handler), callback);
+	}
+	
 	@Override
 	protected Object executePost(String uri, String jsonPayload,
 			SimpleGeoJSONHandler handler) throws IOException {
@@ -410,5 +782,127 @@ public class SimpleGeoPlacesClient extends AbstractSimpleGeoClient {
 			throws IOException {
 		super.execute(new HttpDelete(uri), new SimpleGeoHandler(handler), callback);
 	}
+	
+	/**
+	 * @return the threads that make bulk lookups on the blocking transport.  The client's own
+	 * executor may be running a single thread, so bulk lookups get threads of their own, up
+	 * to {@link #getMaxBulkThreads()}; past that a lookup runs on the thread starting it.
+	 */
+	private synchronized ThreadPoolExecutor bulkExecutor() {
+		if (bulkExecutor == null)
+			bulkExecutor = new ThreadPoolExecutor(0, maxBulkThreads, 60, TimeUnit.SECONDS,
+					new SynchronousQueue<Runnable>(), new NamedThreadFactory("SimpleGeoBulk", true),
+					new ThreadPoolExecutor.CallerRunsPolicy());
+		return bulkExecutor;
+	}
+	
+	/**
+	 * Looks up a number of places with a bounded number of lookups in flight, starting
+	 * the next as each one completes.  Lookups are sent with callbacks when those do not
+	 * tie up a pooled thread each; otherwise each is made on a bulk thread.
+	 */
+	private class PlaceFanOut {
+		
+		private final Iterator<String> simpleGeoIds;
+		private final BulkPlaceCallback callback;
+		private final int concurrency;
+		private final AtomicInteger remaining;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicInteger pumps = new AtomicInteger();
+		private final Set<SimpleGeoFuture<Feature>> pending = ConcurrentHashMap.newKeySet();
+		private volatile boolean cancelled;
+		
+		PlaceFanOut(Collection<String> simpleGeoIds, BulkPlaceCallback callback, int concurrency) {
+			Set<String> distinct = new LinkedHashSet<String>();
+			for (String simpleGeoId : simpleGeoIds) {
+				if (simpleGeoId == null)
+					throw new IllegalArgumentException("simpleGeoIds must not contain null");
+				distinct.add(simpleGeoId);
+			}
+			this.simpleGeoIds = distinct.iterator();
+			this.callback = callback;
+			this.concurrency = concurrency;
+			this.remaining = new AtomicInteger(distinct.size());
+		}
+		
+		void start() {
+			if (remaining.get() == 0)
+				callback.onComplete();
+			else
+				pump();
+		}
+		
+		void cancel() {
+			cancelled = true;
+			for (SimpleGeoFuture<Feature> future : pending)
+				future.cancel(true);
+		}
+		
+		/**
+		 * Starts lookups until the bound is reached.  Only one thread does so at a time; a
+		 * completion while it does, such as a cache hit completing on the pumping thread,
+		 * sends it around again rather than recursing.
+		 */
+		private void pump() {
+			if (pumps.getAndIncrement() != 0)
+				return;
+			int missed = 1;
+			do {
+				while (!cancelled && simpleGeoIds.hasNext() && inFlight.get() < concurrency) {
+					inFlight.incrementAndGet();
+					lookUp(simpleGeoIds.next());
+				}
+				missed = pumps.addAndGet(-missed);
+			} while (missed != 0);
+		}
+		
+		private void lookUp(final String simpleGeoId) {
+			final SimpleGeoFuture<Feature> future = newFuture();
+			pending.add(future);
+			if (getTransport().isNonBlocking() || isVirtualThreads()) {
+				try {
+					getPlace(simpleGeoId, future);
+				} catch (IOException e) {
+					future.onFailure(e);
+				}
+			} else {
+				bulkExecutor().execute(new Runnable() {
+					public void run() {
+						try {
+							future.onSuccess(getPlace(simpleGeoId));
+						} catch (IOException e) {
+							future.onFailure(e);
+						} catch (RuntimeException e) {
+							future.onFailure(e);
+						}
+					}
+				});
+			}
+			future.whenComplete(new BiConsumer<Feature, Throwable>() {
+				public void accept(Feature feature, Throwable failure) {
+					pending.remove(future);
+					finish(simpleGeoId, feature, failure);
+				}
+			});
+		}
+		
+		private void finish(String simpleGeoId, Feature feature, Throwable failure) {
+			if (cancelled)
+				return;
+			try {
+				if (failure == null)
+					callback.onPlace(simpleGeoId, feature);
+				else
+					callback.onError(simpleGeoId, failure);
+			} finally {
+				inFlight.decrementAndGet();
+				if (remaining.decrementAndGet() == 0)
+					callback.onComplete();
+				else
+					pump();
+			}
+		}
+		
+	}
 
 }
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.cache;
+
+/**
+ * Encodes coordinates as geohashes, which name the cells of a grid that
+ * gets finer with every character: 5 characters is roughly a 5km square,
+ * 7 characters roughly 150m and 9 characters roughly 5m.  Nearby points
+ * share a prefix, which makes a geohash a good cache key for lookups that
+ * only need to be accurate to within a cell.
+ */
+public final class GeoHash {
+
+	public static final int MAX_PRECISION = 12;
+
+	private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+	private GeoHash() {
+	}
+
+	/**
+	 * @param lat latitude, from -90 to 90
+	 * @param lon longitude, from -180 to 180
+	 * @param precision the number of characters, from 1 to {@link #MAX_PRECISION}
+	 * @return the geohash of the cell containing the point
+	 */
+	public static String encode(double lat, double lon, int precision) {
+		if (precision < 1 || precision > MAX_PRECISION)
+			throw new IllegalArgumentException(String.format("precision must be between 1 and %d", MAX_PRECISION));
+		if (Double.isNaN(lat) || lat < -90 || lat > 90)
+			throw new IllegalArgumentException("lat must be between -90 and 90");
+		if (Double.isNaN(lon) || lon < -180 || lon > 180)
+			throw new IllegalArgumentException("lon must be between -180 and 180");
+		
+		double minLat = -90, maxLat = 90;
+		double minLon = -180, maxLon = 180;
+		char[] hash = new char[precision];
+		boolean even = true;
+		for (int i=0; i<precision; i++) {
+			int bits = 0;
+			for (int b=0; b<5; b++) {
+				bits <<= 1;
+				if (even) {
+					double mid = (minLon + maxLon) / 2;
+					if (lon >= mid) {
+						bits |= 1;
+						minLon = mid;
+					} else {
+						maxLon = mid;
+					}
+				} else {
+					double mid = (minLat + maxLat) / 2;
+					if (lat >= mid) {
+						bits |= 1;
+						minLat = mid;
+					} else {
+						maxLat = mid;
+					}
+				}
+				even = !even;
+			}
+			hash[i] = BASE32[bits];
+		}
+		return new String(hash);
+	}
+
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ResponseCache} that evicts in approximately least recently used
+ * order.  Eviction uses the CLOCK (second chance) algorithm: a hit only sets
+ * a flag on the entry, so lookups never take a lock or reorder a list, and
+ * writers sweep the clock queue, giving flagged entries another pass and
+ * dropping the first unflagged one.
+ */
+public class LRUResponseCache implements ResponseCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	private final int maxEntries;
+	private final ConcurrentHashMap<String, Entry> entries;
+	private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<Entry>();
+	private final AtomicInteger clockSize = new AtomicInteger();
+	private final Object evictionLock = new Object();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+
+	public LRUResponseCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param maxEntries the most responses to hold at once
+	 */
+	public LRUResponseCache(int maxEntries) {
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("maxEntries must be at least 1");
+		this.maxEntries = maxEntries;
+		this.entries = new ConcurrentHashMap<String, Entry>(Math.min(maxEntries, 1024) * 4 / 3 + 1);
+	}
+
+	public Object get(String uri) {
+		Entry entry = entries.get(uri);
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		if (entry.isExpired(System.nanoTime())) {
+			if (entries.remove(uri, entry))
+				expirations.incrementAndGet();
+			misses.incrementAndGet();
+			return null;
+		}
+		
+		if (!entry.referenced)
+			entry.referenced = true;
+		hits.incrementAndGet();
+		return entry.response;
+	}
+
+	public void put(String uri, Object response, long ttlMillis) {
+		if (response == null || ttlMillis <= 0)
+			return;
+		
+		Entry entry = new Entry(uri, response, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+		entries.put(uri, entry);
+		clock.add(entry);
+		
+		// Replaced and removed entries stay queued until the clock reaches them,
+		// so sweep once they make up half the queue as well.
+		if (clockSize.incrementAndGet() > 2 * maxEntries || entries.size() > maxEntries)
+			evict();
+	}
+
+	public void remove(String uri) {
+		entries.remove(uri);
+	}
+
+	public void clear() {
+		synchronized (evictionLock) {
+			entries.clear();
+			clock.clear();
+			clockSize.set(0);
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public CacheStats getStats() {
+		return new CacheStats(hits.get(), misses.get(), evictions.get(), expirations.get());
+	}
+
+	/**
+	 * @return the most responses this cache holds at once
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	private void evict() {
+		synchronized (evictionLock) {
+			long now = System.nanoTime();
+			int budget = clockSize.get();
+			while (entries.size() > maxEntries || clockSize.get() > 2 * maxEntries) {
+				Entry entry = clock.poll();
+				if (entry == null)
+					break;
+				
+				if (entries.get(entry.uri) != entry) {
+					clockSize.decrementAndGet();
+				} else if (entry.isExpired(now)) {
+					clockSize.decrementAndGet();
+					if (entries.remove(entry.uri, entry))
+						expirations.incrementAndGet();
+				} else if (entries.size() > maxEntries && !entry.referenced) {
+					clockSize.decrementAndGet();
+					if (entries.remove(entry.uri, entry))
+						evictions.incrementAndGet();
+				} else {
+					// Second chance.  The budget stops a sweep for stale entries
+					// from cycling through live ones forever.
+					if (entries.size() > maxEntries)
+						entry.referenced = false;
+					else if (--budget < 0)
+						break;
+					clock.add(entry);
+				}
+			}
+		}
+	}
+
+	private static final class Entry {
+		final String uri;
+		final Object response;
+		final long expiresAt;
+		volatile boolean referenced;
+
+		Entry(String uri, Object response, long expiresAt) {
+			this.uri = uri;
+			this.response = response;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired(long now) {
+			return now - expiresAt >= 0;
+		}
+	}
+
+}
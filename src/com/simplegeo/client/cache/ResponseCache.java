@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.cache;
+
+/**
+ * A size-bounded cache of parsed API responses, keyed on the request URI.
+ * Implementations must be safe for concurrent use; {@link #get(String)}
+ * sits on the request path and should not block.
+ */
+public interface ResponseCache {
+
+	/**
+	 * @param uri the canonical request URI
+	 * @return the cached response, or null if there is none or it has expired
+	 */
+	public Object get(String uri);
+
+	/**
+	 * Cache a response, replacing any previous one for the same URI.
+	 * 
+	 * @param uri the canonical request URI
+	 * @param response the parsed response
+	 * @param ttlMillis how long the response may be served from the cache
+	 */
+	public void put(String uri, Object response, long ttlMillis);
+
+	/**
+	 * @param uri the canonical request URI to drop from the cache
+	 */
+	public void remove(String uri);
+
+	public void clear();
+
+	/**
+	 * @return the number of responses currently cached, including any that
+	 * have expired but not been removed yet
+	 */
+	public int size();
+
+	/**
+	 * @return a snapshot of the cache's hit, miss and eviction counters
+	 */
+	public CacheStats getStats();
+
+}
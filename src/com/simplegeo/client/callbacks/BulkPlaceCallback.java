@@ -0,0 +1,18 @@
+package com.simplegeo.client.callbacks;
+
+import com.simplegeo.client.types.Feature;
+
+/**
+ * Receives the places looked up by <code>SimpleGeoPlacesClient.getPlaces</code> one
+ * at a time, as each lookup completes.  Lookups complete on several threads, so the
+ * methods may be called concurrently.
+ */
+public interface BulkPlaceCallback {
+
+	public void onPlace(String simpleGeoId, Feature feature);
+	
+	public void onError(String simpleGeoId, Throwable cause);
+	
+	public void onComplete();
+	
+}
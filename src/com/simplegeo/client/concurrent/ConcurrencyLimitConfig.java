@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.concurrent;
+
+/**
+ * Settings for a client's {@link ConcurrencyLimiter}.  Pass an instance to a
+ * client's <code>setConcurrencyLimitConfig</code> method; without one the number
+ * of requests in flight is only bounded by the executor and connection pool.
+ * <p>
+ * The limit starts at {@link #getInitialLimit()} and is moved by the
+ * {@link #getAlgorithm()} between {@link #getMinLimit()} and
+ * {@link #getMaxLimit()}.  Requests over the limit wait, in order, for up to
+ * {@link #getMaxWaitMillis()}; once {@link #getMaxQueueSize()} are waiting,
+ * further requests are refused straight away.
+ * <p>
+ * Configure the settings before handing them to a client.
+ */
+public class ConcurrencyLimitConfig {
+
+	private LimitAlgorithm algorithm = LimitAlgorithm.GRADIENT;
+	private int initialLimit = 20;
+	private int minLimit = 1;
+	private int maxLimit = 200;
+	private double backoffRatio = 0.9;
+	private long timeoutMillis = 5000;
+	private double rttTolerance = 1.5;
+	private double smoothing = 0.2;
+	private int rttWindow = 100;
+	private int maxQueueSize = 100;
+	private long maxWaitMillis = 1000;
+
+	/**
+	 * @return how the limit is moved as requests complete
+	 */
+	public LimitAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @param algorithm how the limit is moved as requests complete
+	 */
+	public void setAlgorithm(LimitAlgorithm algorithm) {
+		if (algorithm == null)
+			throw new IllegalArgumentException("algorithm must not be null");
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * @return the limit before any requests have completed
+	 */
+	public int getInitialLimit() {
+		return initialLimit;
+	}
+
+	/**
+	 * @param initialLimit the limit before any requests have completed
+	 */
+	public void setInitialLimit(int initialLimit) {
+		if (initialLimit < 1)
+			throw new IllegalArgumentException("initialLimit must be at least 1");
+		this.initialLimit = initialLimit;
+	}
+
+	/**
+	 * @return the lowest the limit can go
+	 */
+	public int getMinLimit() {
+		return minLimit;
+	}
+
+	/**
+	 * @param minLimit the lowest the limit can go
+	 */
+	public void setMinLimit(int minLimit) {
+		if (minLimit < 1)
+			throw new IllegalArgumentException("minLimit must be at least 1");
+		this.minLimit = minLimit;
+	}
+
+	/**
+	 * @return the highest the limit can go
+	 */
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	/**
+	 * @param maxLimit the highest the limit can go
+	 */
+	public void setMaxLimit(int maxLimit) {
+		if (maxLimit < 1)
+			throw new IllegalArgumentException("maxLimit must be at least 1");
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * @return what the limit is multiplied by when a request is dropped
+	 */
+	public double getBackoffRatio() {
+		return backoffRatio;
+	}
+
+	/**
+	 * @param backoffRatio what the limit is multiplied by when a request is dropped,
+	 * between 0.5 and 1
+	 */
+	public void setBackoffRatio(double backoffRatio) {
+		if (!(backoffRatio >= 0.5 && backoffRatio < 1))
+			throw new IllegalArgumentException("backoffRatio must be at least 0.5 and less than 1");
+		this.backoffRatio = backoffRatio;
+	}
+
+	/**
+	 * @return how long a request may take before it counts as dropped
+	 */
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * @param timeoutMillis how long a request may take before it counts as dropped
+	 */
+	public void setTimeoutMillis(long timeoutMillis) {
+		if (timeoutMillis < 1)
+			throw new IllegalArgumentException("timeoutMillis must be at least 1");
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * @return how many times the long-run round trip time a round trip may take
+	 * before the gradient algorithm lowers the limit
+	 */
+	public double getRttTolerance() {
+		return rttTolerance;
+	}
+
+	/**
+	 * @param rttTolerance how many times the long-run round trip time a round trip
+	 * may take before the gradient algorithm lowers the limit, at least 1
+	 */
+	public void setRttTolerance(double rttTolerance) {
+		if (!(rttTolerance >= 1))
+			throw new IllegalArgumentException("rttTolerance must be at least 1");
+		this.rttTolerance = rttTolerance;
+	}
+
+	/**
+	 * @return how far the gradient algorithm moves the limit towards its target on each sample
+	 */
+	public double getSmoothing() {
+		return smoothing;
+	}
+
+	/**
+	 * @param smoothing how far the gradient algorithm moves the limit towards its
+	 * target on each sample, between 0 and 1
+	 */
+	public void setSmoothing(double smoothing) {
+		if (!(smoothing > 0 && smoothing <= 1))
+			throw new IllegalArgumentException("smoothing must be more than 0 and at most 1");
+		this.smoothing = smoothing;
+	}
+
+	/**
+	 * @return roughly how many samples the long-run round trip time averages over
+	 */
+	public int getRttWindow() {
+		return rttWindow;
+	}
+
+	/**
+	 * @param rttWindow roughly how many samples the long-run round trip time averages over
+	 */
+	public void setRttWindow(int rttWindow) {
+		if (rttWindow < 1)
+			throw new IllegalArgumentException("rttWindow must be at least 1");
+		this.rttWindow = rttWindow;
+	}
+
+	/**
+	 * @return how many requests may wait for a permit, or 0 to refuse requests over
+	 * the limit straight away
+	 */
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+	/**
+	 * @param maxQueueSize how many requests may wait for a permit, or 0 to refuse
+	 * requests over the limit straight away
+	 */
+	public void setMaxQueueSize(int maxQueueSize) {
+		if (maxQueueSize < 0)
+			throw new IllegalArgumentException("maxQueueSize must not be negative");
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	/**
+	 * @return how long a request waits for a permit before it is refused
+	 */
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	/**
+	 * @param maxWaitMillis how long a request waits for a permit before it is refused
+	 */
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		if (maxWaitMillis < 0)
+			throw new IllegalArgumentException("maxWaitMillis must not be negative");
+		this.maxWaitMillis = maxWaitMillis;
+	}
+}
@@ -0,0 +1,416 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.concurrent;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.simplegeo.client.http.exceptions.APIException;
+
+/**
+ * Limits how many requests a client has in flight, and adapts the limit to the
+ * round trip times and errors it measures, as set out by a
+ * {@link ConcurrencyLimitConfig}.  A request takes a permit with one of the
+ * <code>acquire</code> methods and gives it back with
+ * {@link #release(Throwable, long)} once it completes, or with {@link #release()}
+ * if it was abandoned and says nothing about the upstream.
+ * <p>
+ * Requests over the limit wait in one queue, in order, whether their caller is
+ * blocked in {@link #acquire()} or gave a callback to
+ * {@link #acquire(Runnable, Runnable)}.  A waiting callback is refused as soon
+ * as its wait is over, timed on the scheduler the limiter was given, even if no
+ * permit is ever given back; without a scheduler it is refused the next time a
+ * permit frees up.  Blocked callers wait on a {@link java.util.concurrent.locks.Condition} rather
+ * than a monitor, so a virtual thread waiting for a permit does not pin its
+ * carrier thread.
+ */
+public class ConcurrencyLimiter {
+
+	private final ConcurrencyLimitConfig config;
+	private final ScheduledExecutorService scheduler;
+	private final ArrayDeque<Waiter> waiters = new ArrayDeque<Waiter>();
+	private final AtomicLong rejected = new AtomicLong();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition permitted = lock.newCondition();
+
+	private double limit;
+	private int inFlight;
+	private double longRttNanos;
+
+	/**
+	 * @param config the settings to limit requests with
+	 */
+	public ConcurrencyLimiter(ConcurrencyLimitConfig config) {
+		this(config, null);
+	}
+
+	/**
+	 * @param config the settings to limit requests with
+	 * @param scheduler times the waits of queued callbacks, or null to only check
+	 * them when a permit is given back
+	 */
+	public ConcurrencyLimiter(ConcurrencyLimitConfig config, ScheduledExecutorService scheduler) {
+		this.config = config;
+		this.scheduler = scheduler;
+		this.limit = clamp(config.getInitialLimit());
+	}
+
+	/**
+	 * @return the number of requests that may be in flight at once
+	 */
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests holding a permit
+	 */
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of requests waiting for a permit
+	 */
+	public int getQueueSize() {
+		lock.lock();
+		try {
+			return waiters.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return how many requests have been refused a permit
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * Takes a permit, waiting for one if the limit has been reached.
+	 * 
+	 * @return true if a permit was taken, false if the request is refused
+	 * @throws InterruptedException if the thread is interrupted while it waits
+	 */
+	public boolean acquire() throws InterruptedException {
+		InterruptedException interruption;
+		lock.lock();
+		try {
+			if (waiters.isEmpty() && inFlight < (int) limit) {
+				inFlight++;
+				return true;
+			}
+			if (waiters.size() >= config.getMaxQueueSize()) {
+				rejected.incrementAndGet();
+				return false;
+			}
+			
+			long deadline = now() + config.getMaxWaitMillis();
+			Waiter waiter = new Waiter(null, null, deadline);
+			waiters.add(waiter);
+			try {
+				while (!waiter.granted) {
+					long remaining = deadline - now();
+					if (remaining <= 0) {
+						waiters.remove(waiter);
+						rejected.incrementAndGet();
+						return false;
+					}
+					permitted.await(remaining, TimeUnit.MILLISECONDS);
+				}
+				return true;
+			} catch (InterruptedException e) {
+				if (waiter.granted)
+					inFlight--;
+				else
+					waiters.remove(waiter);
+				interruption = e;
+			}
+		} finally {
+			lock.unlock();
+		}
+		// A permit given up by an interrupted waiter goes to the next one in line
+		dispatch();
+		throw interruption;
+	}
+
+	/**
+	 * Takes a permit without blocking.  If the limit has been reached the request
+	 * waits in the queue, and one of the given tasks is run later on the thread
+	 * that releases a permit.
+	 * 
+	 * @param onPermit run once a permit has been taken for the request
+	 * @param onRejected run if the request is refused
+	 * @return if the request was queued, a task for when its caller gives up on it,
+	 * which takes it out of the queue and runs <code>onRejected</code> if it is still
+	 * waiting, without counting it as refused; otherwise null
+	 */
+	public Runnable acquire(Runnable onPermit, Runnable onRejected) {
+		boolean granted = false;
+		final Waiter waiter;
+		lock.lock();
+		try {
+			if (waiters.isEmpty() && inFlight < (int) limit) {
+				inFlight++;
+				granted = true;
+				waiter = null;
+			} else if (waiters.size() < config.getMaxQueueSize()) {
+				waiter = new Waiter(onPermit, onRejected, now() + config.getMaxWaitMillis());
+				waiters.add(waiter);
+			} else {
+				rejected.incrementAndGet();
+				waiter = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (waiter != null) {
+			expireLater(waiter);
+			return new Runnable() {
+				public void run() {
+					withdraw(waiter);
+				}
+			};
+		}
+		if (granted)
+			onPermit.run();
+		else
+			onRejected.run();
+		return null;
+	}
+
+	private void expireLater(final Waiter waiter) {
+		if (scheduler == null)
+			return;
+		try {
+			waiter.expiry = scheduler.schedule(new Runnable() {
+				public void run() {
+					expire(waiter);
+				}
+			}, config.getMaxWaitMillis(), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Left for dispatch to refuse
+		}
+	}
+
+	private void expire(Waiter waiter) {
+		lock.lock();
+		try {
+			if (!waiters.remove(waiter))
+				return;
+			rejected.incrementAndGet();
+		} finally {
+			lock.unlock();
+		}
+		waiter.onRejected.run();
+	}
+
+	private void withdraw(Waiter waiter) {
+		boolean removed;
+		lock.lock();
+		try {
+			removed = waiters.remove(waiter);
+		} finally {
+			lock.unlock();
+		}
+		if (removed) {
+			cancelExpiry(waiter);
+			waiter.onRejected.run();
+		}
+	}
+
+	private static void cancelExpiry(Waiter waiter) {
+		ScheduledFuture<?> expiry = waiter.expiry;
+		if (expiry != null)
+			expiry.cancel(false);
+	}
+
+	/**
+	 * Gives back the permit of a request that completed, and adjusts the limit.
+	 * 
+	 * @param failure the exception the request failed with, or null if it succeeded
+	 * @param rttNanos how long the request took from being sent to completing
+	 */
+	public void release(Throwable failure, long rttNanos) {
+		lock.lock();
+		try {
+			int sampled = inFlight;
+			inFlight--;
+			
+			double weight = 1.0 / config.getRttWindow();
+			longRttNanos = longRttNanos == 0 ? rttNanos : longRttNanos * (1 - weight) + rttNanos * weight;
+			if (isDrop(failure) || TimeUnit.NANOSECONDS.toMillis(rttNanos) >= config.getTimeoutMillis())
+				limit = clamp(limit * config.getBackoffRatio());
+			else
+				limit = clamp(config.getAlgorithm().nextLimit(limit, sampled, rttNanos, longRttNanos, config));
+		} finally {
+			lock.unlock();
+		}
+		dispatch();
+	}
+
+	/**
+	 * Gives back the permit of a request that was abandoned, without adjusting the limit.
+	 */
+	public void release() {
+		lock.lock();
+		try {
+			inFlight--;
+		} finally {
+			lock.unlock();
+		}
+		dispatch();
+	}
+
+	/**
+	 * @param failure the exception a request failed with, or null
+	 * @return true if the failure suggests the upstream is overloaded
+	 */
+	public static boolean isDrop(Throwable failure) {
+		if (failure instanceof APIException) {
+			int statusCode = ((APIException) failure).statusCode;
+			return statusCode == 429 || statusCode >= 500;
+		}
+		return failure instanceof IOException;
+	}
+
+	/**
+	 * Hands free permits to waiting requests in order, and refuses callbacks that
+	 * have waited too long wherever they are in the queue.
+	 */
+	private void dispatch() {
+		List<Waiter> granted = null;
+		List<Waiter> refused = null;
+		lock.lock();
+		try {
+			if (waiters.isEmpty())
+				return;
+			long now = now();
+			boolean wake = false;
+			boolean full = false;
+			Iterator<Waiter> it = waiters.iterator();
+			while (it.hasNext()) {
+				Waiter waiter = it.next();
+				boolean blocking = waiter.onPermit == null;
+				if (!blocking && waiter.deadline < now) {
+					it.remove();
+					rejected.incrementAndGet();
+					if (refused == null)
+						refused = new ArrayList<Waiter>();
+					refused.add(waiter);
+				} else if (!full && inFlight < (int) limit) {
+					it.remove();
+					inFlight++;
+					waiter.granted = true;
+					if (blocking) {
+						wake = true;
+					} else {
+						if (granted == null)
+							granted = new ArrayList<Waiter>();
+						granted.add(waiter);
+					}
+				} else {
+					// Nothing behind is let past, but expired callbacks are still refused
+					full = true;
+				}
+			}
+			if (wake)
+				permitted.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		if (refused != null) {
+			for (Waiter waiter : refused) {
+				cancelExpiry(waiter);
+				waiter.onRejected.run();
+			}
+		}
+		if (granted != null) {
+			for (Waiter waiter : granted) {
+				cancelExpiry(waiter);
+				waiter.onPermit.run();
+			}
+		}
+	}
+
+	private double clamp(double value) {
+		return Math.max(config.getMinLimit(), Math.min(config.getMaxLimit(), value));
+	}
+
+	private static long now() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	@Override
+	public String toString() {
+		lock.lock();
+		try {
+			return String.format("limit=%d, inFlight=%d, queued=%d, rejected=%d", (int) limit, inFlight, waiters.size(), getRejectedCount());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static class Waiter {
+
+		private final Runnable onPermit;
+		private final Runnable onRejected;
+		private final long deadline;
+		private boolean granted;
+		private volatile ScheduledFuture<?> expiry;
+
+		Waiter(Runnable onPermit, Runnable onRejected, long deadline) {
+			this.onPermit = onPermit;
+			this.onRejected = onRejected;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.concurrent;
+
+/**
+ * How a {@link ConcurrencyLimiter} moves its limit on the number of requests in
+ * flight after each request completes.  Both algorithms cut the limit by
+ * {@link ConcurrencyLimitConfig#getBackoffRatio()} when a request is dropped:
+ * it failed with an I/O error, a 429 or a 5xx, or took longer than
+ * {@link ConcurrencyLimitConfig#getTimeoutMillis()}.  Neither raises the limit
+ * while fewer than half of the permits are in use, since those requests say
+ * nothing about what a higher limit would do.
+ */
+public enum LimitAlgorithm {
+
+	/**
+	 * Additive increase, multiplicative decrease: the limit grows by about one
+	 * per round trip while requests succeed.
+	 */
+	AIMD {
+		double nextLimit(double limit, int inFlight, long rttNanos, double longRttNanos, ConcurrencyLimitConfig config) {
+			if (inFlight * 2 < limit)
+				return limit;
+			return limit + 1.0 / limit;
+		}
+	},
+
+	/**
+	 * Scale the limit by the ratio of the long-run average round trip time to the
+	 * latest one, so that it shrinks as soon as requests start queueing upstream
+	 * and grows again while round trips stay near their usual time.  A small
+	 * allowance of the square root of the limit lets it keep probing upwards.
+	 */
+	GRADIENT {
+		double nextLimit(double limit, int inFlight, long rttNanos, double longRttNanos, ConcurrencyLimitConfig config) {
+			double gradient = Math.max(0.5, Math.min(1.0, config.getRttTolerance() * longRttNanos / Math.max(rttNanos, 1)));
+			if (gradient == 1.0 && inFlight * 2 < limit)
+				return limit;
+			double target = limit * gradient + Math.sqrt(limit);
+			return limit * (1 - config.getSmoothing()) + target * config.getSmoothing();
+		}
+	};
+
+	/**
+	 * @param limit the current limit
+	 * @param inFlight the requests in flight when the sample completed, counting it
+	 * @param rttNanos the round trip time of the request that completed
+	 * @param longRttNanos the long-run average round trip time, including this one
+	 * @param config the limiter's settings
+	 * @return the new limit, before it is held between the minimum and maximum
+	 */
+	abstract double nextLimit(double limit, int inFlight, long rttNanos, double longRttNanos, ConcurrencyLimitConfig config);
+
+}
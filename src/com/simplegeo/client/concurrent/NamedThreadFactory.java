@@ -40,6 +40,7 @@ import java.util.concurrent.atomic.*;
 public class NamedThreadFactory implements ThreadFactory
 {
     protected final String id;    
+    protected final boolean daemon;
     protected final AtomicInteger n = new AtomicInteger(1);
 
     /**
@@ -49,9 +50,22 @@ public class NamedThreadFactory implements ThreadFactory
      * @param id The name of the the thread factory;
      */
     public NamedThreadFactory(String id)
+    {
+    	this(id, false);
+    }
+
+    /**
+     * Creates a new ThreadFactory whose threads are optionally marked
+     * as daemon threads so they do not keep the JVM alive.
+     * 
+     * @param id The name of the the thread factory;
+     * @param daemon whether created threads should be daemon threads
+     */
+    public NamedThreadFactory(String id, boolean daemon)
     {
     	super();
         this.id = id;
+        this.daemon = daemon;
     }
 
     /* (non-Javadoc)
@@ -60,6 +74,9 @@ public class NamedThreadFactory implements ThreadFactory
     public Thread newThread(Runnable runnable)
     {        
         String name = id + ":" + n.getAndIncrement();
-        return new Thread(runnable, name);
+        Thread thread = new Thread(runnable, name);
+        if (daemon)
+            thread.setDaemon(true);
+        return thread;
     }
 }
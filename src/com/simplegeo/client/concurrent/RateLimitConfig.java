@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.concurrent;
+
+import java.io.File;
+
+/**
+ * Settings for the token bucket that paces the requests made with one OAuth
+ * consumer key.  Pass an instance to a client's <code>setRateLimitConfig</code>
+ * method; without one requests are sent as fast as they are made.
+ * <p>
+ * The bucket holds up to {@link #getBurst()} requests and refills at
+ * {@link #getPermitsPerSecond()}.  A request that finds it empty waits for its
+ * turn if that comes within {@link #getMaxWaitMillis()}, and is refused
+ * otherwise.  With a {@link #getSharedDirectory()}, every process on the host
+ * that uses the same key and directory draws from one bucket.
+ * <p>
+ * Configure the settings before handing them to a client.
+ */
+public class RateLimitConfig {
+
+	private double permitsPerSecond = 10;
+	private int burst = 10;
+	private long maxWaitMillis = 1000;
+	private File sharedDirectory;
+
+	/**
+	 * @return the sustained number of requests allowed per second
+	 */
+	public double getPermitsPerSecond() {
+		return permitsPerSecond;
+	}
+
+	/**
+	 * @param permitsPerSecond the sustained number of requests allowed per second
+	 */
+	public void setPermitsPerSecond(double permitsPerSecond) {
+		if (!(permitsPerSecond > 0))
+			throw new IllegalArgumentException("permitsPerSecond must be positive");
+		this.permitsPerSecond = permitsPerSecond;
+	}
+
+	/**
+	 * @return the number of requests that may be sent at once after a quiet spell
+	 */
+	public int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * @param burst the number of requests that may be sent at once after a quiet spell
+	 */
+	public void setBurst(int burst) {
+		if (burst < 1)
+			throw new IllegalArgumentException("burst must be at least 1");
+		this.burst = burst;
+	}
+
+	/**
+	 * @return the longest a request is delayed for its turn before it is refused instead
+	 */
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	/**
+	 * @param maxWaitMillis the longest a request is delayed for its turn before it is
+	 * refused instead, 0 to refuse any request that cannot be sent straight away
+	 */
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		if (maxWaitMillis < 0)
+			throw new IllegalArgumentException("maxWaitMillis must not be negative");
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	/**
+	 * @return the directory holding the bucket files shared with other processes, or
+	 * null if the bucket is only shared within this process
+	 */
+	public File getSharedDirectory() {
+		return sharedDirectory;
+	}
+
+	/**
+	 * @param sharedDirectory the directory holding the bucket files shared with other
+	 * processes, or null to only share the bucket within this process.  Processes
+	 * sharing a bucket should use the same rate and burst.
+	 */
+	public void setSharedDirectory(File sharedDirectory) {
+		this.sharedDirectory = sharedDirectory;
+	}
+
+}
@@ -0,0 +1,384 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.concurrent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A token bucket that paces the requests made with one OAuth consumer key, as
+ * set out by a {@link RateLimitConfig}.  Every client in the process that signs
+ * with the same key, rate, burst and shared directory draws from the bucket that
+ * {@link #forConsumer(String, RateLimitConfig)} hands out, whichever config
+ * instance it was given.  The longest wait is up to each caller.
+ * <p>
+ * The bucket is kept as a single time, when the last permit handed out is paid
+ * for (the generic cell rate algorithm), so taking a permit reads and writes one
+ * long.  When the settings name a shared directory, that long lives in a
+ * memory-mapped file there and is only touched while holding a lock on the file,
+ * so processes on the host using the same key share the bucket.  Neither lock is
+ * held through a monitor, so a virtual thread waiting on one does not pin its
+ * carrier thread.
+ */
+public class RateLimiter {
+
+	private static Logger logger = Logger.getLogger(RateLimiter.class.getName());
+
+	private static final Map<String, RateLimiter> limiters = new HashMap<String, RateLimiter>();
+
+	private final String consumerKey;
+	private final RateLimitConfig config;
+	private final long intervalNanos;
+	private final long burstNanos;
+	private final long maxWaitNanos;
+	private final SharedBucket shared;
+	private final AtomicLong rejected = new AtomicLong();
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private long paidUntil = Long.MIN_VALUE;
+
+	/**
+	 * @param consumerKey the OAuth consumer key whose requests are paced
+	 * @param config the rate to keep to
+	 * @return the process's limiter for the key, created with the given settings
+	 * if it has none with them yet.  A limiter for the key with other settings is
+	 * replaced, and its shared file closed until it is next used.
+	 */
+	public static synchronized RateLimiter forConsumer(String consumerKey, RateLimitConfig config) {
+		RateLimiter limiter = limiters.get(consumerKey);
+		if (limiter != null && limiter.matches(config))
+			return limiter;
+		RateLimiter replaced = limiter;
+		limiter = new RateLimiter(consumerKey, config);
+		limiters.put(consumerKey, limiter);
+		if (replaced != null)
+			replaced.close();
+		return limiter;
+	}
+
+	/**
+	 * @return true if the bucket is the one the settings describe
+	 */
+	private boolean matches(RateLimitConfig other) {
+		File directory = config.getSharedDirectory();
+		File otherDirectory = other.getSharedDirectory();
+		return config.getPermitsPerSecond() == other.getPermitsPerSecond()
+			&& config.getBurst() == other.getBurst()
+			&& (directory == null ? otherDirectory == null : directory.equals(otherDirectory));
+	}
+
+	/**
+	 * Use {@link #forConsumer(String, RateLimitConfig)}, so that clients sharing a
+	 * key share its bucket.
+	 */
+	RateLimiter(String consumerKey, RateLimitConfig config) {
+		this.consumerKey = consumerKey;
+		this.config = config;
+		this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / config.getPermitsPerSecond());
+		this.burstNanos = intervalNanos * config.getBurst();
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(config.getMaxWaitMillis());
+		this.shared = openShared(consumerKey, config.getSharedDirectory());
+	}
+
+	/**
+	 * @return the OAuth consumer key whose requests are paced
+	 */
+	public String getConsumerKey() {
+		return consumerKey;
+	}
+
+	/**
+	 * @return the settings the bucket was created with
+	 */
+	public RateLimitConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * @return true if the bucket is shared with other processes
+	 */
+	public boolean isShared() {
+		return shared != null;
+	}
+
+	/**
+	 * @return how many requests have been refused a permit
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * Takes a permit, sleeping until its turn comes if the bucket is empty, for up to
+	 * the longest wait of the settings the bucket was created with.
+	 * 
+	 * @return true if a permit was taken, false if the request is refused because
+	 * its turn would come after the longest wait allowed
+	 * @throws InterruptedException if the thread is interrupted while it sleeps
+	 */
+	public boolean acquire() throws InterruptedException {
+		return acquire(config.getMaxWaitMillis());
+	}
+
+	/**
+	 * Takes a permit, sleeping until its turn comes if the bucket is empty.
+	 * 
+	 * @param maxWaitMillis the longest the caller will wait for its turn
+	 * @return true if a permit was taken, false if the request is refused because
+	 * its turn would come after the longest wait allowed
+	 * @throws InterruptedException if the thread is interrupted while it sleeps
+	 */
+	public boolean acquire(long maxWaitMillis) throws InterruptedException {
+		long delayNanos = reserve(maxWaitMillis);
+		if (delayNanos < 0)
+			return false;
+		if (delayNanos > 0)
+			TimeUnit.NANOSECONDS.sleep(delayNanos);
+		return true;
+	}
+
+	/**
+	 * Takes a permit without waiting for it.  The request it was taken for must
+	 * not be sent before the returned delay is up, which callers that may not
+	 * block wait out on a timer.
+	 * 
+	 * @return the nanoseconds to delay the request by, or -1 if the request is
+	 * refused because its turn would come after the longest wait of the settings
+	 * the bucket was created with
+	 */
+	public long reserve() {
+		return reserve(config.getMaxWaitMillis());
+	}
+
+	/**
+	 * Takes a permit without waiting for it, as {@link #reserve()} does.
+	 * 
+	 * @param maxWaitMillis the longest the caller will wait for its turn
+	 * @return the nanoseconds to delay the request by, or -1 if the request is
+	 * refused because its turn would come after the longest wait allowed
+	 */
+	public long reserve(long maxWaitMillis) {
+		long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		if (shared == null)
+			return reserveAt(System.nanoTime(), maxWaitNanos);
+		
+		lock.lock();
+		try {
+			long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+			try {
+				FileLock fileLock = shared.lock();
+				try {
+					paidUntil = shared.get();
+					long delayNanos = reserveAt(now, maxWaitNanos);
+					shared.set(paidUntil);
+					return delayNanos;
+				} finally {
+					fileLock.release();
+				}
+			} catch (IOException e) {
+				// Keep pacing this process's requests until the file can be locked again
+				logger.log(Level.WARNING, "could not lock the shared bucket for " + consumerKey, e);
+				return reserveAt(now, maxWaitNanos);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param now the current time, in nanoseconds
+	 * @return the nanoseconds to delay the request by, or -1 if it is refused
+	 */
+	long reserveAt(long now) {
+		return reserveAt(now, maxWaitNanos);
+	}
+
+	long reserveAt(long now, long maxWaitNanos) {
+		lock.lock();
+		try {
+			long next = Math.max(paidUntil, now) + intervalNanos;
+			long delayNanos = next - now - burstNanos;
+			if (delayNanos > maxWaitNanos) {
+				rejected.incrementAndGet();
+				return -1;
+			}
+			paidUntil = next;
+			return Math.max(0, delayNanos);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the milliseconds until a request could be sent without waiting
+	 */
+	public long getWaitMillis() {
+		long now;
+		long until;
+		lock.lock();
+		try {
+			if (shared == null) {
+				now = System.nanoTime();
+				until = paidUntil;
+			} else {
+				now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+				until = shared.get();
+			}
+		} finally {
+			lock.unlock();
+		}
+		long waitNanos = Math.max(until, now) + intervalNanos - now - burstNanos;
+		return waitNanos <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1;
+	}
+
+	/**
+	 * Closes the shared file, which is opened again if the limiter is used again.
+	 */
+	void close() {
+		if (shared == null)
+			return;
+		lock.lock();
+		try {
+			shared.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "consumer=" + consumerKey + ", permitsPerSecond=" + config.getPermitsPerSecond()
+			+ ", burst=" + config.getBurst() + ", shared=" + isShared() + ", rejected=" + getRejectedCount();
+	}
+
+	private static SharedBucket openShared(String consumerKey, File directory) {
+		if (directory == null)
+			return null;
+		File file = new File(directory, "simplegeo-" + digest(consumerKey) + ".bucket");
+		try {
+			return new SharedBucket(file);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "could not map " + file + ", pacing this process alone", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Names the bucket file after a digest of the key, so the key itself is not
+	 * left lying around on the file system.
+	 */
+	private static String digest(String consumerKey) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(consumerKey.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+			for (int i=0; i<8; i++)
+				hex.append(String.format("%02x", hash[i]));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The long a bucket is kept as, in a file mapped into every process sharing
+	 * it.  A new file reads as 0, an empty schedule, so the bucket starts full.
+	 */
+	private static class SharedBucket {
+
+		private final File file;
+		private RandomAccessFile raf;
+		private FileChannel channel;
+		private MappedByteBuffer buffer;
+
+		SharedBucket(File file) throws IOException {
+			this.file = file;
+			open();
+		}
+
+		private void open() throws IOException {
+			RandomAccessFile opened = new RandomAccessFile(file, "rw");
+			try {
+				channel = opened.getChannel();
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+				raf = opened;
+			} catch (IOException e) {
+				opened.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Closes the file; the mapping stays readable until it is collected.
+		 */
+		void close() {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				logger.log(Level.FINE, "could not close " + file, e);
+			}
+		}
+
+		/**
+		 * Locks the file against other processes.  Callers hold the limiter's
+		 * lock, as a process may only hold one lock on the file at a time.
+		 */
+		FileLock lock() throws IOException {
+			// An interrupt while waiting for the lock closes the channel
+			if (!channel.isOpen())
+				open();
+			return channel.lock(0, 8, false);
+		}
+
+		long get() {
+			return buffer.getLong(0);
+		}
+
+		void set(long value) {
+			buffer.putLong(0, value);
+		}
+
+	}
+
+}
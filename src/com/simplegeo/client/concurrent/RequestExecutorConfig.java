@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simplegeo.client.concurrent;
+
+/**
+ * Settings for a bounded, self-sizing {@link RequestThreadPoolExecutor}.  Pass an
+ * instance to one of the clients' <code>getInstance</code> methods to replace the
+ * default executor.
+ * <p>
+ * The pool starts with {@link #getCorePoolSize()} threads and never shrinks below
+ * that.  When adaptive sizing is enabled, the pool is resized every
+ * {@link #getResizeIntervalMillis()} from the number of busy threads, the queue
+ * depth and the average time a request takes: it grows until the backlog can be
+ * drained within {@link #getTargetQueueMillis()}, stops growing once requests take
+ * longer than {@link #getMaxLatencyMillis()} (more concurrency would only load an
+ * already struggling server), and gives idle threads back one at a time.
+ */
+public class RequestExecutorConfig {
+
+	private int corePoolSize = 2;
+	private int maxPoolSize = 16;
+	private int queueCapacity = 256;
+	private long keepAliveMillis = 60000;
+	private SaturationPolicy saturationPolicy = SaturationPolicy.CALLER_RUNS;
+	private long blockTimeoutMillis = 5000;
+	private boolean adaptive = true;
+	private long resizeIntervalMillis = 1000;
+	private long targetQueueMillis = 250;
+	private long maxLatencyMillis = 10000;
+
+	/**
+	 * @return the minimum number of threads kept in the pool
+	 */
+	public int getCorePoolSize() {
+		return corePoolSize;
+	}
+
+	/**
+	 * @param corePoolSize the minimum number of threads kept in the pool
+	 */
+	public void setCorePoolSize(int corePoolSize) {
+		if (corePoolSize < 1)
+			throw new IllegalArgumentException("corePoolSize must be at least 1");
+		this.corePoolSize = corePoolSize;
+	}
+
+	/**
+	 * @return the number of threads the pool may grow to
+	 */
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	/**
+	 * @param maxPoolSize the number of threads the pool may grow to
+	 */
+	public void setMaxPoolSize(int maxPoolSize) {
+		if (maxPoolSize < 1)
+			throw new IllegalArgumentException("maxPoolSize must be at least 1");
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	/**
+	 * @return how many requests may wait for a thread before the
+	 * {@link SaturationPolicy} applies
+	 */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * @param queueCapacity how many requests may wait for a thread before the
+	 * {@link SaturationPolicy} applies
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("queueCapacity must be at least 1");
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @return how long a thread above the core size may sit idle before it exits
+	 */
+	public long getKeepAliveMillis() {
+		return keepAliveMillis;
+	}
+
+	/**
+	 * @param keepAliveMillis how long a thread above the core size may sit idle
+	 * before it exits
+	 */
+	public void setKeepAliveMillis(long keepAliveMillis) {
+		this.keepAliveMillis = keepAliveMillis;
+	}
+
+	/**
+	 * @return what happens to a request submitted while the pool and queue are full
+	 */
+	public SaturationPolicy getSaturationPolicy() {
+		return saturationPolicy;
+	}
+
+	/**
+	 * @param saturationPolicy what happens to a request submitted while the pool
+	 * and queue are full
+	 */
+	public void setSaturationPolicy(SaturationPolicy saturationPolicy) {
+		if (saturationPolicy == null)
+			throw new IllegalArgumentException("saturationPolicy may not be null");
+		this.saturationPolicy = saturationPolicy;
+	}
+
+	/**
+	 * @return how long {@link SaturationPolicy#BLOCK} waits for queue space
+	 */
+	public long getBlockTimeoutMillis() {
+		return blockTimeoutMillis;
+	}
+
+	/**
+	 * @param blockTimeoutMillis how long {@link SaturationPolicy#BLOCK} waits for
+	 * queue space
+	 */
+	public void setBlockTimeoutMillis(long blockTimeoutMillis) {
+		this.blockTimeoutMillis = blockTimeoutMillis;
+	}
+
+	/**
+	 * @return true if the pool resizes itself from observed load
+	 */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * @param adaptive true to resize the pool from observed load
+	 */
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+	}
+
+	/**
+	 * @return how often the pool size is re-evaluated
+	 */
+	public long getResizeIntervalMillis() {
+		return resizeIntervalMillis;
+	}
+
+	/**
+	 * @param resizeIntervalMillis how often the pool size is re-evaluated
+	 */
+	public void setResizeIntervalMillis(long resizeIntervalMillis) {
+		if (resizeIntervalMillis <= 0)
+			throw new IllegalArgumentException("resizeIntervalMillis must be positive");
+		this.resizeIntervalMillis = resizeIntervalMillis;
+	}
+
+	/**
+	 * @return how long queued requests should wait at most before the pool grows
+	 */
+	public long getTargetQueueMillis() {
+		return targetQueueMillis;
+	}
+
+	/**
+	 * @param targetQueueMillis how long queued requests should wait at most
+	 * before the pool grows
+	 */
+	public void setTargetQueueMillis(long targetQueueMillis) {
+		if (targetQueueMillis <= 0)
+			throw new IllegalArgumentException("targetQueueMillis must be positive");
+		this.targetQueueMillis = targetQueueMillis;
+	}
+
+	/**
+	 * @return the average request time above which the pool stops growing,
+	 * or 0 to ignore latency
+	 */
+	public long getMaxLatencyMillis() {
+		return maxLatencyMillis;
+	}
+
+	/**
+	 * @param maxLatencyMillis the average request time above which the pool
+	 * stops growing, or 0 to ignore latency
+	 */
+	public void setMaxLatencyMillis(long maxLatencyMillis) {
+		this.maxLatencyMillis = maxLatencyMillis;
+	}
+
+}
@@ -29,11 +29,17 @@
 
 package com.simplegeo.client.concurrent;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 /**
  * A simple subclass of {@link java.util.concurrent.ThreadPoolExecutor} that is used
@@ -43,6 +49,17 @@ import java.util.concurrent.TimeUnit;
  */
 public class RequestThreadPoolExecutor extends ThreadPoolExecutor {
 	
+	private static Logger logger = Logger.getLogger(RequestThreadPoolExecutor.class.getName());
+	
+	private static ScheduledExecutorService resizer;
+	
+	private final RequestExecutorConfig config;
+	private final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong elapsedNanos = new AtomicLong();
+	private volatile double averageMillis;
+	private ScheduledFuture<?> resizeTask;
+	
 	/**
 	 * A default constructor that builds the object using
 	 * {@link NamedThreadFactory}
@@ -70,8 +87,138 @@ public class RequestThreadPoolExecutor extends ThreadPoolExecutor {
 			BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory) {
 		
 		super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory);
+		this.config = null;
 		
 	}
-
+	
+	/**
+	 * Constructs a bounded executor whose queue size, pool limits and
+	 * {@link SaturationPolicy} come from the given config.  If the config is
+	 * adaptive, the core pool size is re-evaluated periodically from the
+	 * observed load.
+	 * 
+	 * @param name name of the {@link com.simplegeo.client.concurrent.NamedThreadFactory}
+	 * @param config the executor settings
+	 */
+	public RequestThreadPoolExecutor(String name, RequestExecutorConfig config) {
+		
+		super(config.getCorePoolSize(), Math.max(config.getCorePoolSize(), config.getMaxPoolSize()),
+				config.getKeepAliveMillis(), TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(config.getQueueCapacity()), new NamedThreadFactory(name),
+				config.getSaturationPolicy().newHandler(config));
+		this.config = config;
+		
+		if (config.isAdaptive())
+			resizeTask = getResizer().scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					resize();
+				}
+			}, config.getResizeIntervalMillis(), config.getResizeIntervalMillis(), TimeUnit.MILLISECONDS);
+		
+	}
+	
+	/**
+	 * @return the settings this executor was built with, or null for an
+	 * executor built from explicit pool parameters
+	 */
+	public RequestExecutorConfig getConfig() {
+		return config;
+	}
+	
+	/**
+	 * @return the smoothed average time, in milliseconds, that a task takes
+	 * to run as of the last resize
+	 */
+	public double getAverageLatencyMillis() {
+		return averageMillis;
+	}
+	
+	@Override
+	protected void beforeExecute(Thread t, Runnable r) {
+		super.beforeExecute(t, r);
+		startTime.set(System.nanoTime());
+	}
+	
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		Long start = startTime.get();
+		if (start != null) {
+			elapsedNanos.addAndGet(System.nanoTime() - start);
+			completed.incrementAndGet();
+			startTime.remove();
+		}
+		super.afterExecute(r, t);
+	}
+	
+	@Override
+	protected void terminated() {
+		synchronized (this) {
+			if (resizeTask != null)
+				resizeTask.cancel(false);
+		}
+		super.terminated();
+	}
+	
+	/**
+	 * Folds the latency observed since the last call into the running average and
+	 * moves the core pool size toward the size the current load needs.
+	 */
+	synchronized void resize() {
+		if (isShutdown())
+			return;
+		
+		long count = completed.getAndSet(0);
+		long nanos = elapsedNanos.getAndSet(0);
+		if (count > 0) {
+			double sample = nanos / (count * 1000000.0);
+			averageMillis = averageMillis == 0 ? sample : 0.7 * averageMillis + 0.3 * sample;
+		}
+		
+		int current = getCorePoolSize();
+		int size = computePoolSize(current, getActiveCount(), getQueue().size(), averageMillis, config);
+		if (size != current) {
+			logger.fine(String.format("resizing request pool from %d to %d threads (active=%d, queued=%d, latency=%.1fms)",
+					current, size, getActiveCount(), getQueue().size(), averageMillis));
+			setCorePoolSize(size);
+		}
+	}
+	
+	/**
+	 * Picks the next core pool size.  The pool grows straight to the number of busy
+	 * threads plus however many more are needed to drain the queue within the target
+	 * wait, but never while the average latency is above the configured ceiling, in
+	 * which case it backs off by one thread.  It shrinks by one thread per call.
+	 * 
+	 * @param current the current core pool size
+	 * @param active the number of threads running a task
+	 * @param queued the number of tasks waiting for a thread
+	 * @param averageMillis the average time a task takes to run
+	 * @param config the pool limits and targets
+	 * @return the new core pool size, between the configured core and maximum sizes
+	 */
+	static int computePoolSize(int current, int active, int queued, double averageMillis, RequestExecutorConfig config) {
+		int min = config.getCorePoolSize();
+		int max = Math.max(min, config.getMaxPoolSize());
+		
+		int desired;
+		if (config.getMaxLatencyMillis() > 0 && averageMillis > config.getMaxLatencyMillis()) {
+			desired = current - 1;
+		} else {
+			int backlog = 0;
+			if (queued > 0)
+				backlog = averageMillis > 0 ? (int) Math.ceil(queued * averageMillis / config.getTargetQueueMillis()) : 1;
+			desired = active + backlog;
+			if (desired < current)
+				desired = current - 1;
+		}
+		
+		return Math.max(min, Math.min(max, desired));
+	}
+	
+	private static synchronized ScheduledExecutorService getResizer() {
+		if (resizer == null)
+			resizer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("SimpleGeoExecutorResizer", true));
+		return resizer;
+	}
 
 }
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simplegeo.client.concurrent;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a bounded {@link RequestThreadPoolExecutor} does with a new request once
+ * every thread is busy and its queue is full.
+ */
+public enum SaturationPolicy {
+
+	/**
+	 * Refuse the new request by throwing a
+	 * {@link java.util.concurrent.RejectedExecutionException} to the caller.
+	 */
+	REJECT {
+		RejectedExecutionHandler newHandler(RequestExecutorConfig config) {
+			return new RejectedExecutionHandler() {
+				public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+					throw new RejectedExecutionException("Request queue is full");
+				}
+			};
+		}
+	},
+
+	/**
+	 * Run the new request on the thread that submitted it, which slows the
+	 * caller down to the rate the pool can sustain.
+	 */
+	CALLER_RUNS {
+		RejectedExecutionHandler newHandler(RequestExecutorConfig config) {
+			return new RejectedExecutionHandler() {
+				public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+					if (executor.isShutdown())
+						throw new RejectedExecutionException("Executor has been shut down");
+					r.run();
+				}
+			};
+		}
+	},
+
+	/**
+	 * Block the submitting thread until the queue has room, giving up after
+	 * {@link RequestExecutorConfig#getBlockTimeoutMillis()}.  Avoid this policy with the
+	 * non-blocking transport, where responses are handed to the executor from the I/O
+	 * reactor thread and blocking it stalls every other request.
+	 */
+	BLOCK {
+		RejectedExecutionHandler newHandler(RequestExecutorConfig config) {
+			final long timeout = config.getBlockTimeoutMillis();
+			return new RejectedExecutionHandler() {
+				public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+					if (executor.isShutdown())
+						throw new RejectedExecutionException("Executor has been shut down");
+					try {
+						if (!executor.getQueue().offer(r, timeout, TimeUnit.MILLISECONDS))
+							throw new RejectedExecutionException(
+									String.format("Request queue stayed full for %d ms", timeout));
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException("Interrupted while waiting for the request queue");
+					}
+				}
+			};
+		}
+	},
+
+	/**
+	 * Evict the oldest queued request to make room for the new one.  The evicted
+	 * request is notified through {@link RequestTask#onRejected(RejectedExecutionException)}.
+	 */
+	DROP_OLDEST {
+		RejectedExecutionHandler newHandler(RequestExecutorConfig config) {
+			return new RejectedExecutionHandler() {
+				public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+					if (executor.isShutdown())
+						throw new RejectedExecutionException("Executor has been shut down");
+					Runnable oldest = executor.getQueue().poll();
+					if (oldest instanceof RequestTask)
+						((RequestTask) oldest).onRejected(
+								new RejectedExecutionException("Request dropped to make room for a newer one"));
+					executor.execute(r);
+				}
+			};
+		}
+	};
+
+	abstract RejectedExecutionHandler newHandler(RequestExecutorConfig config);
+
+}
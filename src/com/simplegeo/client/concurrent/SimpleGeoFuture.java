@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.simplegeo.client.concurrent;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+import com.simplegeo.client.callbacks.SimpleGeoCallback;
+
+/**
+ * A {@link java.util.concurrent.CompletableFuture} returned by the clients'
+ * <code>*Async</code> methods.  It is completed by the client's own executor, and
+ * asynchronous stages chained onto it without an explicit executor run there too
+ * rather than on the common fork/join pool.
+ * <p>
+ * Cancelling the future, or completing it from outside (for example with
+ * <code>orTimeout</code>), abandons the request: a request still waiting in the
+ * executor's queue is removed, and one already on the wire is aborted so that its
+ * connection goes back to the pool right away.
+ *
+ * @param <T> the type of the parsed response
+ */
+public class SimpleGeoFuture<T> extends CompletableFuture<T> implements SimpleGeoCallback<T> {
+
+	private final Executor executor;
+	private volatile HttpUriRequest request;
+	private volatile Runnable task;
+
+	/**
+	 * @param executor the executor that completes this future and runs its
+	 * asynchronous stages
+	 */
+	public SimpleGeoFuture(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Associates the request that will complete this future, and the task that is
+	 * queued to send it if there is one, so that they can be abandoned when the future
+	 * is cancelled.  If the future is already done, the request is abandoned at once.
+	 * 
+	 * @param request the request that will complete this future
+	 * @param task the executor task sending the request, or null
+	 */
+	public void attach(HttpUriRequest request, Runnable task) {
+		this.request = request;
+		this.task = task;
+		if (isDone())
+			abandon();
+	}
+
+	/**
+	 * Completes the future with a parsed response.
+	 */
+	public void onSuccess(T e) {
+		super.complete(e);
+	}
+
+	/**
+	 * Completes the future with an {@link java.io.IOException} carrying the message.
+	 */
+	public void onError(String errorMessage) {
+		super.completeExceptionally(new IOException(errorMessage));
+	}
+
+	/**
+	 * Completes the future with the exception that made the request fail.
+	 * 
+	 * @param cause the failure
+	 */
+	public void onFailure(Throwable cause) {
+		super.completeExceptionally(cause);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if (cancelled)
+			abandon();
+		return cancelled;
+	}
+
+	@Override
+	public boolean complete(T value) {
+		boolean completed = super.complete(value);
+		if (completed)
+			abandon();
+		return completed;
+	}
+
+	@Override
+	public boolean completeExceptionally(Throwable ex) {
+		boolean completed = super.completeExceptionally(ex);
+		if (completed)
+			abandon();
+		return completed;
+	}
+
+	/**
+	 * @return the executor that asynchronous stages run on by default
+	 */
+	public Executor defaultExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Dependent stages are SimpleGeoFutures too, so they keep running on the
+	 * client's executor.
+	 */
+	public <U> CompletableFuture<U> newIncompleteFuture() {
+		return new SimpleGeoFuture<U>(executor);
+	}
+
+	/**
+	 * Reports a failure to a callback, handing the exception itself to a
+	 * SimpleGeoFuture and only its message to any other callback.
+	 * 
+	 * @param callback the callback to notify
+	 * @param cause the failure
+	 */
+	@SuppressWarnings("rawtypes")
+	public static void fail(SimpleGeoCallback callback, Throwable cause) {
+		if (callback instanceof SimpleGeoFuture)
+			((SimpleGeoFuture) callback).onFailure(cause);
+		else
+			callback.onError(cause.getMessage());
+	}
+
+	private void abandon() {
+		Runnable queued = task;
+		if (queued != null && executor instanceof ThreadPoolExecutor)
+			((ThreadPoolExecutor) executor).remove(queued);
+		HttpUriRequest sent = request;
+		if (sent != null)
+			sent.abort();
+	}
+
+}
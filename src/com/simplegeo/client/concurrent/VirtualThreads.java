@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.concurrent;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors that run each task on a virtual thread of its own, on JDKs
+ * that have them (21 and later).  The JDK's methods are looked up reflectively,
+ * so the client still builds and runs on older JDKs; there
+ * {@link #isSupported()} is false.
+ * <p>
+ * A virtual thread runs one task and ends, so anything cached per thread is
+ * built again for every task.  Code that keeps costly state in a
+ * {@link java.lang.ThreadLocal} should take it from a small pool instead when
+ * {@link #isVirtual()} says the current thread is virtual.
+ */
+public final class VirtualThreads {
+
+	private static final Method ofVirtual;
+	private static final Method name;
+	private static final Method factory;
+	private static final Method newThreadPerTaskExecutor;
+	private static final Method isVirtual;
+
+	static {
+		Method virtual;
+		try {
+			virtual = Thread.class.getMethod("isVirtual");
+		} catch (NoSuchMethodException e) {
+			virtual = null;
+		}
+		isVirtual = virtual;
+		
+		Method[] methods;
+		try {
+			methods = new Method[] {
+				Thread.class.getMethod("ofVirtual"),
+				Class.forName("java.lang.Thread$Builder$OfVirtual").getMethod("name", String.class, long.class),
+				Class.forName("java.lang.Thread$Builder").getMethod("factory"),
+				Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+			};
+		} catch (NoSuchMethodException e) {
+			methods = new Method[4];
+		} catch (ClassNotFoundException e) {
+			methods = new Method[4];
+		}
+		ofVirtual = methods[0];
+		name = methods[1];
+		factory = methods[2];
+		newThreadPerTaskExecutor = methods[3];
+	}
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @return true if the running JDK has virtual threads
+	 */
+	public static boolean isSupported() {
+		return newThreadPerTaskExecutor != null;
+	}
+
+	/**
+	 * @return true if the current thread is a virtual thread
+	 */
+	public static boolean isVirtual() {
+		if (isVirtual == null)
+			return false;
+		try {
+			return (Boolean) isVirtual.invoke(Thread.currentThread());
+		} catch (IllegalAccessException e) {
+			return false;
+		} catch (InvocationTargetException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param prefix the prefix of the threads' names, which are numbered from 0
+	 * @return an executor that starts a new virtual thread for each task
+	 * @throws UnsupportedOperationException if the running JDK has no virtual threads
+	 */
+	public static ExecutorService newExecutor(String prefix) {
+		if (!isSupported())
+			throw new UnsupportedOperationException("virtual threads need JDK 21 or later, running "
+					+ System.getProperty("java.version"));
+		try {
+			Object builder = name.invoke(ofVirtual.invoke(null), prefix + ":", 0L);
+			return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory.invoke(builder));
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException(e);
+		} catch (InvocationTargetException e) {
+			throw new UnsupportedOperationException(e.getCause());
+		}
+	}
+
+}
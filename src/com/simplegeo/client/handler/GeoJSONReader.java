@@ -0,0 +1,751 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.handler;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.simplegeo.client.concurrent.VirtualThreads;
+import com.simplegeo.client.types.Feature;
+import com.simplegeo.client.types.FeatureCollection;
+import com.simplegeo.client.types.Geometry;
+import com.simplegeo.client.types.MultiPolygon;
+import com.simplegeo.client.types.Point;
+import com.simplegeo.client.types.Polygon;
+
+/**
+ * A pull parser that reads GeoJSON from a {@link java.io.Reader} and builds
+ * {@link com.simplegeo.client.types.Feature}s and
+ * {@link com.simplegeo.client.types.FeatureCollection}s as it goes.
+ * <p>
+ * Coordinates are parsed straight from the character buffer into doubles, so large
+ * polygons never exist as Strings or org.json arrays.  Property values are returned
+ * the same way {@link com.simplegeo.client.types.Feature#fromJSON(JSONObject)} returns
+ * them: Strings, Numbers, Booleans, {@link org.json.JSONObject#NULL}, and
+ * {@link org.json.JSONObject}s or {@link org.json.JSONArray}s for nested values.
+ * <p>
+ * The character buffer is reused by every reader on the same thread, so a reader
+ * must not be used from more than one thread, and a thread must finish with one
+ * reader before starting another.  On a virtual thread, which parses a single
+ * response, the buffer comes from a small pool instead, and goes back to it when
+ * the reader is {@link #close() closed}.
+ */
+public class GeoJSONReader {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	static final int MAX_POOLED = 16;
+
+	private static final ThreadLocal<char[]> buffers = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			return new char[BUFFER_SIZE];
+		}
+	};
+
+	private static final ArrayBlockingQueue<char[]> pool = new ArrayBlockingQueue<char[]>(MAX_POOLED);
+
+	/* Powers of ten that are exactly representable as doubles */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private final Reader reader;
+	private final char[] buffer;
+	private final boolean fromPool;
+	private int pos;
+	private int limit;
+	private long consumed;
+
+	private StringBuilder scratch;
+	private char[] number = new char[32];
+	private double[] ring = new double[256];
+	private int numberLength;
+	private boolean released;
+
+	/**
+	 * @param reader the JSON text to parse
+	 */
+	public GeoJSONReader(Reader reader) {
+		this.reader = reader;
+		this.fromPool = VirtualThreads.isVirtual();
+		if (fromPool) {
+			char[] free = pool.poll();
+			this.buffer = free != null ? free : new char[BUFFER_SIZE];
+		} else {
+			this.buffer = buffers.get();
+		}
+	}
+
+	/**
+	 * Hands a pooled buffer back once the caller is done with the reader.  The
+	 * underlying reader is left open.
+	 */
+	public void close() {
+		if (fromPool && !released) {
+			released = true;
+			pool.offer(buffer);
+		}
+	}
+
+	/**
+	 * @return the number of buffers waiting for a virtual thread to parse with
+	 */
+	static int pooled() {
+		return pool.size();
+	}
+
+	/**
+	 * Reads a single GeoJSON object.
+	 * 
+	 * @return a {@link com.simplegeo.client.types.FeatureCollection} if the object has
+	 * a "features" member, otherwise a {@link com.simplegeo.client.types.Feature}
+	 * @throws IOException if the text cannot be read or is not valid JSON
+	 */
+	public Object readGeoJSON() throws IOException {
+		String type = null;
+		ArrayList<Feature> features = null;
+		Feature feature = new Feature();
+		
+		expect('{');
+		if (!endOfObject()) {
+			do {
+				String key = readString();
+				expect(':');
+				if ("features".equals(key)) {
+					features = readFeatures();
+				} else if ("type".equals(key)) {
+					type = readString();
+				} else if (!readFeatureMember(key, feature)) {
+					skipValue();
+				}
+			} while (nextMember('}'));
+		}
+		
+		if (features != null || "FeatureCollection".equals(type))
+			return new FeatureCollection(features == null ? new ArrayList<Feature>() : features);
+		feature.setType("Feature");
+		return feature;
+	}
+
+	private ArrayList<Feature> readFeatures() throws IOException {
+		ArrayList<Feature> features = new ArrayList<Feature>();
+		expect('[');
+		if (!endOfArray()) {
+			do {
+				features.add(readFeature());
+			} while (nextMember(']'));
+		}
+		return features;
+	}
+
+	private Feature readFeature() throws IOException {
+		Feature feature = new Feature();
+		feature.setType("Feature");
+		expect('{');
+		if (!endOfObject()) {
+			do {
+				String key = readString();
+				expect(':');
+				if (!readFeatureMember(key, feature))
+					skipValue();
+			} while (nextMember('}'));
+		}
+		return feature;
+	}
+
+	/**
+	 * Reads the value of a Feature member into the feature.
+	 * 
+	 * @return false if the member is not one a Feature keeps, in which case
+	 * the value has not been read
+	 */
+	private boolean readFeatureMember(String key, Feature feature) throws IOException {
+		if ("id".equals(key)) {
+			Object id = readValue();
+			feature.setSimpleGeoId(id == JSONObject.NULL ? null : id.toString());
+		} else if ("geometry".equals(key)) {
+			feature.setGeometry(readGeometry());
+		} else if ("properties".equals(key)) {
+			feature.setProperties(readProperties());
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	private HashMap<String, Object> readProperties() throws IOException {
+		HashMap<String, Object> properties = new HashMap<String, Object>();
+		if (skipNull())
+			return properties;
+		expect('{');
+		if (!endOfObject()) {
+			do {
+				String key = readString();
+				expect(':');
+				properties.put(key, readValue());
+			} while (nextMember('}'));
+		}
+		return properties;
+	}
+
+	private Geometry readGeometry() throws IOException {
+		if (skipNull())
+			return null;
+		
+		String type = null;
+		Object coordinates = null;
+		Geometry geometry = null;
+		expect('{');
+		if (!endOfObject()) {
+			do {
+				String key = readString();
+				expect(':');
+				if ("type".equals(key)) {
+					type = readString();
+				} else if ("coordinates".equals(key)) {
+					// the type almost always comes first, so the coordinates can be
+					// built directly; otherwise hold on to them until it shows up
+					if (type != null)
+						geometry = readCoordinates(type);
+					else
+						coordinates = readNestedCoordinates();
+				} else {
+					skipValue();
+				}
+			} while (nextMember('}'));
+		}
+		
+		if (geometry == null && coordinates != null)
+			geometry = toGeometry(type, coordinates);
+		return geometry;
+	}
+
+	private Geometry readCoordinates(String type) throws IOException {
+		if ("Point".equals(type))
+			return new Geometry(readPosition());
+		else if ("Polygon".equals(type))
+			return new Geometry(readPolygon());
+		else
+			return new Geometry(readMultiPolygon());
+	}
+
+	private Point readPosition() throws IOException {
+		expect('[');
+		double lon = readDouble();
+		expect(',');
+		double lat = readDouble();
+		// ignore any altitude
+		while (nextMember(']'))
+			readDouble();
+		return new Point(lat, lon);
+	}
+
+	private double[] readRing() throws IOException {
+		double[] ring = this.ring;
+		int length = 0;
+		expect('[');
+		if (!endOfArray()) {
+			do {
+				if (length == ring.length)
+					this.ring = ring = Arrays.copyOf(ring, length * 2);
+				expect('[');
+				ring[length++] = readDouble();
+				expect(',');
+				ring[length++] = readDouble();
+				// ignore any altitude
+				while (nextMember(']'))
+					readDouble();
+			} while (nextMember(']'));
+		}
+		return Arrays.copyOf(ring, length);
+	}
+
+	private Polygon readPolygon() throws IOException {
+		ArrayList<double[]> rings = new ArrayList<double[]>(1);
+		expect('[');
+		if (!endOfArray()) {
+			do {
+				rings.add(readRing());
+			} while (nextMember(']'));
+		}
+		return new Polygon(rings.toArray(new double[rings.size()][]));
+	}
+
+	private MultiPolygon readMultiPolygon() throws IOException {
+		ArrayList<Polygon> polygons = new ArrayList<Polygon>();
+		expect('[');
+		if (!endOfArray()) {
+			do {
+				polygons.add(readPolygon());
+			} while (nextMember(']'));
+		}
+		return new MultiPolygon(polygons);
+	}
+
+	/**
+	 * Reads coordinates of an unknown geometry type into nested lists whose
+	 * leaves are double[] positions.
+	 */
+	private Object readNestedCoordinates() throws IOException {
+		expect('[');
+		char c = peek();
+		if (c != '[' && c != ']') {
+			double[] position = new double[3];
+			int length = 0;
+			do {
+				double value = readDouble();
+				if (length < position.length)
+					position[length++] = value;
+			} while (nextMember(']'));
+			return position;
+		}
+		
+		ArrayList<Object> list = new ArrayList<Object>();
+		if (!endOfArray()) {
+			do {
+				list.add(readNestedCoordinates());
+			} while (nextMember(']'));
+		}
+		return list;
+	}
+
+	private Geometry toGeometry(String type, Object coordinates) throws IOException {
+		try {
+			if ("Point".equals(type))
+				return new Geometry(toPoint(coordinates));
+			else if ("Polygon".equals(type))
+				return new Geometry(toPolygon(coordinates));
+			else
+				return new Geometry(toMultiPolygon(coordinates));
+		} catch (ClassCastException e) {
+			throw syntaxError(String.format("coordinates do not match geometry type %s", type));
+		}
+	}
+
+	private static Point toPoint(Object coordinates) {
+		double[] position = (double[]) coordinates;
+		return new Point(position[1], position[0]);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Polygon toPolygon(Object coordinates) {
+		ArrayList<Object> ringList = (ArrayList<Object>) coordinates;
+		double[][] rings = new double[ringList.size()][];
+		for (int i=0; i<rings.length; i++) {
+			ArrayList<Object> positions = (ArrayList<Object>) ringList.get(i);
+			double[] ring = new double[positions.size() * 2];
+			for (int j=0; j<positions.size(); j++) {
+				double[] position = (double[]) positions.get(j);
+				ring[2*j] = position[0];
+				ring[2*j+1] = position[1];
+			}
+			rings[i] = ring;
+		}
+		return new Polygon(rings);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static MultiPolygon toMultiPolygon(Object coordinates) {
+		ArrayList<Polygon> polygons = new ArrayList<Polygon>();
+		for (Object polygon : (ArrayList<Object>) coordinates)
+			polygons.add(toPolygon(polygon));
+		return new MultiPolygon(polygons);
+	}
+
+	/**
+	 * Reads any JSON value, returning nested objects and arrays as org.json types.
+	 */
+	private Object readValue() throws IOException {
+		char c = peek();
+		switch (c) {
+			case '"':
+				return readString();
+			case '{':
+				return readObject();
+			case '[':
+				return readArray();
+			case 't':
+				expectLiteral("true");
+				return Boolean.TRUE;
+			case 'f':
+				expectLiteral("false");
+				return Boolean.FALSE;
+			case 'n':
+				expectLiteral("null");
+				return JSONObject.NULL;
+			default:
+				return readNumber();
+		}
+	}
+
+	private JSONObject readObject() throws IOException {
+		JSONObject object = new JSONObject();
+		expect('{');
+		if (!endOfObject()) {
+			do {
+				String key = readString();
+				expect(':');
+				try {
+					object.put(key, readValue());
+				} catch (JSONException e) {
+					throw syntaxError(e.getMessage());
+				}
+			} while (nextMember('}'));
+		}
+		return object;
+	}
+
+	private JSONArray readArray() throws IOException {
+		JSONArray array = new JSONArray();
+		expect('[');
+		if (!endOfArray()) {
+			do {
+				array.put(readValue());
+			} while (nextMember(']'));
+		}
+		return array;
+	}
+
+	private void skipValue() throws IOException {
+		char c = peek();
+		switch (c) {
+			case '"':
+				skipString();
+				break;
+			case '{':
+				expect('{');
+				if (!endOfObject()) {
+					do {
+						skipString();
+						expect(':');
+						skipValue();
+					} while (nextMember('}'));
+				}
+				break;
+			case '[':
+				expect('[');
+				if (!endOfArray()) {
+					do {
+						skipValue();
+					} while (nextMember(']'));
+				}
+				break;
+			case 't':
+				expectLiteral("true");
+				break;
+			case 'f':
+				expectLiteral("false");
+				break;
+			case 'n':
+				expectLiteral("null");
+				break;
+			default:
+				scanNumber();
+		}
+	}
+
+	/**
+	 * Reads a number the way org.json does: a Double if it has a fraction or an
+	 * exponent, otherwise the narrowest of Integer and Long that holds it.
+	 */
+	private Number readNumber() throws IOException {
+		boolean integral = scanNumber();
+		String text = new String(number, 0, numberLength);
+		try {
+			if (integral && numberLength <= 18) {
+				long value = Long.parseLong(text);
+				if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+					return Integer.valueOf((int) value);
+				return Long.valueOf(value);
+			}
+			return Double.valueOf(text);
+		} catch (NumberFormatException e) {
+			throw syntaxError(String.format("bad number %s", text));
+		}
+	}
+
+	/**
+	 * Reads a number as a double.  Numbers with at most 15 significant digits and no
+	 * exponent, which covers any coordinate, are converted exactly with a single
+	 * division; anything else goes through Double.parseDouble.
+	 */
+	private double readDouble() throws IOException {
+		scanNumber();
+		
+		int i = 0;
+		boolean negative = number[0] == '-';
+		if (negative)
+			i++;
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean fraction = false;
+		boolean seenDigit = false;
+		for (; i < numberLength; i++) {
+			char c = number[i];
+			if (c >= '0' && c <= '9') {
+				seenDigit = true;
+				if (mantissa != 0 || c != '0')
+					digits++;
+				mantissa = mantissa * 10 + (c - '0');
+				if (fraction)
+					exponent--;
+				if (digits > 15)
+					return parseDouble();
+			} else if (c == '.' && !fraction) {
+				fraction = true;
+			} else {
+				// an exponent or something malformed, let the JDK deal with it
+				return parseDouble();
+			}
+		}
+		
+		if (!seenDigit || exponent < -22)
+			return parseDouble();
+		double value = exponent == 0 ? (double) mantissa : mantissa / POWERS_OF_TEN[-exponent];
+		return negative ? -value : value;
+	}
+
+	private double parseDouble() throws IOException {
+		String text = new String(number, 0, numberLength);
+		try {
+			return Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			throw syntaxError(String.format("bad number %s", text));
+		}
+	}
+
+	/**
+	 * Copies the characters of a number into the number buffer.
+	 * 
+	 * @return true if the number has no fraction or exponent
+	 */
+	private boolean scanNumber() throws IOException {
+		peek();
+		numberLength = 0;
+		boolean integral = true;
+		while (true) {
+			if (pos == limit && !fill())
+				break;
+			char c = buffer[pos];
+			if ((c >= '0' && c <= '9') || c == '-' || c == '+') {
+				// part of the number
+			} else if (c == '.' || c == 'e' || c == 'E') {
+				integral = false;
+			} else {
+				break;
+			}
+			if (numberLength == number.length) {
+				char[] larger = new char[number.length * 2];
+				System.arraycopy(number, 0, larger, 0, numberLength);
+				number = larger;
+			}
+			number[numberLength++] = c;
+			pos++;
+		}
+		if (numberLength == 0)
+			throw syntaxError("expected a value");
+		return integral;
+	}
+
+	private String readString() throws IOException {
+		expect('"');
+		
+		// fast path: the whole string is in the buffer and has no escapes
+		int start = pos;
+		for (int i = pos; i < limit; i++) {
+			char c = buffer[i];
+			if (c == '"') {
+				pos = i + 1;
+				return new String(buffer, start, i - start);
+			} else if (c == '\\') {
+				break;
+			}
+		}
+		
+		if (scratch == null)
+			scratch = new StringBuilder();
+		scratch.setLength(0);
+		while (true) {
+			if (pos == limit && !fill())
+				throw syntaxError("unterminated string");
+			char c = buffer[pos++];
+			if (c == '"')
+				return scratch.toString();
+			if (c == '\\')
+				scratch.append(readEscape());
+			else
+				scratch.append(c);
+		}
+	}
+
+	private void skipString() throws IOException {
+		expect('"');
+		while (true) {
+			if (pos == limit && !fill())
+				throw syntaxError("unterminated string");
+			char c = buffer[pos++];
+			if (c == '"')
+				return;
+			if (c == '\\')
+				readEscape();
+		}
+	}
+
+	private char readEscape() throws IOException {
+		char c = next();
+		switch (c) {
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'u':
+				int code = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = Character.digit(next(), 16);
+					if (digit < 0)
+						throw syntaxError("bad unicode escape");
+					code = (code << 4) | digit;
+				}
+				return (char) code;
+			default:
+				// \" \\ \/ and anything else stand for themselves
+				return c;
+		}
+	}
+
+	private void expectLiteral(String literal) throws IOException {
+		for (int i = 0; i < literal.length(); i++)
+			if (next() != literal.charAt(i))
+				throw syntaxError(String.format("expected %s", literal));
+	}
+
+	/**
+	 * Consumes a null literal if that is the next value.
+	 */
+	private boolean skipNull() throws IOException {
+		if (peek() != 'n')
+			return false;
+		expectLiteral("null");
+		return true;
+	}
+
+	private boolean endOfObject() throws IOException {
+		if (peek() == '}') {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean endOfArray() throws IOException {
+		if (peek() == ']') {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Consumes the separator after a member or element.
+	 * 
+	 * @return true if another member follows, false if the closing character was read
+	 */
+	private boolean nextMember(char close) throws IOException {
+		char c = peek();
+		pos++;
+		if (c == ',')
+			return true;
+		if (c == close)
+			return false;
+		throw syntaxError(String.format("expected ',' or '%c' but found '%c'", close, c));
+	}
+
+	private void expect(char expected) throws IOException {
+		char c = peek();
+		if (c != expected)
+			throw syntaxError(String.format("expected '%c' but found '%c'", expected, c));
+		pos++;
+	}
+
+	/**
+	 * @return the next character that isn't whitespace, without consuming it
+	 */
+	private char peek() throws IOException {
+		while (true) {
+			if (pos == limit && !fill())
+				throw syntaxError("unexpected end of input");
+			char c = buffer[pos];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+				return c;
+			pos++;
+		}
+	}
+
+	private char next() throws IOException {
+		if (pos == limit && !fill())
+			throw syntaxError("unexpected end of input");
+		return buffer[pos++];
+	}
+
+	private boolean fill() throws IOException {
+		consumed += limit;
+		pos = 0;
+		limit = 0;
+		int n;
+		do {
+			n = reader.read(buffer, 0, buffer.length);
+		} while (n == 0);
+		if (n < 0)
+			return false;
+		limit = n;
+		return true;
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException(String.format("Malformed GeoJSON at character %d: %s", consumed + pos, message));
+	}
+
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.handler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.logging.Logger;
+
+/**
+ * A response handler that builds {@link com.simplegeo.client.types.Feature}s and
+ * {@link com.simplegeo.client.types.FeatureCollection}s directly from the response
+ * stream using a {@link GeoJSONReader}, rather than reading the body into a String
+ * and building an org.json tree from it first.
+ */
+public class GeoJSONStreamHandler implements SimpleGeoJSONStreamHandler {
+
+	private static Logger logger = Logger.getLogger(GeoJSONStreamHandler.class.getName());
+
+	private static final String DEFAULT_CHARSET = "UTF-8";
+
+	public Object parseResponse(InputStream stream, String charset) throws IOException {
+		InputStreamReader reader = new InputStreamReader(stream, charset == null ? DEFAULT_CHARSET : charset);
+		GeoJSONReader geoJSON = new GeoJSONReader(reader);
+		try {
+			return geoJSON.readGeoJSON();
+		} finally {
+			geoJSON.close();
+		}
+	}
+
+	public Object parseResponse(String response) {
+		Object returnObject = new Object();
+		try {
+			GeoJSONReader geoJSON = new GeoJSONReader(new StringReader(response));
+			try {
+				returnObject = geoJSON.readGeoJSON();
+			} finally {
+				geoJSON.close();
+			}
+		} catch (IOException e) {
+			logger.info(e.getMessage());
+		}
+		return returnObject;
+	}
+
+}
@@ -0,0 +1,768 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer. Redistributions
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software
+ * without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.nio.DefaultClientIOEventDispatch;
+import org.apache.http.impl.nio.SSLClientIOEventDispatch;
+import org.apache.http.impl.nio.reactor.SSLIOSession;
+import org.apache.http.impl.nio.reactor.SSLIOSessionHandler;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.NHttpClientHandler;
+import org.apache.http.nio.NHttpConnection;
+import org.apache.http.nio.protocol.BufferingHttpClientHandler;
+import org.apache.http.nio.protocol.EventListener;
+import org.apache.http.nio.protocol.HttpRequestExecutionHandler;
+import org.apache.http.nio.reactor.ConnectingIOReactor;
+import org.apache.http.nio.reactor.IOEventDispatch;
+import org.apache.http.nio.reactor.IOSession;
+import org.apache.http.nio.reactor.SessionRequest;
+import org.apache.http.nio.reactor.SessionRequestCallback;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.DefaultedHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpProcessor;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.RequestConnControl;
+import org.apache.http.protocol.RequestContent;
+import org.apache.http.protocol.RequestTargetHost;
+import org.apache.http.protocol.RequestUserAgent;
+import org.apache.http.util.EntityUtils;
+
+import com.simplegeo.client.callbacks.SimpleGeoCallback;
+import com.simplegeo.client.concurrent.NamedThreadFactory;
+import com.simplegeo.client.concurrent.RequestTask;
+import com.simplegeo.client.concurrent.SimpleGeoFuture;
+import com.simplegeo.client.metrics.Phase;
+import com.simplegeo.client.metrics.RequestTimer;
+
+/**
+ * An event driven Http client built on httpcore-nio. Requests are written and responses
+ * are read by a small, selector driven I/O reactor so that an outstanding request does not
+ * hold a thread while it waits on the network. Completed responses are handed to the
+ * given {@link java.util.concurrent.Executor} for parsing and callback delivery.
+ *
+ * Requests are signed with the token held by the {@link OAuthHttpClient} that this
+ * client was created with.  Connections are kept alive and reused per host, and no
+ * more than {@link #getMaxConnectionsPerRoute()} are opened to any one host; requests
+ * beyond that wait for a connection to free up.  Connections to https hosts are
+ * only supported when the client is given a {@link TlsSocketFactory}, whose
+ * context and settings they then share with the blocking client.
+ */
+public class AsyncOAuthHttpClient {
+
+	private static Logger logger = Logger.getLogger(AsyncOAuthHttpClient.class.getName());
+
+	public static final int DEFAULT_IO_THREADS = 2;
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+	public static final int DEFAULT_SOCKET_BUFFER_SIZE = 8 * 1024;
+
+	private static final String EXCHANGE = "simplegeo.exchange";
+	private static final String ROUTE = "simplegeo.route";
+	private static final String CONNECTION = "simplegeo.connection";
+
+	private final OAuthHttpClient signer;
+	private final HttpParams params;
+	private final Executor executor;
+	private final int ioThreads;
+	private final TlsSocketFactory tls;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final HashMap<HttpHost, RoutePool> pools = new HashMap<HttpHost, RoutePool>();
+	private volatile int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+	private ConnectingIOReactor ioReactor;
+
+	/**
+	 * @param signer the client holding the OAuth token used to sign requests
+	 * @param params connection parameters, such as timeouts, shared with the blocking client
+	 * @param executor the executor responses are parsed and delivered on
+	 */
+	public AsyncOAuthHttpClient(OAuthHttpClient signer, HttpParams params, Executor executor) {
+		this(signer, params, executor, DEFAULT_IO_THREADS);
+	}
+
+	/**
+	 * @param signer the client holding the OAuth token used to sign requests
+	 * @param params connection parameters, such as timeouts, shared with the blocking client
+	 * @param executor the executor responses are parsed and delivered on
+	 * @param ioThreads the number of I/O dispatch threads run by the reactor
+	 */
+	public AsyncOAuthHttpClient(OAuthHttpClient signer, HttpParams params, Executor executor, int ioThreads) {
+		this(signer, params, executor, ioThreads, null);
+	}
+
+	/**
+	 * @param signer the client holding the OAuth token used to sign requests
+	 * @param params connection parameters, such as timeouts, shared with the blocking client
+	 * @param executor the executor responses are parsed and delivered on
+	 * @param ioThreads the number of I/O dispatch threads run by the reactor
+	 * @param tls the factory whose TLS context https connections are opened with, or null
+	 */
+	public AsyncOAuthHttpClient(OAuthHttpClient signer, HttpParams params, Executor executor, int ioThreads,
+			TlsSocketFactory tls) {
+		// The reactor sizes its session buffers from the params, which the blocking
+		// client otherwise leaves to DefaultHttpClient's own defaults.
+		HttpParams defaults = new BasicHttpParams();
+		HttpConnectionParams.setSocketBufferSize(defaults, DEFAULT_SOCKET_BUFFER_SIZE);
+
+		this.signer = signer;
+		this.params = new DefaultedHttpParams(params, defaults);
+		this.executor = executor;
+		this.ioThreads = ioThreads;
+		this.tls = tls;
+	}
+
+	/**
+	 * @return the maximum number of connections kept open to any one host
+	 */
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	/**
+	 * @param maxConnectionsPerRoute the maximum number of connections kept open to any one host
+	 */
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
+	/**
+	 * Signs and sends the request without blocking the calling thread.  The response is
+	 * parsed by the handler and the result delivered to the callback on this client's
+	 * executor.  Calling {@link org.apache.http.client.methods.HttpUriRequest#abort()}
+	 * closes the connection the request is using and reports an error to the callback.
+	 *
+	 * @param request the request to send
+	 * @param responseHandler the handler used to parse the response
+	 * @param callback notified once with either the parsed response or an error
+	 */
+	public void execute(HttpUriRequest request, ResponseHandler<Object> responseHandler, SimpleGeoCallback callback) {
+		this.execute(request, responseHandler, callback, null);
+	}
+
+	/**
+	 * Signs and sends the request without blocking the calling thread, marking each
+	 * {@link com.simplegeo.client.metrics.Phase} of the exchange on the timer.
+	 *
+	 * @param request the request to send
+	 * @param responseHandler the handler used to parse the response
+	 * @param callback notified once with either the parsed response or an error
+	 * @param timer the timer to record the exchange with, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public void execute(HttpUriRequest request, ResponseHandler<Object> responseHandler, SimpleGeoCallback callback, RequestTimer timer) {
+		Exchange exchange;
+		try {
+			this.signer.sign(request);
+			exchange = new Exchange(request, responseHandler, callback, timer);
+		} catch (Exception e) {
+			if (timer != null)
+				timer.finish(e);
+			SimpleGeoFuture.fail(callback, e);
+			return;
+		}
+
+		if (request instanceof AbortableHttpRequest) {
+			try {
+				((AbortableHttpRequest) request).setReleaseTrigger(exchange);
+			} catch (IOException e) {
+				exchange.fail(e);
+				return;
+			}
+		}
+
+		this.lease(exchange);
+	}
+
+	/**
+	 * Stops the I/O reactor and closes all connections.
+	 */
+	public void shutdown() {
+		ConnectingIOReactor reactor;
+		lock.lock();
+		try {
+			reactor = this.ioReactor;
+			this.ioReactor = null;
+		} finally {
+			lock.unlock();
+		}
+		if (reactor != null) {
+			try {
+				reactor.shutdown();
+			} catch (IOException e) {
+				logger.info(e.getMessage());
+			}
+		}
+	}
+
+	private ConnectingIOReactor getReactor() throws IOException {
+		lock.lock();
+		try {
+			if (ioReactor == null) {
+				final DefaultConnectingIOReactor reactor = new DefaultConnectingIOReactor(ioThreads,
+						new NamedThreadFactory("SimpleGeoIOReactor", true), params);
+
+				BasicHttpProcessor httpProcessor = new BasicHttpProcessor();
+				httpProcessor.addInterceptor(new RequestContent());
+				httpProcessor.addInterceptor(new RequestTargetHost());
+				httpProcessor.addInterceptor(new RequestConnControl());
+				httpProcessor.addInterceptor(new RequestUserAgent());
+
+				ExchangeHandler exchangeHandler = new ExchangeHandler();
+				BufferingHttpClientHandler handler = new BufferingHttpClientHandler(httpProcessor,
+						exchangeHandler, new DefaultConnectionReuseStrategy(), params);
+				handler.setEventListener(exchangeHandler);
+
+				final IOEventDispatch dispatch = tls == null ? new DefaultClientIOEventDispatch(handler, params)
+						: new SchemeDispatch(handler);
+				Thread reactorThread = new NamedThreadFactory("SimpleGeoIOReactorDispatch", true).newThread(new Runnable() {
+					public void run() {
+						try {
+							reactor.execute(dispatch);
+						} catch (InterruptedIOException e) {
+							logger.info("I/O reactor interrupted");
+						} catch (IOException e) {
+							logger.info(String.format("I/O reactor terminated: %s", e.getMessage()));
+						}
+					}
+				});
+				reactorThread.start();
+				ioReactor = reactor;
+			}
+			return ioReactor;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Hands the exchange an idle connection, opens a new one if the route has room
+	 * or queues the exchange until a connection is released.
+	 */
+	private void lease(Exchange exchange) {
+		NHttpClientConnection conn = null;
+		boolean connect = false;
+		lock.lock();
+		try {
+			RoutePool pool = pools.get(exchange.target);
+			if (pool == null) {
+				pool = new RoutePool();
+				pools.put(exchange.target, pool);
+			}
+			while (conn == null && !pool.idle.isEmpty()) {
+				conn = pool.idle.removeFirst();
+				if (!conn.isOpen())
+					conn = null;
+			}
+			if (conn != null) {
+				exchange.attach(conn, true);
+			} else if (pool.open < maxConnectionsPerRoute) {
+				pool.open++;
+				connect = true;
+			} else {
+				pool.pending.addLast(exchange);
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		if (conn != null) {
+			conn.requestOutput();
+		} else if (connect) {
+			this.connect(exchange);
+		}
+	}
+
+	private void connect(Exchange exchange) {
+		exchange.mark(Phase.QUEUE);
+		try {
+			SessionRequest sessionRequest = this.getReactor().connect(
+					new InetSocketAddress(exchange.target.getHostName(), exchange.target.getPort()),
+					null, exchange, new ConnectCallback());
+			sessionRequest.setConnectTimeout(HttpConnectionParams.getConnectionTimeout(params));
+		} catch (IOException e) {
+			this.connectionLost(exchange.target);
+			exchange.fail(e);
+		}
+	}
+
+	/**
+	 * Called on an I/O thread once a connection has finished its previous exchange.
+	 * @return the next exchange waiting on the connection's route, or null if the
+	 * connection was returned to the idle pool
+	 */
+	private Exchange released(NHttpClientConnection conn, HttpHost target) {
+		lock.lock();
+		try {
+			RoutePool pool = pools.get(target);
+			Exchange next = pool.pending.pollFirst();
+			if (next != null) {
+				next.attach(conn, true);
+			} else {
+				pool.idle.addLast(conn);
+			}
+			return next;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Called when a connection to the target has been closed or could not be opened.
+	 * Frees its slot and, if exchanges are waiting, opens a connection for the next one.
+	 */
+	private void connectionLost(HttpHost target) {
+		Exchange next = null;
+		lock.lock();
+		try {
+			RoutePool pool = pools.get(target);
+			pool.open--;
+			next = pool.pending.pollFirst();
+			if (next != null)
+				pool.open++;
+		} finally {
+			lock.unlock();
+		}
+		if (next != null)
+			this.connect(next);
+	}
+
+	private void removeIdle(NHttpConnection conn, HttpHost target) {
+		lock.lock();
+		try {
+			RoutePool pool = pools.get(target);
+			if (pool != null)
+				pool.idle.remove(conn);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void removePending(Exchange exchange) {
+		lock.lock();
+		try {
+			RoutePool pool = pools.get(exchange.target);
+			if (pool != null)
+				pool.pending.remove(exchange);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Hands each connection's events to a plain or a TLS dispatch, depending on the
+	 * scheme of the host the connection was opened to.
+	 */
+	private class SchemeDispatch implements IOEventDispatch {
+
+		private static final String DISPATCH = "simplegeo.dispatch";
+
+		private final IOEventDispatch plain;
+		private final IOEventDispatch secure;
+
+		private SchemeDispatch(NHttpClientHandler handler) {
+			this.plain = new DefaultClientIOEventDispatch(handler, params);
+			this.secure = new SSLClientIOEventDispatch(handler, tls.getSSLContext(), params) {
+				@Override
+				protected SSLIOSession createSSLIOSession(IOSession session, SSLContext sslContext,
+						SSLIOSessionHandler sslHandler) {
+					return super.createSSLIOSession(session, sslContext, tls.newSessionHandler());
+				}
+			};
+		}
+
+		private IOEventDispatch dispatch(IOSession session) {
+			return (IOEventDispatch) session.getAttribute(DISPATCH);
+		}
+
+		public void connected(IOSession session) {
+			Exchange exchange = (Exchange) session.getAttribute(IOSession.ATTACHMENT_KEY);
+			boolean https = exchange != null && "https".equalsIgnoreCase(exchange.target.getSchemeName());
+			IOEventDispatch dispatch = https ? secure : plain;
+			session.setAttribute(DISPATCH, dispatch);
+			dispatch.connected(session);
+		}
+
+		public void disconnected(IOSession session) {
+			dispatch(session).disconnected(session);
+		}
+
+		public void inputReady(IOSession session) {
+			dispatch(session).inputReady(session);
+		}
+
+		public void outputReady(IOSession session) {
+			dispatch(session).outputReady(session);
+		}
+
+		public void timeout(IOSession session) {
+			dispatch(session).timeout(session);
+		}
+
+	}
+
+	private static class RoutePool {
+		private final LinkedList<NHttpClientConnection> idle = new LinkedList<NHttpClientConnection>();
+		private final LinkedList<Exchange> pending = new LinkedList<Exchange>();
+		private int open = 0;
+	}
+
+	/**
+	 * A single request/response exchange.  It is also the release trigger of the original
+	 * request so that aborting the request tears down the exchange.
+	 */
+	private class Exchange implements ConnectionReleaseTrigger {
+
+		private final HttpUriRequest original;
+		private final HttpRequest request;
+		private final HttpHost target;
+		private final ResponseHandler<Object> responseHandler;
+		private final SimpleGeoCallback<Object> callback;
+		private final RequestTimer timer;
+
+		private volatile NHttpClientConnection conn;
+		private volatile boolean reused = false;
+		private volatile boolean sent = false;
+		private volatile boolean done = false;
+		private volatile int attempts = 0;
+
+		private Exchange(HttpUriRequest original, ResponseHandler<Object> responseHandler, SimpleGeoCallback<Object> callback,
+				RequestTimer timer) {
+			this.original = original;
+			this.responseHandler = responseHandler;
+			this.callback = callback;
+			this.timer = timer;
+
+			// Before the headers are copied, so that any the listener adds are sent.
+			if (timer != null) {
+				timer.mark(Phase.SIGN);
+				timer.signed();
+				if (original instanceof HttpEntityEnclosingRequest) {
+					HttpEntity entity = ((HttpEntityEnclosingRequest) original).getEntity();
+					if (entity != null && entity.getContentLength() > 0)
+						timer.setBytesSent(entity.getContentLength());
+				}
+			}
+
+			URI uri = original.getURI();
+			int port = uri.getPort();
+			if (port < 0)
+				port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+			this.target = new HttpHost(uri.getHost(), port, uri.getScheme());
+
+			String path = uri.getRawPath();
+			if (path == null || path.length() == 0)
+				path = "/";
+			if (uri.getRawQuery() != null)
+				path = path + "?" + uri.getRawQuery();
+
+			String method = original.getMethod();
+			if (original instanceof HttpEntityEnclosingRequest) {
+				BasicHttpEntityEnclosingRequest entityRequest = new BasicHttpEntityEnclosingRequest(method, path);
+				entityRequest.setEntity(((HttpEntityEnclosingRequest) original).getEntity());
+				this.request = entityRequest;
+			} else {
+				this.request = new BasicHttpRequest(method, path);
+			}
+			this.request.setHeaders(original.getAllHeaders());
+		}
+
+		private void attach(NHttpClientConnection conn, boolean reused) {
+			this.conn = conn;
+			this.reused = reused;
+			this.attempts++;
+			conn.getContext().setAttribute(EXCHANGE, this);
+			// A pooled connection ends the wait for one; a new one ends the connect.
+			this.mark(reused ? Phase.QUEUE : Phase.CONNECT);
+			if (timer != null)
+				timer.connectionLeased();
+		}
+
+		private void mark(Phase phase) {
+			if (timer != null)
+				timer.mark(phase);
+		}
+
+		private void finish(Throwable failure) {
+			if (timer != null)
+				timer.finish(failure);
+		}
+
+		private boolean isIdempotent() {
+			String method = original.getMethod();
+			return "GET".equals(method) || "DELETE".equals(method);
+		}
+
+		private void complete(final HttpResponse response) {
+			if (done)
+				return;
+			done = true;
+			if (timer != null)
+				timer.enqueued();
+			deliver(new RequestTask() {
+				public void run() {
+					mark(Phase.QUEUE);
+					if (timer != null)
+						timer.dequeued();
+					Object object;
+					try {
+						object = responseHandler.handleResponse(response);
+					} catch (IOException e) {
+						finish(e);
+						SimpleGeoFuture.fail(callback, e);
+						return;
+					}
+					mark(Phase.PARSE);
+					if (timer != null)
+						timer.parsed();
+					finish(null);
+					callback.onSuccess(object);
+					if (timer != null)
+						timer.callbackDelivered();
+				}
+
+				@Override
+				public void onRejected(RejectedExecutionException e) {
+					finish(e);
+					SimpleGeoFuture.fail(callback, e);
+				}
+			});
+		}
+
+		private void fail(final Exception e) {
+			if (done)
+				return;
+			done = true;
+			finish(e);
+			deliver(new RequestTask() {
+				public void run() {
+					SimpleGeoFuture.fail(callback, e);
+				}
+
+				@Override
+				public void onRejected(RejectedExecutionException rejected) {
+					SimpleGeoFuture.fail(callback, e);
+				}
+			});
+		}
+
+		private void deliver(RequestTask task) {
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				task.onRejected(e);
+			}
+		}
+
+		public void abortConnection() throws IOException {
+			if (done)
+				return;
+			// Failed before the shutdown, so the I/O thread sees a finished exchange
+			// rather than reporting the connection closed underneath it
+			NHttpClientConnection current = this.conn;
+			this.fail(new IOException("Request aborted"));
+			if (current != null) {
+				current.shutdown();
+			} else {
+				removePending(this);
+			}
+		}
+
+		public void releaseConnection() throws IOException {
+			// Connections are returned to the pool as soon as the response has been read.
+		}
+
+	}
+
+	private class ConnectCallback implements SessionRequestCallback {
+
+		public void completed(SessionRequest request) {
+			// The exchange is picked up in ExchangeHandler.initalizeContext
+		}
+
+		public void failed(SessionRequest request) {
+			this.connectFailed(request, request.getException());
+		}
+
+		public void timeout(SessionRequest request) {
+			this.connectFailed(request, new IOException("Connect timed out"));
+		}
+
+		public void cancelled(SessionRequest request) {
+			this.connectFailed(request, new IOException("Connect cancelled"));
+		}
+
+		private void connectFailed(SessionRequest request, IOException e) {
+			Exchange exchange = (Exchange) request.getAttachment();
+			connectionLost(exchange.target);
+			exchange.fail(e != null ? e : new IOException("Connect failed"));
+		}
+
+	}
+
+	/**
+	 * Feeds exchanges to connections and collects their responses.  Runs on the
+	 * reactor's I/O threads.
+	 */
+	private class ExchangeHandler implements HttpRequestExecutionHandler, EventListener {
+
+		public void initalizeContext(HttpContext context, Object attachment) {
+			Exchange exchange = (Exchange) attachment;
+			context.setAttribute(ROUTE, exchange.target);
+			context.setAttribute(ExecutionContext.HTTP_TARGET_HOST, exchange.target);
+			context.setAttribute(EXCHANGE, exchange);
+		}
+
+		public void connectionOpen(NHttpConnection conn) {
+			conn.getContext().setAttribute(CONNECTION, conn);
+			Exchange exchange = (Exchange) conn.getContext().getAttribute(EXCHANGE);
+			if (exchange != null)
+				exchange.attach((NHttpClientConnection) conn, false);
+		}
+
+		public HttpRequest submitRequest(HttpContext context) {
+			Exchange exchange = (Exchange) context.getAttribute(EXCHANGE);
+			if (exchange == null || exchange.sent) {
+				HttpHost target = (HttpHost) context.getAttribute(ROUTE);
+				NHttpClientConnection conn = (NHttpClientConnection) context.getAttribute(CONNECTION);
+				if (exchange != null || conn == null)
+					return null;
+				exchange = released(conn, target);
+				if (exchange == null)
+					return null;
+			}
+			if (exchange.done) {
+				context.removeAttribute(EXCHANGE);
+				return null;
+			}
+			exchange.sent = true;
+			if (exchange.timer != null)
+				exchange.timer.requestSent();
+			return exchange.request;
+		}
+
+		public void handleResponse(HttpResponse response, HttpContext context) throws IOException {
+			Exchange exchange = (Exchange) context.removeAttribute(EXCHANGE);
+			if (exchange == null)
+				return;
+			exchange.conn = null;
+			if (exchange.timer != null) {
+				exchange.timer.mark(Phase.FIRST_BYTE);
+				exchange.timer.setStatus(response.getStatusLine().getStatusCode());
+				exchange.timer.headersReceived();
+			}
+
+			// The response buffer is recycled as soon as we return, so take a copy
+			// for the executor to parse.
+			HttpEntity entity = response.getEntity();
+			if (entity != null) {
+				ByteArrayEntity copy = new ByteArrayEntity(EntityUtils.toByteArray(entity));
+				copy.setContentType(entity.getContentType());
+				copy.setContentEncoding(entity.getContentEncoding());
+				response.setEntity(copy);
+				if (exchange.timer != null)
+					exchange.timer.addBytesReceived(copy.getContentLength());
+			}
+			if (exchange.timer != null)
+				exchange.timer.bodyConsumed();
+			exchange.complete(response);
+		}
+
+		public void finalizeContext(HttpContext context) {
+			HttpHost target = (HttpHost) context.getAttribute(ROUTE);
+			Exchange exchange = (Exchange) context.removeAttribute(EXCHANGE);
+			if (target == null)
+				return;
+			connectionLost(target);
+			if (exchange == null || exchange.done)
+				return;
+
+			// The connection went away underneath an exchange.  If the request never
+			// made it out, or it went out on a kept-alive connection the server had
+			// already given up on and is safe to repeat, give it another connection.
+			exchange.conn = null;
+			if ((!exchange.sent || (exchange.reused && exchange.isIdempotent())) && exchange.attempts < 2) {
+				exchange.sent = false;
+				lease(exchange);
+			} else {
+				exchange.fail(new IOException("Connection closed"));
+			}
+		}
+
+		public void connectionClosed(NHttpConnection conn) {
+			HttpHost target = (HttpHost) conn.getContext().getAttribute(ROUTE);
+			if (target != null)
+				removeIdle(conn, target);
+		}
+
+		public void connectionTimeout(NHttpConnection conn) {
+			logger.info("connection timed out");
+		}
+
+		public void fatalIOException(IOException e, NHttpConnection conn) {
+			logger.info(String.format("I/O error: %s", e.getMessage()));
+		}
+
+		public void fatalProtocolException(HttpException e, NHttpConnection conn) {
+			logger.info(String.format("Protocol error: %s", e.getMessage()));
+		}
+
+	}
+
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.simplegeo.client.http.exceptions.APIException;
+
+/**
+ * The circuit breaker of one endpoint, configured by a {@link CircuitBreakerConfig}.
+ * Requests ask {@link #tryAcquire()} before they are sent and report how they
+ * went with {@link #record(Throwable, long)}, or {@link #release()} if they were
+ * abandoned.  I/O errors and 5xx responses count as failures; other error
+ * responses mean the endpoint is answering and count as successes.
+ * <p>
+ * A closed circuit only reads a volatile field before a request, so it costs
+ * next to nothing; results are counted under the breaker's lock.
+ */
+public class CircuitBreaker {
+
+	public static enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final String endpoint;
+	private final CircuitBreakerConfig config;
+	private final long bucketMillis;
+	private final long[] bucketEpochs;
+	private final int[] requests;
+	private final int[] failures;
+	private final int[] slowRequests;
+	private final AtomicLong rejected = new AtomicLong();
+
+	private volatile State state = State.CLOSED;
+	private volatile CircuitBreakerListener listener;
+	private long openedAt;
+	private int probes;
+	private int probeSuccesses;
+
+	/**
+	 * @param endpoint the name of the endpoint
+	 * @param config the thresholds to trip at
+	 * @param listener notified of state changes, or null
+	 */
+	public CircuitBreaker(String endpoint, CircuitBreakerConfig config, CircuitBreakerListener listener) {
+		this.endpoint = endpoint;
+		this.config = config;
+		this.listener = listener;
+		int buckets = config.getWindowBuckets();
+		this.bucketMillis = Math.max(1, config.getWindowMillis() / buckets);
+		this.bucketEpochs = new long[buckets];
+		this.requests = new int[buckets];
+		this.failures = new int[buckets];
+		this.slowRequests = new int[buckets];
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return how many requests the circuit has failed without sending them
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * @param listener notified of state changes, or null
+	 */
+	public void setListener(CircuitBreakerListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return how long until an open circuit lets probes through, or 0 if it is not open
+	 */
+	public synchronized long getRemainingOpenMillis() {
+		if (state != State.OPEN)
+			return 0;
+		return Math.max(0, openedAt + config.getOpenMillis() - now());
+	}
+
+	/**
+	 * Asks whether a request may be sent.  A request that is let through must
+	 * be followed by a call to {@link #record(Throwable, long)} or {@link #release()}.
+	 * 
+	 * @return true if the request may be sent, false if it should fail at once
+	 */
+	public boolean tryAcquire() {
+		if (state == State.CLOSED)
+			return true;
+		return tryAcquire(now());
+	}
+
+	boolean tryAcquire(long now) {
+		State from;
+		synchronized (this) {
+			from = state;
+			if (from == State.OPEN) {
+				if (now - openedAt < config.getOpenMillis()) {
+					rejected.incrementAndGet();
+					return false;
+				}
+				state = State.HALF_OPEN;
+				probes = 0;
+				probeSuccesses = 0;
+			}
+			if (state == State.HALF_OPEN) {
+				if (probes >= config.getHalfOpenProbes()) {
+					rejected.incrementAndGet();
+					return false;
+				}
+				probes++;
+			}
+		}
+		if (from == State.OPEN)
+			fire(from, State.HALF_OPEN);
+		return true;
+	}
+
+	/**
+	 * Counts the result of a request that was let through.
+	 * 
+	 * @param failure the exception the request failed with, or null if it succeeded
+	 * @param elapsedNanos how long the request took
+	 */
+	public void record(Throwable failure, long elapsedNanos) {
+		record(isFailure(failure), TimeUnit.NANOSECONDS.toMillis(elapsedNanos) >= config.getSlowRequestMillis(), now());
+	}
+
+	void record(boolean failed, boolean slow, long now) {
+		State from;
+		State to;
+		synchronized (this) {
+			from = state;
+			to = from;
+			if (from == State.HALF_OPEN) {
+				if (failed || slow)
+					to = open(now);
+				else if (++probeSuccesses >= config.getHalfOpenProbes())
+					to = close();
+			} else if (from == State.CLOSED) {
+				int bucket = bucket(now);
+				requests[bucket]++;
+				if (failed)
+					failures[bucket]++;
+				if (slow)
+					slowRequests[bucket]++;
+				if (shouldOpen(now))
+					to = open(now);
+			}
+		}
+		if (to != from)
+			fire(from, to);
+	}
+
+	/**
+	 * Gives back the permit of a request that was let through but abandoned, for
+	 * example by being cancelled, without counting it.
+	 */
+	public synchronized void release() {
+		if (state == State.HALF_OPEN && probes > 0)
+			probes--;
+	}
+
+	/**
+	 * @param failure the exception a request failed with, or null
+	 * @return true if the failure says the endpoint is unhealthy
+	 */
+	public static boolean isFailure(Throwable failure) {
+		if (failure instanceof APIException)
+			return ((APIException) failure).statusCode >= 500;
+		return failure instanceof IOException;
+	}
+
+	private State open(long now) {
+		state = State.OPEN;
+		openedAt = now;
+		return State.OPEN;
+	}
+
+	private State close() {
+		for (int i=0; i<bucketEpochs.length; i++)
+			clear(i, 0);
+		state = State.CLOSED;
+		return State.CLOSED;
+	}
+
+	private boolean shouldOpen(long now) {
+		long oldest = now / bucketMillis - bucketEpochs.length;
+		int total = 0;
+		int failed = 0;
+		int slow = 0;
+		for (int i=0; i<bucketEpochs.length; i++) {
+			if (bucketEpochs[i] > oldest) {
+				total += requests[i];
+				failed += failures[i];
+				slow += slowRequests[i];
+			}
+		}
+		if (total < config.getMinimumRequests())
+			return false;
+		return failed * 100L >= (long) config.getFailureRatePercent() * total
+				|| slow * 100L >= (long) config.getSlowRequestRatePercent() * total;
+	}
+
+	private int bucket(long now) {
+		long epoch = now / bucketMillis;
+		int bucket = (int) Math.floorMod(epoch, (long) bucketEpochs.length);
+		if (bucketEpochs[bucket] != epoch)
+			clear(bucket, epoch);
+		return bucket;
+	}
+
+	private void clear(int bucket, long epoch) {
+		bucketEpochs[bucket] = epoch;
+		requests[bucket] = 0;
+		failures[bucket] = 0;
+		slowRequests[bucket] = 0;
+	}
+
+	private void fire(State from, State to) {
+		CircuitBreakerListener current = listener;
+		if (current != null)
+			current.onStateChange(endpoint, from, to);
+	}
+
+	private static long now() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %s, rejected=%d", endpoint, state, getRejectedCount());
+	}
+}
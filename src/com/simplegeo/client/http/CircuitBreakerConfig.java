@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+/**
+ * Settings for the circuit breakers a client keeps for each endpoint.  Pass an
+ * instance to a client's <code>setCircuitBreakerConfig</code> method; clients
+ * have no circuit breakers without one.
+ * <p>
+ * A circuit opens once, over the last {@link #getWindowMillis()}, at least
+ * {@link #getMinimumRequests()} requests were made and either
+ * {@link #getFailureRatePercent()} of them failed or
+ * {@link #getSlowRequestRatePercent()} of them took longer than
+ * {@link #getSlowRequestMillis()}.  An open circuit fails requests at once for
+ * {@link #getOpenMillis()}, then lets {@link #getHalfOpenProbes()} requests
+ * through: if they all succeed quickly the circuit closes, otherwise it opens again.
+ * <p>
+ * Configure the settings before handing them to a client.
+ */
+public class CircuitBreakerConfig {
+
+	private long windowMillis = 10000;
+	private int windowBuckets = 10;
+	private int minimumRequests = 20;
+	private int failureRatePercent = 50;
+	private long slowRequestMillis = 5000;
+	private int slowRequestRatePercent = 50;
+	private long openMillis = 5000;
+	private int halfOpenProbes = 3;
+
+	/**
+	 * @return the length of the rolling window that error and latency rates are measured over
+	 */
+	public long getWindowMillis() {
+		return windowMillis;
+	}
+
+	/**
+	 * @param windowMillis the length of the rolling window that error and latency
+	 * rates are measured over
+	 */
+	public void setWindowMillis(long windowMillis) {
+		if (windowMillis < 1)
+			throw new IllegalArgumentException("windowMillis must be at least 1");
+		this.windowMillis = windowMillis;
+	}
+
+	/**
+	 * @return how many slices the window is kept in; the oldest slice is dropped as
+	 * the window rolls on
+	 */
+	public int getWindowBuckets() {
+		return windowBuckets;
+	}
+
+	/**
+	 * @param windowBuckets how many slices the window is kept in; the oldest slice
+	 * is dropped as the window rolls on
+	 */
+	public void setWindowBuckets(int windowBuckets) {
+		if (windowBuckets < 1)
+			throw new IllegalArgumentException("windowBuckets must be at least 1");
+		this.windowBuckets = windowBuckets;
+	}
+
+	/**
+	 * @return how many requests the window must hold before the circuit can open
+	 */
+	public int getMinimumRequests() {
+		return minimumRequests;
+	}
+
+	/**
+	 * @param minimumRequests how many requests the window must hold before the
+	 * circuit can open
+	 */
+	public void setMinimumRequests(int minimumRequests) {
+		if (minimumRequests < 1)
+			throw new IllegalArgumentException("minimumRequests must be at least 1");
+		this.minimumRequests = minimumRequests;
+	}
+
+	/**
+	 * @return the percentage of failed requests in the window that opens the circuit
+	 */
+	public int getFailureRatePercent() {
+		return failureRatePercent;
+	}
+
+	/**
+	 * @param failureRatePercent the percentage of failed requests in the window that
+	 * opens the circuit, or more than 100 to ignore failures
+	 */
+	public void setFailureRatePercent(int failureRatePercent) {
+		if (failureRatePercent < 1)
+			throw new IllegalArgumentException("failureRatePercent must be at least 1");
+		this.failureRatePercent = failureRatePercent;
+	}
+
+	/**
+	 * @return how long a request may take before it counts as slow
+	 */
+	public long getSlowRequestMillis() {
+		return slowRequestMillis;
+	}
+
+	/**
+	 * @param slowRequestMillis how long a request may take before it counts as slow
+	 */
+	public void setSlowRequestMillis(long slowRequestMillis) {
+		if (slowRequestMillis < 1)
+			throw new IllegalArgumentException("slowRequestMillis must be at least 1");
+		this.slowRequestMillis = slowRequestMillis;
+	}
+
+	/**
+	 * @return the percentage of slow requests in the window that opens the circuit
+	 */
+	public int getSlowRequestRatePercent() {
+		return slowRequestRatePercent;
+	}
+
+	/**
+	 * @param slowRequestRatePercent the percentage of slow requests in the window that
+	 * opens the circuit, or more than 100 to ignore latency
+	 */
+	public void setSlowRequestRatePercent(int slowRequestRatePercent) {
+		if (slowRequestRatePercent < 1)
+			throw new IllegalArgumentException("slowRequestRatePercent must be at least 1");
+		this.slowRequestRatePercent = slowRequestRatePercent;
+	}
+
+	/**
+	 * @return how long an open circuit fails requests before letting probes through
+	 */
+	public long getOpenMillis() {
+		return openMillis;
+	}
+
+	/**
+	 * @param openMillis how long an open circuit fails requests before letting
+	 * probes through
+	 */
+	public void setOpenMillis(long openMillis) {
+		if (openMillis < 0)
+			throw new IllegalArgumentException("openMillis must not be negative");
+		this.openMillis = openMillis;
+	}
+
+	/**
+	 * @return how many requests a half-open circuit lets through, all of which must
+	 * succeed for it to close
+	 */
+	public int getHalfOpenProbes() {
+		return halfOpenProbes;
+	}
+
+	/**
+	 * @param halfOpenProbes how many requests a half-open circuit lets through, all
+	 * of which must succeed for it to close
+	 */
+	public void setHalfOpenProbes(int halfOpenProbes) {
+		if (halfOpenProbes < 1)
+			throw new IllegalArgumentException("halfOpenProbes must be at least 1");
+		this.halfOpenProbes = halfOpenProbes;
+	}
+}
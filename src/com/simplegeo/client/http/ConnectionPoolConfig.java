@@ -0,0 +1,292 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Settings for the connection pool that a client's Http requests are sent
+ * over.  Pass an instance to one of the clients' <code>getInstance</code>
+ * methods; without one the defaults below are used.
+ * <p>
+ * A background reaper closes connections the server has already expired and
+ * connections that have sat idle longer than {@link #getMaxIdleMillis()}.  Before
+ * a pooled connection that has been idle longer than
+ * {@link #getValidateAfterInactivityMillis()} is reused it is checked for a
+ * half-closed socket, which spares the check on connections that were just
+ * released.  Timeouts of 0 mean no timeout.
+ */
+public class ConnectionPoolConfig {
+
+	private int maxTotalConnections = 40;
+	private int maxConnectionsPerRoute = 20;
+	private long connectionRequestTimeoutMillis = 0;
+	private long validateAfterInactivityMillis = 2000;
+	private long maxIdleMillis = 30000;
+	private long reaperIntervalMillis = 5000;
+	private boolean tcpNoDelay = true;
+	private int socketBufferSize = 8 * 1024;
+	private int sendBufferSize = 0;
+	private int receiveBufferSize = 0;
+	private int connectTimeoutMillis = 0;
+	private int soTimeoutMillis = 0;
+	private int prewarmConnections = 0;
+	private TlsConfig tlsConfig = new TlsConfig();
+
+	/**
+	 * @return the maximum number of open connections across all hosts
+	 */
+	public int getMaxTotalConnections() {
+		return maxTotalConnections;
+	}
+
+	/**
+	 * @param maxTotalConnections the maximum number of open connections across all hosts
+	 */
+	public void setMaxTotalConnections(int maxTotalConnections) {
+		if (maxTotalConnections < 1)
+			throw new IllegalArgumentException("maxTotalConnections must be at least 1");
+		this.maxTotalConnections = maxTotalConnections;
+	}
+
+	/**
+	 * @return the maximum number of open connections to a single host
+	 */
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	/**
+	 * @param maxConnectionsPerRoute the maximum number of open connections to a single host
+	 */
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		if (maxConnectionsPerRoute < 1)
+			throw new IllegalArgumentException("maxConnectionsPerRoute must be at least 1");
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
+	/**
+	 * @return how long a request waits for a free connection from the pool
+	 */
+	public long getConnectionRequestTimeoutMillis() {
+		return connectionRequestTimeoutMillis;
+	}
+
+	/**
+	 * @param connectionRequestTimeoutMillis how long a request waits for a free
+	 * connection from the pool
+	 */
+	public void setConnectionRequestTimeoutMillis(long connectionRequestTimeoutMillis) {
+		this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+	}
+
+	/**
+	 * @return how long a connection may sit idle before it is checked for staleness
+	 * on reuse, or 0 to check every time
+	 */
+	public long getValidateAfterInactivityMillis() {
+		return validateAfterInactivityMillis;
+	}
+
+	/**
+	 * @param validateAfterInactivityMillis how long a connection may sit idle before
+	 * it is checked for staleness on reuse, or 0 to check every time
+	 */
+	public void setValidateAfterInactivityMillis(long validateAfterInactivityMillis) {
+		this.validateAfterInactivityMillis = validateAfterInactivityMillis;
+	}
+
+	/**
+	 * @return how long a connection may sit idle in the pool before the reaper
+	 * closes it, or 0 to keep idle connections
+	 */
+	public long getMaxIdleMillis() {
+		return maxIdleMillis;
+	}
+
+	/**
+	 * @param maxIdleMillis how long a connection may sit idle in the pool before
+	 * the reaper closes it, or 0 to keep idle connections
+	 */
+	public void setMaxIdleMillis(long maxIdleMillis) {
+		this.maxIdleMillis = maxIdleMillis;
+	}
+
+	/**
+	 * @return how often the reaper runs, or 0 to disable it
+	 */
+	public long getReaperIntervalMillis() {
+		return reaperIntervalMillis;
+	}
+
+	/**
+	 * @param reaperIntervalMillis how often the reaper runs, or 0 to disable it
+	 */
+	public void setReaperIntervalMillis(long reaperIntervalMillis) {
+		this.reaperIntervalMillis = reaperIntervalMillis;
+	}
+
+	/**
+	 * @return true if Nagle's algorithm is disabled on new sockets
+	 */
+	public boolean isTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	/**
+	 * @param tcpNoDelay true to disable Nagle's algorithm on new sockets
+	 */
+	public void setTcpNoDelay(boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+	}
+
+	/**
+	 * @return the size of the buffers a connection reads and writes through
+	 */
+	public int getSocketBufferSize() {
+		return socketBufferSize;
+	}
+
+	/**
+	 * @param socketBufferSize the size of the buffers a connection reads and writes through
+	 */
+	public void setSocketBufferSize(int socketBufferSize) {
+		if (socketBufferSize < 1)
+			throw new IllegalArgumentException("socketBufferSize must be at least 1");
+		this.socketBufferSize = socketBufferSize;
+	}
+
+	/**
+	 * @return the SO_SNDBUF size for new sockets, or 0 for the system default
+	 */
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	/**
+	 * @param sendBufferSize the SO_SNDBUF size for new sockets, or 0 for the system default
+	 */
+	public void setSendBufferSize(int sendBufferSize) {
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	/**
+	 * @return the SO_RCVBUF size for new sockets, or 0 for the system default
+	 */
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/**
+	 * @param receiveBufferSize the SO_RCVBUF size for new sockets, or 0 for the system default
+	 */
+	public void setReceiveBufferSize(int receiveBufferSize) {
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	/**
+	 * @return how long to wait for a connection to be established
+	 */
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	/**
+	 * @param connectTimeoutMillis how long to wait for a connection to be established
+	 */
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	/**
+	 * @return how long a read may block waiting for data
+	 */
+	public int getSoTimeoutMillis() {
+		return soTimeoutMillis;
+	}
+
+	/**
+	 * @param soTimeoutMillis how long a read may block waiting for data
+	 */
+	public void setSoTimeoutMillis(int soTimeoutMillis) {
+		this.soTimeoutMillis = soTimeoutMillis;
+	}
+
+	/**
+	 * @return how many keep-alive connections to open when the client is created
+	 */
+	public int getPrewarmConnections() {
+		return prewarmConnections;
+	}
+
+	/**
+	 * @param prewarmConnections how many keep-alive connections to open when the
+	 * client is created, at most {@link #getMaxConnectionsPerRoute()}
+	 */
+	public void setPrewarmConnections(int prewarmConnections) {
+		this.prewarmConnections = prewarmConnections;
+	}
+
+	/**
+	 * @return the settings for https connections
+	 */
+	public TlsConfig getTlsConfig() {
+		return tlsConfig;
+	}
+
+	/**
+	 * @param tlsConfig the settings for https connections
+	 */
+	public void setTlsConfig(TlsConfig tlsConfig) {
+		if (tlsConfig == null)
+			throw new IllegalArgumentException("tlsConfig must not be null");
+		this.tlsConfig = tlsConfig;
+	}
+
+	/**
+	 * Copies the pool limits, timeouts and socket options into the given parameters.
+	 * 
+	 * @param params the parameters the connection manager and client are built with
+	 */
+	public void applyTo(HttpParams params) {
+		ConnManagerParams.setMaxTotalConnections(params, maxTotalConnections);
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerRoute));
+		ConnManagerParams.setTimeout(params, connectionRequestTimeoutMillis);
+		HttpConnectionParams.setTcpNoDelay(params, tcpNoDelay);
+		HttpConnectionParams.setSocketBufferSize(params, socketBufferSize);
+		HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+		HttpConnectionParams.setSoTimeout(params, soTimeoutMillis);
+		// PooledConnectionManager checks idle connections itself, see validateAfterInactivityMillis
+		HttpConnectionParams.setStaleCheckingEnabled(params, false);
+	}
+
+}
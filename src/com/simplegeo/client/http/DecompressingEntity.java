@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * A response entity whose content is inflated as it is read, standing in for
+ * one sent with a gzip or deflate Content-Encoding.
+ */
+class DecompressingEntity extends HttpEntityWrapper {
+
+	private final boolean gzip;
+	private InputStream content;
+
+	private DecompressingEntity(HttpEntity entity, boolean gzip) {
+		super(entity);
+		this.gzip = gzip;
+	}
+
+	/**
+	 * @param entity a response entity, or null
+	 * @param contentEncoding the response's Content-Encoding header, or null
+	 * @return an entity that inflates the content if it is gzip or deflate encoded,
+	 * otherwise the entity itself
+	 */
+	static HttpEntity wrap(HttpEntity entity, Header contentEncoding) {
+		if (entity == null || contentEncoding == null || entity.getContentLength() == 0)
+			return entity;
+		String coding = contentEncoding.getValue().trim().toLowerCase(Locale.US);
+		if ("gzip".equals(coding) || "x-gzip".equals(coding))
+			return new DecompressingEntity(entity, true);
+		if ("deflate".equals(coding))
+			return new DecompressingEntity(entity, false);
+		return entity;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		if (content == null) {
+			InputStream compressed = wrappedEntity.getContent();
+			try {
+				content = gzip ? InflatingInputStream.gzip(compressed) : InflatingInputStream.deflate(compressed);
+			} catch (IOException e) {
+				compressed.close();
+				throw e;
+			}
+		}
+		return content;
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public Header getContentEncoding() {
+		return null;
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return false;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		InputStream in = getContent();
+		try {
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public void consumeContent() throws IOException {
+		if (content != null)
+			content.close();
+		else
+			super.consumeContent();
+	}
+
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+
+/**
+ * A request URI template, such as "places/%f,%f.json?q=%s", parsed
+ * once so that filling it in takes a single pass and a single buffer.  It takes
+ * the %s, %d, %f and %% conversions of {@link String#format(String, Object...)},
+ * without flags, width or precision, but unlike String.format it renders %f the
+ * same way in every locale.  Query parameters that come out empty, such as
+ * "category=", are left out.  Templates are immutable and can be shared between
+ * threads.
+ */
+public final class EndpointTemplate {
+
+	private static final int ESTIMATED_ARGUMENT_LENGTH = 16;
+	private static final double MAX_FAST_DECIMAL = 1e6;
+	private static final double TIE_TOLERANCE = 1e-3;
+
+	private final String template;
+	private final Segment path;
+	private final Segment[] parameters;
+	private final int arguments;
+	private final int estimatedLength;
+
+	private EndpointTemplate(String template) {
+		this.template = template;
+		
+		int query = template.indexOf('?');
+		this.path = new Segment(query < 0 ? template : template.substring(0, query));
+		ArrayList<Segment> parameters = new ArrayList<Segment>();
+		int arguments = path.conversions.length;
+		if (query >= 0) {
+			for (String parameter : template.substring(query + 1).split("&")) {
+				if (parameter.length() == 0)
+					continue;
+				Segment segment = new Segment(parameter);
+				parameters.add(segment);
+				arguments += segment.conversions.length;
+			}
+		}
+		this.parameters = parameters.toArray(new Segment[parameters.size()]);
+		this.arguments = arguments;
+		this.estimatedLength = template.length() + arguments * ESTIMATED_ARGUMENT_LENGTH;
+	}
+
+	/**
+	 * @param template the URI template
+	 * @return the parsed template
+	 * @throws IllegalArgumentException if the template has a conversion other than %s, %d, %f or %%
+	 */
+	public static EndpointTemplate compile(String template) {
+		if (template == null)
+			throw new IllegalArgumentException("template must not be null");
+		return new EndpointTemplate(template);
+	}
+
+	/**
+	 * Fill in the template, leaving out query parameters with empty values.
+	 * 
+	 * @param args one argument per conversion, in order; extra arguments are ignored
+	 * @return the URI
+	 * @throws IllegalArgumentException if there are fewer arguments than conversions
+	 */
+	public String expand(Object... args) {
+		if (args.length < arguments)
+			throw new IllegalArgumentException(String.format("%s takes %d arguments, got %d", template, arguments, args.length));
+		
+		StringBuilder uri = new StringBuilder(estimatedLength);
+		int next = path.appendTo(uri, args, 0);
+		char separator = '?';
+		for (Segment parameter : parameters) {
+			int mark = uri.length();
+			uri.append(separator);
+			next = parameter.appendTo(uri, args, next);
+			if (uri.length() == mark + 1 || uri.charAt(uri.length() - 1) == '=')
+				uri.setLength(mark);
+			else
+				separator = '&';
+		}
+		return uri.toString();
+	}
+
+	/**
+	 * @return the number of arguments {@link #expand(Object...)} takes
+	 */
+	public int getArgumentCount() {
+		return arguments;
+	}
+
+	@Override
+	public String toString() {
+		return template;
+	}
+
+	/**
+	 * Append the value with six decimals, rounding half up, as String.format("%f")
+	 * does in the US locale.
+	 */
+	static void appendDecimal(StringBuilder out, double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			out.append(value);
+			return;
+		}
+		
+		if (value < 0 || (value == 0 && 1 / value < 0))
+			out.append('-');
+		double magnitude = Math.abs(value);
+		if (magnitude < MAX_FAST_DECIMAL) {
+			// Values this small scale exactly enough that only a fraction close to a
+			// half can round differently from the decimal String.format rounds.
+			double scaled = magnitude * 1e6;
+			double floor = Math.floor(scaled);
+			double fraction = scaled - floor;
+			if (Math.abs(fraction - 0.5) > TIE_TOLERANCE) {
+				long units = (long) floor + (fraction > 0.5 ? 1 : 0);
+				long decimals = units % 1000000;
+				out.append(units / 1000000).append('.');
+				for (long digit = 100000; digit > decimals && digit > 1; digit /= 10)
+					out.append('0');
+				out.append(decimals);
+				return;
+			}
+		}
+		out.append(new BigDecimal(Double.toString(magnitude)).setScale(6, RoundingMode.HALF_UP).toPlainString());
+	}
+
+	/**
+	 * A run of literal text and conversions.  literals[i] comes before the i-th
+	 * conversion, and the last literal after the last conversion.
+	 */
+	private static class Segment {
+
+		private final String[] literals;
+		private final char[] conversions;
+
+		Segment(String text) {
+			ArrayList<String> literals = new ArrayList<String>();
+			StringBuilder conversions = new StringBuilder();
+			StringBuilder literal = new StringBuilder();
+			for (int i=0; i<text.length(); i++) {
+				char c = text.charAt(i);
+				if (c != '%') {
+					literal.append(c);
+					continue;
+				}
+				if (i + 1 == text.length())
+					throw new IllegalArgumentException(String.format("dangling %% in %s", text));
+				char conversion = text.charAt(++i);
+				if (conversion == '%') {
+					literal.append('%');
+				} else if (conversion == 's' || conversion == 'd' || conversion == 'f') {
+					literals.add(literal.toString());
+					literal.setLength(0);
+					conversions.append(conversion);
+				} else {
+					throw new IllegalArgumentException(String.format("unsupported conversion %%%c in %s", conversion, text));
+				}
+			}
+			literals.add(literal.toString());
+			this.literals = literals.toArray(new String[literals.size()]);
+			this.conversions = conversions.toString().toCharArray();
+		}
+
+		int appendTo(StringBuilder uri, Object[] args, int next) {
+			for (int i=0; i<conversions.length; i++) {
+				uri.append(literals[i]);
+				Object arg = args[next++];
+				if (arg == null)
+					uri.append("null");
+				else if (conversions[i] == 'f')
+					appendDecimal(uri, ((Number) arg).doubleValue());
+				else if (conversions[i] == 'd')
+					uri.append(((Number) arg).longValue());
+				else
+					uri.append(arg);
+			}
+			uri.append(literals[conversions.length]);
+			return next;
+		}
+
+	}
+
+}
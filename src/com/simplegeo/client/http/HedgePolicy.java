@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.simplegeo.client.metrics.EndpointMetrics;
+import com.simplegeo.client.metrics.LatencyHistogram;
+
+/**
+ * Settings for hedging read requests.  Pass an instance to a client's
+ * <code>setHedgePolicy</code> method; clients do not hedge without one.
+ * <p>
+ * When a GET to one of the hedged endpoints has not been answered within the
+ * endpoint's {@link #getPercentile()} latency, as recorded by the client's
+ * metrics, an identical request is sent on another connection.  Whichever
+ * answers first is used and the other is aborted.  Hedges are only sent once an
+ * endpoint has {@link #getMinSamples()} recorded requests, and only while they
+ * make up at most {@link #getBudgetPercent()} of the endpoint's requests.
+ * <p>
+ * Configure the policy before handing it to a client.
+ */
+public class HedgePolicy {
+
+	private double percentile = 95.0;
+	private long minDelayMillis = 10;
+	private double budgetPercent = 5.0;
+	private long minSamples = 100;
+	private Set<String> endpoints = new HashSet<String>(Arrays.asList("features", "search", "context"));
+
+	/**
+	 * @return the percentile of an endpoint's latency after which a request is hedged
+	 */
+	public double getPercentile() {
+		return percentile;
+	}
+
+	/**
+	 * @param percentile the percentile of an endpoint's latency after which a
+	 * request is hedged, e.g. 95.0
+	 */
+	public void setPercentile(double percentile) {
+		if (!(percentile > 0 && percentile < 100))
+			throw new IllegalArgumentException("percentile must be between 0 and 100");
+		this.percentile = percentile;
+	}
+
+	/**
+	 * @return the shortest wait before a request is hedged
+	 */
+	public long getMinDelayMillis() {
+		return minDelayMillis;
+	}
+
+	/**
+	 * @param minDelayMillis the shortest wait before a request is hedged
+	 */
+	public void setMinDelayMillis(long minDelayMillis) {
+		if (minDelayMillis < 0)
+			throw new IllegalArgumentException("minDelayMillis must not be negative");
+		this.minDelayMillis = minDelayMillis;
+	}
+
+	/**
+	 * @return the largest share of an endpoint's requests, in percent, that may be hedges
+	 */
+	public double getBudgetPercent() {
+		return budgetPercent;
+	}
+
+	/**
+	 * @param budgetPercent the largest share of an endpoint's requests, in percent,
+	 * that may be hedges
+	 */
+	public void setBudgetPercent(double budgetPercent) {
+		if (!(budgetPercent >= 0 && budgetPercent <= 100))
+			throw new IllegalArgumentException("budgetPercent must be between 0 and 100");
+		this.budgetPercent = budgetPercent;
+	}
+
+	/**
+	 * @return how many request latencies an endpoint must have recorded before its requests are hedged
+	 */
+	public long getMinSamples() {
+		return minSamples;
+	}
+
+	/**
+	 * @param minSamples how many request latencies an endpoint must have recorded before its
+	 * requests are hedged
+	 */
+	public void setMinSamples(long minSamples) {
+		if (minSamples < 1)
+			throw new IllegalArgumentException("minSamples must be at least 1");
+		this.minSamples = minSamples;
+	}
+
+	/**
+	 * @return the names of the endpoints whose requests are hedged
+	 */
+	public Set<String> getEndpoints() {
+		return Collections.unmodifiableSet(endpoints);
+	}
+
+	/**
+	 * @param endpoints the names of the endpoints whose requests are hedged, by
+	 * default <code>features</code>, <code>search</code> and <code>context</code>
+	 */
+	public void setEndpoints(String... endpoints) {
+		this.endpoints = new HashSet<String>(Arrays.asList(endpoints));
+	}
+
+	/**
+	 * Works out how long a request to an endpoint may run before it is hedged.
+	 * 
+	 * @param metrics the endpoint's metrics
+	 * @return the wait in milliseconds, or -1 if the endpoint is not hedged or has
+	 * too few recorded requests
+	 */
+	public long getDelayMillis(EndpointMetrics metrics) {
+		if (!endpoints.contains(metrics.getName()))
+			return -1;
+		LatencyHistogram latency = metrics.getHistogram();
+		if (latency.getCount() < minSamples)
+			return -1;
+		long micros = latency.getValueAtPercentile(percentile);
+		return Math.max(minDelayMillis, (micros + 999) / 1000);
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+
+import oauth.signpost.exception.OAuthCommunicationException;
+import oauth.signpost.exception.OAuthExpectationFailedException;
+import oauth.signpost.exception.OAuthMessageSignerException;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+
+import com.simplegeo.client.callbacks.SimpleGeoCallback;
+import com.simplegeo.client.metrics.RequestTimer;
+
+/**
+ * A {@link Transport} over HttpClient 4.  Requests are sent on the pooled
+ * connections of an {@link OAuthHttpClient}, and, when one is given, callback
+ * requests are sent by an {@link AsyncOAuthHttpClient} instead so that they do
+ * not hold a thread.  Neither speaks HTTP/2.
+ */
+public class HttpClientTransport implements Transport {
+
+	private final OAuthHttpClient httpClient;
+	private final AsyncOAuthHttpClient asyncHttpClient;
+
+	/**
+	 * @param httpClient the blocking client that signs and sends requests
+	 */
+	public HttpClientTransport(OAuthHttpClient httpClient) {
+		this(httpClient, null);
+	}
+
+	/**
+	 * @param httpClient the blocking client that signs and sends requests
+	 * @param asyncHttpClient the client that sends callback requests, or null to
+	 * block on those too
+	 */
+	public HttpClientTransport(OAuthHttpClient httpClient, AsyncOAuthHttpClient asyncHttpClient) {
+		this.httpClient = httpClient;
+		this.asyncHttpClient = asyncHttpClient;
+	}
+
+	public Object execute(HttpUriRequest request, ResponseHandler<Object> responseHandler, RequestTimer timer)
+		throws OAuthMessageSignerException, OAuthCommunicationException, OAuthExpectationFailedException, IOException {
+
+		HttpContext context = new BasicHttpContext();
+		context.setAttribute(RequestTimer.CONTEXT_ATTRIBUTE, timer);
+		return httpClient.executeOAuthRequest(request, responseHandler, context);
+	}
+
+	public boolean isNonBlocking() {
+		return asyncHttpClient != null;
+	}
+
+	public void execute(HttpUriRequest request, ResponseHandler<Object> responseHandler, SimpleGeoCallback callback,
+			RequestTimer timer) {
+		if (asyncHttpClient == null)
+			throw new UnsupportedOperationException("the blocking transport has no callback requests");
+		asyncHttpClient.execute(request, responseHandler, callback, timer);
+	}
+
+	/**
+	 * Stops the non-blocking client, if there is one.  The blocking client's
+	 * connection pool belongs to the client that created it.
+	 */
+	public void shutdown() {
+		if (asyncHttpClient != null)
+			asyncHttpClient.shutdown();
+	}
+
+}
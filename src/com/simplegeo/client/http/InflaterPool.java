@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps {@link java.util.zip.Inflater}s for reuse.  Each one holds a native zlib
+ * stream with a 32KB window, which is costly to set up for every response and is
+ * only freed when the inflater is ended or finalized.  Inflaters that expect a
+ * zlib header and raw ones, as gzip needs, are pooled separately.
+ */
+final class InflaterPool {
+
+	static final int MAX_POOLED = 32;
+
+	private static final ArrayBlockingQueue<Inflater> zlib = new ArrayBlockingQueue<Inflater>(MAX_POOLED);
+	private static final ArrayBlockingQueue<Inflater> raw = new ArrayBlockingQueue<Inflater>(MAX_POOLED);
+
+	private InflaterPool() {
+	}
+
+	/**
+	 * @param nowrap true for an inflater that reads raw deflate data without a zlib header
+	 * @return a pooled inflater, or a new one if none is free
+	 */
+	static Inflater acquire(boolean nowrap) {
+		Inflater inflater = (nowrap ? raw : zlib).poll();
+		return inflater != null ? inflater : new Inflater(nowrap);
+	}
+
+	/**
+	 * Resets an inflater and keeps it for reuse, or ends it if the pool is full.
+	 * It must not be used again by the caller.
+	 * 
+	 * @param inflater an inflater from {@link #acquire(boolean)}
+	 * @param nowrap the kind it was acquired as
+	 */
+	static void release(Inflater inflater, boolean nowrap) {
+		inflater.reset();
+		if (!(nowrap ? raw : zlib).offer(inflater))
+			inflater.end();
+	}
+
+	/**
+	 * @return the number of inflaters waiting for reuse
+	 */
+	static int size() {
+		return zlib.size() + raw.size();
+	}
+
+}
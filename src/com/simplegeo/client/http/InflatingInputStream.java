@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates a gzip or deflate encoded response body as it is read, with an
+ * inflater borrowed from the {@link InflaterPool}.  The inflater goes back to the
+ * pool once the end of the data is reached or the stream is closed.  Unlike
+ * {@link java.util.zip.GZIPInputStream}, which always makes its own inflater,
+ * this reads the gzip header and trailer itself and inflates the raw data in
+ * between.
+ */
+class InflatingInputStream extends InflaterInputStream {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private final boolean nowrap;
+	private final CRC32 crc;
+	private boolean eof = false;
+	private boolean released = false;
+
+	private InflatingInputStream(InputStream in, boolean nowrap, boolean gzip) {
+		super(in, InflaterPool.acquire(nowrap), BUFFER_SIZE);
+		this.nowrap = nowrap;
+		this.crc = gzip ? new CRC32() : null;
+	}
+
+	/**
+	 * @param in a gzip stream, positioned at its header
+	 * @return a stream of the inflated data
+	 * @throws IOException if the header cannot be read or is not a gzip header
+	 */
+	static InflatingInputStream gzip(InputStream in) throws IOException {
+		if (readByte(in) != 0x1f || readByte(in) != 0x8b)
+			throw new ZipException("not in gzip format");
+		if (readByte(in) != 8)
+			throw new ZipException("unsupported gzip compression method");
+		int flags = readByte(in);
+		// modification time, extra flags and operating system
+		skip(in, 6);
+		if ((flags & FEXTRA) != 0)
+			skip(in, readByte(in) | readByte(in) << 8);
+		if ((flags & FNAME) != 0)
+			while (readByte(in) != 0);
+		if ((flags & FCOMMENT) != 0)
+			while (readByte(in) != 0);
+		if ((flags & FHCRC) != 0)
+			skip(in, 2);
+		return new InflatingInputStream(in, true, true);
+	}
+
+	/**
+	 * @param in a deflate stream.  Http says this is zlib wrapped data, but some
+	 * servers send raw deflate data, so the zlib header is only expected if present.
+	 * @return a stream of the inflated data
+	 * @throws IOException if the stream cannot be read
+	 */
+	static InflatingInputStream deflate(InputStream in) throws IOException {
+		PushbackInputStream pushback = new PushbackInputStream(in, 2);
+		int first = pushback.read();
+		int second = first < 0 ? -1 : pushback.read();
+		if (second >= 0)
+			pushback.unread(second);
+		if (first >= 0)
+			pushback.unread(first);
+		boolean zlib = second >= 0 && (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0;
+		return new InflatingInputStream(pushback, !zlib, false);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int length) throws IOException {
+		if (eof)
+			return -1;
+		int n = super.read(b, off, length);
+		if (n > 0) {
+			if (crc != null)
+				crc.update(b, off, n);
+		} else if (n < 0) {
+			eof = true;
+			try {
+				if (crc != null)
+					readTrailer();
+			} finally {
+				release();
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		release();
+		super.close();
+	}
+
+	/**
+	 * Checks the gzip trailer, whose first bytes may already be in the buffer
+	 * past the end of the deflate data.
+	 */
+	private void readTrailer() throws IOException {
+		byte[] trailer = new byte[8];
+		int remaining = inf.getRemaining();
+		int buffered = Math.min(remaining, trailer.length);
+		System.arraycopy(buf, len - remaining, trailer, 0, buffered);
+		for (int i=buffered; i<trailer.length; i++)
+			trailer[i] = (byte) readByte(in);
+		if (readInt(trailer, 0) != crc.getValue() || readInt(trailer, 4) != (inf.getBytesWritten() & 0xffffffffL))
+			throw new ZipException("corrupt gzip trailer");
+	}
+
+	private void release() {
+		if (!released) {
+			released = true;
+			InflaterPool.release(inf, nowrap);
+		}
+	}
+
+	private static int readByte(InputStream in) throws IOException {
+		int b = in.read();
+		if (b < 0)
+			throw new EOFException("unexpected end of gzip stream");
+		return b;
+	}
+
+	private static void skip(InputStream in, int n) throws IOException {
+		for (int i=0; i<n; i++)
+			readByte(in);
+	}
+
+	private static long readInt(byte[] b, int off) {
+		return (b[off] & 0xffL) | (b[off + 1] & 0xffL) << 8 | (b[off + 2] & 0xffL) << 16 | (b[off + 3] & 0xffL) << 24;
+	}
+
+}
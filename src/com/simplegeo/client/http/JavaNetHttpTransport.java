@@ -0,0 +1,370 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+
+import oauth.signpost.exception.OAuthCommunicationException;
+import oauth.signpost.exception.OAuthExpectationFailedException;
+import oauth.signpost.exception.OAuthMessageSignerException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.util.EntityUtils;
+
+import com.simplegeo.client.callbacks.SimpleGeoCallback;
+import com.simplegeo.client.concurrent.SimpleGeoFuture;
+import com.simplegeo.client.metrics.Phase;
+import com.simplegeo.client.metrics.RequestTimer;
+
+/**
+ * A {@link Transport} over the JDK's <code>java.net.http.HttpClient</code>.
+ * Requests to an https host are sent over HTTP/2 when the server offers it, so
+ * that any number of them share a few connections as separate streams rather than
+ * each holding a connection of its own; other hosts are sent HTTP/1.1.  Callback
+ * requests do not hold a thread while they wait, and their responses are parsed
+ * on the HttpClient's executor.
+ * <p>
+ * Requests are signed with the token held by the {@link OAuthHttpClient} the
+ * transport was created with.  The JDK client keeps its own connections, so the
+ * settings of the HttpClient 4 connection pool, other than the timeouts, do not
+ * apply.  The time to connect is counted in the
+ * {@link com.simplegeo.client.metrics.Phase#FIRST_BYTE} phase, since the JDK
+ * client does not say when a connection is ready.
+ */
+public class JavaNetHttpTransport implements Transport {
+
+	private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+	// Headers the JDK client sets itself and refuses to be given.
+	private static final Set<String> RESTRICTED_HEADERS = new HashSet<String>(Arrays.asList(
+			"connection", "content-length", "expect", "host", "keep-alive", "transfer-encoding", "upgrade"));
+
+	private final OAuthHttpClient signer;
+	private final HttpClient client;
+	private final Duration timeout;
+	private final boolean owned;
+
+	/**
+	 * @param signer the client holding the OAuth token used to sign requests
+	 * @param config the connect timeout and socket timeout of the requests, or null for none
+	 */
+	public JavaNetHttpTransport(OAuthHttpClient signer, ConnectionPoolConfig config) {
+		this(signer, config, null);
+	}
+
+	/**
+	 * @param signer the client holding the OAuth token used to sign requests
+	 * @param config the connect timeout and socket timeout of the requests, or null for none
+	 * @param tls the factory whose TLS context and protocols https connections share, so that
+	 * they resume the same sessions, or null for the JVM's default context.  Host names are
+	 * always verified.
+	 */
+	public JavaNetHttpTransport(OAuthHttpClient signer, ConnectionPoolConfig config, TlsSocketFactory tls) {
+		this(signer, newClient(config, tls), config == null ? 0 : config.getSoTimeoutMillis(), true);
+	}
+
+	/**
+	 * @param signer the client holding the OAuth token used to sign requests
+	 * @param client the JDK client to send requests with, configured as the caller sees fit
+	 * @param timeoutMillis how long to wait for each response, or 0 to wait as long as it takes
+	 */
+	public JavaNetHttpTransport(OAuthHttpClient signer, HttpClient client, long timeoutMillis) {
+		this(signer, client, timeoutMillis, false);
+	}
+
+	private JavaNetHttpTransport(OAuthHttpClient signer, HttpClient client, long timeoutMillis, boolean owned) {
+		if (timeoutMillis < 0)
+			throw new IllegalArgumentException("timeoutMillis must not be negative");
+		this.signer = signer;
+		this.client = client;
+		this.timeout = timeoutMillis == 0 ? null : Duration.ofMillis(timeoutMillis);
+		this.owned = owned;
+	}
+
+	private static HttpClient newClient(ConnectionPoolConfig config, TlsSocketFactory tls) {
+		HttpClient.Builder builder = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NEVER);
+		if (config != null && config.getConnectTimeoutMillis() > 0)
+			builder.connectTimeout(Duration.ofMillis(config.getConnectTimeoutMillis()));
+		if (tls != null)
+			builder.sslContext(tls.getSSLContext()).sslParameters(tls.getSSLParameters());
+		return builder.build();
+	}
+
+	/**
+	 * @return the JDK client requests are sent with
+	 */
+	public HttpClient getClient() {
+		return client;
+	}
+
+	public Object execute(HttpUriRequest request, ResponseHandler<Object> responseHandler, RequestTimer timer)
+		throws OAuthMessageSignerException, OAuthCommunicationException, OAuthExpectationFailedException, IOException {
+
+		signer.sign(request);
+		timer.mark(Phase.SIGN);
+		timer.signed();
+
+		// Sent asynchronously, and waited on, so that aborting the request can cancel it
+		Exchange<InputStream> exchange = new Exchange<InputStream>(request, timer);
+		exchange.send(BodyHandlers.ofInputStream());
+		java.net.http.HttpResponse<InputStream> response;
+		try {
+			response = exchange.future.get();
+		} catch (InterruptedException e) {
+			exchange.future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for a response");
+		} catch (CancellationException e) {
+			throw aborted();
+		} catch (ExecutionException e) {
+			// Depending on the JDK, a cancelled exchange fails with an IOException of its own
+			throw exchange.aborted ? aborted() : asIOException(e.getCause());
+		}
+
+		InputStream body = response.body();
+		exchange.body = body;
+		try {
+			HttpResponse converted = exchange.received(response, body);
+			long length = converted.getEntity().getContentLength();
+			if (length > 0)
+				timer.addBytesReceived(length);
+			return responseHandler.handleResponse(converted);
+		} finally {
+			body.close();
+		}
+	}
+
+	public boolean isNonBlocking() {
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	public void execute(HttpUriRequest request, final ResponseHandler<Object> responseHandler, final SimpleGeoCallback callback,
+			final RequestTimer timer) {
+		final Exchange<byte[]> exchange;
+		try {
+			signer.sign(request);
+			timer.mark(Phase.SIGN);
+			timer.signed();
+			exchange = new Exchange<byte[]>(request, timer);
+			// The body is read in full before the handler runs, so parsing never waits on the network
+			exchange.send(BodyHandlers.ofByteArray());
+		} catch (Exception e) {
+			timer.finish(e);
+			SimpleGeoFuture.fail(callback, e);
+			return;
+		}
+
+		exchange.future.whenComplete(new BiConsumer<java.net.http.HttpResponse<byte[]>, Throwable>() {
+			public void accept(java.net.http.HttpResponse<byte[]> response, Throwable failure) {
+				if (failure != null) {
+					IOException e = failure instanceof CancellationException || exchange.aborted
+							? aborted() : asIOException(failure);
+					timer.finish(e);
+					SimpleGeoFuture.fail(callback, e);
+					return;
+				}
+				Object object;
+				try {
+					HttpResponse converted = exchange.received(response, new ByteArrayInputStream(response.body()));
+					timer.addBytesReceived(response.body().length);
+					timer.bodyConsumed();
+					object = responseHandler.handleResponse(converted);
+				} catch (IOException e) {
+					timer.finish(e);
+					SimpleGeoFuture.fail(callback, e);
+					return;
+				} catch (RuntimeException e) {
+					timer.finish(e);
+					SimpleGeoFuture.fail(callback, e);
+					return;
+				}
+				timer.mark(Phase.PARSE);
+				timer.parsed();
+				timer.finish(null);
+				callback.onSuccess(object);
+				timer.callbackDelivered();
+			}
+		});
+	}
+
+	/**
+	 * Closes the JDK client if this transport created it and the running JDK
+	 * can close one.  Otherwise its idle connections and threads are left for the
+	 * JDK client to let go of on its own.
+	 */
+	public void shutdown() {
+		if (owned && client instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) client).close();
+			} catch (Exception e) {
+				// Nothing else to release
+			}
+		}
+	}
+
+	private static IOException aborted() {
+		return new IOException("Request aborted");
+	}
+
+	private static IOException asIOException(Throwable failure) {
+		if (failure instanceof ExecutionException || failure instanceof CompletionException)
+			failure = failure.getCause() == null ? failure : failure.getCause();
+		if (failure instanceof IOException)
+			return (IOException) failure;
+		IOException e = new IOException(failure.getMessage());
+		e.initCause(failure);
+		return e;
+	}
+
+	/**
+	 * A single request/response exchange.  It is also the release trigger of the
+	 * original request so that aborting the request cancels the exchange.
+	 */
+	private class Exchange<T> implements ConnectionReleaseTrigger {
+
+		private final HttpRequest request;
+		private final RequestTimer timer;
+		private volatile CompletableFuture<java.net.http.HttpResponse<T>> future;
+		private volatile InputStream body;
+		private volatile boolean aborted = false;
+
+		private Exchange(HttpUriRequest original, RequestTimer timer) throws IOException {
+			this.timer = timer;
+
+			HttpRequest.Builder builder = HttpRequest.newBuilder(original.getURI());
+			if (timeout != null)
+				builder.timeout(timeout);
+			for (Header header : original.getAllHeaders()) {
+				if (!RESTRICTED_HEADERS.contains(header.getName().toLowerCase(Locale.ENGLISH)))
+					builder.header(header.getName(), header.getValue());
+			}
+
+			BodyPublisher publisher = BodyPublishers.noBody();
+			if (original instanceof HttpEntityEnclosingRequest) {
+				HttpEntity entity = ((HttpEntityEnclosingRequest) original).getEntity();
+				if (entity != null) {
+					byte[] content = EntityUtils.toByteArray(entity);
+					publisher = BodyPublishers.ofByteArray(content);
+					timer.setBytesSent(content.length);
+					if (entity.getContentType() != null && !original.containsHeader("Content-Type"))
+						builder.header("Content-Type", entity.getContentType().getValue());
+				}
+			}
+			this.request = builder.method(original.getMethod(), publisher).build();
+
+			if (original instanceof AbortableHttpRequest)
+				((AbortableHttpRequest) original).setReleaseTrigger(this);
+		}
+
+		private void send(BodyHandler<T> bodyHandler) {
+			future = client.sendAsync(request, bodyHandler);
+			timer.requestSent();
+			if (aborted)
+				future.cancel(true);
+		}
+
+		private HttpResponse received(java.net.http.HttpResponse<T> response, InputStream content) {
+			int status = response.statusCode();
+			timer.mark(Phase.FIRST_BYTE);
+			timer.setStatus(status);
+			timer.headersReceived();
+
+			ProtocolVersion version = response.version() == HttpClient.Version.HTTP_2 ? HTTP_2 : HttpVersion.HTTP_1_1;
+			HttpResponse converted = new BasicHttpResponse(new BasicStatusLine(version, status,
+					EnglishReasonPhraseCatalog.INSTANCE.getReason(status, Locale.ENGLISH)));
+			for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+				// HTTP/2 pseudo-headers such as :status are not headers
+				if (header.getKey().startsWith(":"))
+					continue;
+				for (String value : header.getValue())
+					converted.addHeader(header.getKey(), value);
+			}
+
+			InputStreamEntity entity = new InputStreamEntity(content,
+					response.headers().firstValueAsLong("Content-Length").orElse(-1));
+			entity.setContentType(converted.getFirstHeader("Content-Type"));
+			entity.setContentEncoding(converted.getFirstHeader("Content-Encoding"));
+			converted.setEntity(entity);
+			return converted;
+		}
+
+		public void abortConnection() throws IOException {
+			aborted = true;
+			CompletableFuture<java.net.http.HttpResponse<T>> current = this.future;
+			if (current != null)
+				current.cancel(true);
+			InputStream content = this.body;
+			if (content != null)
+				content.close();
+		}
+
+		public void releaseConnection() throws IOException {
+			// The JDK client takes the connection back once the body has been read or closed.
+		}
+
+	}
+
+}
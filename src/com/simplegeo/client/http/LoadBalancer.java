@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.params.HttpConnectionParams;
+
+import com.simplegeo.client.concurrent.NamedThreadFactory;
+import com.simplegeo.client.http.exceptions.APIException;
+
+/**
+ * Spreads a client's requests over the hosts of a {@link LoadBalancerConfig}.
+ * Each request goes to the cheaper of two available hosts picked at random, the
+ * cost of a host being its latency times its requests in flight.  Comparing two
+ * hosts rather than all of them keeps a burst of requests from all piling onto
+ * whichever host looked best a moment ago, while still steering clear of a slow
+ * one.  Hosts that fail requests are ejected for a while, and hosts that fail
+ * their health checks are left out until they pass one.  If every host is out,
+ * requests are spread over all of them rather than failed outright.
+ */
+public class LoadBalancer {
+
+	private static Logger logger = Logger.getLogger(LoadBalancer.class.getName());
+
+	private final LoadBalancerConfig config;
+	private final Upstream[] upstreams;
+	private final HttpClient healthClient;
+	private final ReentrantLock ejectionLock = new ReentrantLock();
+	private ScheduledThreadPoolExecutor healthChecker;
+
+	/**
+	 * @param config the hosts and settings
+	 * @param healthClient the client health checks are sent with, or null to send none
+	 */
+	public LoadBalancer(LoadBalancerConfig config, HttpClient healthClient) {
+		if (config.getHosts().isEmpty())
+			throw new IllegalArgumentException("the load balancer needs at least one host");
+		this.config = config;
+		this.healthClient = healthClient;
+		List<URI> hosts = config.getHosts();
+		this.upstreams = new Upstream[hosts.size()];
+		for (int i=0; i<upstreams.length; i++)
+			upstreams[i] = new Upstream(hosts.get(i), config.getDecayMillis());
+
+		long interval = config.getHealthCheckIntervalMillis();
+		if (healthClient != null && interval > 0) {
+			healthChecker = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("SimpleGeoHealthCheck", true));
+			healthChecker.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					checkHealth();
+				}
+			}, 0, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public LoadBalancerConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * @return the hosts requests are spread over
+	 */
+	public List<Upstream> getUpstreams() {
+		return Collections.unmodifiableList(Arrays.asList(upstreams));
+	}
+
+	/**
+	 * Pick the host for a request and count the request as in flight to it.  The
+	 * request must then be passed to {@link #complete(Upstream, long, Throwable)} or
+	 * {@link #abandon(Upstream)}.
+	 * 
+	 * @param exclude hosts the request has already failed on
+	 * @return the host to send the request to, or null if every host is excluded
+	 */
+	public Upstream choose(Collection<Upstream> exclude) {
+		return choose(exclude, System.nanoTime());
+	}
+
+	Upstream choose(Collection<Upstream> exclude, long now) {
+		ArrayList<Upstream> candidates = new ArrayList<Upstream>(upstreams.length);
+		for (Upstream upstream : upstreams) {
+			if (upstream.isAvailable(now) && !exclude.contains(upstream))
+				candidates.add(upstream);
+		}
+		if (candidates.isEmpty()) {
+			for (Upstream upstream : upstreams) {
+				if (!exclude.contains(upstream))
+					candidates.add(upstream);
+			}
+		}
+		
+		Upstream chosen;
+		int size = candidates.size();
+		if (size == 0) {
+			return null;
+		} else if (size == 1) {
+			chosen = candidates.get(0);
+		} else {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			int first = random.nextInt(size);
+			int second = random.nextInt(size - 1);
+			if (second >= first)
+				second++;
+			Upstream a = candidates.get(first);
+			Upstream b = candidates.get(second);
+			chosen = b.cost(now) < a.cost(now) ? b : a;
+		}
+		chosen.begin();
+		return chosen;
+	}
+
+	/**
+	 * Ends a request, recording its latency and whether the host failed it.  A host
+	 * that has failed too many requests in a row is ejected, unless too many hosts
+	 * are ejected already.
+	 * 
+	 * @param upstream the host the request was sent to
+	 * @param nanos how long the request took
+	 * @param failure what the request failed with, or null if it succeeded
+	 */
+	public void complete(Upstream upstream, long nanos, Throwable failure) {
+		complete(upstream, nanos, isHostFailure(failure), System.nanoTime());
+	}
+
+	void complete(Upstream upstream, long nanos, boolean failed, long now) {
+		int run = upstream.complete(nanos, failed, now);
+		if (failed && run >= config.getConsecutiveFailures())
+			eject(upstream, now);
+	}
+
+	/**
+	 * Ends a request whose caller gave up on it, which says nothing about the host.
+	 * @param upstream the host the request was sent to
+	 */
+	public void abandon(Upstream upstream) {
+		upstream.abandon();
+	}
+
+	private void eject(Upstream upstream, long now) {
+		ejectionLock.lock();
+		try {
+			if (upstream.isEjected(now))
+				return;
+			int ejected = 0;
+			for (Upstream other : upstreams) {
+				if (other.isEjected(now))
+					ejected++;
+			}
+			int allowed = Math.min(upstreams.length * config.getMaxEjectionPercent() / 100, upstreams.length - 1);
+			if (ejected >= allowed)
+				return;
+			upstream.eject(now, TimeUnit.MILLISECONDS.toNanos(config.getBaseEjectionMillis()),
+					TimeUnit.MILLISECONDS.toNanos(config.getMaxEjectionMillis()));
+		} finally {
+			ejectionLock.unlock();
+		}
+		logger.info(String.format("ejected %s after %d failures in a row", upstream.getBaseUrl(), config.getConsecutiveFailures()));
+	}
+
+	/**
+	 * @return true if the failure counts against the host: an error on the
+	 * connection or a 5xx response
+	 */
+	public static boolean isHostFailure(Throwable failure) {
+		if (failure instanceof APIException)
+			return ((APIException) failure).statusCode >= 500;
+		return failure instanceof IOException;
+	}
+
+	/**
+	 * @param request a request that has just failed
+	 * @param failure what it failed with
+	 * @param attempts how many hosts it has been sent to
+	 * @return true if the request should be sent to another host
+	 */
+	public boolean shouldFailOver(HttpUriRequest request, Throwable failure, int attempts) {
+		return attempts <= config.getMaxFailovers() && attempts < upstreams.length && canFailOver(request, failure);
+	}
+
+	/**
+	 * @return true if the request can be sent to another host after failing with the
+	 * given error: either it never reached the host, or it is a GET or DELETE whose
+	 * connection failed before a response came back
+	 */
+	public static boolean canFailOver(HttpUriRequest request, Throwable failure) {
+		if (request.isAborted() || failure instanceof APIException || !(failure instanceof IOException))
+			return false;
+		if (failure instanceof ConnectException || failure instanceof ConnectTimeoutException
+				|| failure instanceof UnknownHostException)
+			return true;
+		String method = request.getMethod();
+		return "GET".equals(method) || "DELETE".equals(method);
+	}
+
+	/**
+	 * Stops the health checks.
+	 */
+	public void shutdown() {
+		if (healthChecker != null)
+			healthChecker.shutdownNow();
+	}
+
+	void checkHealth() {
+		for (Upstream upstream : upstreams) {
+			boolean passed;
+			try {
+				HttpGet check = new HttpGet(upstream.rewrite(URI.create(config.getHealthCheckPath())));
+				// A hung host must not hold up the checks of the others
+				int timeout = (int) Math.min(Math.max(config.getHealthCheckIntervalMillis(), 1000), Integer.MAX_VALUE);
+				HttpConnectionParams.setConnectionTimeout(check.getParams(), timeout);
+				HttpConnectionParams.setSoTimeout(check.getParams(), timeout);
+				int status = healthClient.execute(check, new ResponseHandler<Integer>() {
+					public Integer handleResponse(HttpResponse response) throws IOException {
+						if (response.getEntity() != null)
+							response.getEntity().consumeContent();
+						return response.getStatusLine().getStatusCode();
+					}
+				});
+				passed = status < 500;
+			} catch (IOException e) {
+				passed = false;
+			} catch (RuntimeException e) {
+				passed = false;
+			}
+			boolean wasHealthy = upstream.isHealthy();
+			upstream.checked(passed, config.getUnhealthyThreshold());
+			if (wasHealthy != upstream.isHealthy())
+				logger.info(String.format("%s is %s", upstream.getBaseUrl(), passed ? "healthy again" : "unhealthy"));
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Settings for spreading a client's requests over several hosts that serve the
+ * same API, such as regional gateways or caching proxies.  Pass an instance to a
+ * client's <code>setLoadBalancerConfig</code> method; without one every request
+ * goes to the client's base URL.
+ * <p>
+ * Each request goes to the better of two hosts picked at random, judged by their
+ * recent latency, decayed over {@link #getDecayMillis()}, times the requests they
+ * have in flight.  A host that fails {@link #getConsecutiveFailures()} requests in
+ * a row is ejected for {@link #getBaseEjectionMillis()}, longer each time it is
+ * ejected again, as long as no more than {@link #getMaxEjectionPercent()} of the
+ * hosts are out at once.  Every {@link #getHealthCheckIntervalMillis()} each host
+ * is sent a GET for {@link #getHealthCheckPath()}; one that fails
+ * {@link #getUnhealthyThreshold()} checks in a row gets no requests until it
+ * passes one.  A request that could not be sent to a host, or a GET or DELETE that
+ * failed on its connection, is sent to another host up to
+ * {@link #getMaxFailovers()} times.
+ * <p>
+ * Configure the settings before handing them to a client.
+ */
+public class LoadBalancerConfig {
+
+	private List<URI> hosts = new ArrayList<URI>();
+	private long decayMillis = 10000;
+	private int consecutiveFailures = 5;
+	private long baseEjectionMillis = 30000;
+	private long maxEjectionMillis = 300000;
+	private int maxEjectionPercent = 50;
+	private long healthCheckIntervalMillis = 10000;
+	private String healthCheckPath = "/";
+	private int unhealthyThreshold = 2;
+	private int maxFailovers = 2;
+
+	/**
+	 * @return the base URLs of the hosts requests are spread over
+	 */
+	public List<URI> getHosts() {
+		return Collections.unmodifiableList(hosts);
+	}
+
+	/**
+	 * Add a host to spread requests over.
+	 * 
+	 * @param baseUrl the host's scheme, name and, unless it is the scheme's default,
+	 * port, e.g. <code>https://gateway-eu.example.com:8443</code>.  Request paths are
+	 * kept as they are.
+	 */
+	public void addHost(String baseUrl) {
+		URI uri = URI.create(baseUrl);
+		if (uri.getHost() == null || !("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme())))
+			throw new IllegalArgumentException("not an http or https URL: " + baseUrl);
+		hosts.add(uri);
+	}
+
+	/**
+	 * @return how quickly a host's latency forgets older requests
+	 */
+	public long getDecayMillis() {
+		return decayMillis;
+	}
+
+	/**
+	 * @param decayMillis how quickly a host's latency forgets older requests; a
+	 * request this long ago counts for about a third as much as one just now
+	 */
+	public void setDecayMillis(long decayMillis) {
+		if (decayMillis < 1)
+			throw new IllegalArgumentException("decayMillis must be at least 1");
+		this.decayMillis = decayMillis;
+	}
+
+	/**
+	 * @return the number of failures in a row that eject a host
+	 */
+	public int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	/**
+	 * @param consecutiveFailures the number of failures in a row that eject a host.
+	 * Failures are errors on the connection and 5xx responses.
+	 */
+	public void setConsecutiveFailures(int consecutiveFailures) {
+		if (consecutiveFailures < 1)
+			throw new IllegalArgumentException("consecutiveFailures must be at least 1");
+		this.consecutiveFailures = consecutiveFailures;
+	}
+
+	/**
+	 * @return how long a host is ejected for the first time
+	 */
+	public long getBaseEjectionMillis() {
+		return baseEjectionMillis;
+	}
+
+	/**
+	 * @param baseEjectionMillis how long a host is ejected for the first time; each
+	 * ejection after that lasts this much longer than the one before
+	 */
+	public void setBaseEjectionMillis(long baseEjectionMillis) {
+		if (baseEjectionMillis < 1)
+			throw new IllegalArgumentException("baseEjectionMillis must be at least 1");
+		this.baseEjectionMillis = baseEjectionMillis;
+	}
+
+	/**
+	 * @return the longest a host is ejected for
+	 */
+	public long getMaxEjectionMillis() {
+		return maxEjectionMillis;
+	}
+
+	/**
+	 * @param maxEjectionMillis the longest a host is ejected for
+	 */
+	public void setMaxEjectionMillis(long maxEjectionMillis) {
+		if (maxEjectionMillis < 1)
+			throw new IllegalArgumentException("maxEjectionMillis must be at least 1");
+		this.maxEjectionMillis = maxEjectionMillis;
+	}
+
+	/**
+	 * @return the largest share of the hosts that may be ejected at once
+	 */
+	public int getMaxEjectionPercent() {
+		return maxEjectionPercent;
+	}
+
+	/**
+	 * @param maxEjectionPercent the largest share of the hosts that may be ejected at
+	 * once, from 0 to 100.  At least one host is always left in.
+	 */
+	public void setMaxEjectionPercent(int maxEjectionPercent) {
+		if (maxEjectionPercent < 0 || maxEjectionPercent > 100)
+			throw new IllegalArgumentException("maxEjectionPercent must be between 0 and 100");
+		this.maxEjectionPercent = maxEjectionPercent;
+	}
+
+	/**
+	 * @return how often each host is checked, 0 meaning never
+	 */
+	public long getHealthCheckIntervalMillis() {
+		return healthCheckIntervalMillis;
+	}
+
+	/**
+	 * @param healthCheckIntervalMillis how often each host is checked, 0 meaning never
+	 */
+	public void setHealthCheckIntervalMillis(long healthCheckIntervalMillis) {
+		if (healthCheckIntervalMillis < 0)
+			throw new IllegalArgumentException("healthCheckIntervalMillis must not be negative");
+		this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+	}
+
+	/**
+	 * @return the path health checks request from each host
+	 */
+	public String getHealthCheckPath() {
+		return healthCheckPath;
+	}
+
+	/**
+	 * @param healthCheckPath the path health checks request from each host.  The
+	 * check passes on any response other than a 5xx; it is not signed.
+	 */
+	public void setHealthCheckPath(String healthCheckPath) {
+		if (healthCheckPath == null || !healthCheckPath.startsWith("/"))
+			throw new IllegalArgumentException("healthCheckPath must start with /");
+		this.healthCheckPath = healthCheckPath;
+	}
+
+	/**
+	 * @return the number of failed health checks in a row that take a host out
+	 */
+	public int getUnhealthyThreshold() {
+		return unhealthyThreshold;
+	}
+
+	/**
+	 * @param unhealthyThreshold the number of failed health checks in a row that take
+	 * a host out until it passes one
+	 */
+	public void setUnhealthyThreshold(int unhealthyThreshold) {
+		if (unhealthyThreshold < 1)
+			throw new IllegalArgumentException("unhealthyThreshold must be at least 1");
+		this.unhealthyThreshold = unhealthyThreshold;
+	}
+
+	/**
+	 * @return the most other hosts a request is sent to after its host fails it
+	 */
+	public int getMaxFailovers() {
+		return maxFailovers;
+	}
+
+	/**
+	 * @param maxFailovers the most other hosts a request is sent to after its host
+	 * fails it, 0 to leave failures to the retry policy
+	 */
+	public void setMaxFailovers(int maxFailovers) {
+		if (maxFailovers < 0)
+			throw new IllegalArgumentException("maxFailovers must not be negative");
+		this.maxFailovers = maxFailovers;
+	}
+
+}
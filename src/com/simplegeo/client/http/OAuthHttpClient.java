@@ -38,12 +38,24 @@ import oauth.signpost.exception.OAuthMessageSignerException;
 
 import java.util.logging.Logger;
 
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import com.simplegeo.client.metrics.Phase;
+import com.simplegeo.client.metrics.RequestTimer;
 
 /**
  * A subclass of {@link org.apache.http.impl.client.DefaultHttpClient}
@@ -56,6 +68,7 @@ public class OAuthHttpClient extends DefaultHttpClient implements OAuthClient {
 	private static Logger logger = Logger.getLogger(OAuthHttpClient.class.getName());
 	
 	private OAuthConsumer token = null;
+	private volatile OAuthSigner signer = null;
 			
 	/**
 	 * @param connManager
@@ -69,22 +82,22 @@ public class OAuthHttpClient extends DefaultHttpClient implements OAuthClient {
 	/**
 	 * Returns the consumer key that is used to sign Http requests.
 	 * 
-	 * @return the consumer key
+	 * @return the consumer key, or null if no token has been set
 	 */
 	public String getKey() {
 		
-		return token.getConsumerKey();
+		return token == null ? null : token.getConsumerKey();
 		
 	}
 
 	/**
 	 * Returns the consumer secret that is used to sign Http requests.
 	 * 
-	 * @return the consumer secret
+	 * @return the consumer secret, or null if no token has been set
 	 */
 	public String getSecret() {
 		
-		return token.getTokenSecret();
+		return token == null ? null : token.getTokenSecret();
 		
 	}
 	
@@ -100,6 +113,7 @@ public class OAuthHttpClient extends DefaultHttpClient implements OAuthClient {
 		if(key != null && secret != null) {
 			
 			token  = new CommonsHttpOAuthConsumer(key, secret);
+			signer = new OAuthSigner(key, secret);
 			
 			if(token == null)
 				logger.info(String.format("Failed to created OAuth token."));
@@ -126,8 +140,93 @@ public class OAuthHttpClient extends DefaultHttpClient implements OAuthClient {
 	public Object executeOAuthRequest(HttpUriRequest request, ResponseHandler<Object> responseHandler) 
 		throws OAuthMessageSignerException, OAuthCommunicationException, OAuthExpectationFailedException, ClientProtocolException, IOException {
 		
-		this.token.sign(request);
+		return this.executeOAuthRequest(request, responseHandler, null);
+	}
+
+	/**
+	 * Signs the Http request with the registered token before
+	 * execution.  If the context holds a {@link com.simplegeo.client.metrics.RequestTimer},
+	 * the signing phase is marked on it and the request's stages are passed on to it.
+	 * 
+	 * @param request the request that will be sent
+	 * @param responseHandler the handler that will be used on a successful
+	 * response
+	 * @param context the context to execute the request in, or null
+	 * @return an Object that was created by the handler
+	 * @throws OAuthMessageSignerException
+	 * @throws OAuthCommunicationException
+	 * @throws OAuthExpectationFailedException
+	 * @throws ClientProtocolException
+	 * @throws IOException
+	 */
+	public Object executeOAuthRequest(HttpUriRequest request, ResponseHandler<Object> responseHandler, HttpContext context) 
+		throws OAuthMessageSignerException, OAuthCommunicationException, OAuthExpectationFailedException, ClientProtocolException, IOException {
+		
+		this.sign(request);
+		RequestTimer timer = RequestTimer.fromContext(context);
+		if (timer != null) {
+			timer.mark(Phase.SIGN);
+			timer.signed();
+		}
+		
+		return super.execute(request, responseHandler, context);
+	}
+
+	/**
+	 * Signs the Http request with the registered token without executing it.
+	 * Used by transports that send the request themselves.  Safe to call from
+	 * any number of threads at once.
+	 *
+	 * @param request the request that will be sent
+	 * @throws OAuthMessageSignerException
+	 * @throws OAuthCommunicationException
+	 * @throws OAuthExpectationFailedException
+	 */
+	public void sign(HttpUriRequest request)
+		throws OAuthMessageSignerException, OAuthCommunicationException, OAuthExpectationFailedException {
+
+		OAuthSigner current = this.signer;
+		if (current == null)
+			throw new OAuthExpectationFailedException("consumer key not set");
 		
-		return super.execute(request, responseHandler);
+		if (isFormEncoded(request)) {
+			// Form parameters are signed too, which only the signpost consumer does.  It keeps
+			// the parameters of the request being signed in a field, so only one thread may use it.
+			OAuthConsumer consumer = this.token;
+			synchronized (consumer) {
+				consumer.sign(request);
+			}
+		} else {
+			current.sign(request);
+		}
+	}
+	
+	private static boolean isFormEncoded(HttpUriRequest request) {
+		if (!(request instanceof HttpEntityEnclosingRequest))
+			return false;
+		HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+		if (entity == null)
+			return false;
+		Header contentType = entity.getContentType();
+		return contentType != null && contentType.getValue().startsWith("application/x-www-form-urlencoded");
+	}
+
+	/**
+	 * Tells the request's timer, if it has one, once the request has been written.
+	 */
+	@Override
+	protected HttpRequestExecutor createRequestExecutor() {
+		return new HttpRequestExecutor() {
+			@Override
+			protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection conn, HttpContext context)
+				throws IOException, HttpException {
+				
+				HttpResponse response = super.doSendRequest(request, conn, context);
+				RequestTimer timer = RequestTimer.fromContext(context);
+				if (timer != null)
+					timer.requestSent();
+				return response;
+			}
+		};
 	}
 }
@@ -0,0 +1,430 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import oauth.signpost.exception.OAuthMessageSignerException;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+import com.simplegeo.client.concurrent.VirtualThreads;
+
+/**
+ * Signs requests with a two-legged OAuth 1.0 HMAC-SHA1 Authorization header,
+ * producing the same header as signpost's consumer for requests whose parameters
+ * are all in the query string.  Unlike the signpost consumer, a signer can be used
+ * by any number of threads at once: each thread keeps its own initialized
+ * {@link javax.crypto.Mac} and scratch buffers, so signing a request allocates
+ * little more than the header itself.  Virtual threads, which each sign a single
+ * request, share a small pool of them instead.
+ */
+public class OAuthSigner {
+
+	private static final String SIGNATURE_METHOD = "HMAC-SHA1";
+	private static final String VERSION = "1.0";
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	private final String consumerKey;
+	private final String encodedConsumerKey;
+	private final SecretKeySpec key;
+	static final int MAX_POOLED = 16;
+
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>();
+	private final ArrayBlockingQueue<Scratch> pool = new ArrayBlockingQueue<Scratch>(MAX_POOLED);
+
+	/**
+	 * @param consumerKey the consumer key
+	 * @param consumerSecret the consumer secret
+	 */
+	public OAuthSigner(String consumerKey, String consumerSecret) {
+		if (consumerKey == null || consumerSecret == null)
+			throw new IllegalArgumentException("consumer key and secret must not be null");
+		this.consumerKey = consumerKey;
+		
+		ByteSink encoded = new ByteSink(consumerKey.length() * 3);
+		percentEncode(consumerKey, encoded, false);
+		this.encodedConsumerKey = encoded.toString();
+		
+		ByteSink secret = new ByteSink(consumerSecret.length() * 3 + 1);
+		percentEncode(consumerSecret, secret, false);
+		secret.append('&');
+		this.key = new SecretKeySpec(secret.toByteArray(), "HmacSHA1");
+	}
+
+	public String getConsumerKey() {
+		return consumerKey;
+	}
+
+	/**
+	 * Sets the request's Authorization header, replacing any it already has.
+	 * 
+	 * @param request the request to sign
+	 * @throws OAuthMessageSignerException if HMAC-SHA1 is not available
+	 */
+	public void sign(HttpUriRequest request) throws OAuthMessageSignerException {
+		String timestamp = Long.toString(System.currentTimeMillis() / 1000L);
+		String nonce = Long.toString(ThreadLocalRandom.current().nextLong());
+		request.setHeader("Authorization", getAuthorizationHeader(request.getMethod(), request.getURI(), timestamp, nonce));
+	}
+
+	/**
+	 * @return the Authorization header for a request with the given method, URI, timestamp and nonce
+	 * @throws OAuthMessageSignerException if HMAC-SHA1 is not available
+	 */
+	String getAuthorizationHeader(String method, URI uri, String timestamp, String nonce) throws OAuthMessageSignerException {
+		if (!VirtualThreads.isVirtual()) {
+			Scratch scratch = this.scratch.get();
+			if (scratch == null) {
+				scratch = newScratch();
+				this.scratch.set(scratch);
+			}
+			return getAuthorizationHeader(method, uri, timestamp, nonce, scratch);
+		}
+		
+		Scratch scratch = pool.poll();
+		if (scratch == null)
+			scratch = newScratch();
+		try {
+			return getAuthorizationHeader(method, uri, timestamp, nonce, scratch);
+		} finally {
+			pool.offer(scratch);
+		}
+	}
+
+	/**
+	 * @return the number of scratch spaces waiting for a virtual thread to sign with
+	 */
+	int pooled() {
+		return pool.size();
+	}
+
+	private Scratch newScratch() throws OAuthMessageSignerException {
+		try {
+			return new Scratch(key);
+		} catch (GeneralSecurityException e) {
+			throw new OAuthMessageSignerException(e);
+		}
+	}
+
+	private String getAuthorizationHeader(String method, URI uri, String timestamp, String nonce, Scratch scratch)
+		throws OAuthMessageSignerException {
+
+		ByteSink base = scratch.base;
+		base.reset();
+		base.append(method).append('&');
+		appendNormalizedUrl(uri, base);
+		base.append('&');
+		appendNormalizedParameters(uri.getRawQuery(), timestamp, nonce, scratch, base);
+		
+		try {
+			scratch.mac.update(base.bytes, 0, base.length);
+			scratch.mac.doFinal(scratch.digest, 0);
+		} catch (GeneralSecurityException e) {
+			throw new OAuthMessageSignerException(e);
+		}
+		
+		StringBuilder header = scratch.header;
+		header.setLength(0);
+		header.append("OAuth oauth_consumer_key=\"").append(encodedConsumerKey)
+			.append("\", oauth_version=\"").append(VERSION)
+			.append("\", oauth_signature_method=\"").append(SIGNATURE_METHOD)
+			.append("\", oauth_timestamp=\"").append(timestamp)
+			.append("\", oauth_nonce=\"").append(nonce)
+			.append("\", oauth_signature=\"");
+		appendBase64(scratch.digest, header);
+		header.append('"');
+		return header.toString();
+	}
+
+	/**
+	 * scheme://authority/path, lower cased and without the default port, percent encoded.
+	 */
+	private static void appendNormalizedUrl(URI uri, ByteSink base) {
+		String scheme = uri.getScheme().toLowerCase();
+		String authority = uri.getAuthority().toLowerCase();
+		if (("http".equals(scheme) && uri.getPort() == 80) || ("https".equals(scheme) && uri.getPort() == 443)) {
+			int colon = authority.lastIndexOf(':');
+			if (colon >= 0)
+				authority = authority.substring(0, colon);
+		}
+		String path = uri.getRawPath();
+		if (path == null || path.length() == 0)
+			path = "/";
+		
+		percentEncode(scheme, base, false);
+		base.append("%3A%2F%2F");
+		percentEncode(authority, base, false);
+		percentEncode(path, base, false);
+	}
+
+	/**
+	 * The OAuth and query parameters, sorted by name and form encoded, then percent encoded
+	 * again.  As with signpost, the last of several query parameters with the same name wins.
+	 */
+	private void appendNormalizedParameters(String query, String timestamp, String nonce, Scratch scratch, ByteSink base) {
+		scratch.count = 0;
+		scratch.add("oauth_consumer_key", consumerKey, false);
+		scratch.add("oauth_nonce", nonce, false);
+		scratch.add("oauth_signature_method", SIGNATURE_METHOD, false);
+		scratch.add("oauth_timestamp", timestamp, false);
+		scratch.add("oauth_version", VERSION, false);
+		if (query != null && query.length() > 0) {
+			int start = 0;
+			while (start <= query.length()) {
+				int end = query.indexOf('&', start);
+				if (end == -1)
+					end = query.length();
+				if (end > start) {
+					int equals = query.indexOf('=', start);
+					if (equals < 0 || equals > end)
+						scratch.add(decode(query.substring(start, end)), "", true);
+					else
+						scratch.add(decode(query.substring(start, equals)), query.substring(equals + 1, end), true);
+				}
+				start = end + 1;
+			}
+		}
+		
+		for (int i=0; i<scratch.count; i++) {
+			if (i > 0)
+				base.append("%26");
+			percentEncode(scratch.names[i], base, true);
+			base.append("%3D");
+			String value = scratch.values[i];
+			percentEncode(scratch.encoded[i] ? decode(value) : value, base, true);
+		}
+	}
+
+	private static String decode(String encoded) {
+		if (encoded.indexOf('%') < 0 && encoded.indexOf('+') < 0)
+			return encoded;
+		try {
+			return URLDecoder.decode(encoded, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * RFC 3986 percent encoding of the UTF-8 bytes of s, as OAuth requires.  Encoding
+	 * twice writes what encoding the result again would, in one pass.
+	 */
+	static void percentEncode(String s, ByteSink out, boolean twice) {
+		for (int i=0; i<s.length(); i++) {
+			char c = s.charAt(i);
+			if (isUnreserved(c)) {
+				out.append(c);
+			} else if (c < 0x80) {
+				appendEscaped(c, out, twice);
+			} else {
+				int codePoint = s.codePointAt(i);
+				if (Character.isSupplementaryCodePoint(codePoint)) {
+					i++;
+				} else if (Character.isSurrogate(c)) {
+					codePoint = '?';
+				}
+				if (codePoint < 0x80) {
+					appendEscaped(codePoint, out, twice);
+				} else if (codePoint < 0x800) {
+					appendEscaped(0xC0 | (codePoint >> 6), out, twice);
+					appendEscaped(0x80 | (codePoint & 0x3F), out, twice);
+				} else if (codePoint < 0x10000) {
+					appendEscaped(0xE0 | (codePoint >> 12), out, twice);
+					appendEscaped(0x80 | ((codePoint >> 6) & 0x3F), out, twice);
+					appendEscaped(0x80 | (codePoint & 0x3F), out, twice);
+				} else {
+					appendEscaped(0xF0 | (codePoint >> 18), out, twice);
+					appendEscaped(0x80 | ((codePoint >> 12) & 0x3F), out, twice);
+					appendEscaped(0x80 | ((codePoint >> 6) & 0x3F), out, twice);
+					appendEscaped(0x80 | (codePoint & 0x3F), out, twice);
+				}
+			}
+		}
+	}
+
+	private static boolean isUnreserved(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+			|| c == '-' || c == '.' || c == '_' || c == '~';
+	}
+
+	private static void appendEscaped(int b, ByteSink out, boolean twice) {
+		out.append(twice ? "%25" : "%");
+		out.append(HEX[(b >> 4) & 0xF]);
+		out.append(HEX[b & 0xF]);
+	}
+
+	private static void appendBase64(byte[] digest, StringBuilder out) {
+		int i = 0;
+		for (; i + 2 < digest.length; i += 3) {
+			int bits = (digest[i] & 0xFF) << 16 | (digest[i + 1] & 0xFF) << 8 | (digest[i + 2] & 0xFF);
+			appendBase64Char(bits >> 18, out);
+			appendBase64Char(bits >> 12, out);
+			appendBase64Char(bits >> 6, out);
+			appendBase64Char(bits, out);
+		}
+		int remaining = digest.length - i;
+		if (remaining > 0) {
+			int bits = (digest[i] & 0xFF) << 16 | (remaining == 2 ? (digest[i + 1] & 0xFF) << 8 : 0);
+			appendBase64Char(bits >> 18, out);
+			appendBase64Char(bits >> 12, out);
+			if (remaining == 2)
+				appendBase64Char(bits >> 6, out);
+			else
+				out.append("%3D");
+			out.append("%3D");
+		}
+	}
+
+	/**
+	 * Base64 characters as they appear in the header, percent encoded.
+	 */
+	private static void appendBase64Char(int sextet, StringBuilder out) {
+		char c = BASE64[sextet & 0x3F];
+		if (c == '+')
+			out.append("%2B");
+		else if (c == '/')
+			out.append("%2F");
+		else
+			out.append(c);
+	}
+
+	/**
+	 * A growable buffer of ASCII bytes.
+	 */
+	static class ByteSink {
+
+		private byte[] bytes;
+		private int length;
+
+		ByteSink(int capacity) {
+			this.bytes = new byte[Math.max(capacity, 16)];
+		}
+
+		ByteSink append(char c) {
+			if (length == bytes.length) {
+				byte[] grown = new byte[bytes.length * 2];
+				System.arraycopy(bytes, 0, grown, 0, length);
+				bytes = grown;
+			}
+			bytes[length++] = (byte) c;
+			return this;
+		}
+
+		ByteSink append(String s) {
+			for (int i=0; i<s.length(); i++)
+				append(s.charAt(i));
+			return this;
+		}
+
+		void reset() {
+			length = 0;
+		}
+
+		byte[] toByteArray() {
+			byte[] copy = new byte[length];
+			System.arraycopy(bytes, 0, copy, 0, length);
+			return copy;
+		}
+
+		@Override
+		public String toString() {
+			char[] chars = new char[length];
+			for (int i=0; i<length; i++)
+				chars[i] = (char) bytes[i];
+			return new String(chars);
+		}
+
+	}
+
+	/**
+	 * What one thread, or one virtual thread at a time, reuses from request to request.
+	 */
+	private static class Scratch {
+
+		private final Mac mac;
+		private final byte[] digest;
+		private final ByteSink base = new ByteSink(512);
+		private final StringBuilder header = new StringBuilder(256);
+		private String[] names = new String[16];
+		private String[] values = new String[16];
+		private boolean[] encoded = new boolean[16];
+		private int count;
+
+		Scratch(SecretKeySpec key) throws GeneralSecurityException {
+			this.mac = Mac.getInstance("HmacSHA1");
+			this.mac.init(key);
+			this.digest = new byte[mac.getMacLength()];
+		}
+
+		/**
+		 * Insert the parameter in order of name, replacing any with the same name.
+		 */
+		void add(String name, String value, boolean valueEncoded) {
+			int i = count;
+			while (i > 0 && names[i - 1].compareTo(name) > 0)
+				i--;
+			if (i > 0 && names[i - 1].equals(name)) {
+				values[i - 1] = value;
+				encoded[i - 1] = valueEncoded;
+				return;
+			}
+			if (count == names.length) {
+				int capacity = count * 2;
+				String[] grownNames = new String[capacity];
+				String[] grownValues = new String[capacity];
+				boolean[] grownEncoded = new boolean[capacity];
+				System.arraycopy(names, 0, grownNames, 0, count);
+				System.arraycopy(values, 0, grownValues, 0, count);
+				System.arraycopy(encoded, 0, grownEncoded, 0, count);
+				names = grownNames;
+				values = grownValues;
+				encoded = grownEncoded;
+			}
+			System.arraycopy(names, i, names, i + 1, count - i);
+			System.arraycopy(values, i, values, i + 1, count - i);
+			System.arraycopy(encoded, i, encoded, i + 1, count - i);
+			names[i] = name;
+			values[i] = value;
+			encoded[i] = valueEncoded;
+			count++;
+		}
+
+	}
+
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+
+import com.simplegeo.client.concurrent.NamedThreadFactory;
+
+/**
+ * A {@link org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager} driven by a
+ * {@link ConnectionPoolConfig}.  It only checks a pooled connection for staleness when
+ * it has been idle for a while, closes idle and expired connections from a background
+ * reaper, and can open keep-alive connections ahead of the first request.
+ */
+public class PooledConnectionManager extends ThreadSafeClientConnManager {
+
+	private static Logger logger = Logger.getLogger(PooledConnectionManager.class.getName());
+
+	private static final long PREWARM_WAIT_MILLIS = 1000;
+
+	private static ScheduledExecutorService reaper;
+
+	private final ConnectionPoolConfig config;
+	private final Map<Long, Long> idleSince = new ConcurrentHashMap<Long, Long>();
+	private ScheduledFuture<?> reaperTask;
+
+	/**
+	 * @param params the parameters the pool is built with, already populated by
+	 * {@link ConnectionPoolConfig#applyTo(HttpParams)}
+	 * @param schemeRegistry the schemes connections can be opened for
+	 * @param config the pool settings
+	 */
+	public PooledConnectionManager(HttpParams params, SchemeRegistry schemeRegistry, ConnectionPoolConfig config) {
+		super(params, schemeRegistry);
+		this.config = config;
+
+		if (config.getReaperIntervalMillis() > 0)
+			reaperTask = getReaper().scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					reap();
+				}
+			}, config.getReaperIntervalMillis(), config.getReaperIntervalMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates the socket factory for plain Http connections, applying the configured
+	 * send and receive buffer sizes to each new socket.
+	 * 
+	 * @param config the pool settings
+	 * @return a socket factory for the "http" scheme
+	 */
+	public static SocketFactory createSocketFactory(final ConnectionPoolConfig config) {
+		final PlainSocketFactory plain = PlainSocketFactory.getSocketFactory();
+		if (config.getSendBufferSize() <= 0 && config.getReceiveBufferSize() <= 0)
+			return plain;
+
+		return new SocketFactory() {
+			public Socket createSocket() throws IOException {
+				Socket socket = plain.createSocket();
+				// set before connecting so the receive window is negotiated with the larger size
+				if (config.getSendBufferSize() > 0)
+					socket.setSendBufferSize(config.getSendBufferSize());
+				if (config.getReceiveBufferSize() > 0)
+					socket.setReceiveBufferSize(config.getReceiveBufferSize());
+				return socket;
+			}
+
+			public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress,
+					int localPort, HttpParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+				return plain.connectSocket(sock == null ? createSocket() : sock, host, port, localAddress, localPort, params);
+			}
+
+			public boolean isSecure(Socket sock) throws IllegalArgumentException {
+				return plain.isSecure(sock);
+			}
+		};
+	}
+
+	@Override
+	public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+		final ClientConnectionRequest request = super.requestConnection(route, state);
+		return new ClientConnectionRequest() {
+			public ManagedClientConnection getConnection(long timeout, TimeUnit tunit)
+					throws InterruptedException, ConnectionPoolTimeoutException {
+				ManagedClientConnection conn = request.getConnection(timeout, tunit);
+				validate(conn);
+				return conn;
+			}
+
+			public void abortRequest() {
+				request.abortRequest();
+			}
+		};
+	}
+
+	@Override
+	public void releaseConnection(ManagedClientConnection conn, long validDuration, TimeUnit timeUnit) {
+		if (conn.isOpen() && conn.isMarkedReusable())
+			idleSince.put(key(conn), System.currentTimeMillis());
+		super.releaseConnection(conn, validDuration, timeUnit);
+	}
+
+	@Override
+	public void shutdown() {
+		synchronized (this) {
+			if (reaperTask != null)
+				reaperTask.cancel(false);
+		}
+		super.shutdown();
+	}
+
+	/**
+	 * Opens up to <code>count</code> keep-alive connections for the route and returns
+	 * them to the pool, so that the first requests do not pay for connection setup.
+	 * Stops at the first connection that cannot be opened.
+	 * 
+	 * @param route the route to open connections for
+	 * @param count the number of connections to open
+	 * @param params the parameters to open connections with
+	 * @return the number of connections that were opened
+	 */
+	public int prewarm(HttpRoute route, int count, HttpParams params) {
+		count = Math.min(count, Math.min(config.getMaxConnectionsPerRoute(), config.getMaxTotalConnections()));
+		// don't wait indefinitely if the pool is already busy with real requests
+		long wait = config.getConnectionRequestTimeoutMillis() > 0 ? config.getConnectionRequestTimeoutMillis() : PREWARM_WAIT_MILLIS;
+		List<ManagedClientConnection> leased = new ArrayList<ManagedClientConnection>(count);
+		int opened = 0;
+		try {
+			// lease them all at once, otherwise the pool would keep handing back the same one
+			for (int i = 0; i < count; i++) {
+				ManagedClientConnection conn = super.requestConnection(route, null).getConnection(wait, TimeUnit.MILLISECONDS);
+				leased.add(conn);
+				if (!conn.isOpen()) {
+					conn.open(route, new BasicHttpContext(), params);
+					opened++;
+				}
+				conn.markReusable();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			logger.info(String.format("pre-warming %s stopped after %d connections: %s", route, opened, e.getMessage()));
+		} finally {
+			for (ManagedClientConnection conn : leased)
+				releaseConnection(conn, 0, TimeUnit.MILLISECONDS);
+		}
+		return opened;
+	}
+
+	/**
+	 * Closes expired connections and connections that have been idle too long.
+	 */
+	void reap() {
+		closeExpiredConnections();
+		if (config.getMaxIdleMillis() > 0) {
+			closeIdleConnections(config.getMaxIdleMillis(), TimeUnit.MILLISECONDS);
+			// whatever has been idle that long has just been closed
+			long cutoff = System.currentTimeMillis() - config.getMaxIdleMillis();
+			for (Iterator<Long> i = idleSince.values().iterator(); i.hasNext();)
+				if (i.next().longValue() < cutoff)
+					i.remove();
+		}
+	}
+
+	private void validate(ManagedClientConnection conn) {
+		if (!conn.isOpen())
+			return;
+		Long since = idleSince.remove(key(conn));
+		long inactivity = since == null ? Long.MAX_VALUE : System.currentTimeMillis() - since.longValue();
+		if (inactivity > config.getValidateAfterInactivityMillis() && conn.isStale()) {
+			try {
+				conn.close();
+			} catch (IOException e) {
+				logger.fine(String.format("failed to close stale connection: %s", e.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * Identifies an open connection by its socket's endpoints.
+	 */
+	private static Long key(ManagedClientConnection conn) {
+		long remote = conn.getRemoteAddress() == null ? 0 : conn.getRemoteAddress().hashCode();
+		return Long.valueOf((remote << 32) | ((conn.getLocalPort() & 0xffff) << 16) | (conn.getRemotePort() & 0xffff));
+	}
+
+	private static synchronized ScheduledExecutorService getReaper() {
+		if (reaper == null)
+			reaper = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("SimpleGeoConnectionReaper", true));
+		return reaper;
+	}
+
+}
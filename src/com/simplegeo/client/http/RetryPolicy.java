@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.simplegeo.client.http.exceptions.APIException;
+import com.simplegeo.client.http.exceptions.CircuitOpenException;
+import com.simplegeo.client.http.exceptions.RateLimitException;
+
+/**
+ * Settings for retrying requests that fail.  Pass an instance to a client's
+ * <code>setRetryPolicy</code> method; clients do not retry without one.
+ * <p>
+ * Only requests whose method is idempotent (GET and DELETE unless
+ * {@link #setRetryNonIdempotent(boolean)} is set) are retried, and only after an
+ * I/O error or a 429 or 5xx response.  Requests failed by an open circuit breaker
+ * or the client's own rate limit are not retried.  The wait before each retry is drawn with decorrelated jitter:
+ * uniformly between the base delay and three times the previous wait, capped at
+ * {@link #getMaxDelayMillis()}.  A longer wait asked for by the server's
+ * Retry-After header is honoured.  No retry is made once its wait would take the
+ * call past {@link #getMaxElapsedMillis()}.
+ * <p>
+ * Configure the policy before handing it to a client.
+ */
+public class RetryPolicy {
+
+	private int maxAttempts = 3;
+	private long baseDelayMillis = 100;
+	private long maxDelayMillis = 5000;
+	private long maxElapsedMillis = 10000;
+	private boolean retryNonIdempotent = false;
+	private boolean respectRetryAfter = true;
+
+	/**
+	 * @return the most times a request is sent, counting the first
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @param maxAttempts the most times a request is sent, counting the first
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 1)
+			throw new IllegalArgumentException("maxAttempts must be at least 1");
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * @return the shortest wait before a retry
+	 */
+	public long getBaseDelayMillis() {
+		return baseDelayMillis;
+	}
+
+	/**
+	 * @param baseDelayMillis the shortest wait before a retry
+	 */
+	public void setBaseDelayMillis(long baseDelayMillis) {
+		if (baseDelayMillis < 1)
+			throw new IllegalArgumentException("baseDelayMillis must be at least 1");
+		this.baseDelayMillis = baseDelayMillis;
+	}
+
+	/**
+	 * @return the longest wait before a retry, unless the server asks for longer
+	 */
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	/**
+	 * @param maxDelayMillis the longest wait before a retry, unless the server asks for longer
+	 */
+	public void setMaxDelayMillis(long maxDelayMillis) {
+		if (maxDelayMillis < 1)
+			throw new IllegalArgumentException("maxDelayMillis must be at least 1");
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * @return the time from the first attempt after which no retry is started
+	 */
+	public long getMaxElapsedMillis() {
+		return maxElapsedMillis;
+	}
+
+	/**
+	 * @param maxElapsedMillis the time from the first attempt after which no retry is started
+	 */
+	public void setMaxElapsedMillis(long maxElapsedMillis) {
+		if (maxElapsedMillis < 0)
+			throw new IllegalArgumentException("maxElapsedMillis must not be negative");
+		this.maxElapsedMillis = maxElapsedMillis;
+	}
+
+	/**
+	 * @return true if POST and PUT requests are retried too
+	 */
+	public boolean isRetryNonIdempotent() {
+		return retryNonIdempotent;
+	}
+
+	/**
+	 * @param retryNonIdempotent true to retry POST and PUT requests too, which may
+	 * apply them twice
+	 */
+	public void setRetryNonIdempotent(boolean retryNonIdempotent) {
+		this.retryNonIdempotent = retryNonIdempotent;
+	}
+
+	/**
+	 * @return true if a Retry-After header can lengthen the wait before a retry
+	 */
+	public boolean isRespectRetryAfter() {
+		return respectRetryAfter;
+	}
+
+	/**
+	 * @param respectRetryAfter true to let a Retry-After header lengthen the wait
+	 * before a retry
+	 */
+	public void setRespectRetryAfter(boolean respectRetryAfter) {
+		this.respectRetryAfter = respectRetryAfter;
+	}
+
+	/**
+	 * @param method the request's Http method
+	 * @return true if requests with the method may be retried
+	 */
+	public boolean isRetryable(String method) {
+		if (retryNonIdempotent)
+			return true;
+		String upper = method.toUpperCase(Locale.US);
+		return "GET".equals(upper) || "DELETE".equals(upper);
+	}
+
+	/**
+	 * @param failure the exception an attempt failed with
+	 * @return true if another attempt might succeed
+	 */
+	public boolean isRetryable(Throwable failure) {
+		if (failure instanceof CircuitOpenException || failure instanceof RateLimitException)
+			return false;
+		if (failure instanceof APIException) {
+			int statusCode = ((APIException) failure).statusCode;
+			return statusCode == 429 || statusCode >= 500;
+		}
+		return failure instanceof IOException;
+	}
+
+	/**
+	 * Works out how long to wait before the next attempt.
+	 * 
+	 * @param attempts the number of attempts made so far
+	 * @param previousDelayMillis the wait before the last attempt, or 0 after the first
+	 * @param elapsedMillis the time since the first attempt started
+	 * @param failure the exception the last attempt failed with
+	 * @return the wait in milliseconds, or -1 if the request should not be retried
+	 */
+	public long nextDelayMillis(int attempts, long previousDelayMillis, long elapsedMillis, Throwable failure) {
+		if (attempts >= maxAttempts || !isRetryable(failure))
+			return -1;
+		
+		long delay = nextBackoffMillis(previousDelayMillis);
+		if (respectRetryAfter && failure instanceof APIException) {
+			long retryAfter = ((APIException) failure).getRetryAfterMillis();
+			if (retryAfter > delay)
+				delay = retryAfter;
+		}
+		if (elapsedMillis + delay > maxElapsedMillis)
+			return -1;
+		return delay;
+	}
+
+	/**
+	 * @param previousDelayMillis the wait before the last attempt, or 0 after the first
+	 * @return a decorrelated jitter wait between the base delay and three times the
+	 * previous wait, capped at the maximum delay
+	 */
+	long nextBackoffMillis(long previousDelayMillis) {
+		long upper = Math.max(baseDelayMillis, previousDelayMillis) * 3;
+		long delay = ThreadLocalRandom.current().nextLong(baseDelayMillis, upper + 1);
+		return Math.min(maxDelayMillis, delay);
+	}
+}
@@ -29,16 +29,21 @@
 package com.simplegeo.client.http;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.logging.Logger;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
 import org.apache.http.util.EntityUtils;
 
 import com.simplegeo.client.handler.SimpleGeoJSONHandler;
+import com.simplegeo.client.handler.SimpleGeoJSONStreamHandler;
 import com.simplegeo.client.http.exceptions.APIException;
 import com.simplegeo.client.http.exceptions.NoSuchEntityException;
 import com.simplegeo.client.http.exceptions.NotAuthorizedException;
@@ -79,7 +84,8 @@ public class SimpleGeoHandler implements ResponseHandler<Object> {
 		StatusLine statusLine = response.getStatusLine();
 		int statusCode = statusLine.getStatusCode();
 		
-		HttpEntity entity = response.getEntity();
+		// Inflated as it is read, error responses included
+		HttpEntity entity = DecompressingEntity.wrap(response.getEntity(), response.getFirstHeader("Content-Encoding"));
 
 		@SuppressWarnings("unused")
 		HttpResponse validResponse = null;
@@ -97,16 +103,47 @@ public class SimpleGeoHandler implements ResponseHandler<Object> {
 			case NOT_AUTHORIZED:
 				throw NotAuthorizedException.createException(entity, statusLine);
 			default:
-				throw APIException.createException(entity, statusLine);
+				APIException e = APIException.createException(entity, statusLine);
+				e.setRetryAfterMillis(parseRetryAfter(response.getFirstHeader("Retry-After")));
+				throw e;
+		
+		}
 		
+		if (handler instanceof SimpleGeoJSONStreamHandler) {
+			InputStream stream = entity.getContent();
+			try {
+				return ((SimpleGeoJSONStreamHandler) handler).parseResponse(stream, EntityUtils.getContentCharSet(entity));
+			} finally {
+				stream.close();
+			}
 		}
 		
 		//
 		// Extract the string
 		// 
 		String jsonString = null;
-		jsonString = EntityUtils.toString(response.getEntity());	
+		jsonString = EntityUtils.toString(entity);	
 		
 		return handler.parseResponse(jsonString);
 	}
+	
+	/**
+	 * @param header a Retry-After header giving either a number of seconds or an Http date
+	 * @return the wait the header asks for in milliseconds, or -1 if there is no usable header
+	 */
+	static long parseRetryAfter(Header header) {
+		if (header == null)
+			return -1;
+		String value = header.getValue().trim();
+		try {
+			return Math.max(0, Long.parseLong(value)) * 1000;
+		} catch (NumberFormatException e) {
+			;
+		}
+		try {
+			return Math.max(0, DateUtils.parseDate(value).getTime() - System.currentTimeMillis());
+		} catch (DateParseException e) {
+			return -1;
+		}
+	}
 }
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Settings for the https connections a client opens.  Set an instance on the
+ * {@link ConnectionPoolConfig} the client is created with; without one the
+ * defaults below are used.
+ * <p>
+ * Unless an {@link SSLContext} is given, each client gets one of its own so
+ * that its session cache can be sized without touching the JVM's default
+ * context.  Sessions, and the session tickets a TLS 1.3 server hands out, are
+ * kept in that cache for {@link #getSessionTimeoutSeconds()}, so a new
+ * connection to a host the client has talked to recently resumes a session
+ * instead of repeating the full handshake.  Server certificates are checked
+ * against the JVM's trusted certificates and the host name.
+ * <p>
+ * Configure the settings before handing them to a client.
+ */
+public class TlsConfig {
+
+	private SSLContext sslContext = null;
+	private int sessionCacheSize = 100;
+	private int sessionTimeoutSeconds = 24 * 60 * 60;
+	private String[] enabledProtocols = null;
+	private boolean hostnameVerification = true;
+
+	/**
+	 * @return the context https connections are opened with, or null for one
+	 * created by the client
+	 */
+	public SSLContext getSSLContext() {
+		return sslContext;
+	}
+
+	/**
+	 * @param sslContext the context https connections are opened with, e.g. one
+	 * that trusts a private certificate authority, or null for one created by the
+	 * client.  The session cache settings are not applied to a given context.
+	 */
+	public void setSSLContext(SSLContext sslContext) {
+		this.sslContext = sslContext;
+	}
+
+	/**
+	 * @return how many TLS sessions are kept for resumption, 0 meaning no limit
+	 */
+	public int getSessionCacheSize() {
+		return sessionCacheSize;
+	}
+
+	/**
+	 * @param sessionCacheSize how many TLS sessions are kept for resumption, 0
+	 * meaning no limit
+	 */
+	public void setSessionCacheSize(int sessionCacheSize) {
+		if (sessionCacheSize < 0)
+			throw new IllegalArgumentException("sessionCacheSize must not be negative");
+		this.sessionCacheSize = sessionCacheSize;
+	}
+
+	/**
+	 * @return how long a TLS session is kept for resumption, 0 meaning no limit
+	 */
+	public int getSessionTimeoutSeconds() {
+		return sessionTimeoutSeconds;
+	}
+
+	/**
+	 * @param sessionTimeoutSeconds how long a TLS session is kept for resumption,
+	 * 0 meaning no limit.  The server may let a session expire sooner.
+	 */
+	public void setSessionTimeoutSeconds(int sessionTimeoutSeconds) {
+		if (sessionTimeoutSeconds < 0)
+			throw new IllegalArgumentException("sessionTimeoutSeconds must not be negative");
+		this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+	}
+
+	/**
+	 * @return the TLS versions connections may use, or null for the JVM's defaults
+	 */
+	public String[] getEnabledProtocols() {
+		return enabledProtocols;
+	}
+
+	/**
+	 * @param enabledProtocols the TLS versions connections may use, e.g.
+	 * <code>{"TLSv1.3", "TLSv1.2"}</code>, or null for the JVM's defaults
+	 */
+	public void setEnabledProtocols(String[] enabledProtocols) {
+		this.enabledProtocols = enabledProtocols;
+	}
+
+	/**
+	 * @return true if the server's certificate must match the host name
+	 */
+	public boolean isHostnameVerification() {
+		return hostnameVerification;
+	}
+
+	/**
+	 * @param hostnameVerification true if the server's certificate must match the
+	 * host name.  Only turn this off for testing.
+	 */
+	public void setHostnameVerification(boolean hostnameVerification) {
+		this.hostnameVerification = hostnameVerification;
+	}
+
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.impl.nio.reactor.SSLIOSessionHandler;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+import com.simplegeo.client.metrics.HandshakeMetrics;
+
+/**
+ * The socket factory for https connections, driven by the {@link TlsConfig} of
+ * a {@link ConnectionPoolConfig}.  Sockets get the same buffer sizes as plain
+ * ones, and are connected to the host by name.  Naming the host lets the server
+ * pick its certificate and lets the session cache, which is keyed by host and
+ * port, resume an earlier session.  The
+ * handshake is made while the connection is being opened, so pre-warmed
+ * connections are ready to send on, and each one is recorded in the
+ * {@link HandshakeMetrics}.
+ */
+public class TlsSocketFactory implements LayeredSocketFactory {
+
+	private final ConnectionPoolConfig poolConfig;
+	private final SSLContext sslContext;
+	private final TlsConfig config;
+	private final HandshakeMetrics metrics;
+
+	/**
+	 * @param poolConfig the pool settings, including the {@link TlsConfig}
+	 * @param metrics where handshakes are recorded
+	 * @throws IllegalStateException if the JVM cannot provide a TLS context
+	 */
+	public TlsSocketFactory(ConnectionPoolConfig poolConfig, HandshakeMetrics metrics) {
+		this.poolConfig = poolConfig;
+		this.config = poolConfig.getTlsConfig();
+		this.metrics = metrics;
+		if (config.getSSLContext() != null) {
+			this.sslContext = config.getSSLContext();
+		} else {
+			try {
+				this.sslContext = SSLContext.getInstance("TLS");
+				this.sslContext.init(null, null, null);
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException("no TLS context available", e);
+			}
+			SSLSessionContext sessions = this.sslContext.getClientSessionContext();
+			sessions.setSessionCacheSize(config.getSessionCacheSize());
+			sessions.setSessionTimeout(config.getSessionTimeoutSeconds());
+		}
+	}
+
+	/**
+	 * @return the context connections are opened with, whose session cache other
+	 * transports can share
+	 */
+	public SSLContext getSSLContext() {
+		return sslContext;
+	}
+
+	/**
+	 * @return the parameters connections are opened with: the configured
+	 * protocols and, unless turned off, host name verification
+	 */
+	public SSLParameters getSSLParameters() {
+		SSLParameters parameters = sslContext.getDefaultSSLParameters();
+		if (config.getEnabledProtocols() != null)
+			parameters.setProtocols(config.getEnabledProtocols());
+		if (config.isHostnameVerification())
+			parameters.setEndpointIdentificationAlgorithm("HTTPS");
+		return parameters;
+	}
+
+	public Socket createSocket() throws IOException {
+		Socket socket = sslContext.getSocketFactory().createSocket();
+		// set before connecting so the receive window is negotiated with the larger size
+		if (poolConfig.getSendBufferSize() > 0)
+			socket.setSendBufferSize(poolConfig.getSendBufferSize());
+		if (poolConfig.getReceiveBufferSize() > 0)
+			socket.setReceiveBufferSize(poolConfig.getReceiveBufferSize());
+		return socket;
+	}
+
+	public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort,
+			HttpParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+		// The connection keeps the socket it was opening with, so this must be the one connected
+		SSLSocket ssl = (SSLSocket) (sock == null ? createSocket() : sock);
+		if (localAddress != null || localPort > 0)
+			ssl.bind(new InetSocketAddress(localAddress, Math.max(localPort, 0)));
+		try {
+			ssl.connect(new InetSocketAddress(host, port), HttpConnectionParams.getConnectionTimeout(params));
+		} catch (SocketTimeoutException e) {
+			throw new ConnectTimeoutException(String.format("Connect to %s:%d timed out", host, port));
+		}
+		try {
+			return handshake(ssl, params);
+		} catch (IOException e) {
+			ssl.close();
+			throw e;
+		}
+	}
+
+	public Socket createSocket(Socket socket, String host, int port, boolean autoClose)
+			throws IOException, UnknownHostException {
+		return handshake((SSLSocket) sslContext.getSocketFactory().createSocket(socket, host, port, autoClose), null);
+	}
+
+	public boolean isSecure(Socket sock) throws IllegalArgumentException {
+		if (sock == null)
+			throw new IllegalArgumentException("Socket may not be null");
+		return sock instanceof SSLSocket;
+	}
+
+	private Socket handshake(SSLSocket ssl, HttpParams params) throws IOException {
+		ssl.setSSLParameters(getSSLParameters());
+		if (params != null)
+			ssl.setSoTimeout(HttpConnectionParams.getSoTimeout(params));
+
+		long started = System.currentTimeMillis();
+		long start = System.nanoTime();
+		try {
+			ssl.startHandshake();
+		} catch (IOException e) {
+			metrics.recordFailure();
+			throw e;
+		}
+		record(ssl.getSession(), started, start);
+		return ssl;
+	}
+
+	private void record(SSLSession session, long started, long start) {
+		// A resumed session was created by an earlier handshake
+		metrics.record(System.nanoTime() - start, session.getCreationTime() < started);
+	}
+
+	/**
+	 * @return a handler for one connection of the non-blocking transport, which
+	 * sets the connection's engine up the same way and records its handshake
+	 */
+	SSLIOSessionHandler newSessionHandler() {
+		return new SSLIOSessionHandler() {
+			private long started;
+			private long start;
+
+			public void initalize(SSLEngine engine, HttpParams params) throws SSLException {
+				engine.setSSLParameters(getSSLParameters());
+				started = System.currentTimeMillis();
+				start = System.nanoTime();
+			}
+
+			public void verify(SocketAddress remoteAddress, SSLSession session) throws SSLException {
+				record(session, started, start);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+
+import oauth.signpost.exception.OAuthCommunicationException;
+import oauth.signpost.exception.OAuthExpectationFailedException;
+import oauth.signpost.exception.OAuthMessageSignerException;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import com.simplegeo.client.callbacks.SimpleGeoCallback;
+import com.simplegeo.client.metrics.RequestTimer;
+
+/**
+ * Puts requests on the wire for a client.  A transport signs each request with
+ * the client's OAuth token, sends its method, URI, headers and body, and hands
+ * the status, headers and body stream of the response to the given handler, which
+ * parses it the same way whichever transport was used.  Retries, hedging, rate and
+ * concurrency limits and the circuit breakers all sit above the transport.
+ * <p>
+ * {@link HttpClientTransport} sends over HttpClient 4 and is what clients use by
+ * default.  {@link JavaNetHttpTransport} sends over <code>java.net.http</code>,
+ * which can multiplex requests over HTTP/2 connections.  Pass either, or an
+ * implementation of your own, to a client's <code>setTransport</code> method.
+ */
+public interface Transport {
+
+	/**
+	 * Signs and sends the request, blocking until its response has been handled.
+	 * Each {@link com.simplegeo.client.metrics.Phase} the transport can see is
+	 * marked on the timer; the caller marks parsing and finishes it.
+	 *
+	 * @param request the request to send
+	 * @param responseHandler the handler used to parse the response
+	 * @param timer the timer to record the exchange with
+	 * @return the Object created by the handler
+	 * @throws OAuthMessageSignerException
+	 * @throws OAuthCommunicationException
+	 * @throws OAuthExpectationFailedException
+	 * @throws IOException
+	 */
+	public Object execute(HttpUriRequest request, ResponseHandler<Object> responseHandler, RequestTimer timer)
+		throws OAuthMessageSignerException, OAuthCommunicationException, OAuthExpectationFailedException, IOException;
+
+	/**
+	 * @return true if {@link #execute(HttpUriRequest, ResponseHandler, SimpleGeoCallback, RequestTimer)}
+	 * sends without holding a thread while it waits on the network.  Clients run the
+	 * blocking method on their executor for transports that return false.
+	 */
+	public boolean isNonBlocking();
+
+	/**
+	 * Signs and sends the request without blocking the calling thread.  The callback
+	 * is notified once, with either the parsed response or an error, and the timer is
+	 * finished before it is.  Aborting the request aborts the exchange.  Only called
+	 * on transports that are {@link #isNonBlocking()}.
+	 *
+	 * @param request the request to send
+	 * @param responseHandler the handler used to parse the response
+	 * @param callback notified once with either the parsed response or an error
+	 * @param timer the timer to record the exchange with
+	 * @throws UnsupportedOperationException if the transport only blocks
+	 */
+	public void execute(HttpUriRequest request, ResponseHandler<Object> responseHandler, SimpleGeoCallback callback,
+			RequestTimer timer);
+
+	/**
+	 * Releases the threads and connections the transport holds.  The client that
+	 * uses it calls this when the transport is replaced.
+	 */
+	public void shutdown();
+
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One of the hosts a {@link LoadBalancer} spreads requests over, with what the
+ * balancer knows about it: its latency, the requests it has in flight, whether it
+ * is ejected for failing requests and whether it passes its health checks.
+ * <p>
+ * The latency is a moving average that decays with time rather than with the
+ * number of requests, so a host that was slow a while ago and has had few
+ * requests since is not held to it.  A response slower than the average replaces
+ * it outright, so a host that turns slow is avoided at once and is only trusted
+ * again gradually.
+ */
+public class Upstream {
+
+	private final URI baseUrl;
+	private final long decayNanos;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private double latencyNanos = 0;
+	private long lastSample;
+	private int consecutiveFailures = 0;
+	private boolean ejected = false;
+	private long ejectedUntil;
+	private int ejections = 0;
+
+	private volatile boolean healthy = true;
+	private int failedChecks = 0;
+
+	Upstream(URI baseUrl, long decayMillis) {
+		this.baseUrl = baseUrl;
+		this.decayNanos = TimeUnit.MILLISECONDS.toNanos(decayMillis);
+	}
+
+	/**
+	 * @return the scheme, name and port requests are sent to
+	 */
+	public URI getBaseUrl() {
+		return baseUrl;
+	}
+
+	/**
+	 * @return the number of requests sent to the host that have not completed
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return the host's recent latency, or 0 if it has not answered a request yet
+	 */
+	public double getLatencyMillis() {
+		lock.lock();
+		try {
+			return latencyNanos / 1000000.0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public long getFailureCount() {
+		return failures.get();
+	}
+
+	/**
+	 * @return false if the host has failed its last health checks
+	 */
+	public boolean isHealthy() {
+		return healthy;
+	}
+
+	/**
+	 * @return true if the host is ejected for failing requests
+	 */
+	public boolean isEjected() {
+		return isEjected(System.nanoTime());
+	}
+
+	/**
+	 * @return the number of times the host has been ejected
+	 */
+	public int getEjectionCount() {
+		lock.lock();
+		try {
+			return ejections;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param uri a request URI
+	 * @return the URI with its scheme, host and port replaced by this host's
+	 */
+	public URI rewrite(URI uri) {
+		StringBuilder rewritten = new StringBuilder();
+		rewritten.append(baseUrl.getScheme()).append("://").append(baseUrl.getRawAuthority());
+		if (uri.getRawPath() != null)
+			rewritten.append(uri.getRawPath());
+		if (uri.getRawQuery() != null)
+			rewritten.append('?').append(uri.getRawQuery());
+		return URI.create(rewritten.toString());
+	}
+
+	boolean isEjected(long now) {
+		lock.lock();
+		try {
+			if (ejected && now - ejectedUntil >= 0) {
+				ejected = false;
+				consecutiveFailures = 0;
+			}
+			return ejected;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	boolean isAvailable(long now) {
+		return healthy && !isEjected(now);
+	}
+
+	/**
+	 * @return what sending the host another request is expected to cost: its latency
+	 * times the requests it would then have in flight.  A host that has not answered
+	 * yet costs nothing but its requests in flight, so that it is tried soon, and the
+	 * latency of a host that is not being sent anything fades over the decay time, so
+	 * that one slow answer does not keep it out for good.
+	 */
+	double cost(long now) {
+		double latency;
+		lock.lock();
+		try {
+			latency = latencyNanos * Math.exp(-(double) Math.max(now - lastSample, 0) / decayNanos);
+		} finally {
+			lock.unlock();
+		}
+		return (latency + 1) * (inFlight.get() + 1);
+	}
+
+	void begin() {
+		inFlight.incrementAndGet();
+		requests.incrementAndGet();
+	}
+
+	/**
+	 * Ends a request without saying anything about the host, e.g. when its caller
+	 * gave up on it.
+	 */
+	void abandon() {
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Ends a request, adding its latency to the average.
+	 * @return the number of requests the host has now failed in a row
+	 */
+	int complete(long nanos, boolean failed, long now) {
+		inFlight.decrementAndGet();
+		if (failed)
+			failures.incrementAndGet();
+		lock.lock();
+		try {
+			if (latencyNanos == 0 || nanos > latencyNanos) {
+				latencyNanos = nanos;
+			} else {
+				double weight = Math.exp(-(double) Math.max(now - lastSample, 0) / decayNanos);
+				latencyNanos = latencyNanos * weight + nanos * (1 - weight);
+			}
+			lastSample = now;
+			consecutiveFailures = failed ? consecutiveFailures + 1 : 0;
+			return consecutiveFailures;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the host out until the ejection is up, each ejection lasting one base
+	 * ejection longer than the last.
+	 */
+	void eject(long now, long baseNanos, long maxNanos) {
+		lock.lock();
+		try {
+			ejections++;
+			ejected = true;
+			ejectedUntil = now + Math.min(baseNanos * ejections, maxNanos);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records a health check; only the balancer's health check thread calls this.
+	 */
+	void checked(boolean passed, int unhealthyThreshold) {
+		failedChecks = passed ? 0 : failedChecks + 1;
+		if (passed)
+			healthy = true;
+		else if (failedChecks >= unhealthyThreshold)
+			healthy = false;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: latency=%.3fms, inFlight=%d, requests=%d, failures=%d, healthy=%s, ejected=%s",
+				baseUrl, getLatencyMillis(), getInFlight(), getRequestCount(), getFailureCount(), isHealthy(), isEjected());
+	}
+
+}
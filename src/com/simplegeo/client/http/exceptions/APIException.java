@@ -54,6 +54,8 @@ public class APIException extends IOException {
 	 */
 	public int statusCode;
 	
+	private long retryAfterMillis = -1;
+	
 	/**
 	 * A static factory method that creates proper API exceptions from 
 	 * a {@link org.apache.http.HttpEntity} and {@link org.apache.http.StatusLine}.
@@ -106,5 +108,21 @@ public class APIException extends IOException {
 		
 		logger.info(String.format("(status %d) %s", statusCode, reason));
 	}
+	
+	/**
+	 * @return how long the server asked the client to wait before trying again,
+	 * or -1 if the response had no Retry-After header
+	 */
+	public long getRetryAfterMillis() {
+		return retryAfterMillis;
+	}
+	
+	/**
+	 * @param retryAfterMillis how long the server asked the client to wait before
+	 * trying again, or -1 if it did not say
+	 */
+	public void setRetryAfterMillis(long retryAfterMillis) {
+		this.retryAfterMillis = retryAfterMillis;
+	}
 
 }
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.http.exceptions;
+
+/**
+ * An exception that is raised without sending a request, because the circuit
+ * breaker of the request's endpoint is open.  Its status code is 503, and
+ * {@link #getRetryAfterMillis()} tells how long the circuit will stay open.
+ */
+@SuppressWarnings("serial")
+public class CircuitOpenException extends APIException {
+
+	private final String endpoint;
+
+	/**
+	 * @param endpoint the name of the endpoint whose circuit is open
+	 * @param retryAfterMillis how long until the circuit lets a request through again
+	 */
+	public CircuitOpenException(String endpoint, long retryAfterMillis) {
+		super(503, "circuit open for " + endpoint);
+		this.endpoint = endpoint;
+		setRetryAfterMillis(retryAfterMillis);
+	}
+
+	/**
+	 * @return the name of the endpoint whose circuit is open
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * The metrics of one client, kept per endpoint.  Requests are attributed to an
+ * endpoint by matching their URI against the client's endpoint templates;
+ * requests that match none are recorded under {@link #OTHER}.
+ */
+public class ClientMetrics {
+
+	public static final String OTHER = "other";
+
+	private static final Pattern FORMAT_SPECIFIER = Pattern.compile("%[-#+ 0,(]*\\d*(?:\\.\\d+)?[a-zA-Z]");
+
+	private final String name;
+	private final String prefix;
+	private final String prefixPath;
+	private final Map<String, String> endpoints;
+	private final ConcurrentHashMap<String, EndpointMetrics> metrics = new ConcurrentHashMap<String, EndpointMetrics>();
+	private final HandshakeMetrics handshakes = new HandshakeMetrics();
+
+	private volatile ArrayList<Template> templates = new ArrayList<Template>();
+	private volatile MBeanRegistry registry;
+
+	/**
+	 * @param name the name of the client, e.g. "SimpleGeoPlacesClient"
+	 * @param prefix what every request URI starts with, e.g. "http://api.simplegeo.com:80/1.0/"
+	 * @param endpoints the client's endpoint templates by name, relative to the prefix
+	 */
+	public ClientMetrics(String name, String prefix, Map<String, String> endpoints) {
+		this.name = name;
+		this.prefix = prefix;
+		this.prefixPath = pathOf(prefix);
+		this.endpoints = endpoints;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Start timing a request.
+	 * @param uri the request URI
+	 * @return a timer to mark the request's phases on and finish once it is done
+	 */
+	public RequestTimer newTimer(String uri) {
+		return new RequestTimer(getEndpoint(resolve(uri)), null, null);
+	}
+
+	/**
+	 * Start timing a request and tracing it with the listener.
+	 * @param request the request
+	 * @param listener notified as the request goes through each stage, or null
+	 * @return a timer to mark the request's phases on and finish once it is done
+	 */
+	public RequestTimer newTimer(HttpUriRequest request, RequestListener listener) {
+		return new RequestTimer(getEndpoint(resolve(request.getURI().toString())), request, listener);
+	}
+
+	/**
+	 * @param uri a request URI
+	 * @return the name of the endpoint the URI was built from, or {@link #OTHER}
+	 */
+	public String resolve(String uri) {
+		if (uri == null)
+			return OTHER;
+		String path;
+		if (uri.startsWith(prefix)) {
+			path = uri.substring(prefix.length());
+		} else {
+			// Sent to another host by a load balancer
+			String uriPath = pathOf(uri);
+			if (prefixPath == null || uriPath == null || !uriPath.startsWith(prefixPath))
+				return OTHER;
+			path = uriPath.substring(prefixPath.length());
+		}
+		int query = path.indexOf('?');
+		if (query >= 0)
+			path = path.substring(0, query);
+		
+		for (Template template : templates()) {
+			if (template.pattern.matcher(path).matches())
+				return template.name;
+		}
+		return OTHER;
+	}
+
+	/**
+	 * @return what follows the scheme and authority of an absolute URI, or null
+	 */
+	private static String pathOf(String uri) {
+		int scheme = uri.indexOf("://");
+		if (scheme < 0)
+			return null;
+		int path = uri.indexOf('/', scheme + 3);
+		return path < 0 ? null : uri.substring(path);
+	}
+
+	/**
+	 * @param endpoint the endpoint's name
+	 * @return the endpoint's metrics, created if there are none yet
+	 */
+	public EndpointMetrics getEndpoint(String endpoint) {
+		EndpointMetrics endpointMetrics = metrics.get(endpoint);
+		if (endpointMetrics == null) {
+			EndpointMetrics created = new EndpointMetrics(endpoint);
+			endpointMetrics = metrics.putIfAbsent(endpoint, created);
+			if (endpointMetrics == null) {
+				endpointMetrics = created;
+				MBeanRegistry current = registry;
+				if (current != null)
+					current.register(created);
+			}
+		}
+		return endpointMetrics;
+	}
+
+	/**
+	 * @return the metrics of every endpoint that has been requested, by name
+	 */
+	public Map<String, EndpointMetrics> getEndpoints() {
+		return new HashMap<String, EndpointMetrics>(metrics);
+	}
+
+	/**
+	 * @return the TLS handshakes of the client's https connections
+	 */
+	public HandshakeMetrics getHandshakes() {
+		return handshakes;
+	}
+
+	/**
+	 * Clears the metrics of every endpoint, and the handshake metrics.
+	 */
+	public void reset() {
+		for (EndpointMetrics endpointMetrics : metrics.values())
+			endpointMetrics.reset();
+		handshakes.reset();
+	}
+
+	/**
+	 * Publish each endpoint's metrics as an MXBean named
+	 * <code>com.simplegeo.client:type=&lt;client name&gt;,endpoint=&lt;endpoint name&gt;</code>
+	 * with the platform MBean server.  Endpoints requested later are published as they appear.
+	 */
+	public synchronized void registerMBeans() {
+		if (registry != null)
+			return;
+		MBeanRegistry created = new MBeanRegistry(name);
+		registry = created;
+		for (EndpointMetrics endpointMetrics : metrics.values())
+			created.register(endpointMetrics);
+	}
+
+	/**
+	 * Remove the MXBeans published by {@link #registerMBeans()}.
+	 */
+	public synchronized void unregisterMBeans() {
+		MBeanRegistry current = registry;
+		registry = null;
+		if (current != null)
+			current.unregisterAll();
+	}
+
+	private ArrayList<Template> templates() {
+		ArrayList<Template> current = templates;
+		if (current.size() == endpoints.size())
+			return current;
+		
+		ArrayList<Template> built = new ArrayList<Template>();
+		for (Map.Entry<String, String> endpoint : new HashMap<String, String>(endpoints).entrySet()) {
+			if (endpoint.getValue() != null)
+				built.add(new Template(endpoint.getKey(), endpoint.getValue()));
+		}
+		// The template with the most literal text is the most specific
+		Collections.sort(built, new Comparator<Template>() {
+			public int compare(Template a, Template b) {
+				return b.literalLength - a.literalLength;
+			}
+		});
+		templates = built;
+		return built;
+	}
+
+	private static class Template {
+
+		private final String name;
+		private final Pattern pattern;
+		private final int literalLength;
+
+		Template(String name, String template) {
+			this.name = name;
+			int query = template.indexOf('?');
+			if (query >= 0)
+				template = template.substring(0, query);
+			
+			StringBuilder regex = new StringBuilder();
+			int literal = 0;
+			int start = 0;
+			Matcher specifier = FORMAT_SPECIFIER.matcher(template);
+			while (specifier.find()) {
+				regex.append(Pattern.quote(template.substring(start, specifier.start()))).append("[^/]*");
+				literal += specifier.start() - start;
+				start = specifier.end();
+			}
+			regex.append(Pattern.quote(template.substring(start)));
+			literal += template.length() - start;
+			
+			this.pattern = Pattern.compile(regex.toString());
+			this.literalLength = literal;
+		}
+
+	}
+
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.simplegeo.client.http.SimpleGeoHandler;
+
+/**
+ * Counters and latency histograms for the requests sent to one endpoint.
+ */
+public class EndpointMetrics implements EndpointMetricsMXBean {
+
+	private final String name;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final ConcurrentHashMap<Integer, AtomicLong> errorsByStatus = new ConcurrentHashMap<Integer, AtomicLong>();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+
+	/**
+	 * @param name the endpoint's key in the client's endpoint map
+	 */
+	public EndpointMetrics(String name) {
+		this.name = name;
+		for (int i=0; i<phases.length; i++)
+			phases[i] = new LatencyHistogram();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	void record(RequestTimer timer, Throwable failure) {
+		requests.incrementAndGet();
+		bytesSent.addAndGet(Math.max(timer.getBytesSent(), 0));
+		bytesReceived.addAndGet(timer.getBytesReceived());
+		latency.record(timer.getElapsedNanos());
+		for (Phase phase : Phase.values()) {
+			if (timer.isMarked(phase))
+				phases[phase.ordinal()].record(timer.getNanos(phase));
+		}
+		
+		int status = timer.getStatus();
+		if (failure != null || !isSuccess(status)) {
+			errors.incrementAndGet();
+			Integer key = isSuccess(status) ? 0 : status;
+			AtomicLong count = errorsByStatus.get(key);
+			if (count == null) {
+				AtomicLong created = new AtomicLong();
+				count = errorsByStatus.putIfAbsent(key, created);
+				if (count == null)
+					count = created;
+			}
+			count.incrementAndGet();
+		}
+	}
+
+	private static boolean isSuccess(int status) {
+		return status == SimpleGeoHandler.GET_SUCCESS || status == SimpleGeoHandler.PUT_SUCCESS || status == SimpleGeoHandler.POST_SUCCESS;
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public long getErrorCount() {
+		return errors.get();
+	}
+
+	public Map<Integer, Long> getErrorCountsByStatus() {
+		HashMap<Integer, Long> counts = new HashMap<Integer, Long>();
+		for (Map.Entry<Integer, AtomicLong> entry : errorsByStatus.entrySet())
+			counts.put(entry.getKey(), entry.getValue().get());
+		return counts;
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public long getHedgeCount() {
+		return hedges.get();
+	}
+
+	/**
+	 * Counts a hedged request, unless that would take hedges past the given share
+	 * of the endpoint's requests.
+	 * 
+	 * @param maxRatio the largest share of requests that may be hedges, e.g. 0.05
+	 * @return true if the hedge was counted and may be sent
+	 */
+	public boolean tryAcquireHedge(double maxRatio) {
+		long allowed = (long) (requests.get() * maxRatio);
+		while (true) {
+			long sent = hedges.get();
+			if (sent >= allowed)
+				return false;
+			if (hedges.compareAndSet(sent, sent + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * @return the total latency of the endpoint's requests
+	 */
+	public LatencySnapshot getLatency() {
+		return latency.getSnapshot();
+	}
+
+	/**
+	 * @param phase the stage of the request
+	 * @return the latency of that stage of the endpoint's requests
+	 */
+	public LatencySnapshot getLatency(Phase phase) {
+		return phases[phase.ordinal()].getSnapshot();
+	}
+
+	/**
+	 * @return the histogram behind {@link #getLatency()}, for percentiles other
+	 * than the ones in the snapshot
+	 */
+	public LatencyHistogram getHistogram() {
+		return latency;
+	}
+
+	/**
+	 * @return the histogram behind {@link #getLatency(Phase)}, for percentiles other
+	 * than the ones in the snapshot
+	 */
+	public LatencyHistogram getHistogram(Phase phase) {
+		return phases[phase.ordinal()];
+	}
+
+	public LatencySnapshot getQueueLatency() {
+		return getLatency(Phase.QUEUE);
+	}
+
+	public LatencySnapshot getSignLatency() {
+		return getLatency(Phase.SIGN);
+	}
+
+	public LatencySnapshot getConnectLatency() {
+		return getLatency(Phase.CONNECT);
+	}
+
+	public LatencySnapshot getFirstByteLatency() {
+		return getLatency(Phase.FIRST_BYTE);
+	}
+
+	public LatencySnapshot getParseLatency() {
+		return getLatency(Phase.PARSE);
+	}
+
+	public void reset() {
+		requests.set(0);
+		errors.set(0);
+		errorsByStatus.clear();
+		bytesSent.set(0);
+		bytesReceived.set(0);
+		hedges.set(0);
+		latency.reset();
+		for (LatencyHistogram histogram : phases)
+			histogram.reset();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: requests=%d, errors=%d, latency[%s]", name, getRequestCount(), getErrorCount(), getLatency());
+	}
+
+}
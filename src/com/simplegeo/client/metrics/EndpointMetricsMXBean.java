@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of an {@link EndpointMetrics}.  Latencies are in milliseconds.
+ */
+public interface EndpointMetricsMXBean {
+
+	public long getRequestCount();
+
+	public long getErrorCount();
+
+	/**
+	 * @return failed requests by HTTP status, with failures that got no error
+	 * status (I/O errors, unparseable responses) under 0
+	 */
+	public Map<Integer, Long> getErrorCountsByStatus();
+
+	public long getBytesSent();
+
+	public long getBytesReceived();
+
+	/**
+	 * @return hedged requests sent, which are also counted as requests
+	 */
+	public long getHedgeCount();
+
+	public LatencySnapshot getLatency();
+
+	public LatencySnapshot getQueueLatency();
+
+	public LatencySnapshot getSignLatency();
+
+	public LatencySnapshot getConnectLatency();
+
+	public LatencySnapshot getFirstByteLatency();
+
+	public LatencySnapshot getParseLatency();
+
+	public void reset();
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The TLS handshakes of one client's connections.  A handshake that resumed a
+ * cached session skips the key exchange and certificate checks, so it is
+ * counted and timed apart from a full one.  Handshakes made by the
+ * <code>java.net.http</code> transport are not seen here.
+ */
+public class HandshakeMetrics {
+
+	private final AtomicLong failures = new AtomicLong();
+	private final LatencyHistogram full = new LatencyHistogram();
+	private final LatencyHistogram resumed = new LatencyHistogram();
+
+	/**
+	 * @param nanos how long the handshake took
+	 * @param resumedSession true if a cached session was resumed
+	 */
+	public void record(long nanos, boolean resumedSession) {
+		if (resumedSession)
+			resumed.record(nanos);
+		else
+			full.record(nanos);
+	}
+
+	public void recordFailure() {
+		failures.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of handshakes that completed
+	 */
+	public long getHandshakeCount() {
+		return full.getCount() + resumed.getCount();
+	}
+
+	/**
+	 * @return the number of completed handshakes that resumed a cached session
+	 */
+	public long getResumedCount() {
+		return resumed.getCount();
+	}
+
+	public long getFailureCount() {
+		return failures.get();
+	}
+
+	/**
+	 * @return the latency of full handshakes
+	 */
+	public LatencySnapshot getFullLatency() {
+		return full.getSnapshot();
+	}
+
+	/**
+	 * @return the latency of handshakes that resumed a cached session
+	 */
+	public LatencySnapshot getResumedLatency() {
+		return resumed.getSnapshot();
+	}
+
+	public void reset() {
+		failures.set(0);
+		full.reset();
+		resumed.reset();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("handshakes=%d, resumed=%d, failures=%d, full[%s], resumed[%s]", getHandshakeCount(),
+				getResumedCount(), getFailureCount(), getFullLatency(), getResumedLatency());
+	}
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes endpoint metrics with the platform MBean server.  Kept apart from
+ * {@link ClientMetrics} so that platforms without JMX never load it.
+ */
+class MBeanRegistry {
+
+	private static Logger logger = Logger.getLogger(MBeanRegistry.class.getName());
+
+	private final String type;
+	private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	private final ArrayList<ObjectName> registered = new ArrayList<ObjectName>();
+
+	MBeanRegistry(String type) {
+		this.type = type;
+	}
+
+	synchronized void register(EndpointMetrics metrics) {
+		try {
+			ObjectName objectName = new ObjectName(String.format("com.simplegeo.client:type=%s,endpoint=%s", type, metrics.getName()));
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			server.registerMBean(metrics, objectName);
+			registered.add(objectName);
+		} catch (Exception e) {
+			logger.info(String.format("could not register metrics for %s: %s", metrics.getName(), e.getMessage()));
+		}
+	}
+
+	synchronized void unregisterAll() {
+		for (ObjectName objectName : registered) {
+			try {
+				server.unregisterMBean(objectName);
+			} catch (Exception e) {
+				logger.info(String.format("could not unregister %s: %s", objectName, e.getMessage()));
+			}
+		}
+		registered.clear();
+	}
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Marks the {@link Phase#CONNECT} and {@link Phase#FIRST_BYTE} phases of
+ * requests sent by the blocking client, counts the bytes they send and
+ * receive and tells their timers when the connection is leased, the headers
+ * are in and the body has been read.  The request interceptor runs once the
+ * connection is open, and the response interceptor once the response headers
+ * are in.
+ */
+public class MetricsInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+	public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+		RequestTimer timer = RequestTimer.fromContext(context);
+		if (timer == null)
+			return;
+		timer.mark(Phase.CONNECT);
+		timer.connectionLeased();
+		if (request instanceof HttpEntityEnclosingRequest) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+			if (entity != null)
+				timer.setBytesSent(entity.getContentLength());
+		}
+	}
+
+	public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+		RequestTimer timer = RequestTimer.fromContext(context);
+		if (timer == null)
+			return;
+		timer.mark(Phase.FIRST_BYTE);
+		timer.setStatus(response.getStatusLine().getStatusCode());
+		timer.headersReceived();
+		HttpEntity entity = response.getEntity();
+		if (entity != null)
+			response.setEntity(new CountingEntity(entity, timer));
+		else
+			timer.bodyConsumed();
+	}
+
+	private static class CountingEntity extends HttpEntityWrapper {
+
+		private final RequestTimer timer;
+
+		CountingEntity(HttpEntity entity, RequestTimer timer) {
+			super(entity);
+			this.timer = timer;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return new FilterInputStream(super.getContent()) {
+				private boolean consumed = false;
+
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b >= 0)
+						timer.addBytesReceived(1);
+					else
+						consumed();
+					return b;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					int n = super.read(buffer, offset, length);
+					if (n > 0)
+						timer.addBytesReceived(n);
+					else if (n < 0)
+						consumed();
+					return n;
+				}
+
+				@Override
+				public void close() throws IOException {
+					super.close();
+					consumed();
+				}
+
+				private void consumed() {
+					if (!consumed) {
+						consumed = true;
+						timer.bodyConsumed();
+					}
+				}
+			};
+		}
+
+	}
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.metrics;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Notified as a request moves through the client, for tracing.  Every call
+ * carries the name of the endpoint the request was built from, the request as
+ * the client built it and a {@link System#nanoTime()} timestamp.  Calls for one
+ * request are made one at a time but not necessarily on the same thread, and
+ * calls for different requests can be concurrent.  They should return quickly,
+ * since most are made on the thread sending the request or on an I/O thread.
+ * 
+ * A request only passes the stages it goes through: synchronous calls are never
+ * enqueued, responses served from the cache or shared with an identical request
+ * produce no calls at all, and on the non-blocking transport the response
+ * headers and body arrive together and it is the response, not the request,
+ * that waits on the executor.
+ */
+public interface RequestListener {
+
+	/**
+	 * The request was handed to the client's executor.
+	 */
+	public void onEnqueued(String endpoint, HttpUriRequest request, long nanos);
+
+	/**
+	 * An executor thread picked the request up.
+	 */
+	public void onDequeued(String endpoint, HttpUriRequest request, long nanos);
+
+	/**
+	 * The request was signed with the OAuth token.  Headers added to the request
+	 * here, such as a trace id, are sent with it.
+	 */
+	public void onSigned(String endpoint, HttpUriRequest request, long nanos);
+
+	/**
+	 * The request was given an open connection.
+	 */
+	public void onConnectionLeased(String endpoint, HttpUriRequest request, long nanos);
+
+	/**
+	 * The request was written to the connection.
+	 */
+	public void onRequestSent(String endpoint, HttpUriRequest request, long nanos);
+
+	/**
+	 * The response status line and headers were read.
+	 */
+	public void onHeadersReceived(String endpoint, HttpUriRequest request, long nanos);
+
+	/**
+	 * The response body was read to the end.
+	 */
+	public void onBodyConsumed(String endpoint, HttpUriRequest request, long nanos);
+
+	/**
+	 * The response was parsed into the object handed to the caller.
+	 */
+	public void onParsed(String endpoint, HttpUriRequest request, long nanos);
+
+	/**
+	 * The callback of an asynchronous request returned from onSuccess.
+	 */
+	public void onCallbackDelivered(String endpoint, HttpUriRequest request, long nanos);
+
+	/**
+	 * The request failed.  This is the last call made for the request.
+	 */
+	public void onFailed(String endpoint, HttpUriRequest request, long nanos, Throwable failure);
+
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2010-2011, SimpleGeo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, 
+ * this list of conditions and the following disclaimer. Redistributions 
+ * in binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or 
+ * other materials provided with the distribution.
+ * 
+ * Neither the name of the SimpleGeo nor the names of its contributors may
+ * be used to endorse or promote products derived from this software 
+ * without specific prior written permission.
+ *  
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS 
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE 
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.simplegeo.client.metrics;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Times one request as it goes through the {@link Phase}s and passes each
+ * stage on to the client's {@link RequestListener}, if it has one.  A timer is
+ * handed from thread to thread along with its request, but only one thread
+ * uses it at a time.
+ */
+public class RequestTimer {
+
+	/**
+	 * The {@link org.apache.http.protocol.HttpContext} attribute a request's timer is kept under.
+	 */
+	public static final String CONTEXT_ATTRIBUTE = "simplegeo.timer";
+
+	private final EndpointMetrics metrics;
+	private final HttpUriRequest request;
+	private final RequestListener listener;
+	private final long started = System.nanoTime();
+	private final long[] nanos = new long[Phase.values().length];
+	private int marked;
+	private long last = started;
+	private int status;
+	private long bytesSent;
+	private long bytesReceived;
+	private long elapsed;
+	private boolean finished;
+
+	RequestTimer(EndpointMetrics metrics, HttpUriRequest request, RequestListener listener) {
+		this.metrics = metrics;
+		this.request = request;
+		this.listener = listener;
+	}
+
+	/**
+	 * @return the timer kept in the context, or null if there is none
+	 */
+	public static RequestTimer fromContext(HttpContext context) {
+		return context == null ? null : (RequestTimer) context.getAttribute(CONTEXT_ATTRIBUTE);
+	}
+
+	/**
+	 * Ends a phase, adding the time since the previous phase ended to it.  A phase
+	 * can be marked more than once, for example when a request is retried.
+	 */
+	public void mark(Phase phase) {
+		long now = System.nanoTime();
+		nanos[phase.ordinal()] += now - last;
+		marked |= 1 << phase.ordinal();
+		last = now;
+	}
+
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	public void setBytesSent(long bytesSent) {
+		this.bytesSent = bytesSent;
+	}
+
+	public void addBytesReceived(long bytes) {
+		this.bytesReceived += bytes;
+	}
+
+	public void enqueued() {
+		if (listener != null)
+			listener.onEnqueued(metrics.getName(), request, System.nanoTime());
+	}
+
+	public void dequeued() {
+		if (listener != null)
+			listener.onDequeued(metrics.getName(), request, System.nanoTime());
+	}
+
+	public void signed() {
+		if (listener != null)
+			listener.onSigned(metrics.getName(), request, System.nanoTime());
+	}
+
+	public void connectionLeased() {
+		if (listener != null)
+			listener.onConnectionLeased(metrics.getName(), request, System.nanoTime());
+	}
+
+	public void requestSent() {
+		if (listener != null)
+			listener.onRequestSent(metrics.getName(), request, System.nanoTime());
+	}
+
+	public void headersReceived() {
+		if (listener != null)
+			listener.onHeadersReceived(metrics.getName(), request, System.nanoTime());
+	}
+
+	public void bodyConsumed() {
+		if (listener != null)
+			listener.onBodyConsumed(metrics.getName(), request, System.nanoTime());
+	}
+
+	public void parsed() {
+		if (listener != null)
+			listener.onParsed(metrics.getName(), request, System.nanoTime());
+	}
+
+	public void callbackDelivered() {
+		if (listener != null)
+			listener.onCallbackDelivered(metrics.getName(), request, System.nanoTime());
+	}
+
+	/**
+	 * Records the request with its endpoint's metrics and, if it failed, tells the
+	 * listener.  Only the first call has any effect.
+	 * 
+	 * @param failure what made the request fail, or null if it succeeded
+	 */
+	public void finish(Throwable failure) {
+		if (finished)
+			return;
+		finished = true;
+		long now = System.nanoTime();
+		elapsed = now - started;
+		metrics.record(this, failure);
+		if (failure != null && listener != null)
+			listener.onFailed(metrics.getName(), request, now, failure);
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * @return the time from the timer's creation until {@link #finish(Throwable)}
+	 */
+	public long getElapsedNanos() {
+		return elapsed;
+	}
+
+	public long getNanos(Phase phase) {
+		return nanos[phase.ordinal()];
+	}
+
+	public boolean isMarked(Phase phase) {
+		return (marked & (1 << phase.ordinal())) != 0;
+	}
+
+}
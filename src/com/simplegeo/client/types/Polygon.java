@@ -34,8 +34,19 @@ import java.util.ArrayList;
 import org.json.JSONArray;
 import org.json.JSONException;
 
+/**
+ * A polygon made up of one or more linear rings. Rings are stored packed as
+ * one double[] per ring with longitude and latitude interleaved, so a vertex
+ * costs 16 bytes instead of a {@link Point} object and a list slot.
+ * {@link #getRings()} is kept for compatibility and builds a list view on
+ * first use; once it exists, that view is what gets serialized.  Parsed
+ * polygons are shared between threads by the response cache and by request
+ * coalescing, so switching between the two forms is done under the polygon's
+ * lock.
+ */
 public class Polygon {
 
+	private double[][] coordinates;
 	private ArrayList<ArrayList<Point>> rings;
 	
 	public Polygon() {
@@ -46,43 +57,110 @@ public class Polygon {
 		this.rings = rings;
 	}
 
-	public ArrayList<ArrayList<Point>> getRings() {
+	/**
+	 * @param coordinates one array per ring holding lon, lat pairs. The arrays
+	 * are used as is, not copied.
+	 */
+	public Polygon(double[][] coordinates) {
+		this.coordinates = coordinates;
+	}
+
+	public synchronized ArrayList<ArrayList<Point>> getRings() {
+		double[][] packed = coordinates;
+		if (rings == null && packed != null) {
+			ArrayList<ArrayList<Point>> ringList = new ArrayList<ArrayList<Point>>(packed.length);
+			for (double[] ring : packed) {
+				ArrayList<Point> pointList = new ArrayList<Point>(ring.length / 2);
+				for (int i=0; i<ring.length; i+=2)
+					pointList.add(new Point(ring[i+1], ring[i]));
+				ringList.add(pointList);
+			}
+			rings = ringList;
+			coordinates = null;
+		}
 		return rings;
 	}
 
-	public void setRings(ArrayList<ArrayList<Point>> rings) {
+	public synchronized void setRings(ArrayList<ArrayList<Point>> rings) {
 		this.rings = rings;
+		this.coordinates = null;
+	}
+
+	/**
+	 * Returns the rings in packed form, one array per ring holding lon, lat
+	 * pairs. If the list view has been created it is packed into new arrays.
+	 * 
+	 * @return the packed rings, or null if the polygon has none
+	 */
+	public synchronized double[][] getCoordinates() {
+		ArrayList<ArrayList<Point>> ringList = rings;
+		if (coordinates != null || ringList == null)
+			return coordinates;
+		
+		double[][] packed = new double[ringList.size()][];
+		for (int i=0; i<packed.length; i++) {
+			ArrayList<Point> ring = ringList.get(i);
+			double[] r = new double[ring.size() * 2];
+			for (int j=0; j<ring.size(); j++) {
+				Point point = ring.get(j);
+				r[2*j] = point.getLon();
+				r[2*j+1] = point.getLat();
+			}
+			packed[i] = r;
+		}
+		return packed;
+	}
+
+	public synchronized void setCoordinates(double[][] coordinates) {
+		this.coordinates = coordinates;
+		this.rings = null;
 	}
 	
 	public static Polygon fromJSONArray(JSONArray polygonArray) throws JSONException {
-		ArrayList<ArrayList<Point>> ringList = new ArrayList<ArrayList<Point>>();
 		int numOfRings = polygonArray.length();
+		double[][] ringList = new double[numOfRings][];
 		for (int i=0; i<numOfRings; i++) {
 			JSONArray ring = polygonArray.getJSONArray(i);
 			int numOfCoords = ring.length();
-			ArrayList<Point> pointList = new ArrayList<Point>();
+			double[] r = new double[numOfCoords * 2];
 			for (int j=0; j<numOfCoords; j++) {
 				JSONArray coords = ring.getJSONArray(j);
-				pointList.add(new Point(coords.getDouble(1), coords.getDouble(0)));
+				r[2*j] = coords.getDouble(0);
+				r[2*j+1] = coords.getDouble(1);
 			}
-			ringList.add(pointList);
+			ringList[i] = r;
 		}
 		return new Polygon(ringList);
 	}
 	
-	public JSONArray toJSONArray() throws JSONException {
+	public synchronized JSONArray toJSONArray() throws JSONException {
 		JSONArray rings = new JSONArray();
-		ArrayList<ArrayList<Point>> ringList = this.getRings();
-		for (ArrayList<Point> ring : ringList) {
+		double[][] packed = this.coordinates;
+		if (packed == null) {
+			ArrayList<ArrayList<Point>> ringList = this.getRings();
+			for (ArrayList<Point> ring : ringList) {
+				JSONArray r = new JSONArray();
+				int numOfPoints = ring.size();
+				for (int i=0; i<numOfPoints; i++) {
+					Point point = ring.get(i);
+					r.put(point.toJSONArray());
+				}
+				rings.put(r);
+			}
+			return rings;
+		}
+		
+		for (double[] ring : packed) {
 			JSONArray r = new JSONArray();
-			int numOfPoints = ring.size();
-			for (int i=0; i<numOfPoints; i++) {
-				Point point = ring.get(i);
-				r.put(point.toJSONArray());
+			for (int i=0; i<ring.length; i+=2) {
+				JSONArray coords = new JSONArray();
+				coords.put(ring[i]);
+				coords.put(ring[i+1]);
+				r.put(coords);
 			}
 			rings.put(r);
 		}
 		return rings;
 	}
 	
-}
\ No newline at end of file
+}
@@ -0,0 +1,232 @@
+package com.simplegeo.client;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+import com.simplegeo.client.callbacks.SimpleGeoCallback;
+import com.simplegeo.client.http.Transport;
+import com.simplegeo.client.metrics.RequestTimer;
+import com.simplegeo.client.types.Feature;
+
+public class AsyncMethodsTest extends TestCase {
+
+	private static final String FEATURE = "{\"type\": \"Feature\", \"id\": \"SG_1\", "
+			+ "\"geometry\": {\"type\": \"Point\", \"coordinates\": [-122.9, 47.0]}, "
+			+ "\"properties\": {\"name\": \"Burger Master\"}}";
+
+	private SimpleGeoPlacesClient places;
+	private SimpleGeoContextClient context;
+	private SimpleGeoNearbyAddressClient nearby;
+	private boolean placesCoalescing;
+	private boolean contextCoalescing;
+	private boolean nearbyCoalescing;
+	private Transport placesTransport;
+	private Transport contextTransport;
+	private Transport nearbyTransport;
+	private BlockingTransport transport;
+
+	public void setUp() {
+		places = SimpleGeoPlacesClient.getInstance();
+		context = SimpleGeoContextClient.getInstance();
+		nearby = SimpleGeoNearbyAddressClient.getInstance();
+		// Each caller gets its own request, so its future is the one the request is attached to
+		placesCoalescing = places.isCoalescing();
+		contextCoalescing = context.isCoalescing();
+		nearbyCoalescing = nearby.isCoalescing();
+		places.setCoalescing(false);
+		context.setCoalescing(false);
+		nearby.setCoalescing(false);
+		placesTransport = places.getTransport();
+		contextTransport = context.getTransport();
+		nearbyTransport = nearby.getTransport();
+		transport = new BlockingTransport();
+		places.setTransport(transport);
+		context.setTransport(transport);
+		nearby.setTransport(transport);
+	}
+
+	public void tearDown() {
+		transport.release.countDown();
+		places.setTransport(placesTransport);
+		context.setTransport(contextTransport);
+		nearby.setTransport(nearbyTransport);
+		places.setCoalescing(placesCoalescing);
+		context.setCoalescing(contextCoalescing);
+		nearby.setCoalescing(nearbyCoalescing);
+	}
+
+	public void testPlaceAsync() throws Exception {
+		transport.body = FEATURE;
+		transport.release.countDown();
+		Feature feature = places.getPlaceAsync("SG_1").get(5, TimeUnit.SECONDS);
+		assertEquals("SG_1", feature.getSimpleGeoId());
+	}
+
+	public void testContextAsync() throws Exception {
+		transport.body = "{\"query\": {\"latitude\": 47.0, \"longitude\": -122.9}}";
+		transport.release.countDown();
+		HashMap<String, Object> result = context.getContextAsync(47.0, -122.9).get(5, TimeUnit.SECONDS);
+		assertTrue(result.containsKey("query"));
+	}
+
+	public void testNearbyAddressAsync() throws Exception {
+		transport.body = "{\"city\": \"Seattle\"}";
+		transport.release.countDown();
+		Object result = nearby.getNearbyAddressAsync(47.0, -122.9).get(5, TimeUnit.SECONDS);
+		assertNotNull(result);
+		assertEquals(1, transport.sent.size());
+	}
+
+	public void testFailureIsOriginalException() throws Exception {
+		transport.failure = new IOException("boom");
+		transport.release.countDown();
+		assertFailedWith(transport.failure, places.getPlaceAsync("SG_1"));
+		assertFailedWith(transport.failure, context.getContextAsync(47.0, -122.9));
+		assertFailedWith(transport.failure, nearby.getNearbyAddressAsync(47.0, -122.9));
+	}
+
+	public void testCancelRemovesQueuedRequest() throws Exception {
+		transport.body = FEATURE;
+		CompletableFuture<Feature> first = places.getPlaceAsync("SG_1");
+		transport.awaitSent(1);
+		// The client's default executor runs one request at a time, so this one waits
+		CompletableFuture<Feature> queued = places.getPlaceAsync("SG_2");
+		assertEquals(1, places.getThreadExecutor().getQueue().size());
+		assertTrue(queued.cancel(false));
+		assertTrue(places.getThreadExecutor().getQueue().isEmpty());
+
+		transport.release.countDown();
+		assertEquals("SG_1", first.get(5, TimeUnit.SECONDS).getSimpleGeoId());
+		assertEquals(1, transport.sent.size());
+	}
+
+	public void testTimeoutRemovesQueuedRequest() throws Exception {
+		transport.body = "{}";
+		CompletableFuture<Object> first = nearby.getNearbyAddressAsync(47.0, -122.9);
+		transport.awaitSent(1);
+		CompletableFuture<Object> queued = nearby.getNearbyAddressAsync(47.1, -122.9);
+		assertEquals(1, nearby.getThreadExecutor().getQueue().size());
+		assertTimedOut(queued.orTimeout(50, TimeUnit.MILLISECONDS));
+		// The timer thread abandons the request just after completing the future
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!nearby.getThreadExecutor().getQueue().isEmpty()) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+
+		transport.release.countDown();
+		first.get(5, TimeUnit.SECONDS);
+		assertEquals(1, transport.sent.size());
+	}
+
+	public void testTimeoutAbortsRequestInFlight() throws Exception {
+		transport.body = "{}";
+		CompletableFuture<HashMap<String, Object>> future = context.getContextAsync(47.0, -122.9);
+		transport.awaitSent(1);
+		assertTimedOut(future.orTimeout(50, TimeUnit.MILLISECONDS));
+		awaitAborted(transport.sent.get(0));
+	}
+
+	public void testCancelAbortsRequestInFlight() throws Exception {
+		transport.body = FEATURE;
+		CompletableFuture<Feature> future = places.getPlaceAsync("SG_1");
+		transport.awaitSent(1);
+		assertTrue(future.cancel(false));
+		assertTrue(transport.sent.get(0).isAborted());
+	}
+
+	private static void awaitAborted(HttpUriRequest request) throws InterruptedException {
+		// The timer thread aborts the request just after completing the future
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!request.isAborted()) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	private static void assertFailedWith(Throwable failure, CompletableFuture<?> future) throws Exception {
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("the transport failed");
+		} catch (ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
+	private static void assertTimedOut(CompletableFuture<?> future) throws Exception {
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("the request was held");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+	}
+
+	/**
+	 * Holds every request until released, then answers it with the body, or fails it.
+	 */
+	private static class BlockingTransport implements Transport {
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<HttpUriRequest> sent = new CopyOnWriteArrayList<HttpUriRequest>();
+		volatile String body;
+		volatile IOException failure;
+
+		void awaitSent(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (sent.size() < count) {
+				assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(1);
+			}
+		}
+
+		public Object execute(HttpUriRequest request, ResponseHandler<Object> responseHandler, RequestTimer timer)
+				throws IOException {
+			sent.add(request);
+			try {
+				// Gives the thread back once aborted, as a real exchange would
+				while (!release.await(1, TimeUnit.MILLISECONDS)) {
+					if (request.isAborted())
+						throw new IOException("Request aborted");
+				}
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted");
+			}
+			if (failure != null)
+				throw failure;
+			HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+			StringEntity entity = new StringEntity(body, "UTF-8");
+			entity.setContentType("application/json");
+			response.setEntity(entity);
+			return responseHandler.handleResponse(response);
+		}
+
+		public boolean isNonBlocking() {
+			return false;
+		}
+
+		public void execute(HttpUriRequest request, ResponseHandler<Object> responseHandler,
+				SimpleGeoCallback callback, RequestTimer timer) {
+			throw new UnsupportedOperationException();
+		}
+
+		public void shutdown() {
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.simplegeo.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+import com.simplegeo.client.callbacks.SimpleGeoCallback;
+import com.simplegeo.client.http.Transport;
+import com.simplegeo.client.metrics.RequestTimer;
+
+public class BulkLookupTest extends TestCase {
+
+	private SimpleGeoPlacesClient client;
+	private Transport previousTransport;
+	private int previousBulkConcurrency;
+	private int previousMaxBulkThreads;
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger mostActive = new AtomicInteger();
+	private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+	public void setUp() {
+		client = SimpleGeoPlacesClient.getInstance();
+		previousTransport = client.getTransport();
+		previousBulkConcurrency = client.getBulkConcurrency();
+		previousMaxBulkThreads = client.getMaxBulkThreads();
+		client.setTransport(new Transport() {
+			public Object execute(HttpUriRequest request, ResponseHandler<Object> responseHandler, RequestTimer timer)
+					throws IOException {
+				threads.add(Thread.currentThread());
+				int now = active.incrementAndGet();
+				while (mostActive.get() < now)
+					mostActive.compareAndSet(mostActive.get(), now);
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException("interrupted");
+				} finally {
+					active.decrementAndGet();
+				}
+				String path = request.getURI().getPath();
+				String id = path.substring(path.lastIndexOf('/') + 1, path.length() - ".json".length());
+				HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+				StringEntity entity = new StringEntity("{\"type\": \"Feature\", \"id\": \"" + id + "\", "
+						+ "\"geometry\": {\"type\": \"Point\", \"coordinates\": [-122.9, 47.0]}, "
+						+ "\"properties\": {}}", "UTF-8");
+				entity.setContentType("application/json");
+				response.setEntity(entity);
+				return responseHandler.handleResponse(response);
+			}
+
+			public boolean isNonBlocking() {
+				return false;
+			}
+
+			public void execute(HttpUriRequest request, ResponseHandler<Object> responseHandler,
+					SimpleGeoCallback callback, RequestTimer timer) {
+				throw new UnsupportedOperationException();
+			}
+
+			public void shutdown() {
+			}
+		});
+	}
+
+	public void tearDown() {
+		release.countDown();
+		client.setTransport(previousTransport);
+		client.setBulkConcurrency(previousBulkConcurrency);
+		client.setMaxBulkThreads(previousMaxBulkThreads);
+	}
+
+	public void testMaxBulkThreads() throws Exception {
+		client.setBulkConcurrency(8);
+		client.setMaxBulkThreads(2);
+		final List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < 8; i++)
+			ids.add("SG_" + i);
+		final PlaceResults[] results = new PlaceResults[1];
+		Thread caller = new Thread() {
+			public void run() {
+				try {
+					results[0] = client.getPlaces(ids);
+				} catch (IOException e) {
+					// left null
+				}
+			}
+		};
+		caller.start();
+
+		// Two bulk threads, then the caller's own thread once they are busy
+		long deadline = System.currentTimeMillis() + 5000;
+		while (active.get() < 3 && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		Thread.sleep(100);
+		assertEquals(3, active.get());
+		assertTrue(threads.contains(caller));
+
+		release.countDown();
+		caller.join(5000);
+		assertEquals(8, results[0].getPlaces().size());
+		assertTrue(results[0].getErrors().isEmpty());
+		assertEquals(3, mostActive.get());
+	}
+
+	public void testMaxBulkThreadsAtLeastOne() {
+		try {
+			client.setMaxBulkThreads(0);
+			fail("a bulk lookup needs a thread");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
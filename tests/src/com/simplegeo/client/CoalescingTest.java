@@ -0,0 +1,265 @@
+package com.simplegeo.client;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+import com.simplegeo.client.callbacks.SimpleGeoCallback;
+import com.simplegeo.client.http.Transport;
+import com.simplegeo.client.metrics.RequestTimer;
+import com.simplegeo.client.types.Feature;
+
+public class CoalescingTest extends TestCase {
+
+	private static final String FEATURE = "{\"type\": \"Feature\", \"id\": \"SG_1\", "
+			+ "\"geometry\": {\"type\": \"Point\", \"coordinates\": [-122.9, 47.0]}, "
+			+ "\"properties\": {\"name\": \"Burger Master\"}}";
+
+	private SimpleGeoPlacesClient client;
+	private BlockingTransport transport;
+	private Transport previousTransport;
+	private boolean previousCoalescing;
+
+	public void setUp() {
+		client = SimpleGeoPlacesClient.getInstance();
+		previousCoalescing = client.isCoalescing();
+		previousTransport = client.getTransport();
+		client.setCoalescing(true);
+		transport = new BlockingTransport();
+		client.setTransport(transport);
+	}
+
+	public void tearDown() {
+		transport.release.countDown();
+		client.setTransport(previousTransport);
+		client.setCoalescing(previousCoalescing);
+	}
+
+	public void testFollowersGetLeadersResult() throws Exception {
+		CompletableFuture<Feature> leader = client.getPlaceAsync("SG_1");
+		transport.awaitSent(1);
+		CompletableFuture<Feature> follower = client.getPlaceAsync("SG_1");
+		transport.release.countDown();
+		assertEquals("SG_1", leader.get(5, TimeUnit.SECONDS).getSimpleGeoId());
+		assertSame(leader.get(), follower.get(5, TimeUnit.SECONDS));
+		assertEquals(1, transport.sent.size());
+	}
+
+	public void testFollowersGetLeadersError() throws Exception {
+		transport.failure = new IOException("boom");
+		CompletableFuture<Feature> leader = client.getPlaceAsync("SG_1");
+		transport.awaitSent(1);
+		CompletableFuture<Feature> follower = client.getPlaceAsync("SG_1");
+		transport.release.countDown();
+		assertFailed("boom", leader);
+		assertFailed("boom", follower);
+		assertEquals(1, transport.sent.size());
+	}
+
+	public void testFlightRemovedAfterCompletion() throws Exception {
+		transport.release.countDown();
+		client.getPlaceAsync("SG_1").get(5, TimeUnit.SECONDS);
+		client.getPlaceAsync("SG_1").get(5, TimeUnit.SECONDS);
+		assertEquals(2, transport.sent.size());
+		client.getPlace("SG_1");
+		client.getPlace("SG_1");
+		assertEquals(4, transport.sent.size());
+	}
+
+	public void testFlightRemovedAfterFailure() throws Exception {
+		transport.failure = new IOException("boom");
+		transport.release.countDown();
+		assertFailed("boom", client.getPlaceAsync("SG_1"));
+		assertFailed("boom", client.getPlaceAsync("SG_1"));
+		assertEquals(2, transport.sent.size());
+		try {
+			client.getPlace("SG_1");
+			fail("the transport failed");
+		} catch (IOException e) {
+			assertEquals("boom", e.getMessage());
+		}
+		transport.failure = null;
+		assertEquals("SG_1", client.getPlace("SG_1").getSimpleGeoId());
+		assertEquals(4, transport.sent.size());
+	}
+
+	public void testSyncOnlyJoinsSync() throws Exception {
+		CompletableFuture<Feature> async = client.getPlaceAsync("SG_1");
+		transport.awaitSent(1);
+		SyncCall first = new SyncCall();
+		first.start();
+		// Not coalesced with the asynchronous request, so it goes out on its own
+		transport.awaitSent(2);
+		SyncCall second = new SyncCall();
+		second.start();
+		CompletableFuture<Feature> joined = client.getPlaceAsync("SG_1");
+		transport.release.countDown();
+		first.join(5000);
+		second.join(5000);
+		assertEquals("SG_1", first.feature.getSimpleGeoId());
+		assertEquals("SG_1", second.feature.getSimpleGeoId());
+		assertEquals("SG_1", async.get(5, TimeUnit.SECONDS).getSimpleGeoId());
+		assertEquals("SG_1", joined.get(5, TimeUnit.SECONDS).getSimpleGeoId());
+		// The second synchronous call may have found the first one's request still out or not
+		assertTrue(transport.sent.size() <= 3);
+	}
+
+	public void testAsyncJoinsSync() throws Exception {
+		SyncCall sync = new SyncCall();
+		sync.start();
+		transport.awaitSent(1);
+		CompletableFuture<Feature> async = client.getPlaceAsync("SG_1");
+		// Cancelling a caller never aborts a synchronous caller's request
+		async.cancel(false);
+		CompletableFuture<Feature> joined = client.getPlaceAsync("SG_1");
+		transport.release.countDown();
+		sync.join(5000);
+		assertEquals("SG_1", sync.feature.getSimpleGeoId());
+		assertSame(sync.feature, joined.get(5, TimeUnit.SECONDS));
+		assertEquals(1, transport.sent.size());
+		assertFalse(transport.sent.get(0).isAborted());
+	}
+
+	public void testCancelledFollowerLeavesFlight() throws Exception {
+		CompletableFuture<Feature> leader = client.getPlaceAsync("SG_1");
+		transport.awaitSent(1);
+		CompletableFuture<Feature> follower = client.getPlaceAsync("SG_1");
+		assertTrue(follower.cancel(false));
+		transport.release.countDown();
+		assertEquals("SG_1", leader.get(5, TimeUnit.SECONDS).getSimpleGeoId());
+		assertFalse(transport.sent.get(0).isAborted());
+	}
+
+	public void testCancelledLeaderLeavesFlight() throws Exception {
+		CompletableFuture<Feature> leader = client.getPlaceAsync("SG_1");
+		transport.awaitSent(1);
+		CompletableFuture<Feature> follower = client.getPlaceAsync("SG_1");
+		assertTrue(leader.cancel(false));
+		transport.release.countDown();
+		assertEquals("SG_1", follower.get(5, TimeUnit.SECONDS).getSimpleGeoId());
+		assertFalse(transport.sent.get(0).isAborted());
+		assertEquals(1, transport.sent.size());
+	}
+
+	public void testLastCancelAbortsFlight() throws Exception {
+		CompletableFuture<Feature> leader = client.getPlaceAsync("SG_1");
+		transport.awaitSent(1);
+		CompletableFuture<Feature> follower = client.getPlaceAsync("SG_1");
+		leader.cancel(false);
+		assertFalse(transport.sent.get(0).isAborted());
+		follower.cancel(false);
+		assertTrue(transport.sent.get(0).isAborted());
+
+		// The abandoned flight is not joined by the next caller
+		CompletableFuture<Feature> next = client.getPlaceAsync("SG_1");
+		transport.awaitSent(2);
+		transport.release.countDown();
+		assertEquals("SG_1", next.get(5, TimeUnit.SECONDS).getSimpleGeoId());
+	}
+
+	public void testPlainCallbackKeepsFlight() throws Exception {
+		final CountDownLatch answered = new CountDownLatch(1);
+		client.getPlace("SG_1", new SimpleGeoCallback<Feature>() {
+			public void onSuccess(Feature feature) {
+				answered.countDown();
+			}
+
+			public void onError(String errorMessage) {
+			}
+		});
+		transport.awaitSent(1);
+		client.getPlaceAsync("SG_1").cancel(false);
+		assertFalse(transport.sent.get(0).isAborted());
+		transport.release.countDown();
+		assertTrue(answered.await(5, TimeUnit.SECONDS));
+	}
+
+	private static void assertFailed(String message, CompletableFuture<Feature> future) throws Exception {
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("the transport failed");
+		} catch (ExecutionException e) {
+			assertEquals(message, e.getCause().getMessage());
+		} catch (CancellationException e) {
+			fail("failed rather than cancelled");
+		}
+	}
+
+	private class SyncCall extends Thread {
+		volatile Feature feature;
+
+		public void run() {
+			try {
+				feature = client.getPlace("SG_1");
+			} catch (IOException e) {
+				// left null
+			}
+		}
+	}
+
+	/**
+	 * Holds every request until released, then answers it with the same feature, or fails it.
+	 * The client's default executor sends one request at a time.
+	 */
+	private static class BlockingTransport implements Transport {
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<HttpUriRequest> sent = new CopyOnWriteArrayList<HttpUriRequest>();
+		volatile IOException failure;
+
+		void awaitSent(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (sent.size() < count) {
+				assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(1);
+			}
+		}
+
+		public Object execute(HttpUriRequest request, ResponseHandler<Object> responseHandler, RequestTimer timer)
+				throws IOException {
+			sent.add(request);
+			try {
+				// Gives the thread back once aborted, as a real exchange would
+				while (!release.await(1, TimeUnit.MILLISECONDS)) {
+					if (request.isAborted())
+						throw new IOException("Request aborted");
+				}
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted");
+			}
+			if (failure != null)
+				throw failure;
+			HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+			StringEntity entity = new StringEntity(FEATURE, "UTF-8");
+			entity.setContentType("application/json");
+			response.setEntity(entity);
+			return responseHandler.handleResponse(response);
+		}
+
+		public boolean isNonBlocking() {
+			return false;
+		}
+
+		public void execute(HttpUriRequest request, ResponseHandler<Object> responseHandler,
+				SimpleGeoCallback callback, RequestTimer timer) {
+			throw new UnsupportedOperationException();
+		}
+
+		public void shutdown() {
+		}
+	}
+
+}
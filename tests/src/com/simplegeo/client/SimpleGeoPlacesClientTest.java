@@ -30,13 +30,16 @@
 package com.simplegeo.client;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
 import junit.framework.TestCase;
 
 import org.json.JSONException;
 
+import com.simplegeo.client.callbacks.BulkPlaceCallback;
 import com.simplegeo.client.callbacks.FeatureCallback;
 import com.simplegeo.client.callbacks.FeatureCollectionCallback;
 import com.simplegeo.client.callbacks.MapCallback;
@@ -125,6 +128,47 @@ public class SimpleGeoPlacesClientTest extends TestCase {
 		}
 	}
 	
+	public void testGetPlacesSync() {
+		List<String> ids = Arrays.asList("SG_4CsrE4oNy1gl8hCLdwu0F0", "SG_garbage", "SG_4CsrE4oNy1gl8hCLdwu0F0");
+		try {
+			PlaceResults results = client.getPlaces(ids);
+			
+			this.assertEquals(1, results.getPlaces().size());
+			this.assertEquals("SG_4CsrE4oNy1gl8hCLdwu0F0_47.046962_-122.937467@1290636830",
+					results.getPlace("SG_4CsrE4oNy1gl8hCLdwu0F0").getSimpleGeoId());
+			this.assertEquals(1, results.getErrors().size());
+			this.assertEquals("Not Found", results.getErrors().get("SG_garbage").getMessage());
+		} catch (IOException e) {
+			this.fail(e.getMessage());
+		}
+	}
+	
+	public void testGetPlacesAsync() {
+		List<String> ids = Arrays.asList("SG_4CsrE4oNy1gl8hCLdwu0F0", "SG_garbage");
+		final HashMap<String, Object> outcomes = new HashMap<String, Object>();
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		client.getPlaces(ids, new BulkPlaceCallback() {
+			public void onPlace(String simpleGeoId, Feature feature) {
+				synchronized (outcomes) {
+					outcomes.put(simpleGeoId, feature);
+				}
+			}
+			public void onError(String simpleGeoId, Throwable cause) {
+				synchronized (outcomes) {
+					outcomes.put(simpleGeoId, cause);
+				}
+			}
+			public void onComplete() {
+				barrierAwait(barrier);
+			}
+		});
+		barrierAwait(barrier);
+		synchronized (outcomes) {
+			this.assertTrue(outcomes.get("SG_4CsrE4oNy1gl8hCLdwu0F0") instanceof Feature);
+			this.assertTrue(outcomes.get("SG_garbage") instanceof Throwable);
+		}
+	}
+	
 	public void testGetPlacePolygonSync() {
 		try {
 			Feature feature = client.getPlace("SG_0Bw22I6fWoxnZ4GDc8YlXd");
@@ -0,0 +1,33 @@
+package com.simplegeo.client.cache;
+
+import junit.framework.TestCase;
+
+public class GeoHashTest extends TestCase {
+
+	public void testEncode() {
+		assertEquals("u4pruydqqvj", GeoHash.encode(57.64911, 10.40744, 11));
+		assertEquals("9q8yy", GeoHash.encode(37.7749, -122.4194, 5));
+		assertEquals("s0000", GeoHash.encode(0, 0, 5));
+	}
+
+	public void testNearbyPointsShareACell() {
+		String hash = GeoHash.encode(37.778381, -122.389388, 7);
+		assertEquals(hash, GeoHash.encode(37.778390, -122.389380, 7));
+		assertTrue(GeoHash.encode(37.778381, -122.389388, 9).startsWith(hash));
+		assertFalse(hash.equals(GeoHash.encode(37.79, -122.40, 7)));
+	}
+
+	public void testRejectsBadInput() {
+		try {
+			GeoHash.encode(91, 0, 5);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			GeoHash.encode(0, 0, 13);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+}
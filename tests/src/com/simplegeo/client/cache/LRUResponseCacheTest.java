@@ -0,0 +1,73 @@
+package com.simplegeo.client.cache;
+
+import junit.framework.TestCase;
+
+public class LRUResponseCacheTest extends TestCase {
+
+	public void testHitsAndMisses() {
+		LRUResponseCache cache = new LRUResponseCache(10);
+		assertNull(cache.get("a"));
+		cache.put("a", "A", 60000);
+		assertEquals("A", cache.get("a"));
+		assertEquals("A", cache.get("a"));
+		
+		CacheStats stats = cache.getStats();
+		assertEquals(2, stats.getHitCount());
+		assertEquals(1, stats.getMissCount());
+		assertEquals(2.0 / 3, stats.getHitRate(), 0.0001);
+	}
+
+	public void testExpiredResponsesAreMisses() throws InterruptedException {
+		LRUResponseCache cache = new LRUResponseCache(10);
+		cache.put("a", "A", 1);
+		Thread.sleep(5);
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getStats().getExpirationCount());
+		assertEquals(1, cache.getStats().getMissCount());
+	}
+
+	public void testNothingIsCachedWithoutTTL() {
+		LRUResponseCache cache = new LRUResponseCache(10);
+		cache.put("a", "A", 0);
+		cache.put("b", null, 60000);
+		assertEquals(0, cache.size());
+	}
+
+	public void testEvictsLeastRecentlyUsed() {
+		LRUResponseCache cache = new LRUResponseCache(3);
+		cache.put("a", "A", 60000);
+		cache.put("b", "B", 60000);
+		cache.put("c", "C", 60000);
+		cache.get("a");
+		cache.get("c");
+		cache.put("d", "D", 60000);
+		
+		assertEquals(3, cache.size());
+		assertNull(cache.get("b"));
+		assertEquals("A", cache.get("a"));
+		assertEquals("C", cache.get("c"));
+		assertEquals("D", cache.get("d"));
+		assertEquals(1, cache.getStats().getEvictionCount());
+	}
+
+	public void testStaysWithinBoundWhenReplacing() {
+		LRUResponseCache cache = new LRUResponseCache(5);
+		for (int i=0; i<1000; i++)
+			cache.put("key" + (i % 7), Integer.valueOf(i), 60000);
+		assertEquals(5, cache.size());
+		assertEquals(Integer.valueOf(999), cache.get("key5"));
+	}
+
+	public void testRemoveAndClear() {
+		LRUResponseCache cache = new LRUResponseCache(10);
+		cache.put("a", "A", 60000);
+		cache.put("b", "B", 60000);
+		cache.remove("a");
+		assertNull(cache.get("a"));
+		assertEquals("B", cache.get("b"));
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+}
@@ -0,0 +1,195 @@
+package com.simplegeo.client.concurrent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.simplegeo.client.http.exceptions.APIException;
+import com.simplegeo.client.http.exceptions.NoSuchEntityException;
+
+public class ConcurrencyLimiterTest extends TestCase {
+
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private ConcurrencyLimitConfig config;
+	private List<String> events;
+
+	public void setUp() {
+		config = new ConcurrencyLimitConfig();
+		config.setInitialLimit(2);
+		config.setMaxQueueSize(1);
+		config.setMaxWaitMillis(1000);
+		events = Collections.synchronizedList(new ArrayList<String>());
+	}
+
+	public void testQueuesInOrder() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(config);
+		assertTrue(limiter.acquire());
+		limiter.acquire(record("first"), record("first refused"));
+		limiter.acquire(record("second"), record("second refused"));
+		limiter.acquire(record("third"), record("third refused"));
+		assertEquals("[first, third refused]", events.toString());
+		assertEquals(1, limiter.getQueueSize());
+		assertEquals(1, limiter.getRejectedCount());
+		
+		limiter.release();
+		assertEquals("[first, third refused, second]", events.toString());
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(0, limiter.getQueueSize());
+	}
+
+	public void testBlockingAcquireTimesOut() throws Exception {
+		config.setMaxWaitMillis(50);
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(config);
+		assertTrue(limiter.acquire());
+		assertTrue(limiter.acquire());
+		long start = System.nanoTime();
+		assertFalse(limiter.acquire());
+		assertTrue(System.nanoTime() - start >= 40 * MILLIS);
+		assertEquals(0, limiter.getQueueSize());
+	}
+
+	public void testBlockingAcquireIsWoken() throws Exception {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(config);
+		assertTrue(limiter.acquire());
+		assertTrue(limiter.acquire());
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+				}
+				limiter.release(null, MILLIS);
+			}
+		}.start();
+		assertTrue(limiter.acquire());
+		assertEquals(2, limiter.getInFlight());
+	}
+
+	public void testQueuedCallbackExpiresWhilePermitsHang() throws Exception {
+		config.setMaxWaitMillis(50);
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+		try {
+			ConcurrencyLimiter limiter = new ConcurrencyLimiter(config, scheduler);
+			// Both permits are held by requests that never complete
+			assertTrue(limiter.acquire());
+			assertTrue(limiter.acquire());
+			long start = System.nanoTime();
+			assertNotNull(limiter.acquire(record("first"), record("first refused")));
+			assertEquals(1, limiter.getQueueSize());
+			
+			long deadline = System.currentTimeMillis() + 5000;
+			while (events.isEmpty() && System.currentTimeMillis() < deadline)
+				Thread.sleep(5);
+			assertEquals("[first refused]", events.toString());
+			assertTrue(System.nanoTime() - start >= 40 * MILLIS);
+			assertEquals(0, limiter.getQueueSize());
+			assertEquals(1, limiter.getRejectedCount());
+			assertEquals(2, limiter.getInFlight());
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	public void testExpiredBehindHeadRefused() throws Exception {
+		config.setMaxQueueSize(2);
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(config);
+		assertTrue(limiter.acquire());
+		assertTrue(limiter.acquire());
+		limiter.acquire(record("first"), record("first refused"));
+		config.setMaxWaitMillis(10);
+		limiter.acquire(record("second"), record("second refused"));
+		Thread.sleep(30);
+		
+		// The limit backs off to 1, so the head keeps waiting but the one behind it is refused
+		limiter.release(new IOException(), MILLIS);
+		assertEquals(1, limiter.getLimit());
+		assertEquals("[second refused]", events.toString());
+		assertEquals(1, limiter.getQueueSize());
+	}
+
+	public void testWithdraw() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(config);
+		assertNull(limiter.acquire(record("first"), record("first refused")));
+		assertNull(limiter.acquire(record("second"), record("second refused")));
+		Runnable withdraw = limiter.acquire(record("third"), record("third withdrawn"));
+		assertEquals(1, limiter.getQueueSize());
+		withdraw.run();
+		withdraw.run();
+		assertEquals("[first, second, third withdrawn]", events.toString());
+		assertEquals(0, limiter.getQueueSize());
+		assertEquals(0, limiter.getRejectedCount());
+		
+		// The permit that frees up goes to no one
+		limiter.release();
+		assertEquals(1, limiter.getInFlight());
+	}
+
+	public void testAimd() throws Exception {
+		config.setAlgorithm(LimitAlgorithm.AIMD);
+		config.setInitialLimit(10);
+		config.setMaxLimit(20);
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(config);
+		// Grows by about one per round trip's worth of requests while busy
+		saturate(limiter, 10 * MILLIS, 70);
+		assertEquals(15, limiter.getLimit());
+		
+		limiter.release(new APIException(503, "Service Unavailable"), 10 * MILLIS);
+		assertEquals(13, limiter.getLimit());
+		limiter.release(null, 6000 * MILLIS);
+		assertEquals(12, limiter.getLimit());
+		
+		// A client with few requests in flight learns nothing about a higher limit
+		limiter = new ConcurrencyLimiter(config);
+		assertTrue(limiter.acquire());
+		limiter.release(null, 10 * MILLIS);
+		assertEquals(10, limiter.getLimit());
+	}
+
+	public void testGradient() throws Exception {
+		config.setAlgorithm(LimitAlgorithm.GRADIENT);
+		config.setInitialLimit(20);
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(config);
+		saturate(limiter, 10 * MILLIS, 200);
+		int steady = limiter.getLimit();
+		assertTrue(steady > 20);
+		
+		// Round trips four times as long as usual mean requests are queueing upstream
+		saturate(limiter, 40 * MILLIS, 20);
+		assertTrue(limiter.getLimit() < steady);
+	}
+
+	public void testDrops() {
+		assertTrue(ConcurrencyLimiter.isDrop(new IOException()));
+		assertTrue(ConcurrencyLimiter.isDrop(new APIException(429, "Too Many Requests")));
+		assertTrue(ConcurrencyLimiter.isDrop(new APIException(500, "Internal Server Error")));
+		assertFalse(ConcurrencyLimiter.isDrop(new NoSuchEntityException(404, "Not Found")));
+		assertFalse(ConcurrencyLimiter.isDrop(null));
+	}
+
+	/**
+	 * Completes the given number of requests, keeping every permit in use.
+	 */
+	private static void saturate(ConcurrencyLimiter limiter, long rttNanos, int samples) throws Exception {
+		while (limiter.getInFlight() < limiter.getLimit())
+			assertTrue(limiter.acquire());
+		for (int i=0; i<samples; i++) {
+			limiter.release(null, rttNanos);
+			while (limiter.getInFlight() < limiter.getLimit())
+				assertTrue(limiter.acquire());
+		}
+	}
+
+	private Runnable record(final String event) {
+		return new Runnable() {
+			public void run() {
+				events.add(event);
+			}
+		};
+	}
+}
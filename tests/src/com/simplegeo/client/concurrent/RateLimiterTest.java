@@ -0,0 +1,120 @@
+package com.simplegeo.client.concurrent;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class RateLimiterTest extends TestCase {
+
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private RateLimitConfig config;
+
+	public void setUp() {
+		config = new RateLimitConfig();
+		config.setPermitsPerSecond(10);
+		config.setBurst(3);
+		config.setMaxWaitMillis(250);
+	}
+
+	public void testBurstThenPaces() {
+		RateLimiter limiter = new RateLimiter("key", config);
+		assertEquals(0, limiter.reserveAt(0));
+		assertEquals(0, limiter.reserveAt(0));
+		assertEquals(0, limiter.reserveAt(0));
+		assertEquals(100 * MILLIS, limiter.reserveAt(0));
+		assertEquals(200 * MILLIS, limiter.reserveAt(0));
+		assertEquals(-1, limiter.reserveAt(0));
+		assertEquals(1, limiter.getRejectedCount());
+		
+		// A refused request takes no turn
+		assertEquals(150 * MILLIS, limiter.reserveAt(150 * MILLIS));
+	}
+
+	public void testRefills() {
+		RateLimiter limiter = new RateLimiter("key", config);
+		for (int i=0; i<3; i++)
+			assertEquals(0, limiter.reserveAt(0));
+		assertEquals(0, limiter.reserveAt(100 * MILLIS));
+		assertEquals(50 * MILLIS, limiter.reserveAt(150 * MILLIS));
+		
+		// Idle time beyond the burst is not banked
+		for (int i=0; i<3; i++)
+			assertEquals(0, limiter.reserveAt(10000 * MILLIS));
+		assertEquals(100 * MILLIS, limiter.reserveAt(10000 * MILLIS));
+	}
+
+	public void testSharedAcrossInstances() throws Exception {
+		File directory = File.createTempFile("ratelimiter", "");
+		assertTrue(directory.delete());
+		assertTrue(directory.mkdir());
+		try {
+			config.setPermitsPerSecond(1);
+			config.setBurst(2);
+			config.setMaxWaitMillis(0);
+			config.setSharedDirectory(directory);
+			RateLimiter first = new RateLimiter("shared", config);
+			RateLimiter second = new RateLimiter("shared", config);
+			RateLimiter other = new RateLimiter("other", config);
+			assertTrue(first.isShared());
+			assertEquals(0, first.reserve());
+			assertEquals(0, second.reserve());
+			assertEquals(-1, first.reserve());
+			assertTrue(first.getWaitMillis() > 0);
+			assertEquals(0, other.reserve());
+		} finally {
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+	}
+
+	public void testForConsumer() {
+		RateLimiter limiter = RateLimiter.forConsumer("a", config);
+		assertSame(limiter, RateLimiter.forConsumer("a", config));
+		assertNotSame(limiter, RateLimiter.forConsumer("b", config));
+		
+		// The bucket follows the settings, not the config instance
+		RateLimitConfig same = new RateLimitConfig();
+		same.setPermitsPerSecond(10);
+		same.setBurst(3);
+		same.setMaxWaitMillis(0);
+		assertSame(limiter, RateLimiter.forConsumer("a", same));
+		assertNotSame(limiter, RateLimiter.forConsumer("a", new RateLimitConfig()));
+	}
+
+	public void testMaxWaitPerCaller() {
+		RateLimiter limiter = new RateLimiter("key", config);
+		for (int i=0; i<3; i++)
+			assertEquals(0, limiter.reserveAt(0, 0));
+		assertEquals(-1, limiter.reserveAt(0, 0));
+		assertEquals(100 * MILLIS, limiter.reserveAt(0, 250 * MILLIS));
+	}
+
+	public void testReplacedBucketReopens() throws Exception {
+		File directory = File.createTempFile("ratelimiter", "");
+		assertTrue(directory.delete());
+		assertTrue(directory.mkdir());
+		try {
+			config.setMaxWaitMillis(0);
+			config.setSharedDirectory(directory);
+			RateLimiter first = RateLimiter.forConsumer("replaced", config);
+			assertEquals(0, first.reserve());
+			RateLimitConfig faster = new RateLimitConfig();
+			faster.setPermitsPerSecond(100);
+			faster.setSharedDirectory(directory);
+			RateLimiter second = RateLimiter.forConsumer("replaced", faster);
+			assertNotSame(first, second);
+			// The replaced limiter's file was closed, and still works for anyone holding it
+			assertEquals(0, first.reserve());
+			assertTrue(first.isShared());
+			assertTrue(second.reserve() >= 0);
+		} finally {
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+	}
+
+}
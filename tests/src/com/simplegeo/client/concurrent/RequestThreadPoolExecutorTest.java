@@ -0,0 +1,127 @@
+package com.simplegeo.client.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class RequestThreadPoolExecutorTest extends TestCase {
+
+	private RequestExecutorConfig config;
+	private CountDownLatch release;
+
+	public void setUp() {
+		config = new RequestExecutorConfig();
+		config.setCorePoolSize(1);
+		config.setMaxPoolSize(1);
+		config.setQueueCapacity(1);
+		config.setAdaptive(false);
+		release = new CountDownLatch(1);
+	}
+
+	public void tearDown() {
+		release.countDown();
+	}
+
+	public void testPoolGrowsToDrainBacklog() {
+		config.setMaxPoolSize(16);
+		config.setTargetQueueMillis(100);
+		// 10 queued tasks of 50ms each need 5 more threads to drain within 100ms
+		assertEquals(9, RequestThreadPoolExecutor.computePoolSize(4, 4, 10, 50.0, config));
+		assertEquals(16, RequestThreadPoolExecutor.computePoolSize(4, 4, 1000, 50.0, config));
+	}
+
+	public void testPoolShrinksOneThreadAtATime() {
+		config.setCorePoolSize(2);
+		config.setMaxPoolSize(16);
+		assertEquals(9, RequestThreadPoolExecutor.computePoolSize(10, 0, 0, 50.0, config));
+		assertEquals(2, RequestThreadPoolExecutor.computePoolSize(2, 0, 0, 50.0, config));
+	}
+
+	public void testPoolBacksOffWhenLatencyIsHigh() {
+		config.setMaxPoolSize(16);
+		config.setMaxLatencyMillis(1000);
+		assertEquals(7, RequestThreadPoolExecutor.computePoolSize(8, 8, 100, 2000.0, config));
+	}
+
+	public void testReject() throws Exception {
+		config.setSaturationPolicy(SaturationPolicy.REJECT);
+		RequestThreadPoolExecutor executor = saturate();
+		try {
+			executor.execute(new Blocker());
+			fail("expected the request to be rejected");
+		} catch (RejectedExecutionException e) {
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public void testCallerRuns() throws Exception {
+		config.setSaturationPolicy(SaturationPolicy.CALLER_RUNS);
+		RequestThreadPoolExecutor executor = saturate();
+		final Thread caller = Thread.currentThread();
+		final AtomicInteger ranHere = new AtomicInteger();
+		executor.execute(new Runnable() {
+			public void run() {
+				if (Thread.currentThread() == caller)
+					ranHere.incrementAndGet();
+			}
+		});
+		executor.shutdownNow();
+		assertEquals(1, ranHere.get());
+	}
+
+	public void testBlockTimesOut() throws Exception {
+		config.setSaturationPolicy(SaturationPolicy.BLOCK);
+		config.setBlockTimeoutMillis(50);
+		RequestThreadPoolExecutor executor = saturate();
+		long start = System.currentTimeMillis();
+		try {
+			executor.execute(new Blocker());
+			fail("expected the request to time out");
+		} catch (RejectedExecutionException e) {
+			assertTrue(System.currentTimeMillis() - start >= 40);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public void testDropOldestNotifiesEvictedTask() throws Exception {
+		config.setSaturationPolicy(SaturationPolicy.DROP_OLDEST);
+		RequestThreadPoolExecutor executor = new RequestThreadPoolExecutor("test", config);
+		final AtomicInteger dropped = new AtomicInteger();
+		executor.execute(new Blocker());
+		executor.execute(new RequestTask() {
+			public void run() {
+			}
+
+			@Override
+			public void onRejected(RejectedExecutionException e) {
+				dropped.incrementAndGet();
+			}
+		});
+		executor.execute(new Blocker());
+		assertEquals(1, dropped.get());
+		assertEquals(1, executor.getQueue().size());
+		executor.shutdownNow();
+	}
+
+	private RequestThreadPoolExecutor saturate() {
+		RequestThreadPoolExecutor executor = new RequestThreadPoolExecutor("test", config);
+		executor.execute(new Blocker());
+		executor.execute(new Blocker());
+		return executor;
+	}
+
+	private class Blocker implements Runnable {
+		public void run() {
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+}
@@ -0,0 +1,169 @@
+package com.simplegeo.client.concurrent;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import junit.framework.TestCase;
+
+import org.apache.http.client.methods.HttpGet;
+
+import com.simplegeo.client.callbacks.SimpleGeoCallback;
+
+public class SimpleGeoFutureTest extends TestCase {
+
+	private ThreadPoolExecutor executor;
+	private CountDownLatch release;
+	private HttpGet request;
+	private AtomicBoolean ran;
+	private Runnable task;
+	private volatile Thread poolThread;
+
+	public void setUp() throws Exception {
+		executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+		release = new CountDownLatch(1);
+		// Holds the only thread, so the request's task stays queued
+		final CountDownLatch started = new CountDownLatch(1);
+		executor.execute(new Runnable() {
+			public void run() {
+				poolThread = Thread.currentThread();
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		request = new HttpGet("http://127.0.0.1/1.0/features/SG_1.json");
+		ran = new AtomicBoolean();
+		task = new Runnable() {
+			public void run() {
+				ran.set(true);
+			}
+		};
+	}
+
+	public void tearDown() throws Exception {
+		release.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	public void testCancelRemovesQueuedTask() throws Exception {
+		SimpleGeoFuture<Object> future = queue();
+		assertTrue(future.cancel(false));
+		assertFalse(executor.getQueue().contains(task));
+		assertTrue(request.isAborted());
+		drain();
+		assertFalse(ran.get());
+	}
+
+	public void testTimeoutRemovesQueuedTask() throws Exception {
+		SimpleGeoFuture<Object> future = queue();
+		future.orTimeout(50, TimeUnit.MILLISECONDS);
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("the request was still queued");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		// The timer thread abandons the request just after completing the future
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!request.isAborted()) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+		assertFalse(executor.getQueue().contains(task));
+		drain();
+		assertFalse(ran.get());
+	}
+
+	public void testCompletedByRequestDoesNotAbort() throws Exception {
+		SimpleGeoFuture<Object> future = queue();
+		future.onSuccess("done");
+		assertEquals("done", future.get());
+		assertFalse(request.isAborted());
+		drain();
+		assertTrue(ran.get());
+	}
+
+	public void testAttachAfterCancelAbandonsAtOnce() throws Exception {
+		SimpleGeoFuture<Object> future = new SimpleGeoFuture<Object>(executor);
+		future.cancel(false);
+		executor.execute(task);
+		future.attach(request, task);
+		assertFalse(executor.getQueue().contains(task));
+		assertTrue(request.isAborted());
+		try {
+			future.get();
+			fail("cancelled");
+		} catch (CancellationException e) {
+			// expected
+		}
+	}
+
+	public void testFailHandsOverException() throws Exception {
+		SimpleGeoFuture<Object> future = new SimpleGeoFuture<Object>(executor);
+		IOException failure = new IOException("boom");
+		SimpleGeoFuture.fail(future, failure);
+		try {
+			future.get();
+			fail("failed");
+		} catch (ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
+	public void testFailHandsMessageToPlainCallback() {
+		final String[] message = new String[1];
+		SimpleGeoFuture.fail(new SimpleGeoCallback<Object>() {
+			public void onSuccess(Object object) {
+			}
+
+			public void onError(String errorMessage) {
+				message[0] = errorMessage;
+			}
+		}, new IOException("boom"));
+		assertEquals("boom", message[0]);
+	}
+
+	public void testStagesRunOnExecutor() throws Exception {
+		SimpleGeoFuture<Object> future = new SimpleGeoFuture<Object>(executor);
+		final Thread[] thread = new Thread[1];
+		CompletableFuture<Object> stage = future.thenApplyAsync(new Function<Object, Object>() {
+			public Object apply(Object object) {
+				thread[0] = Thread.currentThread();
+				return object;
+			}
+		});
+		assertTrue(stage instanceof SimpleGeoFuture);
+		future.onSuccess("done");
+		release.countDown();
+		assertEquals("done", stage.get(5, TimeUnit.SECONDS));
+		assertSame(poolThread, thread[0]);
+	}
+
+	private SimpleGeoFuture<Object> queue() {
+		SimpleGeoFuture<Object> future = new SimpleGeoFuture<Object>(executor);
+		executor.execute(task);
+		future.attach(request, task);
+		assertTrue(executor.getQueue().contains(task));
+		return future;
+	}
+
+	private void drain() throws InterruptedException {
+		release.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+}
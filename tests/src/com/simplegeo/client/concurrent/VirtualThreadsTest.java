@@ -0,0 +1,47 @@
+package com.simplegeo.client.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import junit.framework.TestCase;
+
+public class VirtualThreadsTest extends TestCase {
+
+	public void testPlatformThread() {
+		assertFalse(VirtualThreads.isVirtual());
+	}
+
+	public void testSupportedFromJdk21() {
+		// So that neither of the tests below is skipped on a JDK it should run on
+		assertEquals(Runtime.version().feature() >= 21, VirtualThreads.isSupported());
+	}
+
+	public void testNewExecutorUnsupported() {
+		if (VirtualThreads.isSupported())
+			return;
+		try {
+			VirtualThreads.newExecutor("VirtualThreadsTest");
+			fail("virtual threads are not supported");
+		} catch (UnsupportedOperationException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(System.getProperty("java.version")));
+		}
+	}
+
+	public void testNewExecutor() throws Exception {
+		if (!VirtualThreads.isSupported())
+			return;
+		ExecutorService executor = VirtualThreads.newExecutor("VirtualThreadsTest");
+		try {
+			String name = executor.submit(new Callable<String>() {
+				public String call() {
+					assertTrue(VirtualThreads.isVirtual());
+					return Thread.currentThread().getName();
+				}
+			}).get();
+			assertTrue(name, name.startsWith("VirtualThreadsTest:"));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
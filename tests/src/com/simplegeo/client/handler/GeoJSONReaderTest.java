@@ -0,0 +1,173 @@
+package com.simplegeo.client.handler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.simplegeo.client.concurrent.VirtualThreads;
+import com.simplegeo.client.test.TestEnvironment;
+import com.simplegeo.client.types.Feature;
+import com.simplegeo.client.types.FeatureCollection;
+import com.simplegeo.client.types.MultiPolygon;
+import com.simplegeo.client.types.Point;
+import com.simplegeo.client.types.Polygon;
+
+public class GeoJSONReaderTest extends TestCase {
+
+	public void testPointMatchesDOMParser() throws Exception {
+		assertSameFeature(TestEnvironment.getJsonPointString());
+	}
+
+	public void testPolygonMatchesDOMParser() throws Exception {
+		assertSameFeature(TestEnvironment.getJsonPolygonString());
+	}
+
+	public void testMultiPolygonMatchesDOMParser() throws Exception {
+		assertSameFeature(TestEnvironment.getJsonMultiPolygonString());
+	}
+
+	public void testFeatureCollection() throws Exception {
+		String json = String.format("{\"total\": 2, \"type\": \"FeatureCollection\", \"features\": [%s, %s]}",
+				TestEnvironment.getJsonPointString(), TestEnvironment.getJsonPolygonString());
+		FeatureCollection expected = FeatureCollection.fromJSONString(json);
+		FeatureCollection actual = (FeatureCollection) read(json);
+		assertEquals(2, actual.getFeatures().size());
+		for (int i = 0; i < 2; i++)
+			assertSameFeature(expected.getFeatures().get(i), actual.getFeatures().get(i));
+	}
+
+	public void testCoordinatesBeforeType() throws Exception {
+		Feature feature = (Feature) read("{\"id\": \"a\", \"geometry\": {\"coordinates\": [[[1.5, 2.5], [3, 4], [1.5, 2.5]]], \"type\": \"Polygon\"}, \"properties\": {}}");
+		Point point = feature.getGeometry().getPolygon().getRings().get(0).get(1);
+		assertEquals(4.0, point.getLat());
+		assertEquals(3.0, point.getLon());
+	}
+
+	public void testNumbers() throws Exception {
+		Feature feature = (Feature) read("{\"id\": \"a\", \"geometry\": {\"type\": \"Point\", \"coordinates\": [-0.1, 1e-3]}, "
+				+ "\"properties\": {\"i\": -5, \"l\": 12345678901, \"d\": 1.5, \"e\": 1E3, \"b\": false, \"n\": null}}");
+		assertEquals(-0.1, feature.getGeometry().getPoint().getLon());
+		assertEquals(0.001, feature.getGeometry().getPoint().getLat());
+		assertEquals(Integer.valueOf(-5), feature.getProperties().get("i"));
+		assertEquals(Long.valueOf(12345678901L), feature.getProperties().get("l"));
+		assertEquals(Double.valueOf(1.5), feature.getProperties().get("d"));
+		assertEquals(Double.valueOf(1000), feature.getProperties().get("e"));
+		assertEquals(Boolean.FALSE, feature.getProperties().get("b"));
+		assertEquals(JSONObject.NULL, feature.getProperties().get("n"));
+	}
+
+	public void testCoordinatesParseExactly() throws Exception {
+		String[] values = { "-122.937467", "47.046962", "0.1", "179.99999999999", "-0.000001", "123456789.123456", "1.7976931348623157e308" };
+		for (String value : values) {
+			Feature feature = (Feature) read(String.format("{\"geometry\": {\"type\": \"Point\", \"coordinates\": [%s, 0]}}", value));
+			assertEquals(value, Double.parseDouble(value), feature.getGeometry().getPoint().getLon(), 0.0);
+		}
+	}
+
+	public void testEscapesAcrossBufferBoundary() throws Exception {
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < 10000; i++)
+			name.append('x');
+		String json = String.format("{\"id\": \"a\", \"properties\": {\"name\": \"%s\\\"\\u00e9\\n\"}}", name);
+		Feature feature = (Feature) new GeoJSONStreamHandler().parseResponse(new ByteArrayInputStream(json.getBytes("UTF-8")), null);
+		assertEquals(name + "\"\u00e9\n", feature.getProperties().get("name"));
+	}
+
+	public void testMalformedInput() {
+		try {
+			read("{\"id\": \"a\", \"geometry\": {\"type\": \"Point\", \"coordinates\": [1, 2}");
+			fail("expected a syntax error");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Malformed GeoJSON"));
+		}
+	}
+
+	public void testVirtualThreadsShareBuffers() throws Exception {
+		if (!VirtualThreads.isSupported())
+			return;
+		final String json = TestEnvironment.getJsonPolygonString();
+		final Feature expected = Feature.fromJSONString(json);
+		ExecutorService executor = VirtualThreads.newExecutor("GeoJSONReaderTest");
+		try {
+			List<Future<Feature>> results = new ArrayList<Future<Feature>>();
+			for (int i=0; i<200; i++) {
+				results.add(executor.submit(new Callable<Feature>() {
+					public Feature call() throws Exception {
+						GeoJSONReader reader = new GeoJSONReader(new StringReader(json));
+						try {
+							return (Feature) reader.readGeoJSON();
+						} finally {
+							reader.close();
+						}
+					}
+				}));
+			}
+			for (Future<Feature> result : results)
+				assertSameFeature(expected, result.get());
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(GeoJSONReader.pooled() >= 1);
+		assertTrue(GeoJSONReader.pooled() <= GeoJSONReader.MAX_POOLED);
+	}
+
+	private Object read(String json) throws IOException {
+		return new GeoJSONReader(new StringReader(json)).readGeoJSON();
+	}
+
+	private void assertSameFeature(String json) throws Exception {
+		assertSameFeature(Feature.fromJSONString(json), (Feature) read(json));
+	}
+
+	private void assertSameFeature(Feature expected, Feature actual) throws Exception {
+		assertEquals(expected.getSimpleGeoId(), actual.getSimpleGeoId());
+		assertEquals(expected.getType(), actual.getType());
+		assertEquals(expected.getProperties().keySet(), actual.getProperties().keySet());
+		for (String key : expected.getProperties().keySet()) {
+			Object value = expected.getProperties().get(key);
+			if (value instanceof JSONArray || value instanceof JSONObject)
+				assertEquals(value.toString(), actual.getProperties().get(key).toString());
+			else
+				assertEquals(value, actual.getProperties().get(key));
+		}
+		
+		if (expected.getGeometry().getPoint() != null) {
+			assertSamePoint(expected.getGeometry().getPoint(), actual.getGeometry().getPoint());
+		} else if (expected.getGeometry().getPolygon() != null) {
+			assertSamePolygon(expected.getGeometry().getPolygon(), actual.getGeometry().getPolygon());
+		} else {
+			MultiPolygon e = expected.getGeometry().getMultiPolygon();
+			MultiPolygon a = actual.getGeometry().getMultiPolygon();
+			assertEquals(e.getPolygons().size(), a.getPolygons().size());
+			for (int i = 0; i < e.getPolygons().size(); i++)
+				assertSamePolygon(e.getPolygons().get(i), a.getPolygons().get(i));
+		}
+	}
+
+	private void assertSamePolygon(Polygon expected, Polygon actual) {
+		assertEquals(expected.getRings().size(), actual.getRings().size());
+		for (int i = 0; i < expected.getRings().size(); i++) {
+			ArrayList<Point> e = expected.getRings().get(i);
+			ArrayList<Point> a = actual.getRings().get(i);
+			assertEquals(e.size(), a.size());
+			for (int j = 0; j < e.size(); j++)
+				assertSamePoint(e.get(j), a.get(j));
+		}
+	}
+
+	private void assertSamePoint(Point expected, Point actual) {
+		assertEquals(expected.getLat(), actual.getLat(), 0.0);
+		assertEquals(expected.getLon(), actual.getLon(), 0.0);
+	}
+
+}
@@ -0,0 +1,352 @@
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.util.EntityUtils;
+
+import com.simplegeo.client.concurrent.SimpleGeoFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class AsyncOAuthHttpClientTest extends TestCase {
+
+	private static final ResponseHandler<Object> TEXT = new ResponseHandler<Object>() {
+		public Object handleResponse(HttpResponse response) throws IOException {
+			return response.getStatusLine().getStatusCode() + " " + EntityUtils.toString(response.getEntity());
+		}
+	};
+
+	private HttpServer server;
+	private String base;
+	private CountDownLatch release;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+	private ExecutorService executor;
+	private OAuthHttpClient signer;
+	private BasicHttpParams params;
+	private AsyncOAuthHttpClient client;
+
+	public void setUp() throws Exception {
+		release = new CountDownLatch(1);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleExchange(exchange);
+			}
+		});
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort() + "/1.0/";
+
+		params = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, 5000);
+		HttpConnectionParams.setSoTimeout(params, 10000);
+		SchemeRegistry schemes = new SchemeRegistry();
+		schemes.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		schemes.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+		signer = new OAuthHttpClient(new ThreadSafeClientConnManager(params, schemes), params);
+		signer.setToken("key", "secret");
+		executor = Executors.newCachedThreadPool();
+		client = new AsyncOAuthHttpClient(signer, params, executor);
+	}
+
+	public void tearDown() {
+		release.countDown();
+		client.shutdown();
+		executor.shutdownNow();
+		server.stop(0);
+	}
+
+	public void testCallback() throws Exception {
+		SimpleGeoFuture<Object> future = newFuture();
+		client.execute(new HttpGet(base + "features/SG_1.json"), TEXT, future);
+		assertEquals("200 /1.0/features/SG_1.json", future.get(5, TimeUnit.SECONDS));
+	}
+
+	public void testPost() throws Exception {
+		HttpPost post = new HttpPost(base + "places");
+		post.setEntity(new StringEntity("{\"name\": \"Burger Master\"}", "UTF-8"));
+		SimpleGeoFuture<Object> future = newFuture();
+		client.execute(post, TEXT, future);
+		assertEquals("200 {\"name\": \"Burger Master\"}", future.get(5, TimeUnit.SECONDS));
+	}
+
+	public void testConnectionReused() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			SimpleGeoFuture<Object> future = newFuture();
+			client.execute(new HttpGet(base + "features/SG_" + i + ".json"), TEXT, future);
+			future.get(5, TimeUnit.SECONDS);
+			// The callback can run before the I/O thread has put the connection back
+			Thread.sleep(100);
+		}
+		assertEquals(3, requests.get());
+		assertEquals(1, clientPorts.size());
+	}
+
+	public void testExtraRequestsQueuedPerRoute() throws Exception {
+		client.setMaxConnectionsPerRoute(2);
+		SimpleGeoFuture<?>[] futures = new SimpleGeoFuture<?>[5];
+		for (int i = 0; i < futures.length; i++) {
+			SimpleGeoFuture<Object> future = newFuture();
+			client.execute(new HttpGet(base + "slow"), TEXT, future);
+			futures[i] = future;
+		}
+		awaitRequests(2);
+		Thread.sleep(200);
+		// The rest wait for one of the two connections rather than opening more
+		assertEquals(2, requests.get());
+		assertEquals(2, active.get());
+		for (SimpleGeoFuture<?> future : futures)
+			assertFalse(future.isDone());
+
+		release.countDown();
+		for (SimpleGeoFuture<?> future : futures)
+			assertEquals("200 /1.0/slow", future.get(5, TimeUnit.SECONDS));
+		assertEquals(5, requests.get());
+		assertEquals(2, clientPorts.size());
+	}
+
+	public void testAbortInFlight() throws Exception {
+		HttpGet get = new HttpGet(base + "slow");
+		SimpleGeoFuture<Object> future = newFuture();
+		client.execute(get, TEXT, future);
+		awaitRequests(1);
+		get.abort();
+		assertAborted(future);
+
+		// The route's connection slot is given back
+		client.setMaxConnectionsPerRoute(1);
+		SimpleGeoFuture<Object> next = newFuture();
+		client.execute(new HttpGet(base + "features/SG_1.json"), TEXT, next);
+		assertEquals("200 /1.0/features/SG_1.json", next.get(5, TimeUnit.SECONDS));
+	}
+
+	public void testAbortQueued() throws Exception {
+		client.setMaxConnectionsPerRoute(1);
+		SimpleGeoFuture<Object> first = newFuture();
+		client.execute(new HttpGet(base + "slow"), TEXT, first);
+		awaitRequests(1);
+		HttpGet queued = new HttpGet(base + "queued");
+		SimpleGeoFuture<Object> second = newFuture();
+		client.execute(queued, TEXT, second);
+		queued.abort();
+		assertAborted(second);
+
+		release.countDown();
+		assertEquals("200 /1.0/slow", first.get(5, TimeUnit.SECONDS));
+		// The connection is free again, and the aborted request was never sent on it
+		SimpleGeoFuture<Object> third = newFuture();
+		client.execute(new HttpGet(base + "features/SG_1.json"), TEXT, third);
+		assertEquals("200 /1.0/features/SG_1.json", third.get(5, TimeUnit.SECONDS));
+		assertEquals(2, requests.get());
+	}
+
+	public void testStaleConnectionRetried() throws Exception {
+		StaleServer stale = new StaleServer();
+		try {
+			String url = "http://127.0.0.1:" + stale.socket.getLocalPort() + "/1.0/features/SG_1.json";
+			SimpleGeoFuture<Object> first = newFuture();
+			client.execute(new HttpGet(url), TEXT, first);
+			assertEquals("200 ok", first.get(5, TimeUnit.SECONDS));
+			// The callback can run before the I/O thread has put the connection back
+			Thread.sleep(100);
+
+			// Sent on the kept-alive connection, which the server drops, then again on a new one
+			SimpleGeoFuture<Object> second = newFuture();
+			client.execute(new HttpGet(url), TEXT, second);
+			assertEquals("200 ok", second.get(5, TimeUnit.SECONDS));
+			assertEquals(2, stale.connections.get());
+			assertEquals(3, stale.requests.get());
+		} finally {
+			stale.close();
+		}
+	}
+
+	public void testStaleConnectionNotRetriedForPost() throws Exception {
+		StaleServer stale = new StaleServer();
+		try {
+			String url = "http://127.0.0.1:" + stale.socket.getLocalPort() + "/1.0/places";
+			SimpleGeoFuture<Object> first = newFuture();
+			client.execute(new HttpGet(url), TEXT, first);
+			assertEquals("200 ok", first.get(5, TimeUnit.SECONDS));
+			// The callback can run before the I/O thread has put the connection back
+			Thread.sleep(100);
+
+			// A POST may have been acted on, so it is not sent twice
+			HttpPost post = new HttpPost(url);
+			post.setEntity(new StringEntity("{}", "UTF-8"));
+			SimpleGeoFuture<Object> second = newFuture();
+			client.execute(post, TEXT, second);
+			try {
+				second.get(5, TimeUnit.SECONDS);
+				fail("the connection was dropped");
+			} catch (ExecutionException e) {
+				assertEquals("Connection closed", e.getCause().getMessage());
+			}
+			assertEquals(1, stale.connections.get());
+		} finally {
+			stale.close();
+		}
+	}
+
+	private SimpleGeoFuture<Object> newFuture() {
+		return new SimpleGeoFuture<Object>(executor);
+	}
+
+	private void awaitRequests(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (requests.get() < count) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	private static void assertAborted(SimpleGeoFuture<Object> future) throws Exception {
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("the request was aborted");
+		} catch (ExecutionException e) {
+			assertEquals("Request aborted", e.getCause().getMessage());
+		}
+	}
+
+	private void handleExchange(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		active.incrementAndGet();
+		clientPorts.add(exchange.getRemoteAddress().getPort());
+		try {
+			InputStream in = exchange.getRequestBody();
+			byte[] chunk = new byte[1024];
+			StringBuilder received = new StringBuilder();
+			for (int n; (n = in.read(chunk)) > 0; )
+				received.append(new String(chunk, 0, n, "UTF-8"));
+			String path = exchange.getRequestURI().getPath();
+			String body = received.length() > 0 ? received.toString() : path;
+			if (exchange.getRequestURI().getPath().endsWith("/slow")) {
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+				}
+			}
+			byte[] bytes = body.getBytes("UTF-8");
+			exchange.sendResponseHeaders(200, bytes.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(bytes);
+			out.close();
+		} finally {
+			active.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Answers the first request on its first connection with a kept-alive response, then
+	 * drops that connection when the next request arrives on it, as a server does once it
+	 * has timed out an idle connection.  Later connections are answered normally.
+	 */
+	private static class StaleServer extends Thread {
+		final ServerSocket socket = new ServerSocket(0);
+		final AtomicInteger connections = new AtomicInteger();
+		final AtomicInteger requests = new AtomicInteger();
+
+		StaleServer() throws IOException {
+			setDaemon(true);
+			start();
+		}
+
+		public void run() {
+			while (!socket.isClosed()) {
+				try {
+					final Socket conn = socket.accept();
+					final boolean first = connections.incrementAndGet() == 1;
+					new Thread() {
+						public void run() {
+							serve(conn, first);
+						}
+					}.start();
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		}
+
+		private void serve(Socket conn, boolean first) {
+			try {
+				InputStream in = conn.getInputStream();
+				int served = 0;
+				while (readRequest(in)) {
+					requests.incrementAndGet();
+					if (first && served == 1)
+						break;
+					OutputStream out = conn.getOutputStream();
+					out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\nContent-Type: text/plain\r\n\r\nok".getBytes("US-ASCII"));
+					out.flush();
+					served++;
+				}
+			} catch (IOException e) {
+				// dropped
+			} finally {
+				try {
+					conn.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		/**
+		 * @return false at the end of the stream, otherwise reads the head and any body
+		 */
+		private static boolean readRequest(InputStream in) throws IOException {
+			StringBuilder head = new StringBuilder();
+			int c;
+			while ((c = in.read()) >= 0) {
+				head.append((char) c);
+				if (head.length() >= 4 && head.substring(head.length() - 4).equals("\r\n\r\n"))
+					break;
+			}
+			if (c < 0)
+				return false;
+			String lower = head.toString().toLowerCase();
+			int at = lower.indexOf("content-length:");
+			if (at >= 0) {
+				int length = Integer.parseInt(lower.substring(at + 15, lower.indexOf('\r', at)).trim());
+				for (int i = 0; i < length; i++)
+					in.read();
+			}
+			return true;
+		}
+
+		void close() throws IOException {
+			socket.close();
+		}
+	}
+
+}
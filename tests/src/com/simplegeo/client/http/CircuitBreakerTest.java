@@ -0,0 +1,96 @@
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.simplegeo.client.http.exceptions.APIException;
+import com.simplegeo.client.http.exceptions.NoSuchEntityException;
+
+public class CircuitBreakerTest extends TestCase {
+
+	private CircuitBreakerConfig config;
+	private List<String> events;
+	private CircuitBreaker breaker;
+
+	public void setUp() {
+		config = new CircuitBreakerConfig();
+		config.setWindowMillis(1000);
+		config.setWindowBuckets(10);
+		config.setMinimumRequests(10);
+		config.setFailureRatePercent(50);
+		config.setSlowRequestRatePercent(50);
+		config.setOpenMillis(500);
+		config.setHalfOpenProbes(2);
+		events = new ArrayList<String>();
+		breaker = new CircuitBreaker("features", config, new CircuitBreakerListener() {
+			public void onStateChange(String endpoint, CircuitBreaker.State from, CircuitBreaker.State to) {
+				events.add(endpoint + " " + from + "->" + to);
+			}
+		});
+	}
+
+	public void testOpensOnFailureRate() {
+		for (int i=0; i<9; i++)
+			breaker.record(true, false, 100);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.record(false, false, 100);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire(200));
+		assertEquals(1, breaker.getRejectedCount());
+		assertEquals("[features CLOSED->OPEN]", events.toString());
+	}
+
+	public void testOpensOnSlowRate() {
+		for (int i=0; i<10; i++)
+			breaker.record(false, i % 2 == 0, 100);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	public void testWindowRolls() {
+		for (int i=0; i<9; i++)
+			breaker.record(true, false, 100);
+		// A second later the failures have left the window
+		for (int i=0; i<10; i++)
+			breaker.record(false, false, 1200);
+		breaker.record(true, false, 1200);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	public void testHalfOpenProbes() {
+		for (int i=0; i<10; i++)
+			breaker.record(true, false, 100);
+		assertFalse(breaker.tryAcquire(599));
+		assertTrue(breaker.tryAcquire(600));
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.tryAcquire(600));
+		assertFalse(breaker.tryAcquire(600));
+		breaker.release();
+		assertTrue(breaker.tryAcquire(600));
+		breaker.record(false, false, 650);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.record(false, false, 650);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals("[features CLOSED->OPEN, features OPEN->HALF_OPEN, features HALF_OPEN->CLOSED]", events.toString());
+	}
+
+	public void testFailedProbeReopens() {
+		for (int i=0; i<10; i++)
+			breaker.record(true, false, 100);
+		assertTrue(breaker.tryAcquire(600));
+		breaker.record(false, true, 700);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire(1100));
+		assertTrue(breaker.tryAcquire(1200));
+	}
+
+	public void testIsFailure() {
+		assertFalse(CircuitBreaker.isFailure(null));
+		assertTrue(CircuitBreaker.isFailure(new IOException()));
+		assertTrue(CircuitBreaker.isFailure(new APIException(502, "Bad Gateway")));
+		assertFalse(CircuitBreaker.isFailure(new NoSuchEntityException(404, "Not Found")));
+		assertFalse(CircuitBreaker.isFailure(new IllegalStateException()));
+	}
+}
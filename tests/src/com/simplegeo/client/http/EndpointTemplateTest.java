@@ -0,0 +1,68 @@
+package com.simplegeo.client.http;
+
+import java.util.Locale;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class EndpointTemplateTest extends TestCase {
+
+	private static final String SEARCH = "http://api.simplegeo.com:80/1.0/places/%f,%f.json?q=%s&category=%s&radius=%s";
+
+	public void testExpand() {
+		EndpointTemplate template = EndpointTemplate.compile(SEARCH);
+		assertEquals(5, template.getArgumentCount());
+		assertEquals(String.format(Locale.US, SEARCH, 37.759737, -122.433203, "coffee", "Restaurants", 0.5),
+				template.expand(37.759737, -122.433203, "coffee", "Restaurants", 0.5));
+		assertEquals("http://api.simplegeo.com:80/1.0/features/SG_1.json",
+				EndpointTemplate.compile("http://api.simplegeo.com:80/1.0/features/%s.json").expand("SG_1"));
+		assertEquals("endpoints.json", EndpointTemplate.compile("endpoints.json").expand());
+		assertEquals("100%/7", EndpointTemplate.compile("100%%/%d").expand(7));
+	}
+
+	public void testDropsEmptyParameters() {
+		EndpointTemplate template = EndpointTemplate.compile(SEARCH);
+		assertEquals("http://api.simplegeo.com:80/1.0/places/1.000000,2.000000.json?radius=0.5",
+				template.expand(1.0, 2.0, "", "", 0.5));
+		assertEquals("http://api.simplegeo.com:80/1.0/places/1.000000,2.000000.json?q=tea&radius=0.5",
+				template.expand(1.0, 2.0, "tea", "", 0.5));
+		assertEquals("http://api.simplegeo.com:80/1.0/places/1.000000,2.000000.json",
+				template.expand(1.0, 2.0, "", "", ""));
+		assertEquals("context/ip.json", EndpointTemplate.compile("context/ip.json?%s").expand(""));
+	}
+
+	public void testDecimalsMatchFormat() {
+		double[] values = { 0.0, -0.0, 1.0, -1.0, 0.5, 0.0000005, 0.0000015, 0.0000025, -0.0000005,
+				0.1234565, 37.7787625, -122.3893885, 999999.9999995, 1e6, 12345678.9, 1e20, -1e-9,
+				Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (double value : values)
+			assertDecimal(value);
+		
+		Random random = new Random(42);
+		for (int i=0; i<100000; i++) {
+			assertDecimal((random.nextDouble() - 0.5) * 360);
+			assertDecimal(Math.round(random.nextDouble() * 1e8) / 1e7);
+			assertDecimal((random.nextInt(2000000) + 0.5) / 1e6);
+		}
+	}
+
+	public void testRejectsBadTemplates() {
+		try {
+			EndpointTemplate.compile("places/%.2f.json");
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			EndpointTemplate.compile("places/%s.json").expand();
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	private static void assertDecimal(double value) {
+		StringBuilder out = new StringBuilder();
+		EndpointTemplate.appendDecimal(out, value);
+		assertEquals(Double.toString(value), String.format(Locale.US, "%f", value), out.toString());
+	}
+
+}
@@ -0,0 +1,53 @@
+package com.simplegeo.client.http;
+
+import junit.framework.TestCase;
+
+import com.simplegeo.client.metrics.EndpointMetrics;
+
+public class HedgePolicyTest extends TestCase {
+
+	public void testDelay() {
+		HedgePolicy policy = new HedgePolicy();
+		policy.setMinSamples(10);
+		policy.setMinDelayMillis(5);
+		
+		EndpointMetrics features = new EndpointMetrics("features");
+		assertEquals(-1, policy.getDelayMillis(features));
+		for (int i=0; i<100; i++)
+			features.getHistogram().record((i < 95 ? 20 : 900) * 1000000L);
+		long delay = policy.getDelayMillis(features);
+		assertTrue(delay >= 20 && delay <= 22);
+		
+		policy.setPercentile(99);
+		assertTrue(policy.getDelayMillis(features) >= 900);
+		
+		features.reset();
+		for (int i=0; i<100; i++)
+			features.getHistogram().record(1000000L);
+		assertEquals(5, policy.getDelayMillis(features));
+	}
+
+	public void testEndpoints() {
+		HedgePolicy policy = new HedgePolicy();
+		assertTrue(policy.getEndpoints().contains("features"));
+		assertTrue(policy.getEndpoints().contains("search"));
+		assertTrue(policy.getEndpoints().contains("context"));
+		policy.setEndpoints("nearbyAddress");
+		assertEquals(1, policy.getEndpoints().size());
+		assertEquals(-1, policy.getDelayMillis(new EndpointMetrics("features")));
+	}
+
+	public void testRejectsBadSettings() {
+		HedgePolicy policy = new HedgePolicy();
+		try {
+			policy.setPercentile(100);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			policy.setBudgetPercent(-1);
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
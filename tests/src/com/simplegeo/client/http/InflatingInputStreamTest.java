@@ -0,0 +1,123 @@
+package com.simplegeo.client.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+
+import com.simplegeo.client.test.TestEnvironment;
+
+public class InflatingInputStreamTest extends TestCase {
+
+	private byte[] body;
+
+	public void setUp() throws Exception {
+		StringBuilder polygons = new StringBuilder();
+		for (int i=0; i<50; i++)
+			polygons.append(TestEnvironment.getJsonPolygonString());
+		body = polygons.toString().getBytes("UTF-8");
+	}
+
+	public void testGzip() throws Exception {
+		assertEquals(new String(body, "UTF-8"), read(InflatingInputStream.gzip(new ByteArrayInputStream(gzip(body)))));
+	}
+
+	public void testGzipHeaderFields() throws Exception {
+		byte[] compressed = gzip(body);
+		ByteArrayOutputStream withFields = new ByteArrayOutputStream();
+		withFields.write(compressed, 0, 3);
+		// FEXTRA, FNAME and FCOMMENT
+		withFields.write(4 | 8 | 16);
+		withFields.write(compressed, 4, 6);
+		withFields.write(new byte[] {2, 0, 'x', 'y'});
+		withFields.write("name\0comment\0".getBytes("US-ASCII"));
+		withFields.write(compressed, 10, compressed.length - 10);
+		assertEquals(new String(body, "UTF-8"), read(InflatingInputStream.gzip(new ByteArrayInputStream(withFields.toByteArray()))));
+	}
+
+	public void testCorruptGzipTrailer() throws Exception {
+		byte[] compressed = gzip(body);
+		compressed[compressed.length - 5]++;
+		try {
+			read(InflatingInputStream.gzip(new ByteArrayInputStream(compressed)));
+			fail("corrupt trailer not detected");
+		} catch (ZipException e) {
+			assertEquals("corrupt gzip trailer", e.getMessage());
+		}
+	}
+
+	public void testNotGzip() throws Exception {
+		try {
+			InflatingInputStream.gzip(new ByteArrayInputStream(body));
+			fail("plain text taken for gzip");
+		} catch (ZipException e) {
+			assertEquals("not in gzip format", e.getMessage());
+		}
+	}
+
+	public void testDeflate() throws Exception {
+		assertEquals(new String(body, "UTF-8"), read(InflatingInputStream.deflate(new ByteArrayInputStream(deflate(body, false)))));
+		assertEquals(new String(body, "UTF-8"), read(InflatingInputStream.deflate(new ByteArrayInputStream(deflate(body, true)))));
+	}
+
+	public void testInflatersAreReused() throws Exception {
+		read(InflatingInputStream.gzip(new ByteArrayInputStream(gzip(body))));
+		int pooled = InflaterPool.size();
+		assertTrue(pooled > 0);
+		InputStream in = InflatingInputStream.gzip(new ByteArrayInputStream(gzip(body)));
+		assertEquals(pooled - 1, InflaterPool.size());
+		// Given back when closed before the end
+		in.read();
+		in.close();
+		assertEquals(pooled, InflaterPool.size());
+	}
+
+	public void testDecompressingEntity() throws Exception {
+		HttpEntity plain = new ByteArrayEntity(body);
+		assertSame(plain, DecompressingEntity.wrap(plain, null));
+		assertSame(plain, DecompressingEntity.wrap(plain, new BasicHeader("Content-Encoding", "identity")));
+		
+		HttpEntity entity = DecompressingEntity.wrap(new ByteArrayEntity(gzip(body)), new BasicHeader("Content-Encoding", "GZIP"));
+		assertEquals(-1, entity.getContentLength());
+		assertNull(entity.getContentEncoding());
+		assertEquals(new String(body, "UTF-8"), EntityUtils.toString(entity, "UTF-8"));
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(data);
+		gzip.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] deflate(byte[] data, boolean nowrap) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DeflaterOutputStream deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap));
+		deflate.write(data);
+		deflate.close();
+		return out.toByteArray();
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int n;
+		while ((n = in.read(buffer)) != -1)
+			out.write(buffer, 0, n);
+		in.close();
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+}
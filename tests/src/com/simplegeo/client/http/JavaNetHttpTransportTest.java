@@ -0,0 +1,231 @@
+package com.simplegeo.client.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.util.EntityUtils;
+
+import com.simplegeo.client.concurrent.SimpleGeoFuture;
+import com.simplegeo.client.handler.JSONHandler;
+import com.simplegeo.client.http.exceptions.APIException;
+import com.simplegeo.client.metrics.ClientMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class JavaNetHttpTransportTest extends TestCase {
+
+	private static final String BODY = "{\"name\": \"Burger Master\", \"city\": \"Olympia\"}";
+	private static final Executor DIRECT = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private HttpServer server;
+	private String base;
+	private CountDownLatch release;
+	private volatile HttpExchange last;
+	private volatile String lastBody;
+	private JavaNetHttpTransport transport;
+	private ClientMetrics metrics;
+
+	public void setUp() throws Exception {
+		release = new CountDownLatch(1);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleExchange(exchange);
+			}
+		});
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort() + "/1.0/";
+		
+		BasicHttpParams params = new BasicHttpParams();
+		SchemeRegistry schemes = new SchemeRegistry();
+		schemes.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		schemes.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+		OAuthHttpClient signer = new OAuthHttpClient(new ThreadSafeClientConnManager(params, schemes), params);
+		signer.setToken("key", "secret");
+		ConnectionPoolConfig config = new ConnectionPoolConfig();
+		config.setSoTimeoutMillis(10000);
+		transport = new JavaNetHttpTransport(signer, config);
+		metrics = new ClientMetrics("JavaNetHttpTransportTest", base, new HashMap<String, String>());
+	}
+
+	public void tearDown() {
+		release.countDown();
+		transport.shutdown();
+		server.stop(0);
+	}
+
+	public void testSyncGet() throws Exception {
+		HttpGet get = new HttpGet(base + "features/SG_1.json");
+		get.addHeader("X-Trace", "abc");
+		// Set by the JDK client itself, so left off rather than refused
+		get.addHeader("Connection", "keep-alive");
+		get.addHeader("Host", "elsewhere");
+		HashMap<?, ?> result = (HashMap<?, ?>) transport.execute(get, new SimpleGeoHandler(new JSONHandler()), metrics.newTimer(get, null));
+		assertEquals("Olympia", result.get("city"));
+		assertEquals("abc", last.getRequestHeaders().getFirst("X-Trace"));
+		assertTrue(last.getRequestHeaders().getFirst("Authorization").startsWith("OAuth oauth_consumer_key=\"key\""));
+		assertEquals("GET", last.getRequestMethod());
+	}
+
+	public void testPostBody() throws Exception {
+		HttpPost post = new HttpPost(base + "places");
+		StringEntity entity = new StringEntity(BODY, "UTF-8");
+		entity.setContentType("application/json");
+		post.setEntity(entity);
+		String response = (String) transport.execute(post, new ResponseHandler<Object>() {
+			public Object handleResponse(HttpResponse response) throws IOException {
+				return response.getStatusLine().getStatusCode() + " " + EntityUtils.toString(response.getEntity());
+			}
+		}, metrics.newTimer(post, null));
+		assertEquals("200 " + BODY, response);
+		assertEquals(BODY, lastBody);
+		assertEquals("application/json", last.getRequestHeaders().getFirst("Content-Type"));
+	}
+
+	public void testNotFound() throws Exception {
+		HttpGet get = new HttpGet(base + "features/missing.json");
+		try {
+			transport.execute(get, new SimpleGeoHandler(new JSONHandler()), metrics.newTimer(get, null));
+			fail("expected a 404");
+		} catch (APIException e) {
+			assertEquals(404, e.statusCode);
+			assertEquals("Not Found", e.getMessage());
+		}
+	}
+
+	public void testGzip() throws Exception {
+		HttpGet get = new HttpGet(base + "features/SG_1.json");
+		get.addHeader("Accept-Encoding", "gzip");
+		final String[] encoding = new String[1];
+		HashMap<?, ?> result = (HashMap<?, ?>) transport.execute(get, new ResponseHandler<Object>() {
+			public Object handleResponse(HttpResponse response) throws IOException {
+				encoding[0] = response.getEntity().getContentEncoding().getValue();
+				return new SimpleGeoHandler(new JSONHandler()).handleResponse(response);
+			}
+		}, metrics.newTimer(get, null));
+		assertEquals("gzip", encoding[0]);
+		assertEquals("Burger Master", result.get("name"));
+	}
+
+	public void testAsync() throws Exception {
+		HttpGet get = new HttpGet(base + "features/SG_1.json");
+		SimpleGeoFuture<Object> future = new SimpleGeoFuture<Object>(DIRECT);
+		transport.execute(get, new SimpleGeoHandler(new JSONHandler()), future, metrics.newTimer(get, null));
+		assertEquals("Olympia", ((HashMap<?, ?>) future.get(10, TimeUnit.SECONDS)).get("city"));
+		
+		get = new HttpGet(base + "features/missing.json");
+		future = new SimpleGeoFuture<Object>(DIRECT);
+		transport.execute(get, new SimpleGeoHandler(new JSONHandler()), future, metrics.newTimer(get, null));
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail("expected a 404");
+		} catch (ExecutionException e) {
+			assertEquals(404, ((APIException) e.getCause()).statusCode);
+		}
+	}
+
+	public void testAbortSync() throws Exception {
+		final HttpGet get = new HttpGet(base + "slow");
+		abortLater(get);
+		long start = System.nanoTime();
+		try {
+			transport.execute(get, new SimpleGeoHandler(new JSONHandler()), metrics.newTimer(get, null));
+			fail("expected the request to be aborted");
+		} catch (IOException e) {
+			assertEquals("Request aborted", e.getMessage());
+		}
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+	}
+
+	public void testAbortAsync() throws Exception {
+		HttpGet get = new HttpGet(base + "slow");
+		SimpleGeoFuture<Object> future = new SimpleGeoFuture<Object>(DIRECT);
+		transport.execute(get, new SimpleGeoHandler(new JSONHandler()), future, metrics.newTimer(get, null));
+		get.abort();
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("expected the request to be aborted");
+		} catch (ExecutionException e) {
+			assertEquals("Request aborted", e.getCause().getMessage());
+		}
+	}
+
+	private void abortLater(final HttpUriRequest request) {
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+				}
+				request.abort();
+			}
+		}.start();
+	}
+
+	private void handleExchange(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		byte[] chunk = new byte[1024];
+		for (int n; (n = exchange.getRequestBody().read(chunk)) > 0; )
+			received.write(chunk, 0, n);
+		lastBody = received.toString("UTF-8");
+		last = exchange;
+		
+		String path = exchange.getRequestURI().getPath();
+		if (path.endsWith("/slow")) {
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+			}
+		}
+		int status = path.contains("missing") ? 404 : 200;
+		byte[] body = (status == 200 ? (lastBody.length() > 0 ? lastBody : BODY) : "{}").getBytes("UTF-8");
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			gzip.write(body);
+			gzip.close();
+			body = compressed.toByteArray();
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+		}
+		exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+		try {
+			exchange.sendResponseHeaders(status, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		} catch (IOException e) {
+			// The client gave up on the request
+		}
+	}
+
+}
@@ -0,0 +1,205 @@
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+
+import com.simplegeo.client.http.exceptions.APIException;
+
+public class LoadBalancerTest extends TestCase {
+
+	private static final long MS = 1000000L;
+
+	private LoadBalancerConfig config;
+	private LoadBalancer balancer;
+	private Upstream a, b, c, d;
+
+	public void setUp() {
+		config = new LoadBalancerConfig();
+		config.addHost("http://a.simplegeo.com");
+		config.addHost("http://b.simplegeo.com:8080");
+		config.addHost("https://c.simplegeo.com");
+		config.addHost("https://d.simplegeo.com");
+		config.setConsecutiveFailures(3);
+		config.setBaseEjectionMillis(1000);
+		config.setMaxEjectionMillis(2500);
+		config.setMaxEjectionPercent(50);
+		balancer = new LoadBalancer(config, null);
+		List<Upstream> upstreams = balancer.getUpstreams();
+		a = upstreams.get(0);
+		b = upstreams.get(1);
+		c = upstreams.get(2);
+		d = upstreams.get(3);
+	}
+
+	public void testRewrite() {
+		URI uri = URI.create("http://api.simplegeo.com:80/1.0/places/37.5,-122.3.json?q=coffee%20shop");
+		assertEquals("http://b.simplegeo.com:8080/1.0/places/37.5,-122.3.json?q=coffee%20shop", b.rewrite(uri).toString());
+		assertEquals("https://c.simplegeo.com/1.0/places/37.5,-122.3.json?q=coffee%20shop", c.rewrite(uri).toString());
+	}
+
+	public void testPrefersFasterHost() {
+		List<Upstream> slow = Arrays.asList(b, c, d);
+		record(a, 5, 0);
+		for (Upstream upstream : slow)
+			record(upstream, 200, 0);
+		int fast = 0;
+		for (int i=0; i<1000; i++) {
+			Upstream chosen = balancer.choose(Collections.<Upstream>emptyList(), 0);
+			if (chosen == a)
+				fast++;
+			chosen.abandon();
+		}
+		// Picked whenever it is one of the two hosts compared, i.e. half the time
+		assertTrue(String.valueOf(fast), fast > 400 && fast < 600);
+	}
+
+	public void testAvoidsBusyHost() {
+		List<Upstream> upstreams = balancer.getUpstreams();
+		for (Upstream upstream : upstreams)
+			record(upstream, 10, 0);
+		for (int i=0; i<20; i++)
+			a.begin();
+		for (int i=0; i<1000; i++) {
+			Upstream chosen = balancer.choose(Collections.<Upstream>emptyList(), 0);
+			assertNotSame(a, chosen);
+			chosen.abandon();
+		}
+		assertEquals(20, a.getInFlight());
+	}
+
+	public void testPeakLatencyDecays() {
+		record(a, 10, 0);
+		record(a, 100, 1);
+		// A slow request counts in full at once
+		assertEquals(100.0, a.getLatencyMillis(), 0.001);
+		// and fast ones wear it down over the decay time
+		record(a, 10, 10000);
+		assertTrue(String.valueOf(a.getLatencyMillis()), a.getLatencyMillis() < 50);
+	}
+
+	public void testIdleHostTriedAgain() {
+		List<Upstream> exclude = Arrays.asList(c, d);
+		record(a, 200, 0);
+		record(b, 100, 0);
+		assertSame(b, choose(exclude, 0));
+		// b keeps answering in 100 ms while a's one slow answer fades
+		record(b, 100, 20000);
+		assertSame(a, choose(exclude, 20000));
+	}
+
+	public void testEjectsAfterConsecutiveFailures() {
+		long now = 0;
+		complete(a, true, now);
+		complete(a, true, now);
+		complete(a, false, now);
+		complete(a, true, now);
+		complete(a, true, now);
+		assertFalse(a.isEjected(now));
+		complete(a, true, now);
+		assertTrue(a.isEjected(now));
+		assertEquals(1, a.getEjectionCount());
+		for (int i=0; i<100; i++) {
+			Upstream chosen = balancer.choose(Collections.<Upstream>emptyList(), now);
+			assertNotSame(a, chosen);
+			chosen.abandon();
+		}
+		
+		// Back after the base ejection time, and out for longer the next time
+		now += 1000 * MS;
+		assertFalse(a.isEjected(now));
+		for (int i=0; i<3; i++)
+			complete(a, true, now);
+		assertTrue(a.isEjected(now + 1999 * MS));
+		assertFalse(a.isEjected(now + 2000 * MS));
+	}
+
+	public void testEjectionCapped() {
+		long now = 0;
+		for (Upstream upstream : balancer.getUpstreams()) {
+			for (int i=0; i<3; i++)
+				complete(upstream, true, now);
+		}
+		int ejected = 0;
+		for (Upstream upstream : balancer.getUpstreams()) {
+			if (upstream.isEjected(now))
+				ejected++;
+		}
+		assertEquals(2, ejected);
+	}
+
+	public void testFallsBackWhenNoneAvailable() {
+		for (Upstream upstream : balancer.getUpstreams()) {
+			upstream.checked(false, 1);
+			assertFalse(upstream.isHealthy());
+		}
+		assertNotNull(balancer.choose(Collections.<Upstream>emptyList(), 0));
+		assertNull(balancer.choose(balancer.getUpstreams(), 0));
+		
+		a.checked(true, 1);
+		List<Upstream> tried = new ArrayList<Upstream>();
+		assertSame(a, balancer.choose(tried, 0));
+		tried.add(a);
+		assertNotSame(a, balancer.choose(tried, 0));
+	}
+
+	public void testHealthThreshold() {
+		a.checked(false, 2);
+		assertTrue(a.isHealthy());
+		a.checked(false, 2);
+		assertFalse(a.isHealthy());
+		a.checked(true, 2);
+		assertTrue(a.isHealthy());
+	}
+
+	public void testHostFailure() {
+		assertTrue(LoadBalancer.isHostFailure(new ConnectException()));
+		assertTrue(LoadBalancer.isHostFailure(new APIException(503, "Service Unavailable")));
+		assertFalse(LoadBalancer.isHostFailure(new APIException(404, "Not Found")));
+		assertFalse(LoadBalancer.isHostFailure(new IllegalStateException()));
+		assertFalse(LoadBalancer.isHostFailure(null));
+	}
+
+	public void testFailOver() {
+		HttpGet get = new HttpGet("http://a.simplegeo.com/1.0/features/SG_abc.json");
+		HttpPost post = new HttpPost("http://a.simplegeo.com/1.0/records/layer.json");
+		assertTrue(LoadBalancer.canFailOver(get, new IOException("Connection reset")));
+		assertTrue(LoadBalancer.canFailOver(new HttpDelete(get.getURI()), new IOException("Connection reset")));
+		assertTrue(LoadBalancer.canFailOver(post, new ConnectException()));
+		assertFalse(LoadBalancer.canFailOver(post, new IOException("Connection reset")));
+		assertFalse(LoadBalancer.canFailOver(get, new APIException(503, "Service Unavailable")));
+		
+		config.setMaxFailovers(2);
+		assertTrue(balancer.shouldFailOver(get, new ConnectException(), 2));
+		assertFalse(balancer.shouldFailOver(get, new ConnectException(), 3));
+		get.abort();
+		assertFalse(balancer.shouldFailOver(get, new ConnectException(), 1));
+	}
+
+	private Upstream choose(List<Upstream> exclude, long nowMillis) {
+		Upstream chosen = balancer.choose(exclude, nowMillis * MS);
+		chosen.abandon();
+		return chosen;
+	}
+
+	private void complete(Upstream upstream, boolean failed, long now) {
+		upstream.begin();
+		balancer.complete(upstream, MS, failed, now);
+	}
+
+	private void record(Upstream upstream, long millis, long nowMillis) {
+		upstream.begin();
+		upstream.complete(millis * MS, false, nowMillis * MS);
+	}
+
+}
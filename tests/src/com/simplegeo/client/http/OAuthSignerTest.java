@@ -0,0 +1,135 @@
+package com.simplegeo.client.http;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import oauth.signpost.commonshttp.CommonsHttpOAuthConsumer;
+
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import com.simplegeo.client.concurrent.VirtualThreads;
+
+public class OAuthSignerTest extends TestCase {
+
+	private static final String KEY = "consumer key";
+	private static final String SECRET = "s3cr3t&+/\u00e9\ud83d\ude00";
+	private static final String TIMESTAMP = "1300000000";
+	private static final String NONCE = "-8237423426711346227";
+
+	private static final String[] URIS = {
+		"http://api.simplegeo.com:80/1.0/features/SG_4CsrE4oNy1gl8hCLdwu0F0_47.046962_-122.937467%401290636830.json",
+		"http://api.simplegeo.com:80/1.0/places/37.759737,-122.433203.json?q=coffee+shop&category=Caf%C3%A9s&radius=0.5",
+		"http://api.simplegeo.com/1.0/context/address.json?address=41+Decatur+St%2C+San+Francisco%2C+CA",
+		"https://API.SimpleGeo.com:443/1.0/places/ip.json?radius=10&q=*~!",
+		"http://localhost:4567/1.0/places?z=1&a=2&a=1&b",
+		"http://localhost:4567",
+	};
+
+	public void testMatchesSignpost() throws Exception {
+		OAuthSigner signer = new OAuthSigner(KEY, SECRET);
+		CommonsHttpOAuthConsumer consumer = new FixedConsumer(KEY, SECRET);
+		for (String uri : URIS) {
+			for (HttpUriRequest request : new HttpUriRequest[] { new HttpGet(uri), new HttpPost(uri), new HttpDelete(uri) }) {
+				consumer.sign(request);
+				assertEquals(request.getMethod() + " " + uri, request.getFirstHeader("Authorization").getValue(),
+						signer.getAuthorizationHeader(request.getMethod(), new URI(uri), TIMESTAMP, NONCE));
+			}
+		}
+	}
+
+	public void testSign() throws Exception {
+		HttpGet request = new HttpGet(URIS[1]);
+		request.setHeader("Authorization", "stale");
+		new OAuthSigner(KEY, SECRET).sign(request);
+		assertEquals(1, request.getHeaders("Authorization").length);
+		String header = request.getFirstHeader("Authorization").getValue();
+		assertTrue(header, header.startsWith("OAuth oauth_consumer_key=\"consumer%20key\""));
+	}
+
+	public void testConcurrentSigning() throws Exception {
+		final OAuthSigner signer = new OAuthSigner(KEY, SECRET);
+		final String[] expected = new String[URIS.length];
+		for (int i=0; i<URIS.length; i++)
+			expected[i] = signer.getAuthorizationHeader("GET", new URI(URIS[i]), TIMESTAMP, NONCE);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int t=0; t<8; t++) {
+				final int offset = t;
+				results.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						for (int i=0; i<2000; i++) {
+							int n = (i + offset) % URIS.length;
+							if (!expected[n].equals(signer.getAuthorizationHeader("GET", new URI(URIS[n]), TIMESTAMP, NONCE)))
+								return false;
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results)
+				assertTrue(result.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testVirtualThreadsSharePool() throws Exception {
+		if (!VirtualThreads.isSupported())
+			return;
+		final OAuthSigner signer = new OAuthSigner(KEY, SECRET);
+		final String expected = signer.getAuthorizationHeader("GET", new URI(URIS[1]), TIMESTAMP, NONCE);
+		assertEquals(0, signer.pooled());
+		
+		ExecutorService executor = VirtualThreads.newExecutor("OAuthSignerTest");
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i=0; i<500; i++) {
+				results.add(executor.submit(new Callable<String>() {
+					public String call() throws Exception {
+						assertTrue(VirtualThreads.isVirtual());
+						return signer.getAuthorizationHeader("GET", new URI(URIS[1]), TIMESTAMP, NONCE);
+					}
+				}));
+			}
+			for (Future<String> result : results)
+				assertEquals(expected, result.get());
+		} finally {
+			executor.shutdown();
+		}
+		// Each virtual thread gave its Mac back rather than dropping it
+		assertTrue(signer.pooled() >= 1);
+		assertTrue(signer.pooled() <= OAuthSigner.MAX_POOLED);
+	}
+
+	private static class FixedConsumer extends CommonsHttpOAuthConsumer {
+
+		private static final long serialVersionUID = 1L;
+
+		FixedConsumer(String key, String secret) {
+			super(key, secret);
+		}
+
+		@Override
+		protected String generateTimestamp() {
+			return TIMESTAMP;
+		}
+
+		@Override
+		protected String generateNonce() {
+			return NONCE;
+		}
+
+	}
+
+}
@@ -0,0 +1,209 @@
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.params.BasicHttpParams;
+
+public class PooledConnectionManagerTest extends TestCase {
+
+	private ServerSocket server;
+	private final List<Socket> accepted = new CopyOnWriteArrayList<Socket>();
+	private final AtomicInteger closedByClient = new AtomicInteger();
+	private ConnectionPoolConfig config;
+	private BasicHttpParams params;
+	private PooledConnectionManager manager;
+	private HttpRoute route;
+
+	public void setUp() throws Exception {
+		server = new ServerSocket(0);
+		Thread acceptor = new Thread() {
+			public void run() {
+				accept();
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+		route = new HttpRoute(new HttpHost("127.0.0.1", server.getLocalPort()));
+		config = new ConnectionPoolConfig();
+		config.setConnectTimeoutMillis(5000);
+	}
+
+	public void tearDown() throws Exception {
+		if (manager != null)
+			manager.shutdown();
+		server.close();
+		for (Socket socket : accepted)
+			socket.close();
+	}
+
+	public void testIdleConnectionsReaped() throws Exception {
+		config.setMaxIdleMillis(200);
+		config.setReaperIntervalMillis(50);
+		start();
+		assertEquals(2, manager.prewarm(route, 2, params));
+		awaitAccepted(2);
+		assertEquals(2, manager.getConnectionsInPool());
+
+		Thread.sleep(100);
+		assertEquals(0, closedByClient.get());
+		long deadline = System.currentTimeMillis() + 5000;
+		while (closedByClient.get() < 2 && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertEquals(2, closedByClient.get());
+		assertEquals(0, manager.getConnectionsInPool());
+	}
+
+	public void testIdleConnectionsKeptWithoutReaper() throws Exception {
+		config.setMaxIdleMillis(50);
+		config.setReaperIntervalMillis(0);
+		start();
+		assertEquals(1, manager.prewarm(route, 1, params));
+		Thread.sleep(300);
+		assertEquals(0, closedByClient.get());
+		assertEquals(1, manager.getConnectionsInPool());
+	}
+
+	public void testStaleConnectionCheckedBeforeReuse() throws Exception {
+		config.setValidateAfterInactivityMillis(0);
+		start();
+		assertEquals(1, manager.prewarm(route, 1, params));
+		awaitAccepted(1);
+		// The server gives up on the idle connection
+		reset(accepted.get(0));
+		Thread.sleep(100);
+
+		ManagedClientConnection conn = lease(route);
+		assertFalse(conn.isOpen());
+		manager.releaseConnection(conn, 0, TimeUnit.MILLISECONDS);
+	}
+
+	public void testRecentlyUsedConnectionNotChecked() throws Exception {
+		config.setValidateAfterInactivityMillis(60000);
+		start();
+		assertEquals(1, manager.prewarm(route, 1, params));
+		awaitAccepted(1);
+		reset(accepted.get(0));
+		Thread.sleep(100);
+
+		// Idle for less than validateAfterInactivityMillis, so handed out unchecked
+		ManagedClientConnection conn = lease(route);
+		assertTrue(conn.isOpen());
+		assertTrue(conn.isStale());
+		conn.close();
+		manager.releaseConnection(conn, 0, TimeUnit.MILLISECONDS);
+	}
+
+	public void testPerRouteAndTotalLimits() throws Exception {
+		config.setMaxConnectionsPerRoute(2);
+		config.setMaxTotalConnections(3);
+		config.setConnectionRequestTimeoutMillis(200);
+		start();
+		HttpRoute other = new HttpRoute(new HttpHost("localhost", server.getLocalPort()));
+
+		ManagedClientConnection first = lease(route);
+		ManagedClientConnection second = lease(route);
+		assertTimesOut(route);
+		ManagedClientConnection third = lease(other);
+		// The route has room, but the pool as a whole does not
+		assertTimesOut(other);
+		assertEquals(3, manager.getConnectionsInPool());
+
+		manager.releaseConnection(first, 0, TimeUnit.MILLISECONDS);
+		ManagedClientConnection fourth = lease(other);
+		assertEquals(3, manager.getConnectionsInPool());
+		for (ManagedClientConnection conn : new ManagedClientConnection[] { second, third, fourth })
+			manager.releaseConnection(conn, 0, TimeUnit.MILLISECONDS);
+	}
+
+	public void testPrewarmLimitedByPool() throws Exception {
+		config.setMaxConnectionsPerRoute(2);
+		config.setMaxTotalConnections(3);
+		start();
+		assertEquals(2, manager.prewarm(route, 10, params));
+		awaitAccepted(2);
+		Thread.sleep(100);
+		assertEquals(2, accepted.size());
+		assertEquals(2, manager.getConnectionsInPool(route));
+
+		// Already open, so pre-warming again opens nothing
+		assertEquals(0, manager.prewarm(route, 2, params));
+		assertEquals(2, accepted.size());
+	}
+
+	private void start() {
+		params = new BasicHttpParams();
+		config.applyTo(params);
+		SchemeRegistry schemes = new SchemeRegistry();
+		schemes.register(new Scheme("http", PooledConnectionManager.createSocketFactory(config), 80));
+		manager = new PooledConnectionManager(params, schemes, config);
+	}
+
+	private ManagedClientConnection lease(HttpRoute route) throws Exception {
+		return manager.requestConnection(route, null).getConnection(1000, TimeUnit.MILLISECONDS);
+	}
+
+	private void assertTimesOut(HttpRoute route) throws Exception {
+		try {
+			manager.requestConnection(route, null).getConnection(200, TimeUnit.MILLISECONDS);
+			fail("the pool is full");
+		} catch (ConnectionPoolTimeoutException e) {
+			// expected
+		}
+	}
+
+	private void awaitAccepted(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (accepted.size() < count) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Resets rather than closes, since with wire logging on the client's stale check only
+	 * notices a connection that fails, not one that was shut down cleanly.
+	 */
+	private static void reset(Socket socket) throws IOException {
+		socket.setSoLinger(true, 0);
+		socket.close();
+	}
+
+	private void accept() {
+		while (!server.isClosed()) {
+			try {
+				final Socket socket = server.accept();
+				accepted.add(socket);
+				Thread reader = new Thread() {
+					public void run() {
+						try {
+							// Nothing is sent on a pre-warmed connection, so this ends when it closes
+							if (socket.getInputStream().read() < 0)
+								closedByClient.incrementAndGet();
+						} catch (IOException e) {
+							// closed by the test
+						}
+					}
+				};
+				reader.setDaemon(true);
+				reader.start();
+			} catch (IOException e) {
+				// closed
+			}
+		}
+	}
+
+}
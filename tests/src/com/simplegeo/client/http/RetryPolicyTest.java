@@ -0,0 +1,77 @@
+package com.simplegeo.client.http;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import org.apache.http.message.BasicHeader;
+
+import junit.framework.TestCase;
+
+import com.simplegeo.client.http.exceptions.APIException;
+import com.simplegeo.client.http.exceptions.NoSuchEntityException;
+
+public class RetryPolicyTest extends TestCase {
+
+	public void testRetryableMethods() {
+		RetryPolicy policy = new RetryPolicy();
+		assertTrue(policy.isRetryable("GET"));
+		assertTrue(policy.isRetryable("DELETE"));
+		assertFalse(policy.isRetryable("POST"));
+		assertFalse(policy.isRetryable("PUT"));
+		policy.setRetryNonIdempotent(true);
+		assertTrue(policy.isRetryable("POST"));
+	}
+
+	public void testRetryableFailures() {
+		RetryPolicy policy = new RetryPolicy();
+		assertTrue(policy.isRetryable(new IOException("reset")));
+		assertTrue(policy.isRetryable(new SocketTimeoutException()));
+		assertTrue(policy.isRetryable(new APIException(503, "Service Unavailable")));
+		assertTrue(policy.isRetryable(new APIException(429, "Too Many Requests")));
+		assertFalse(policy.isRetryable(new APIException(400, "Bad Request")));
+		assertFalse(policy.isRetryable(new NoSuchEntityException(404, "Not Found")));
+		assertFalse(policy.isRetryable(new IllegalStateException()));
+	}
+
+	public void testBackoffStaysInBounds() {
+		RetryPolicy policy = new RetryPolicy();
+		policy.setBaseDelayMillis(100);
+		policy.setMaxDelayMillis(1000);
+		long previous = 0;
+		for (int i=0; i<10000; i++) {
+			long delay = policy.nextBackoffMillis(previous);
+			assertTrue(delay >= 100);
+			assertTrue(delay <= Math.min(1000, Math.max(100, previous) * 3));
+			previous = delay;
+		}
+	}
+
+	public void testNextDelay() {
+		RetryPolicy policy = new RetryPolicy();
+		policy.setMaxAttempts(3);
+		policy.setMaxElapsedMillis(10000);
+		IOException failure = new IOException("reset");
+		assertTrue(policy.nextDelayMillis(1, 0, 0, failure) >= 100);
+		assertTrue(policy.nextDelayMillis(2, 100, 0, failure) >= 100);
+		assertEquals(-1, policy.nextDelayMillis(3, 100, 0, failure));
+		assertEquals(-1, policy.nextDelayMillis(1, 0, 9950, failure));
+		assertEquals(-1, policy.nextDelayMillis(1, 0, 0, new APIException(400, "Bad Request")));
+	}
+
+	public void testRetryAfter() {
+		RetryPolicy policy = new RetryPolicy();
+		APIException busy = new APIException(503, "Service Unavailable");
+		busy.setRetryAfterMillis(7000);
+		assertEquals(7000, policy.nextDelayMillis(1, 0, 0, busy));
+		assertEquals(-1, policy.nextDelayMillis(1, 0, 5000, busy));
+		policy.setRespectRetryAfter(false);
+		assertTrue(policy.nextDelayMillis(1, 0, 0, busy) < 7000);
+	}
+
+	public void testParseRetryAfter() {
+		assertEquals(-1, SimpleGeoHandler.parseRetryAfter(null));
+		assertEquals(120000, SimpleGeoHandler.parseRetryAfter(new BasicHeader("Retry-After", "120")));
+		assertEquals(0, SimpleGeoHandler.parseRetryAfter(new BasicHeader("Retry-After", "Wed, 21 Oct 2015 07:28:00 GMT")));
+		assertEquals(-1, SimpleGeoHandler.parseRetryAfter(new BasicHeader("Retry-After", "soon")));
+	}
+}
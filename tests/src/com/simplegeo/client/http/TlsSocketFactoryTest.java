@@ -0,0 +1,166 @@
+package com.simplegeo.client.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+import com.simplegeo.client.metrics.HandshakeMetrics;
+
+public class TlsSocketFactoryTest extends TestCase {
+
+	private static final char[] PASSWORD = "changeit".toCharArray();
+
+	private File keystore;
+	private SSLServerSocket server;
+	private Thread acceptor;
+	private SSLContext clientContext;
+	private HandshakeMetrics metrics;
+	private HttpParams params;
+
+	public void setUp() throws Exception {
+		// A throwaway certificate naming only localhost, so 127.0.0.1 does not match it
+		keystore = File.createTempFile("tls-test", ".jks");
+		keystore.delete();
+		Process keytool = new ProcessBuilder(
+				new File(System.getProperty("java.home"), "bin/keytool").getPath(),
+				"-genkeypair", "-keystore", keystore.getPath(), "-storetype", "JKS",
+				"-storepass", "changeit", "-keypass", "changeit", "-alias", "server",
+				"-keyalg", "EC", "-dname", "CN=localhost", "-ext", "san=dns:localhost",
+				"-validity", "1").redirectErrorStream(true).start();
+		drain(keytool.getInputStream());
+		assertEquals(0, keytool.waitFor());
+
+		KeyStore keys = KeyStore.getInstance("JKS");
+		FileInputStream in = new FileInputStream(keystore);
+		try {
+			keys.load(in, PASSWORD);
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keys, PASSWORD);
+		SSLContext serverContext = SSLContext.getInstance("TLS");
+		serverContext.init(keyManagers.getKeyManagers(), null, null);
+
+		TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagers.init(keys);
+		clientContext = SSLContext.getInstance("TLS");
+		clientContext.init(null, trustManagers.getTrustManagers(), null);
+
+		server = (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0);
+		acceptor = new Thread(new Runnable() {
+			public void run() {
+				accept();
+			}
+		}, "TlsSocketFactoryTest");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		metrics = new HandshakeMetrics();
+		params = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, 5000);
+		HttpConnectionParams.setSoTimeout(params, 5000);
+	}
+
+	public void tearDown() throws Exception {
+		server.close();
+		acceptor.join(5000);
+		keystore.delete();
+	}
+
+	public void testFullThenResumed() throws Exception {
+		TlsSocketFactory factory = newFactory(true);
+		connect(factory, "localhost");
+		assertEquals(1, metrics.getHandshakeCount());
+		assertEquals(0, metrics.getResumedCount());
+
+		// Creation times are in milliseconds, so the resumed session must be from an earlier one
+		Thread.sleep(20);
+		connect(factory, "localhost");
+		assertEquals(2, metrics.getHandshakeCount());
+		assertEquals(1, metrics.getResumedCount());
+		assertEquals(0, metrics.getFailureCount());
+	}
+
+	public void testNameMismatchFails() throws Exception {
+		TlsSocketFactory factory = newFactory(true);
+		try {
+			connect(factory, "127.0.0.1");
+			fail("the certificate does not name 127.0.0.1");
+		} catch (SSLException e) {
+			// expected
+		}
+		assertEquals(1, metrics.getFailureCount());
+		assertEquals(0, metrics.getHandshakeCount());
+	}
+
+	public void testNameMismatchWithoutVerification() throws Exception {
+		TlsSocketFactory factory = newFactory(false);
+		connect(factory, "127.0.0.1");
+		assertEquals(1, metrics.getHandshakeCount());
+		assertEquals(0, metrics.getFailureCount());
+	}
+
+	private TlsSocketFactory newFactory(boolean hostnameVerification) {
+		ConnectionPoolConfig config = new ConnectionPoolConfig();
+		config.getTlsConfig().setSSLContext(clientContext);
+		config.getTlsConfig().setHostnameVerification(hostnameVerification);
+		return new TlsSocketFactory(config, metrics);
+	}
+
+	private void connect(TlsSocketFactory factory, String host) throws IOException {
+		Socket socket = factory.connectSocket(factory.createSocket(), host, server.getLocalPort(), null, 0, params);
+		try {
+			assertTrue(factory.isSecure(socket));
+			// Reading takes in the session ticket a TLS 1.3 server sends after the handshake
+			assertEquals('!', socket.getInputStream().read());
+		} finally {
+			socket.close();
+		}
+	}
+
+	private void accept() {
+		while (!server.isClosed()) {
+			try {
+				SSLSocket socket = (SSLSocket) server.accept();
+				try {
+					socket.setSoTimeout(5000);
+					socket.startHandshake();
+					socket.getOutputStream().write('!');
+					socket.getOutputStream().flush();
+					socket.getInputStream().read();
+				} catch (IOException e) {
+					// a refused handshake, the client sees the failure
+				} finally {
+					socket.close();
+				}
+			} catch (IOException e) {
+				// closed
+			}
+		}
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[1024];
+		while (in.read(buffer) >= 0)
+			;
+		in.close();
+	}
+
+}
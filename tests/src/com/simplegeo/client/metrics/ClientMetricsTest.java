@@ -0,0 +1,154 @@
+package com.simplegeo.client.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+
+public class ClientMetricsTest extends TestCase {
+
+	private static final String PREFIX = "http://api.simplegeo.com:80/1.0/";
+
+	private ClientMetrics metrics;
+
+	public void setUp() {
+		Map<String, String> endpoints = new HashMap<String, String>();
+		endpoints.put("features", "features/%s.json");
+		endpoints.put("search", "places/%f,%f.json%s");
+		endpoints.put("address", "places/address.json?%s");
+		metrics = new ClientMetrics("TestClient", PREFIX, endpoints);
+	}
+
+	public void testResolve() {
+		assertEquals("features", metrics.resolve(PREFIX + "features/SG_abc_1.json"));
+		assertEquals("search", metrics.resolve(PREFIX + "places/37.5,-122.3.json?q=coffee"));
+		assertEquals("address", metrics.resolve(PREFIX + "places/address.json?address=41+Decatur"));
+		assertEquals(ClientMetrics.OTHER, metrics.resolve(PREFIX + "records/layer.json"));
+		assertEquals(ClientMetrics.OTHER, metrics.resolve("http://elsewhere/features/SG_abc_1.json"));
+	}
+
+	public void testResolveOnAnotherHost() {
+		assertEquals("features", metrics.resolve("https://api2.simplegeo.com:8443/1.0/features/SG_abc_1.json"));
+		assertEquals("search", metrics.resolve("http://10.0.0.2/1.0/places/37.5,-122.3.json?q=coffee"));
+		assertEquals(ClientMetrics.OTHER, metrics.resolve("http://10.0.0.2/2.0/features/SG_abc_1.json"));
+		assertEquals(ClientMetrics.OTHER, metrics.resolve("features/SG_abc_1.json"));
+	}
+
+	public void testRecord() {
+		RequestTimer timer = metrics.newTimer(PREFIX + "features/SG_abc_1.json");
+		timer.mark(Phase.SIGN);
+		timer.setStatus(200);
+		timer.addBytesReceived(42);
+		timer.mark(Phase.FIRST_BYTE);
+		timer.finish(null);
+		timer.finish(new IOException());
+		
+		timer = metrics.newTimer(PREFIX + "features/SG_missing.json");
+		timer.setStatus(404);
+		timer.finish(null);
+		
+		metrics.newTimer(PREFIX + "features/SG_abc_1.json").finish(new IOException());
+		
+		EndpointMetrics features = metrics.getEndpoints().get("features");
+		assertEquals(3, features.getRequestCount());
+		assertEquals(2, features.getErrorCount());
+		assertEquals(Long.valueOf(1), features.getErrorCountsByStatus().get(404));
+		assertEquals(Long.valueOf(1), features.getErrorCountsByStatus().get(0));
+		assertEquals(42, features.getBytesReceived());
+		assertEquals(3, features.getLatency().getCount());
+		assertEquals(1, features.getLatency(Phase.FIRST_BYTE).getCount());
+		assertEquals(0, features.getLatency(Phase.PARSE).getCount());
+		
+		metrics.reset();
+		assertEquals(0, features.getRequestCount());
+		assertEquals(0, features.getErrorCountsByStatus().size());
+	}
+
+	public void testHedgeBudget() {
+		EndpointMetrics features = metrics.getEndpoint("features");
+		assertFalse(features.tryAcquireHedge(0.1));
+		for (int i=0; i<25; i++)
+			metrics.newTimer(PREFIX + "features/SG_abc_1.json").finish(null);
+		assertTrue(features.tryAcquireHedge(0.1));
+		assertTrue(features.tryAcquireHedge(0.1));
+		assertFalse(features.tryAcquireHedge(0.1));
+		assertEquals(2, features.getHedgeCount());
+		
+		metrics.reset();
+		assertEquals(0, features.getHedgeCount());
+	}
+
+	public void testListener() {
+		RecordingListener listener = new RecordingListener();
+		RequestTimer timer = metrics.newTimer(new HttpGet(PREFIX + "features/SG_abc_1.json"), listener);
+		timer.signed();
+		timer.headersReceived();
+		timer.finish(new IOException());
+		timer.finish(new IOException());
+		assertEquals("[signed features, headers features, failed features IOException]", listener.events.toString());
+		
+		listener.events.clear();
+		timer = metrics.newTimer(new HttpGet(PREFIX + "places/address.json?address=x"), listener);
+		timer.parsed();
+		timer.finish(null);
+		assertEquals("[parsed address]", listener.events.toString());
+		
+		timer = metrics.newTimer(PREFIX + "features/SG_abc_1.json");
+		timer.signed();
+		timer.finish(new IOException());
+		assertEquals(2, metrics.getEndpoint("features").getErrorCount());
+	}
+
+	private static class RecordingListener implements RequestListener {
+
+		private final List<String> events = new ArrayList<String>();
+
+		public void onEnqueued(String endpoint, HttpUriRequest request, long nanos) {
+			events.add("enqueued " + endpoint);
+		}
+
+		public void onDequeued(String endpoint, HttpUriRequest request, long nanos) {
+			events.add("dequeued " + endpoint);
+		}
+
+		public void onSigned(String endpoint, HttpUriRequest request, long nanos) {
+			events.add("signed " + endpoint);
+		}
+
+		public void onConnectionLeased(String endpoint, HttpUriRequest request, long nanos) {
+			events.add("leased " + endpoint);
+		}
+
+		public void onRequestSent(String endpoint, HttpUriRequest request, long nanos) {
+			events.add("sent " + endpoint);
+		}
+
+		public void onHeadersReceived(String endpoint, HttpUriRequest request, long nanos) {
+			events.add("headers " + endpoint);
+		}
+
+		public void onBodyConsumed(String endpoint, HttpUriRequest request, long nanos) {
+			events.add("body " + endpoint);
+		}
+
+		public void onParsed(String endpoint, HttpUriRequest request, long nanos) {
+			events.add("parsed " + endpoint);
+		}
+
+		public void onCallbackDelivered(String endpoint, HttpUriRequest request, long nanos) {
+			events.add("delivered " + endpoint);
+		}
+
+		public void onFailed(String endpoint, HttpUriRequest request, long nanos, Throwable failure) {
+			events.add("failed " + endpoint + " " + failure.getClass().getSimpleName());
+		}
+
+	}
+
+}
@@ -0,0 +1,41 @@
+package com.simplegeo.client.metrics;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+	public void testBuckets() {
+		for (long micros = 0; micros < 100000; micros++) {
+			int index = LatencyHistogram.indexOf(micros);
+			assertTrue(micros <= LatencyHistogram.highestValueIn(index));
+			if (index > 0)
+				assertTrue(micros > LatencyHistogram.highestValueIn(index - 1));
+		}
+	}
+
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		
+		for (int i=1; i<=1000; i++)
+			histogram.record(i * 1000000L);
+		assertEquals(1000, histogram.getCount());
+		assertNear(500000, histogram.getValueAtPercentile(50));
+		assertNear(990000, histogram.getValueAtPercentile(99));
+		assertEquals(1000000, histogram.getValueAtPercentile(100));
+		
+		LatencySnapshot snapshot = histogram.getSnapshot();
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500.5, snapshot.getMean(), 0.001);
+		assertEquals(1000.0, snapshot.getMax(), 0.001);
+		
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0.0, histogram.getSnapshot().getMax(), 0.0);
+	}
+
+	private static void assertNear(long expected, long actual) {
+		assertTrue(actual + " is not within 1/16 of " + expected, Math.abs(actual - expected) <= expected / 16);
+	}
+
+}
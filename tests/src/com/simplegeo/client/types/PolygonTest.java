@@ -1,6 +1,11 @@
 package com.simplegeo.client.types;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
 
@@ -67,6 +72,78 @@ public class PolygonTest extends TestCase {
 		}
 	}
 	
+	public void testPackedCoordinates() {
+		try {
+			JSONArray jsonArray = new JSONArray("[[[-122.4,37.7],[-122.5,37.8],[-122.6,37.7],[-122.4,37.7]]]");
+			Polygon polygon = Polygon.fromJSONArray(jsonArray);
+			double[][] coordinates = polygon.getCoordinates();
+			this.assertEquals(1, coordinates.length);
+			this.assertEquals(8, coordinates[0].length);
+			this.assertEquals(-122.5, coordinates[0][2]);
+			this.assertEquals(37.8, coordinates[0][3]);
+			this.assertEquals(jsonArray.toString(), polygon.toJSONArray().toString());
+			
+			Point point = polygon.getRings().get(0).get(1);
+			this.assertEquals(-122.5, point.getLon());
+			this.assertEquals(37.8, point.getLat());
+			point.setLat(38.0);
+			this.assertEquals(38.0, polygon.toJSONArray().getJSONArray(0).getJSONArray(1).getDouble(1));
+			this.assertEquals(38.0, polygon.getCoordinates()[0][3]);
+		} catch (JSONException e) {
+			this.fail(e.getMessage());
+		}
+	}
+	
+	public void testConcurrentGetRings() throws Exception {
+		final int threads = 8;
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		for (int round=0; round<100 && failure.get() == null; round++) {
+			// One polygon read by many threads, as the response cache hands it out.  Big
+			// rings keep the list view being built while the other threads arrive.
+			double[][] coordinates = new double[2][20000];
+			for (double[] ring : coordinates) {
+				for (int i=0; i<ring.length; i+=2) {
+					ring[i] = -122.5;
+					ring[i+1] = 37.8;
+				}
+			}
+			final Polygon polygon = new Polygon(coordinates);
+			final CyclicBarrier start = new CyclicBarrier(threads);
+			final Set<ArrayList<ArrayList<Point>>> views = Collections.newSetFromMap(
+					new IdentityHashMap<ArrayList<ArrayList<Point>>, Boolean>());
+			Thread[] readers = new Thread[threads];
+			for (int i=0; i<threads; i++) {
+				final boolean serialize = i % 2 == 0;
+				readers[i] = new Thread() {
+					public void run() {
+						try {
+							start.await();
+							if (serialize)
+								assertEquals(2, polygon.toJSONArray().length());
+							ArrayList<ArrayList<Point>> rings = polygon.getRings();
+							synchronized (views) {
+								views.add(rings);
+							}
+							assertEquals(2, rings.size());
+							assertEquals(10000, rings.get(1).size());
+							assertEquals(-122.5, rings.get(1).get(9999).getLon());
+						} catch (Throwable t) {
+							failure.compareAndSet(null, t);
+						}
+					}
+				};
+				readers[i].start();
+			}
+			for (Thread reader : readers)
+				reader.join();
+			// Every thread must get the one view, or edits made through the others are lost
+			assertEquals(1, views.size());
+			assertSame(polygon.getRings(), views.iterator().next());
+		}
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+	}
+	
 	private ArrayList<Point> generateRing() {
 		ArrayList<Point> ring = new ArrayList<Point>();
 		for (int i=0; i<5; i++) {